@@ -0,0 +1,167 @@
+package com.gg.maiotproject;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.util.Log;
+import android.widget.AbsListView;
+import android.widget.ArrayAdapter;
+import android.widget.Button;
+import android.widget.ListView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import com.gg.maiotproject.interfaces.IRideHistory;
+import com.gg.maiotproject.storage.RideStore;
+import com.gg.maiotproject.storage.RideSummary;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+// The ride history: the stored rides, newest or longest first, read a page at a time from the store's index.
+// Pages are requested as the list is scrolled towards its end; tapping a ride opens it in SummaryActivity.
+// Started with a location ("throughLatitude", "throughLongitude", "throughMeters"), it lists the rides that went
+// through there instead, newest first.
+public class HistoryActivity extends AppCompatActivity {
+    private final String TAG = "HistoryActivity";
+
+    private static final int PAGE_SIZE = 50;
+    private static final int PREFETCH_ROWS = 10; // Next page requested when this close to the end of the list
+
+    private RideStore rideStore;
+    private TextView tvHistoryCount;
+    private Button bttSort;
+    private ArrayAdapter<String> adapter;
+    private final List<RideSummary> rides = new ArrayList<>();
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.getDefault());
+
+    private boolean byDistance = false;
+    private boolean through = false;
+    private double throughLatitude, throughLongitude, throughMeters;
+    private int generation = 0;     // Pages of an older listing (before a sort change) are dropped
+    private boolean loading = false;
+    private int totalCount = -1;    // Unknown until the first page arrives
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_history);
+
+        tvHistoryCount = findViewById(R.id.tvHistoryCount);
+        bttSort = findViewById(R.id.bttSort);
+        ListView lvRides = findViewById(R.id.lvRides);
+
+        rideStore = new RideStore(this);
+        Intent started = getIntent();
+        if (started != null && started.hasExtra("throughLatitude")) {
+            through = true;
+            throughLatitude = started.getDoubleExtra("throughLatitude", 0.0);
+            throughLongitude = started.getDoubleExtra("throughLongitude", 0.0);
+            throughMeters = started.getDoubleExtra("throughMeters", 30.0);
+            bttSort.setVisibility(Button.GONE);
+        }
+        adapter = new ArrayAdapter<>(this, android.R.layout.simple_list_item_1, new ArrayList<>());
+        lvRides.setAdapter(adapter);
+
+        lvRides.setOnItemClickListener((parent, view, position, id) -> {
+            if (position < rides.size()) {
+                Intent intent = new Intent(HistoryActivity.this, SummaryActivity.class);
+                intent.putExtra("rideId", rides.get(position).getRideId());
+                startActivity(intent);
+            }
+        });
+
+        lvRides.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                if (firstVisibleItem + visibleItemCount >= totalItemCount - PREFETCH_ROWS) {
+                    loadNextPage();
+                }
+            }
+        });
+
+        bttSort.setOnClickListener(v -> {
+            byDistance = !byDistance;
+            restart();
+        });
+    }
+
+    // Listed again on every return, a ride may have been added since
+    @Override
+    protected void onResume() {
+        super.onResume();
+        restart();
+    }
+
+    private void restart() {
+        generation++;
+        loading = false;
+        totalCount = -1;
+        rides.clear();
+        adapter.clear();
+        bttSort.setText(byDistance ? "Longest first" : "Newest first");
+        loadNextPage();
+    }
+
+    private void loadNextPage() {
+        if (loading || (totalCount >= 0 && rides.size() >= totalCount)) {
+            return;
+        }
+        loading = true;
+        final int requested = generation;
+        IRideHistory listener = new IRideHistory() {
+            @Override
+            public void onRidesListed(List<RideSummary> page, int offset, int count) {
+                runOnUiThread(() -> showPage(requested, page, offset, count));
+            }
+
+            @Override
+            public void onRideHistoryFailed(Exception e) {
+                Log.e(TAG, "Unable to list the rides", e);
+                runOnUiThread(() -> {
+                    if (requested == generation) {
+                        loading = false;
+                        Toast.makeText(getApplicationContext(), "Unable to load the rides", Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
+        };
+        if (through) {
+            rideStore.listThrough(throughLatitude, throughLongitude, throughMeters, rides.size(), PAGE_SIZE, listener);
+        } else if (byDistance) {
+            rideStore.listByDistance(rides.size(), PAGE_SIZE, listener);
+        } else {
+            rideStore.listByDate(rides.size(), PAGE_SIZE, listener);
+        }
+    }
+
+    private void showPage(int requested, List<RideSummary> page, int offset, int count) {
+        if (requested != generation || offset != rides.size()) {
+            return;
+        }
+        loading = false;
+        totalCount = count;
+        rides.addAll(page);
+        List<String> rows = new ArrayList<>(page.size());
+        for (RideSummary ride : page) {
+            rows.add(format(ride));
+        }
+        adapter.addAll(rows);
+        tvHistoryCount.setText((count == 1 ? "1 ride" : count + " rides") + (through ? " through here" : ""));
+    }
+
+    private String format(RideSummary ride) {
+        long minutes = ride.getMovingTimeMs() / 60000;
+        return String.format(Locale.getDefault(), "%s\n%.2f km - %d:%02d h - Max %.0f km/h - L %.0f° R %.0f°",
+                dateFormat.format(new Date(ride.getRideId())), ride.getDistanceMeters() / 1000.0,
+                minutes / 60, minutes % 60, ride.getMaxSpeedKmh(), ride.getMaxPositiveRoll(), Math.abs(ride.getMaxNegativeRoll()));
+    }
+}
@@ -1,9 +1,16 @@
 package com.gg.maiotproject;
 
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
 import android.view.WindowManager;
 import android.widget.Button;
 import android.widget.TextView;
@@ -18,37 +25,79 @@ import androidx.core.content.ContextCompat;
 
 import org.osmdroid.views.MapView;
 
-import com.gg.maiotproject.interfaces.IMyAccelerometer;
+import com.gg.maiotproject.bus.SensorEventBus;
+import com.gg.maiotproject.bus.WaitStrategy;
+import com.gg.maiotproject.fusion.ArchiveReanalysis;
+import com.gg.maiotproject.fusion.CornerDetector;
+import com.gg.maiotproject.fusion.FusionEngineType;
+import com.gg.maiotproject.fusion.LeanTimelineWriter;
+import com.gg.maiotproject.interfaces.IImuSource;
 import com.gg.maiotproject.interfaces.IMyComplementaryFilter;
-import com.gg.maiotproject.interfaces.IMyGyroscope;
-import com.gg.maiotproject.sensors.MyAccelerometer;
+import com.gg.maiotproject.metrics.PipelineMetrics;
+import com.gg.maiotproject.replay.ReplayImuSource;
+import com.gg.maiotproject.replay.ReplayLocationSource;
+import com.gg.maiotproject.sensors.ImuRecorder;
+import com.gg.maiotproject.sensors.LiveImuSource;
 import com.gg.maiotproject.sensors.MyComplementaryFilter;
-import com.gg.maiotproject.sensors.MyGyroscope;
+import com.gg.maiotproject.sensors.SensorBatchingMode;
 import com.gg.maiotproject.map.MapHandler;
+import com.gg.maiotproject.map.RideStats;
+import com.gg.maiotproject.map.TrackOverlay;
+import com.gg.maiotproject.storage.RideFile;
+import com.gg.maiotproject.storage.RideStore;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
-public class MainActivity extends AppCompatActivity implements IMyAccelerometer, IMyGyroscope, IMyComplementaryFilter {
+public class MainActivity extends AppCompatActivity implements IMyComplementaryFilter {
+
+    private final String TAG = "MainActivity";
 
     private Button bttStartStop = null;
+    private Button bttHistory = null;
     private Button bttCalibrate = null;
     private TextView tvAngle = null;
+    private TextView tvStats = null;
+    private TextView tvMetrics = null;
     private static final int LOCATION_PERMISSION_REQUEST_CODE = 1;
     private MapHandler mapHandler;
+    private RideStore rideStore;
+    private long currentRideId = -1; // Id of the ride being recorded, kept across pause/resume
+    private CornerDetector cornerDetector = null; // Corners of that ride, fed on the fusion thread
 
-    private MyAccelerometer myAccelerometer = null;
-    private MyGyroscope myGyroscope = null;
+    private IImuSource imuSource = null; // The phone's sensors, or a recorded ride replayed (see onCreate)
     private MyComplementaryFilter myComplementaryFilter = null;
+    private PipelineMetrics pipelineMetrics = new PipelineMetrics();
+    private long lastMetricsFrameNs = 0;
+
+    // Sensor events are received on this thread and published on the event bus, which fans them out
+    // to the fusion and recorder consumers, each on its own thread
+    private HandlerThread sensorThread = null;
+    private Handler sensorHandler = null;
+    private static final int SENSOR_BUS_CAPACITY = 4096; // ~5 s of both sensors at their fastest rate
+    private SensorEventBus sensorEventBus = new SensorEventBus(SENSOR_BUS_CAPACITY);
+    private SensorEventBus.Subscription fusionSubscription = null; // The filter is only ever touched from its thread
+    private SensorEventBus.Subscription recorderSubscription = null;
+    // In battery saver mode samples are batched in the sensor hub FIFO, the source restores their time order
+    private SensorBatchingMode sensorBatchingMode = SensorBatchingMode.LIVE;
+    private SharedPreferences preferences = null;
+    private FusionEngineType fusionEngineType = FusionEngineType.COMPLEMENTARY;
 
     private boolean isTracking = false;
     private boolean isCalibrated = false;
     private boolean isCalibrating = false;
 
-    private double maxPositiveRoll = 0;
-    private double maxNegativeRoll = 0;
+    private int shownAngleDeci = Integer.MIN_VALUE; // Last angle shown in tvAngle, in tenths of a degree
+
+    // Last values shown in tvStats, so the text is only rebuilt when the displayed value changes
+    private long shownDistanceDm = -1;
+    private long shownSpeedDkmh = -1;
 
     private Handler calibrationHandler = new Handler();
-    private static final int CALIBRATION_DURATION_MS = 3000; // 3 seconds for calibration
+    // Calibration ends as soon as the filter is confident (usually well under a second on a still device);
+    // it gives up when the device never stayed still that long
+    private static final int CALIBRATION_TIMEOUT_MS = 10000;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -60,17 +109,52 @@ public class MainActivity extends AppCompatActivity implements IMyAccelerometer,
 
         // Initialize UI elements
         bttStartStop = findViewById(R.id.bttStartStop);
+        bttHistory = findViewById(R.id.bttHistory);
         bttCalibrate = findViewById(R.id.bttCalibrate);
         tvAngle = findViewById(R.id.tvAngle);
-
-        // Sensors and filter instantiation
-        myAccelerometer = new MyAccelerometer(this);
-        myGyroscope = new MyGyroscope(this);
+        tvStats = findViewById(R.id.tvStats);
+        tvMetrics = findViewById(R.id.tvMetrics);
+
+        // Sensors and filter instantiation, sensor events are delivered on a dedicated high priority thread
+        sensorThread = new HandlerThread("SensorCapture", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        sensorThread.start();
+        sensorHandler = new Handler(sensorThread.getLooper());
+        LiveImuSource liveImuSource = new LiveImuSource(this, sensorHandler, sensorEventBus);
+        imuSource = liveImuSource;
         myComplementaryFilter = new MyComplementaryFilter(this);
+        // Fusion must see every sample: it blocks the capture thread rather than losing events when behind
+        fusionSubscription = sensorEventBus.subscribe("fusion", myComplementaryFilter,
+                SensorEventBus.OverflowPolicy.BLOCK, new WaitStrategy.Blocking(), Thread.MAX_PRIORITY);
+        liveImuSource.setMetrics(pipelineMetrics);
+        preferences = getSharedPreferences("settings", MODE_PRIVATE);
+        sensorBatchingMode = SensorBatchingMode.values()[preferences.getInt("sensorBatchingMode", SensorBatchingMode.LIVE.ordinal())];
+        myComplementaryFilter.setMetrics(pipelineMetrics.getFilterUpdate());
+        fusionEngineType = FusionEngineType.values()[preferences.getInt("fusionEngine", FusionEngineType.COMPLEMENTARY.ordinal())];
+        final FusionEngineType initialEngineType = fusionEngineType;
+        fusionSubscription.post(() -> myComplementaryFilter.setEngineType(initialEngineType));
 
         // Map initialization
         MapView mapView = findViewById(R.id.map);
         mapHandler = new MapHandler(this, mapView);
+        rideStore = new RideStore(this);
+        // The ride's segments are indexed as they are recorded, "rides through here" then includes it right after saving
+        mapHandler.setTrackListener((pointIndex, lat1, lon1, lat2, lon2) ->
+                rideStore.indexSegment(currentRideId, pointIndex, lat1, lon1, lat2, lon2));
+
+        // Development: replays a stored ride in place of the sensors and the GPS, recorded as a new ride, e.g.
+        // adb shell am start -n com.gg.maiotproject/.MainActivity --el replayRideId <id> --ef replaySpeed 4
+        final long replayRideId = getIntent().getLongExtra("replayRideId", -1);
+        if (replayRideId != -1) {
+            float replaySpeed = getIntent().getFloatExtra("replaySpeed", 1.0f);
+            imuSource = new ReplayImuSource(ArchiveReanalysis.recording(rideStore.getImuDirectory(replayRideId)),
+                    sensorEventBus, replaySpeed);
+            final Handler mainHandler = new Handler(Looper.getMainLooper());
+            mapHandler.setLocationSource(new ReplayLocationSource(
+                    () -> RideFile.open(rideStore.getRideFile(replayRideId)).getTrack(), replayRideId,
+                    mainHandler::post, replaySpeed));
+            Toast.makeText(getApplicationContext(), "Replaying ride " + replayRideId + " at " + replaySpeed + "x",
+                    Toast.LENGTH_LONG).show();
+        }
 
         // Handles runtime location permission
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
@@ -79,6 +163,41 @@ public class MainActivity extends AppCompatActivity implements IMyAccelerometer,
             mapHandler.displayCurrentLocation(); // Display current location on app start
         }
 
+        // Long press on the angle toggles the sensor pipeline debug overlay
+        tvAngle.setOnLongClickListener((v) -> {
+            tvMetrics.setVisibility(tvMetrics.getVisibility() == TextView.VISIBLE ? TextView.GONE : TextView.VISIBLE);
+            return true;
+        });
+
+        // Long press on the debug overlay switches between live and battery saver sensor delivery
+        tvMetrics.setOnLongClickListener((v) -> {
+            if (isTracking || isCalibrating) {
+                Toast.makeText(getApplicationContext(), "Stop the journey to change sensor mode", Toast.LENGTH_SHORT).show();
+                return true;
+            }
+            sensorBatchingMode = sensorBatchingMode == SensorBatchingMode.LIVE ? SensorBatchingMode.BATTERY_SAVER : SensorBatchingMode.LIVE;
+            preferences.edit().putInt("sensorBatchingMode", sensorBatchingMode.ordinal()).apply();
+            Toast.makeText(getApplicationContext(), "Sensor mode: " + sensorBatchingMode, Toast.LENGTH_SHORT).show();
+            return true;
+        });
+
+        // Long press on the ride stats switches between the complementary and the quaternion fusion engine
+        tvStats.setOnLongClickListener((v) -> {
+            if (isTracking || isCalibrating) {
+                Toast.makeText(getApplicationContext(), "Stop the journey to change fusion engine", Toast.LENGTH_SHORT).show();
+                return true;
+            }
+            fusionEngineType = fusionEngineType == FusionEngineType.COMPLEMENTARY ? FusionEngineType.QUATERNION : FusionEngineType.COMPLEMENTARY;
+            preferences.edit().putInt("fusionEngine", fusionEngineType.ordinal()).apply();
+            final FusionEngineType engineType = fusionEngineType;
+            fusionSubscription.post(() -> myComplementaryFilter.setEngineType(engineType)); // Keeps the calibration
+            Toast.makeText(getApplicationContext(), "Fusion engine: " + fusionEngineType, Toast.LENGTH_SHORT).show();
+            return true;
+        });
+
+        // Stored rides, only reachable while not tracking
+        bttHistory.setOnClickListener((v) -> startActivity(new Intent(MainActivity.this, HistoryActivity.class)));
+
         bttCalibrate.setOnClickListener((v) -> {
             if (!isCalibrating) {
                 startCalibrationSequence();
@@ -93,90 +212,226 @@ public class MainActivity extends AppCompatActivity implements IMyAccelerometer,
 
             if (!isTracking) {
                 // Start tracking
-                myAccelerometer.start();
-                myGyroscope.start();
-                myComplementaryFilter.setTrackingMode(true); // Tell filter to process and send angles
+                if (currentRideId == -1) {
+                    currentRideId = RideStore.newRideId();
+                    cornerDetector = new CornerDetector(mapHandler::getLatestPosition); // Apexes at the latest fix
+                }
+                // Tell filter to process and send angles, record the lean timeline and the corners (goes on after a pause)
+                final long startedRideId = currentRideId;
+                final File leanFile = rideStore.getLeanFile(currentRideId);
+                final CornerDetector detector = cornerDetector;
+                fusionSubscription.post(() -> myComplementaryFilter.startRide(startedRideId, leanFile, detector));
+                startImuRecording();
+                startSensors();
                 mapHandler.startTracking();
                 Toast.makeText(getApplicationContext(), "Journey Started", Toast.LENGTH_SHORT).show();
                 bttStartStop.setText("Stop");
+                bttHistory.setVisibility(Button.GONE);
                 isTracking = true;
                 tvAngle.setVisibility(TextView.VISIBLE);
+                tvStats.setVisibility(TextView.VISIBLE);
+                Choreographer.getInstance().postFrameCallback(uiFrameCallback);
             } else {
-                // Stop tracking
-                myAccelerometer.stop();
-                myGyroscope.stop();
-                myComplementaryFilter.setTrackingMode(false); // Tell filter to stop sending angles
+                // Stop tracking, the filter and the recorder still get the samples left in the sensor FIFO
+                final SensorEventBus.Subscription recorder = recorderSubscription;
+                recorderSubscription = null;
+                final CompletableFuture<LeanTimelineWriter> leanTimeline = new CompletableFuture<>();
+                final CompletableFuture<CornerDetector> corners = new CompletableFuture<>();
+                final CompletableFuture<Void> imuRecorded = new CompletableFuture<>();
+                final CompletableFuture<double[]> maxRolls = new CompletableFuture<>();
+                final long rideId = currentRideId;
+                stopSensors(() -> {
+                    // Targets this ride: Start may already have started the next one when the FIFO flush ends
+                    fusionSubscription.post(() -> {
+                        MyComplementaryFilter.RideEnd end = myComplementaryFilter.stopRide(rideId);
+                        leanTimeline.complete(end.leanTimeline); // Finished by the store
+                        corners.complete(end.cornerDetector);
+                        maxRolls.complete(new double[]{end.maxPositiveRoll, Math.abs(end.maxNegativeRoll)});
+                    });
+                    stopImuRecording(recorder, imuRecorded);
+                });
                 mapHandler.stopTracking();
+                Choreographer.getInstance().removeFrameCallback(uiFrameCallback);
                 bttStartStop.setText("Start");
+                bttHistory.setVisibility(Button.VISIBLE);
                 isTracking = false;
 
-                // Start SummaryActivity
+                // Hand the finished ride to the store (written in the background) and start a fresh one
+                rideStore.save(rideId, mapHandler.getTrack(), mapHandler.getRideStats(), maxRolls);
+                rideStore.finishLeanTimeline(rideId, leanTimeline);
+                rideStore.saveCorners(rideId, corners);
+                rideStore.archiveImu(rideId, imuRecorded, imuSource.getResolution(ImuRecorder.SENSOR_ACCELEROMETER),
+                        imuSource.getResolution(ImuRecorder.SENSOR_GYROSCOPE));
+                mapHandler.newRide();
+                currentRideId = -1;
+                cornerDetector = null;
+
+                // Start SummaryActivity, it loads the ride from the store by id
                 Intent intent = new Intent(MainActivity.this, SummaryActivity.class);
-                intent.putParcelableArrayListExtra("geoPoints", new ArrayList<>(mapHandler.getGeoPoints()));
-                intent.putExtra("distance", mapHandler.getDistance());
-                intent.putExtra("maxPositiveAngle", maxPositiveRoll);
-                intent.putExtra("maxNegativeAngle", maxNegativeRoll);
+                intent.putExtra("rideId", rideId);
                 startActivity(intent);
             }
         });
     }
 
+    // Records the raw IMU streams of the current ride next to its ride file.
+    // The recorder is a bus consumer: it is opened, fed and closed on its own thread, and a recorder that
+    // falls behind loses its oldest samples instead of delaying the capture thread
+    private void startImuRecording() {
+        final ImuRecorder recorder = new ImuRecorder(rideStore.getImuDirectory(currentRideId));
+        recorderSubscription = sensorEventBus.subscribe("recorder", recorder,
+                SensorEventBus.OverflowPolicy.DROP_OLDEST, new WaitStrategy.Sleeping(2_000_000L), Thread.NORM_PRIORITY);
+        recorderSubscription.post(() -> {
+            try {
+                recorder.open();
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to start IMU recording", e); // Samples are ignored by a recorder that is not open
+            }
+        });
+    }
+
+    private void stopImuRecording(SensorEventBus.Subscription subscription) {
+        stopImuRecording(subscription, null);
+    }
+
+    // closed, if any, is completed once the recorder has been closed (the store then compresses the recording)
+    private void stopImuRecording(SensorEventBus.Subscription subscription, final CompletableFuture<Void> closed) {
+        if (subscription != null) {
+            final ImuRecorder recorder = (ImuRecorder) subscription.getConsumer();
+            subscription.post(() -> { // Runs after the last queued sample
+                recorder.close();
+                if (closed != null) {
+                    closed.complete(null);
+                }
+            });
+            subscription.close();
+        } else if (closed != null) {
+            closed.complete(null);
+        }
+    }
+
+    private void startSensors() {
+        imuSource.setBatchingMode(sensorBatchingMode);
+        imuSource.start();
+    }
+
+    // Stops the IMU source. afterLastSample runs on its publishing thread (the capture thread for the sensors) once
+    // every sample measured before this call has been published on the bus
+    private void stopSensors(final Runnable afterLastSample) {
+        imuSource.stop(afterLastSample);
+    }
+
+    // Updates the live readouts once per display frame while tracking, from the latest published values
+    private final Choreographer.FrameCallback uiFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!isTracking) {
+                return;
+            }
+            // Written by the filter on the fusion thread, converted to degrees here once per frame
+            float filteredRoll = myComplementaryFilter.getPublishedRoll().get();
+            updateAngle(filteredRoll);
+            mapHandler.onBankAngle(filteredRoll);
+            updateLiveStats(mapHandler.getRideStats());
+            // The overlay is refreshed once per second, snapshots are the only allocating metrics call
+            if (tvMetrics.getVisibility() == TextView.VISIBLE && frameTimeNanos - lastMetricsFrameNs >= 1_000_000_000L) {
+                lastMetricsFrameNs = frameTimeNanos;
+                String busMetrics = "engine " + fusionEngineType + "\n" + fusionSubscription;
+                TrackOverlay trackOverlay = mapHandler.getTrackOverlay();
+                busMetrics += "\npath " + trackOverlay.getDrawnVertexCount() + " vertices, draw p99 "
+                        + trackOverlay.getDrawTime().getPercentileNs(99) / 1000 + " us";
+                busMetrics += "\n" + mapHandler.getRenderScheduler() + "\n" + mapHandler.getTileCache()
+                        + "\n" + mapHandler.getLocationPolicy().summary(SystemClock.elapsedRealtime());
+                if (recorderSubscription != null) {
+                    busMetrics += "\n" + recorderSubscription;
+                }
+                tvMetrics.setText(pipelineMetrics.snapshot(SystemClock.elapsedRealtimeNanos()) + "\n" + busMetrics);
+            }
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
+
+    private void updateAngle(float filteredRoll) {
+        int angleDeci = Math.round(filteredRoll * 10);
+        if (angleDeci != shownAngleDeci) {
+            shownAngleDeci = angleDeci;
+            String filteredAngleRollStr = String.format("%.1f", angleDeci / 10.0f);
+            tvAngle.setText("Angle: " + filteredAngleRollStr);
+            pipelineMetrics.getUiPublish().onEvent(SystemClock.elapsedRealtimeNanos());
+        }
+    }
+
+    private void updateLiveStats(RideStats rideStats) {
+        long distanceDm = Math.round(rideStats.getDistanceMeters() / 10); // 2 decimals of km
+        long speedDkmh = Math.round(rideStats.getCurrentSpeedKmh() * 10); // 1 decimal of km/h
+        if (distanceDm != shownDistanceDm || speedDkmh != shownSpeedDkmh) {
+            shownDistanceDm = distanceDm;
+            shownSpeedDkmh = speedDkmh;
+            tvStats.setText(String.format("%.2f km - %.1f km/h", distanceDm / 100.0, speedDkmh / 10.0));
+        }
+    }
+
     private void startCalibrationSequence() {
         isCalibrating = true;
         bttCalibrate.setEnabled(false);
         Toast.makeText(getApplicationContext(), "Calibrating... Keep device steady!", Toast.LENGTH_SHORT).show();
 
-        myAccelerometer.start(); // Start sensors to collect calibration data
-        myGyroscope.start();
-        myComplementaryFilter.startCalibration(); // Tell filter to start collecting calibration data
+        fusionSubscription.post(() -> myComplementaryFilter.startCalibration()); // Tell filter to start collecting calibration data
+        // Fastest rate and no FIFO latency whatever the ride's mode, the ride's start registers them again with it
+        imuSource.setBatchingMode(SensorBatchingMode.CALIBRATION);
+        imuSource.start();
 
-        // Handler to delay the finalization of the calibration sequence
+        // The filter finishes by itself (see onCalibrationProgress), this only handles a device that keeps moving
         calibrationHandler.postDelayed(() -> {
-            finalizeCalibrationSequence();
-        }, CALIBRATION_DURATION_MS);
+            cancelCalibrationSequence();
+        }, CALIBRATION_TIMEOUT_MS);
     }
 
     private void finalizeCalibrationSequence() {
         isCalibrating = false;
-        myComplementaryFilter.finalizeCalibration(); // Calculate and apply offsets
-        myAccelerometer.stop(); // Stop sensors after calibration
-        myGyroscope.stop();
+        calibrationHandler.removeCallbacksAndMessages(null);
+        // The filter already applied the offsets, the samples still in the FIFO are ignored
+        stopSensors(() -> { });
 
         isCalibrated = true;
+        bttCalibrate.setText("Calibrate");
         bttCalibrate.setVisibility(Button.GONE); // Hide calibrate button
         bttStartStop.setVisibility(Button.VISIBLE); // Show start/stop button
         bttStartStop.setEnabled(true); // Enable start/stop button
         Toast.makeText(getApplicationContext(), "Calibration complete!", Toast.LENGTH_SHORT).show();
     }
 
-    // Callback triggered by MyComplementaryFilter when a new filtered angle is calculated
-    @Override
-    public void onNewFilteredAngleAvailable(float filteredRoll) {
-        // Only update UI if not calibrating and tracking
-        if (isCalibrated && isTracking) {
-            String filteredAngleRollStr = String.format("%.1f", filteredRoll);
-            tvAngle.setText("Angle: " + filteredAngleRollStr);
-        }
-    }
-
-    @Override
-    public void onNewMaxPositiveRollAvailable(double maxPositiveRoll) {
-        this.maxPositiveRoll = maxPositiveRoll;
+    private void cancelCalibrationSequence() {
+        isCalibrating = false;
+        stopSensors(() -> fusionSubscription.post(() -> myComplementaryFilter.cancelCalibration()));
+        bttCalibrate.setText("Calibrate");
+        bttCalibrate.setEnabled(true);
+        Toast.makeText(getApplicationContext(), "Calibration failed, keep the device still and retry", Toast.LENGTH_SHORT).show();
     }
 
+    // Callback triggered by MyComplementaryFilter on the fusion thread while calibrating, in 1% steps.
+    // Progress drops back to 0 when the device moves
     @Override
-    public void onNewMaxNegativeRollAvailable(double maxNegativeRoll) {
-        this.maxNegativeRoll = maxNegativeRoll;
+    public void onCalibrationProgress(float progress, boolean complete) {
+        runOnUiThread(() -> {
+            if (!isCalibrating) {
+                return; // Cancelled meanwhile
+            }
+            if (complete) {
+                finalizeCalibrationSequence();
+            } else {
+                bttCalibrate.setText(String.format("Calibrating... %d%%", Math.round(progress * 100)));
+            }
+        });
     }
 
+    // The saved extremes are handed over by the filter when the ride stops (see MyComplementaryFilter.stopRide())
     @Override
-    public void onNewAccelerometerDataAvailable(float AccX, float AccY, float AccZ) {
-        myComplementaryFilter.onNewAccelerometerDataAvailable(AccX, AccY, AccZ);
+    public void onNewMaxPositiveRollAvailable(double maxPositiveRoll) {
     }
 
     @Override
-    public void onNewGyroscopeDataAvailable(float RotX, float RotY, float RotZ, long timestamp) {
-        myComplementaryFilter.onNewGyroscopeDataAvailable(RotX, RotY, RotZ, timestamp);
+    public void onNewMaxNegativeRollAvailable(double maxNegativeRoll) {
     }
 
     // Method that handles the result of permission request
@@ -197,19 +452,35 @@ public class MainActivity extends AppCompatActivity implements IMyAccelerometer,
     protected void onPause() {
         super.onPause();
         if (isTracking) {
-            myAccelerometer.stop();
-            myGyroscope.stop();
+            final SensorEventBus.Subscription recorder = recorderSubscription;
+            recorderSubscription = null;
+            stopSensors(() -> stopImuRecording(recorder));
             mapHandler.stopTracking();
+            Choreographer.getInstance().removeFrameCallback(uiFrameCallback);
             bttStartStop.setText("Start");
+            bttHistory.setVisibility(Button.VISIBLE);
             isTracking = false;
         }
         // If calibration was in progress, stop it
         if (isCalibrating) {
             calibrationHandler.removeCallbacksAndMessages(null); // Remove any pending callbacks
-            myAccelerometer.stop();
-            myGyroscope.stop();
+            stopSensors(() -> { });
+            fusionSubscription.post(() -> myComplementaryFilter.cancelCalibration());
+            bttCalibrate.setText("Calibrate");
             bttCalibrate.setEnabled(true); // Re-enable calibrate button
             isCalibrating = false;
         }
     }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Closed from the capture thread, after the stop callbacks already queued there have posted their work.
+        // The lean timeline of a paused ride that was never stopped is closed with it
+        sensorHandler.post(() -> {
+            fusionSubscription.post(() -> myComplementaryFilter.closeRides());
+            fusionSubscription.close();
+        });
+        sensorThread.quitSafely();
+    }
 }
\ No newline at end of file
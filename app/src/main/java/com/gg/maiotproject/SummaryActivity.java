@@ -10,25 +10,60 @@ import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 
 import org.osmdroid.config.Configuration;
+import org.osmdroid.events.MapEventsReceiver;
 import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
 import org.osmdroid.util.GeoPoint;
 import org.osmdroid.views.MapView;
+import org.osmdroid.views.overlay.MapEventsOverlay;
 import org.osmdroid.views.overlay.Marker;
-import org.osmdroid.views.overlay.Polyline;
 import org.osmdroid.util.BoundingBox;
 
-import java.util.ArrayList;
+import com.gg.maiotproject.chart.LeanChartView;
+import com.gg.maiotproject.export.GeoJsonExporter;
+import com.gg.maiotproject.export.GpxExporter;
+import com.gg.maiotproject.export.TrackExporter;
+import com.gg.maiotproject.fusion.Corner;
+import com.gg.maiotproject.fusion.LeanTimeline;
+import com.gg.maiotproject.interfaces.ICorners;
+import com.gg.maiotproject.interfaces.ILeanTimeline;
+import com.gg.maiotproject.interfaces.INearestPoint;
+import com.gg.maiotproject.interfaces.IRideExport;
+import com.gg.maiotproject.interfaces.IRideStore;
+import com.gg.maiotproject.map.ManagedTileModule;
+import com.gg.maiotproject.map.PathPyramid;
+import com.gg.maiotproject.map.PathSmoother;
+import com.gg.maiotproject.map.RideStats;
+import com.gg.maiotproject.map.TrackOverlay;
+import com.gg.maiotproject.spatial.SegmentIndex;
+import com.gg.maiotproject.storage.CornerFile;
+import com.gg.maiotproject.storage.RideFile;
+import com.gg.maiotproject.storage.RideStore;
+import com.gg.maiotproject.track.TrackView;
+
+import java.io.File;
 import java.util.List; // Import List
 
-public class SummaryActivity extends AppCompatActivity {
+public class SummaryActivity extends AppCompatActivity implements IRideStore, INearestPoint, ILeanTimeline, ICorners, IRideExport {
 
     private MapView mapView;
+    private LeanChartView leanChart;
     private TextView tvDistance;
+    private TextView tvStats;
+    private TextView tvCorners;
     private TextView tvMaxPositiveAngle;
     private TextView tvMaxNegativeAngle;
     private Button bttRestart;
+    private Button bttExportGpx;
+    private Button bttExportGeoJson;
+    private RideStore rideStore;
+    private long rideId;
+    private volatile RideFile ride = null; // Set once shown, read on the store's I/O thread
+    private Marker tapMarker = null;
 
     private static final int WINDOW_SIZE = 2;
+    private static final double TAP_RADIUS_METERS = 150.0;   // Taps further from the track are ignored
+    private static final double THROUGH_RADIUS_METERS = 30.0; // "Rides through here" around a long press
+    private static final float DEEP_LEAN_DEG = 30f;             // Time leaned beyond it is shown with the corners
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -36,34 +71,201 @@ public class SummaryActivity extends AppCompatActivity {
         setContentView(R.layout.activity_summary);
 
         mapView = findViewById(R.id.mapView);
+        leanChart = findViewById(R.id.leanChart);
         tvDistance = findViewById(R.id.tvDistance);
+        tvStats = findViewById(R.id.tvStats);
+        tvCorners = findViewById(R.id.tvCorners);
         tvMaxPositiveAngle = findViewById(R.id.tvMaxPositiveAngle);
         tvMaxNegativeAngle = findViewById(R.id.tvMaxNegativeAngle);
         bttRestart = findViewById(R.id.bttRestart);
+        bttExportGpx = findViewById(R.id.bttExportGpx);
+        bttExportGeoJson = findViewById(R.id.bttExportGeoJson);
 
         // Initialize the map
         Configuration.getInstance().load(this, getSharedPreferences("osmdroid", Context.MODE_PRIVATE));
         Configuration.getInstance().setUserAgentValue("MyApp/1.0");
-        mapView.setTileSource(TileSourceFactory.MAPNIK);
+        mapView.setTileProvider(ManagedTileModule.createProvider(this, TileSourceFactory.MAPNIK)); // Same tile cache as the live map
         mapView.setMultiTouchControls(true);
 
-        // Get the data from the intent
-        Intent intent = getIntent();
-        ArrayList<GeoPoint> rawGeoPoints = intent.getParcelableArrayListExtra("geoPoints"); // Renamed to rawGeoPoints
-        double distance = intent.getDoubleExtra("distance", 0);
-        double maxPositiveRoll = intent.getDoubleExtra("maxPositiveAngle", 0);
-        double maxNegativeRoll = intent.getDoubleExtra("maxNegativeAngle", 0);
-
-        // Apply smoothing filter to the raw geoPoints before displaying them
-        List<GeoPoint> displayedGeoPoints = new ArrayList<>();
-        if (rawGeoPoints != null && !rawGeoPoints.isEmpty()) {
-            displayedGeoPoints = applyMovingAverageFilter(rawGeoPoints, WINDOW_SIZE);
+        // Set up the restart button
+        bttRestart.setOnClickListener(v -> {
+            Intent restartIntent = new Intent(SummaryActivity.this, MainActivity.class);
+            restartIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_NEW_TASK);
+            startActivity(restartIntent);
+            Toast.makeText(getApplicationContext(), "Journey Cleared", Toast.LENGTH_SHORT).show();
+            finish();
+        });
+
+        // Exports are streamed from the encoded track in the background
+        bttExportGpx.setOnClickListener(v -> exportRide(new GpxExporter()));
+        bttExportGeoJson.setOnClickListener(v -> exportRide(new GeoJsonExporter()));
+
+        // A tap shows the closest point of the ride, a long press lists the rides that went through there
+        mapView.getOverlays().add(new MapEventsOverlay(new MapEventsReceiver() {
+            @Override
+            public boolean singleTapConfirmedHelper(GeoPoint p) {
+                if (ride == null) {
+                    return false;
+                }
+                rideStore.nearestPoint(rideId, p.getLatitude(), p.getLongitude(), TAP_RADIUS_METERS, SummaryActivity.this);
+                return true;
+            }
+
+            @Override
+            public boolean longPressHelper(GeoPoint p) {
+                Intent historyIntent = new Intent(SummaryActivity.this, HistoryActivity.class);
+                historyIntent.putExtra("throughLatitude", p.getLatitude());
+                historyIntent.putExtra("throughLongitude", p.getLongitude());
+                historyIntent.putExtra("throughMeters", THROUGH_RADIUS_METERS);
+                startActivity(historyIntent);
+                return true;
+            }
+        }));
+
+        // Only the ride id is passed in the intent, the ride itself is loaded from the store in the background
+        rideId = getIntent().getLongExtra("rideId", -1);
+        rideStore = new RideStore(this);
+        rideStore.load(rideId, this);
+        rideStore.loadLeanTimeline(rideId, this);
+        rideStore.loadCorners(rideId, this);
+    }
+
+    // Exported rides go to the app's external files, readable without permissions (Android/data/<package>/files/exports)
+    private void exportRide(TrackExporter exporter) {
+        File exportsDir = getExternalFilesDir("exports");
+        if (exportsDir == null) { // No shared storage mounted
+            exportsDir = new File(getFilesDir(), "exports");
         }
+        rideStore.export(rideId, exporter, new File(exportsDir, "ride_" + rideId + "." + exporter.getExtension()), this);
+        Toast.makeText(this, "Exporting...", Toast.LENGTH_SHORT).show();
+    }
 
-        // Display the itinerary on the map
-        Polyline polyline = new Polyline();
-        polyline.setPoints(displayedGeoPoints); // Use the filtered points here
-        mapView.getOverlays().add(polyline);
+    @Override
+    public void onRideExported(long rideId, File file) {
+        runOnUiThread(() -> Toast.makeText(this, "Exported to " + file.getPath(), Toast.LENGTH_LONG).show());
+    }
+
+    @Override
+    public void onRideExportFailed(long rideId, Exception e) {
+        runOnUiThread(() -> Toast.makeText(this, "Unable to export this journey.", Toast.LENGTH_SHORT).show());
+    }
+
+    // Called on the store's I/O thread, the timeline is already mapped and only read by the chart
+    @Override
+    public void onLeanTimelineLoaded(LeanTimeline timeline) {
+        runOnUiThread(() -> {
+            if (!isDestroyed()) {
+                leanChart.setTimeline(timeline);
+            }
+        });
+    }
+
+    // Rides recorded before lean timelines were kept have none, the chart is hidden
+    @Override
+    public void onLeanTimelineLoadFailed(long rideId, Exception e) {
+        runOnUiThread(() -> leanChart.setVisibility(LeanChartView.GONE));
+    }
+
+    // Called on the store's I/O thread, the text is built here from the corners found while riding
+    @Override
+    public void onCornersLoaded(CornerFile cornerFile) {
+        int left = 0, right = 0;
+        float deepestLeft = 0f, deepestRight = 0f;
+        for (Corner corner : cornerFile.getCorners()) {
+            if (corner.isLeft()) {
+                left++;
+                deepestLeft = Math.max(deepestLeft, corner.peakLean);
+            } else {
+                right++;
+                deepestRight = Math.max(deepestRight, -corner.peakLean);
+            }
+        }
+        long deepSeconds = cornerFile.getHistogram().getTimeBeyondNs(DEEP_LEAN_DEG) / 1_000_000_000L;
+        String text = String.format("%d corners (%d L / %d R) - Deepest L %.0f° R %.0f° - %d:%02d beyond %.0f°",
+                left + right, left, right, deepestLeft, deepestRight, deepSeconds / 60, deepSeconds % 60, DEEP_LEAN_DEG);
+        runOnUiThread(() -> tvCorners.setText(text));
+    }
+
+    // Rides recorded before corners were kept have none
+    @Override
+    public void onCornersLoadFailed(long rideId, Exception e) {
+        runOnUiThread(() -> tvCorners.setVisibility(TextView.GONE));
+    }
+
+    // Called on the store's I/O thread. The time and speed at the point are interpolated between the segment's fixes
+    @Override
+    public void onNearestPoint(SegmentIndex.Nearest nearest) {
+        String snippet = null;
+        if (nearest != null && ride != null && nearest.pointIndex + 1 < ride.getTrack().size()) {
+            TrackView track = ride.getTrack();
+            int i = nearest.pointIndex;
+            long timeMs = track.getTime(i) + Math.round(nearest.fraction * (track.getTime(i + 1) - track.getTime(i)));
+            long seconds = (timeMs - track.getTime(0)) / 1000;
+            float speed = track.getSpeed(i) + (float) nearest.fraction * (track.getSpeed(i + 1) - track.getSpeed(i));
+            snippet = Float.isNaN(speed)
+                    ? String.format("%d:%02d:%02d into the ride", seconds / 3600, seconds / 60 % 60, seconds % 60)
+                    : String.format("%d:%02d:%02d into the ride - %.0f km/h", seconds / 3600, seconds / 60 % 60, seconds % 60, speed * 3.6);
+        }
+        final String text = snippet;
+        runOnUiThread(() -> showTappedPoint(nearest, text));
+    }
+
+    @Override
+    public void onNearestPointFailed(Exception e) {
+        runOnUiThread(() -> Toast.makeText(this, "Unable to search this journey.", Toast.LENGTH_SHORT).show());
+    }
+
+    private void showTappedPoint(SegmentIndex.Nearest nearest, String snippet) {
+        if (isDestroyed()) {
+            return;
+        }
+        if (nearest == null || snippet == null) {
+            if (tapMarker != null) {
+                tapMarker.closeInfoWindow();
+                mapView.getOverlays().remove(tapMarker);
+                tapMarker = null;
+                mapView.invalidate();
+            }
+            return;
+        }
+        if (tapMarker == null) {
+            tapMarker = new Marker(mapView);
+            tapMarker.setAnchor(Marker.ANCHOR_CENTER, Marker.ANCHOR_BOTTOM);
+            mapView.getOverlays().add(tapMarker);
+        }
+        tapMarker.setPosition(new GeoPoint(nearest.latitude, nearest.longitude));
+        tapMarker.setTitle(String.format("%.0f m from the tap", nearest.distanceMeters));
+        tapMarker.setSnippet(snippet);
+        tapMarker.showInfoWindow();
+        mapView.invalidate();
+    }
+
+    // Called on the store's I/O thread: the path is smoothed and simplified here and only the result is posted to the UI
+    @Override
+    public void onRideLoaded(RideFile ride) {
+        TrackView track = ride.getTrack();
+        List<GeoPoint> displayedGeoPoints = PathSmoother.smooth(track, WINDOW_SIZE);
+        PathPyramid pyramid = PathPyramid.of(displayedGeoPoints);
+        runOnUiThread(() -> showRide(ride, displayedGeoPoints, pyramid));
+    }
+
+    @Override
+    public void onRideLoadFailed(long rideId, Exception e) {
+        runOnUiThread(() -> {
+            mapView.getController().setZoom(10.0);
+            Toast.makeText(this, "Unable to load this journey.", Toast.LENGTH_LONG).show();
+        });
+    }
+
+    private void showRide(RideFile ride, List<GeoPoint> displayedGeoPoints, PathPyramid pyramid) {
+        if (isDestroyed()) {
+            return;
+        }
+        this.ride = ride;
+
+        // Display the itinerary on the map, at the level of detail of the zoom
+        TrackOverlay trackOverlay = new TrackOverlay(mapView);
+        trackOverlay.setPyramid(pyramid);
 
         // Add start and end markers and adjust map view
         if (!displayedGeoPoints.isEmpty()) { // Check against the displayed (filtered) points
@@ -82,8 +284,8 @@ public class SummaryActivity extends AppCompatActivity {
             endMarker.setTitle("End Point");
             mapView.getOverlays().add(endMarker);
 
-            // Calculate the initial bounding box for all displayedGeoPoints
-            BoundingBox initialBoundingBox = BoundingBox.fromGeoPoints(displayedGeoPoints);
+            // The bounding box of the path is precomputed in the ride file header
+            BoundingBox initialBoundingBox = new BoundingBox(ride.getLatNorth(), ride.getLonEast(), ride.getLatSouth(), ride.getLonWest());
 
             // Add a small margin to the bounding box to prevent points from being exactly on the edge
             double latMargin = initialBoundingBox.getLatitudeSpan() * 0.1;
@@ -118,34 +320,13 @@ public class SummaryActivity extends AppCompatActivity {
         }
 
         // Display the distance and angles
-        tvDistance.setText(String.format("Distance: %.2f km", distance));
-        tvMaxPositiveAngle.setText(String.format("Bank Angle LEFT: %.2f°", maxPositiveRoll));
-        tvMaxNegativeAngle.setText(String.format("Bank Angle RIGHT: %.2f°", maxNegativeRoll));
-
-        // Set up the restart button
-        bttRestart.setOnClickListener(v -> {
-            Intent restartIntent = new Intent(SummaryActivity.this, MainActivity.class);
-            restartIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_NEW_TASK);
-            startActivity(restartIntent);
-            Toast.makeText(getApplicationContext(), "Journey Cleared", Toast.LENGTH_SHORT).show();
-            finish();
-        });
-    }
-
-    // Filters the GeoPoints to display a smoothed path
-    private List<GeoPoint> applyMovingAverageFilter(List<GeoPoint> points, int WINDOW_SIZE) {
-        List<GeoPoint> smoothedPoints = new ArrayList<>();
-        for (int i = 0; i < points.size(); i++) {
-            double sumLat = 0.0;
-            double sumLon = 0.0;
-            int count = 0;
-            for (int j = Math.max(0, i - WINDOW_SIZE); j <= Math.min(points.size() - 1, i + WINDOW_SIZE); j++) {
-                sumLat += points.get(j).getLatitude();
-                sumLon += points.get(j).getLongitude();
-                count++;
-            }
-            smoothedPoints.add(new GeoPoint(sumLat / count, sumLon / count));
-        }
-        return smoothedPoints;
+        RideStats rideStats = ride.getRideStats();
+        tvDistance.setText(String.format("Distance: %.2f km", rideStats.getDistanceKm()));
+        long movingMinutes = rideStats.getMovingTimeMs() / 60000;
+        tvStats.setText(String.format("Moving %d:%02d h - Avg %.1f km/h - Max %.1f km/h - Climb %.0f m",
+                movingMinutes / 60, movingMinutes % 60, rideStats.getAverageSpeedKmh(),
+                rideStats.getMaxSpeedKmh(), rideStats.getElevationGainMeters()));
+        tvMaxPositiveAngle.setText(String.format("Bank Angle LEFT: %.2f°", ride.getMaxPositiveRoll()));
+        tvMaxNegativeAngle.setText(String.format("Bank Angle RIGHT: %.2f°", ride.getMaxNegativeRoll()));
     }
 }
\ No newline at end of file
@@ -0,0 +1,315 @@
+package com.gg.maiotproject.bus;
+
+import com.gg.maiotproject.interfaces.ISensorEventConsumer;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Preallocated ring buffer that fans IMU samples out to several consumers.
+// Slots are primitive arrays, so publishing and consuming an event allocates nothing.
+// There is a single producer: both sensor listeners are registered on the same sensor thread.
+// Every consumer subscribes with its own cursor and runs on its own thread, so consumers never wait for each other.
+// When the ring is full the producer applies each consumer's overflow policy:
+//  - DROP_OLDEST: the consumer's oldest unread events are discarded (and counted), the producer never waits
+//  - BLOCK: the producer waits for the consumer, use it only for consumers that are known to keep up
+// A slow DROP_OLDEST consumer therefore can never stall the sensor thread.
+public class SensorEventBus {
+
+    public enum OverflowPolicy { DROP_OLDEST, BLOCK }
+
+    private static final int BATCH_SIZE = 64; // Events copied out of the ring per cursor update
+
+    private final int capacity;
+    private final int mask;
+    private final int[] sensorIds;
+    private final long[] timestamps;
+    private final float[] xs;
+    private final float[] ys;
+    private final float[] zs;
+
+    // Number of events published; the slots of all lower sequences are completely written
+    private final AtomicLong published = new AtomicLong(0);
+    private volatile Subscription[] subscriptions = new Subscription[0];
+    // A Blocking consumer needs the count published with a full fence, see WaitStrategy.Blocking
+    private volatile boolean fencedPublish = false;
+
+    // Producer thread state
+    private long head = 0;
+    private long gatingSequence = 0; // No cursor is below this value, rechecked only when the producer gets there
+
+    public SensorEventBus(int capacity) {
+        if (capacity < BATCH_SIZE || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two >= " + BATCH_SIZE + ": " + capacity);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        sensorIds = new int[capacity];
+        timestamps = new long[capacity];
+        xs = new float[capacity];
+        ys = new float[capacity];
+        zs = new float[capacity];
+    }
+
+    // Must always be called from the same thread
+    public void publish(int sensorId, long timestampNs, float x, float y, float z) {
+        long sequence = head;
+        long wrapPoint = sequence - capacity; // Sequence whose slot is about to be overwritten
+        if (wrapPoint >= gatingSequence) {
+            gatingSequence = claim(wrapPoint, sequence);
+        }
+        int slot = (int) sequence & mask;
+        sensorIds[slot] = sensorId;
+        timestamps[slot] = timestampNs;
+        xs[slot] = x;
+        ys[slot] = y;
+        zs[slot] = z;
+        head = sequence + 1;
+        if (fencedPublish) {
+            published.set(head); // The count is visible before signal() reads the waiter
+        } else {
+            published.lazySet(head); // Release: the slot is visible before the new count
+        }
+
+        Subscription[] current = subscriptions;
+        for (Subscription subscription : current) {
+            subscription.waitStrategy.signal();
+        }
+    }
+
+    // Makes sure no cursor still needs wrapPoint and returns the new gating sequence.
+    // The result is capped at the current sequence, so a consumer that subscribes concurrently
+    // (its cursor starts at the published count) is always rechecked before its first slot is reused.
+    private long claim(long wrapPoint, long sequence) {
+        long minimum = sequence;
+        for (Subscription subscription : subscriptions) {
+            long cursor = subscription.cursor.get();
+            while (cursor <= wrapPoint) {
+                if (subscription.policy == OverflowPolicy.DROP_OLDEST) {
+                    // Skip the consumer past the slot; if it commits concurrently, reread and check again
+                    if (subscription.cursor.compareAndSet(cursor, wrapPoint + 1)) {
+                        subscription.dropped += wrapPoint + 1 - cursor;
+                        cursor = wrapPoint + 1;
+                    } else {
+                        cursor = subscription.cursor.get();
+                    }
+                } else if (subscription.finished) {
+                    break; // Consumer thread has ended, it is being removed
+                } else {
+                    subscription.waitStrategy.signal();
+                    Thread.yield();
+                    cursor = subscription.cursor.get();
+                }
+            }
+            minimum = Math.min(minimum, cursor);
+        }
+        return minimum;
+    }
+
+    // Registers a consumer and starts its thread. It receives the events published from now on
+    public Subscription subscribe(String name, ISensorEventConsumer consumer, OverflowPolicy policy,
+                                  WaitStrategy waitStrategy, int threadPriority) {
+        Subscription subscription = new Subscription(name, consumer, policy, waitStrategy);
+        synchronized (this) {
+            Subscription[] current = subscriptions;
+            Subscription[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = subscription;
+            fencedPublish = needsFencedPublish(updated);
+            subscriptions = updated;
+        }
+        // Set after the subscription is visible to the producer, see claim()
+        subscription.cursor.set(published.get());
+        subscription.thread.setPriority(threadPriority);
+        subscription.thread.start();
+        return subscription;
+    }
+
+    private synchronized void remove(Subscription subscription) {
+        Subscription[] current = subscriptions;
+        int index = Arrays.asList(current).indexOf(subscription);
+        if (index < 0) {
+            return;
+        }
+        Subscription[] updated = new Subscription[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, index);
+        System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+        subscriptions = updated;
+        fencedPublish = needsFencedPublish(updated);
+    }
+
+    private static boolean needsFencedPublish(Subscription[] subscriptions) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.waitStrategy instanceof WaitStrategy.Blocking) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    public class Subscription implements Runnable {
+        private final String name;
+        private final ISensorEventConsumer consumer;
+        private final OverflowPolicy policy;
+        private final WaitStrategy waitStrategy;
+        private final Thread thread;
+
+        // Next sequence to read. Starts above any sequence so the producer ignores it until subscribe() sets it
+        private final AtomicLong cursor = new AtomicLong(Long.MAX_VALUE);
+        private final Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+        private volatile boolean running = true;
+        private volatile boolean finished = false;
+        private volatile long dropped = 0; // Written by the producer only
+        private volatile long maxLag = 0;  // Written by the consumer thread only
+        private volatile long consumed = 0;
+
+        // Consumer thread copy of a batch, so events are dispatched only after the cursor moved past them
+        private final int[] batchSensorIds = new int[BATCH_SIZE];
+        private final long[] batchTimestamps = new long[BATCH_SIZE];
+        private final float[] batchXs = new float[BATCH_SIZE];
+        private final float[] batchYs = new float[BATCH_SIZE];
+        private final float[] batchZs = new float[BATCH_SIZE];
+
+        private Subscription(String name, ISensorEventConsumer consumer, OverflowPolicy policy, WaitStrategy waitStrategy) {
+            this.name = name;
+            this.consumer = consumer;
+            this.policy = policy;
+            this.waitStrategy = waitStrategy;
+            this.thread = new Thread(this, name);
+        }
+
+        @Override
+        public void run() {
+            try {
+                int idleCount = 0;
+                while (true) {
+                    runTasks(cursor.get());
+                    int count = poll();
+                    if (count > 0) {
+                        consumer.onSensorEvents(batchSensorIds, batchTimestamps, batchXs, batchYs, batchZs, count);
+                        consumed += count;
+                        idleCount = 0;
+                    } else if (count == 0) {
+                        if (!running) {
+                            break;
+                        }
+                        waitStrategy.idle(idleCount++);
+                    }
+                }
+                runTasks(Long.MAX_VALUE);
+            } finally {
+                finished = true; // Never leave the producer waiting on a dead BLOCK consumer
+                remove(this);
+            }
+        }
+
+        // Copies up to BATCH_SIZE events and commits the cursor. Returns -1 when the producer skipped this
+        // consumer while the batch was being copied: the copy may be overwritten and is discarded
+        private int poll() {
+            long next = cursor.get();
+            long available = published.get();
+            long lag = available - next;
+            if (lag <= 0) {
+                return 0;
+            }
+            if (lag > maxLag) {
+                maxLag = lag;
+            }
+            int count = (int) Math.min(lag, BATCH_SIZE);
+            for (int i = 0; i < count; i++) {
+                int slot = (int) (next + i) & mask;
+                batchSensorIds[i] = sensorIds[slot];
+                batchTimestamps[i] = timestamps[slot];
+                batchXs[i] = xs[slot];
+                batchYs[i] = ys[slot];
+                batchZs[i] = zs[slot];
+            }
+            return cursor.compareAndSet(next, next + count) ? count : -1;
+        }
+
+        // Runs, in posting order, the tasks whose events have all been consumed
+        private void runTasks(long consumedSequence) {
+            Task task;
+            while ((task = tasks.peek()) != null && task.sequence <= consumedSequence) {
+                tasks.poll();
+                task.runnable.run();
+            }
+        }
+
+        // Runs the task on the consumer thread, after every event published before this call and before any
+        // event published after it has been consumed. Used to change consumer state without locks
+        // (e.g. start/stop of the filter calibration). Throws once closed.
+        // Synchronized with close(): a task accepted here is queued before running turns false, so the consumer,
+        // which only exits after reading running false, always runs it
+        public synchronized void post(Runnable task) {
+            if (!running) {
+                throw new IllegalStateException("Subscription " + name + " is closed");
+            }
+            tasks.add(new Task(published.get(), task));
+            waitStrategy.signal();
+        }
+
+        // Stops the consumer without waiting for it: the events already published are delivered,
+        // the tasks posted before this call run (e.g. closing a file after the last event) and the thread ends
+        public synchronized void close() {
+            running = false;
+            waitStrategy.signal();
+        }
+
+        // Waits for the consumer thread to end after close(), returns false on timeout
+        public boolean awaitTermination(long timeoutMs) throws InterruptedException {
+            thread.join(timeoutMs);
+            return !thread.isAlive();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public ISensorEventConsumer getConsumer() {
+            return consumer;
+        }
+
+        // Events published but not yet consumed
+        public long getLag() {
+            long lag = published.get() - cursor.get();
+            return lag > 0 ? lag : 0;
+        }
+
+        public long getMaxLag() {
+            return maxLag;
+        }
+
+        public long getDroppedCount() {
+            return dropped;
+        }
+
+        public long getConsumedCount() {
+            return consumed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s lag %d max %d dropped %d", name, getLag(), maxLag, dropped);
+        }
+    }
+
+    private static final class Task {
+        final long sequence; // Published count when the task was posted
+        final Runnable runnable;
+
+        Task(long sequence, Runnable runnable) {
+            this.sequence = sequence;
+            this.runnable = runnable;
+        }
+    }
+}
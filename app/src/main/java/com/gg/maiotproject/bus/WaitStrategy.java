@@ -0,0 +1,101 @@
+package com.gg.maiotproject.bus;
+
+import java.util.concurrent.locks.LockSupport;
+
+// How a consumer thread waits when the bus has no new event for it.
+// Strategies keep per-consumer state, so every subscription needs its own instance.
+public interface WaitStrategy {
+
+    // Called by the consumer thread after an empty poll; idleCount counts consecutive empty polls
+    void idle(int idleCount);
+
+    // Called by the producer after every publish (and on post/close), must be cheap when nobody waits
+    void signal();
+
+    // Lowest latency, burns a core: only for short bursts or benchmarks
+    class BusySpin implements WaitStrategy {
+        @Override
+        public void idle(int idleCount) {
+        }
+
+        @Override
+        public void signal() {
+        }
+    }
+
+    // Spins briefly, then yields the CPU to other runnable threads
+    class Yielding implements WaitStrategy {
+        private static final int SPIN_TRIES = 100;
+
+        @Override
+        public void idle(int idleCount) {
+            if (idleCount >= SPIN_TRIES) {
+                Thread.yield();
+            }
+        }
+
+        @Override
+        public void signal() {
+        }
+    }
+
+    // Spins, yields, then sleeps for a fixed period: the producer never has to wake the consumer,
+    // at the price of up to sleepNs of extra latency
+    class Sleeping implements WaitStrategy {
+        private static final int SPIN_TRIES = 100;
+        private static final int YIELD_TRIES = 200;
+        private final long sleepNs;
+
+        public Sleeping(long sleepNs) {
+            this.sleepNs = sleepNs;
+        }
+
+        @Override
+        public void idle(int idleCount) {
+            if (idleCount >= YIELD_TRIES) {
+                LockSupport.parkNanos(sleepNs);
+            } else if (idleCount >= SPIN_TRIES) {
+                Thread.yield();
+            }
+        }
+
+        @Override
+        public void signal() {
+        }
+    }
+
+    // Parks the consumer until the producer signals a new event. Lowest CPU use; the producer pays an unpark
+    // only while the consumer is registered as waiting.
+    // The consumer writes waiter and then polls once more before parking; the producer writes the published
+    // count and then reads waiter in signal(). Both sides must be volatile writes followed by volatile reads
+    // (a Dekker handshake): a lazySet publish lets the producer read a stale null waiter while the consumer's poll
+    // still misses the event. SensorEventBus therefore publishes with a full fence while a Blocking consumer is
+    // subscribed. Then either the poll sees the event or signal() sees the waiter, and an unpark before the park
+    // leaves a permit behind. A consumer subscribing during a publish may only be signalled by the next one.
+    class Blocking implements WaitStrategy {
+        private static final int SPIN_TRIES = 50;
+        private static final long MAX_PARK_NS = 100_000_000L; // Only bounds the wait for posted tasks
+        private volatile Thread waiter = null;
+
+        @Override
+        public void idle(int idleCount) {
+            if (idleCount < SPIN_TRIES) {
+                return;
+            }
+            if (waiter == null) {
+                waiter = Thread.currentThread();
+                return;
+            }
+            LockSupport.parkNanos(this, MAX_PARK_NS);
+            waiter = null;
+        }
+
+        @Override
+        public void signal() {
+            Thread thread = waiter;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+}
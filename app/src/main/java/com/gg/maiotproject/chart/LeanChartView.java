@@ -0,0 +1,161 @@
+package com.gg.maiotproject.chart;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.View;
+
+import com.gg.maiotproject.fusion.LeanTimeline;
+
+import java.util.Locale;
+
+// Lean angle over the ride: the min/max band and the mean of each bucket of the visible time range, left lean up.
+// Each frame reads at most one bucket per two pixels from the timeline's pyramid, whatever the length of the ride.
+// Dragging moves a cursor showing the time and lean under the finger, a double tap zooms 4x around it
+// (back to the whole ride once zoomed to MIN_SPAN_NS).
+public class LeanChartView extends View {
+
+    private static final float MAX_LEAN_DEG = 60f;          // Top and bottom of the chart
+    private static final long MIN_SPAN_NS = 15_000_000_000L; // Narrowest zoom, 15 s
+    private static final int ZOOM_FACTOR = 4;
+    private static final int PIXELS_PER_BUCKET = 2;
+
+    private LeanTimeline timeline = null;
+    private final LeanTimeline.Chart chart = new LeanTimeline.Chart();
+    private long fromNs, toNs;    // Visible range
+    private long cursorNs = -1;   // -1 when no cursor
+
+    private final Paint bandPaint = new Paint();
+    private final Paint meanPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint axisPaint = new Paint();
+    private final Paint cursorPaint = new Paint();
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final GestureDetector gestureDetector;
+
+    public LeanChartView(Context context) {
+        this(context, null);
+    }
+
+    public LeanChartView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        float density = getResources().getDisplayMetrics().density;
+        bandPaint.setColor(Color.argb(96, 33, 150, 243));
+        meanPaint.setColor(Color.argb(255, 13, 71, 161));
+        meanPaint.setStrokeWidth(1.5f * density);
+        axisPaint.setColor(Color.argb(128, 0, 0, 0));
+        cursorPaint.setColor(Color.argb(255, 229, 57, 53));
+        cursorPaint.setStrokeWidth(density);
+        textPaint.setColor(Color.BLACK);
+        textPaint.setTextSize(12 * density);
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                zoomAt(timeAt(e.getX()));
+                return true;
+            }
+        });
+    }
+
+    // Shows the whole ride, null clears the chart
+    public void setTimeline(LeanTimeline timeline) {
+        this.timeline = timeline;
+        cursorNs = -1;
+        showWholeRide();
+        invalidate();
+    }
+
+    private void showWholeRide() {
+        if (timeline != null) {
+            fromNs = timeline.getStartNs();
+            toNs = timeline.getEndNs() + 1;
+        }
+    }
+
+    private void zoomAt(long centerNs) {
+        long span = (toNs - fromNs) / ZOOM_FACTOR;
+        if (toNs - fromNs <= MIN_SPAN_NS) {
+            showWholeRide();
+        } else {
+            span = Math.max(span, MIN_SPAN_NS);
+            fromNs = Math.max(timeline.getStartNs(), Math.min(centerNs - span / 2, timeline.getEndNs() + 1 - span));
+            toNs = fromNs + span;
+        }
+        invalidate();
+    }
+
+    private long timeAt(float x) {
+        float fraction = Math.max(0f, Math.min(1f, x / Math.max(1, getWidth())));
+        return fromNs + (long) (fraction * (toNs - fromNs));
+    }
+
+    private float xOf(long timestampNs) {
+        return (float) ((double) (timestampNs - fromNs) / (toNs - fromNs) * getWidth());
+    }
+
+    private float yOf(float roll) {
+        return getHeight() * 0.5f * (1f - roll / MAX_LEAN_DEG);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (timeline == null || timeline.size() == 0) {
+            return false;
+        }
+        gestureDetector.onTouchEvent(event);
+        int action = event.getActionMasked();
+        if (action == MotionEvent.ACTION_DOWN || action == MotionEvent.ACTION_MOVE) {
+            cursorNs = timeAt(event.getX());
+            if (getParent() != null) {
+                getParent().requestDisallowInterceptTouchEvent(true); // Scrubbing, not scrolling the screen
+            }
+            invalidate();
+        }
+        return true;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        int width = getWidth(), height = getHeight();
+        canvas.drawLine(0, height * 0.5f, width, height * 0.5f, axisPaint);
+        if (timeline == null || timeline.size() == 0 || width == 0) {
+            return;
+        }
+
+        int count = timeline.chart(fromNs, toNs, Math.max(1, width / PIXELS_PER_BUCKET), chart);
+        float previousX = 0, previousY = 0;
+        long previousEndNs = Long.MIN_VALUE;
+        for (int b = 0; b < count; b++) {
+            long startNs = chart.startNs[b];
+            float x = xOf(startNs);
+            float y = yOf(chart.mean[b]);
+            if (chart.bucketNs > 0) {
+                float right = Math.max(xOf(startNs + chart.bucketNs), x + 1);
+                canvas.drawRect(x, yOf(chart.max[b]), right, yOf(chart.min[b]), bandPaint);
+                x = (x + right) * 0.5f;
+            }
+            // Pauses (buckets left out) break the line
+            if (b > 0 && (chart.bucketNs == 0 || startNs == previousEndNs)) {
+                canvas.drawLine(previousX, previousY, x, y, meanPaint);
+            }
+            previousX = x;
+            previousY = y;
+            previousEndNs = startNs + chart.bucketNs;
+        }
+
+        if (cursorNs >= 0) {
+            float x = xOf(cursorNs);
+            canvas.drawLine(x, 0, x, height, cursorPaint);
+            float roll = timeline.rollAt(cursorNs);
+            long seconds = (cursorNs - timeline.getStartNs()) / 1_000_000_000L;
+            String text = String.format(Locale.getDefault(), "%d:%02d:%02d  %s %.0f°", seconds / 3600, seconds / 60 % 60,
+                    seconds % 60, roll >= 0 ? "L" : "R", Math.abs(roll));
+            float textX = Math.min(x + 4, width - textPaint.measureText(text));
+            canvas.drawText(text, Math.max(0, textX), textPaint.getTextSize(), textPaint);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.gg.maiotproject.export;
+
+import com.gg.maiotproject.track.TrackDecoder;
+
+import java.io.IOException;
+import java.io.Writer;
+
+// GeoJSON (RFC 7946): a Feature with a LineString ([lon, lat] pairs) and the fix times in a "times" property
+// parallel to the coordinates. The coordinates and the times are two arrays, so the track is decoded twice, with a
+// decoder opened from the source for each. Start and end time and the point count are written last, once known
+public class GeoJsonExporter extends TrackExporter {
+
+    public static final String EXTENSION = "geojson";
+
+    @Override
+    public String getExtension() {
+        return EXTENSION;
+    }
+
+    @Override
+    public String getMimeType() {
+        return "application/geo+json";
+    }
+
+    @Override
+    public long export(Source source, String name, Writer out) throws IOException {
+        out.write("{\"type\":\"Feature\",\"geometry\":{\"type\":\"LineString\",\"coordinates\":[");
+        long points = 0;
+        long startTime = 0, endTime = 0;
+        try (TrackDecoder track = source.open()) {
+            while (track.nextChunk()) {
+                for (int i = 0; i < track.size(); i++) {
+                    if (points > 0) {
+                        out.write(',');
+                    } else {
+                        startTime = track.getTime(i);
+                    }
+                    if ((points & 7) == 0) {
+                        out.write('\n');
+                    }
+                    out.write('[');
+                    writeE6(out, track.getLongitudeE6(i));
+                    out.write(',');
+                    writeE6(out, track.getLatitudeE6(i));
+                    out.write(']');
+                    endTime = track.getTime(i);
+                    points++;
+                }
+            }
+        }
+        out.write("]},\n\"properties\":{\"name\":\"");
+        writeEscaped(out, name, true);
+        out.write('"');
+        out.write(",\"times\":[");
+        try (TrackDecoder times = source.open()) {
+            long written = 0;
+            while (times.nextChunk()) {
+                for (int i = 0; i < times.size(); i++) {
+                    if (written > 0) {
+                        out.write(',');
+                    }
+                    if ((written & 7) == 0) {
+                        out.write('\n');
+                    }
+                    out.write('"');
+                    writeTime(out, times.getTime(i));
+                    out.write('"');
+                    written++;
+                }
+            }
+        }
+        out.write(']');
+        out.write(",\"pointCount\":");
+        writeLong(out, points);
+        if (points > 0) {
+            out.write(",\"startTime\":\"");
+            writeTime(out, startTime);
+            out.write("\",\"endTime\":\"");
+            writeTime(out, endTime);
+            out.write('"');
+        }
+        out.write("}}\n");
+        out.flush();
+        return points;
+    }
+}
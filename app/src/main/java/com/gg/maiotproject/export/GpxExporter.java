@@ -0,0 +1,67 @@
+package com.gg.maiotproject.export;
+
+import com.gg.maiotproject.track.TrackDecoder;
+
+import java.io.IOException;
+import java.io.Writer;
+
+// GPX 1.1: one track with one segment, a trkpt per fix with its time. Speed and accuracy have no GPX 1.1 element
+// and go in the point's extensions (speed in m/s, accuracy in meters), left out when unknown
+public class GpxExporter extends TrackExporter {
+
+    public static final String EXTENSION = "gpx";
+
+    @Override
+    public String getExtension() {
+        return EXTENSION;
+    }
+
+    @Override
+    public String getMimeType() {
+        return "application/gpx+xml";
+    }
+
+    @Override
+    public long export(Source source, String name, Writer out) throws IOException {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<gpx version=\"1.1\" creator=\"MAIoT\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n");
+        out.write("<trk><name>");
+        writeEscaped(out, name, false);
+        out.write("</name><trkseg>\n");
+        long points = 0;
+        try (TrackDecoder track = source.open()) {
+            while (track.nextChunk()) {
+                for (int i = 0; i < track.size(); i++) {
+                    out.write("<trkpt lat=\"");
+                    writeE6(out, track.getLatitudeE6(i));
+                    out.write("\" lon=\"");
+                    writeE6(out, track.getLongitudeE6(i));
+                    out.write("\"><time>");
+                    writeTime(out, track.getTime(i));
+                    out.write("</time>");
+                    float speed = track.getSpeed(i);
+                    float accuracy = track.getAccuracy(i);
+                    if (!Float.isNaN(speed) || !Float.isNaN(accuracy)) {
+                        out.write("<extensions>");
+                        if (!Float.isNaN(speed)) {
+                            out.write("<speed>");
+                            writeTenths(out, speed);
+                            out.write("</speed>");
+                        }
+                        if (!Float.isNaN(accuracy)) {
+                            out.write("<accuracy>");
+                            writeTenths(out, accuracy);
+                            out.write("</accuracy>");
+                        }
+                        out.write("</extensions>");
+                    }
+                    out.write("</trkpt>\n");
+                }
+                points += track.size();
+            }
+        }
+        out.write("</trkseg></trk>\n</gpx>\n");
+        out.flush();
+        return points;
+    }
+}
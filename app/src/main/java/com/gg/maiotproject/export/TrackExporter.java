@@ -0,0 +1,153 @@
+package com.gg.maiotproject.export;
+
+import com.gg.maiotproject.track.TrackDecoder;
+
+import java.io.IOException;
+import java.io.Writer;
+
+// Streams an encoded track (TrackEncoder) out in a text format, one decoded chunk at a time, so a ride of any
+// length is exported in constant memory. The track comes as a Source, so a format that needs several passes over
+// it (e.g. GeoJSON's parallel arrays) opens a decoder per pass. Numbers and times are formatted into a reused buffer rather than through
+// String.format or a date formatter, which would allocate per point. Not thread-safe: one instance per export.
+public abstract class TrackExporter {
+
+    private final char[] scratch = new char[32];
+
+    // Opens a new decoder from the start of the same encoded track
+    public interface Source {
+        TrackDecoder open() throws IOException;
+    }
+
+    public abstract String getExtension();
+
+    public abstract String getMimeType();
+
+    // Writes the whole track and returns the number of points; the decoders opened are closed, the writer is
+    // flushed, not closed. The writer should be buffered
+    public abstract long export(Source track, String name, Writer out) throws IOException;
+
+    public static TrackExporter forExtension(String extension) {
+        switch (extension) {
+            case GpxExporter.EXTENSION:
+                return new GpxExporter();
+            case GeoJsonExporter.EXTENSION:
+                return new GeoJsonExporter();
+            default:
+                throw new IllegalArgumentException("Unknown export format: " + extension);
+        }
+    }
+
+    // Fixed point value in 1e-6 degrees as a decimal number, exactly (no double rounding)
+    protected void writeE6(Writer out, long e6) throws IOException {
+        int position = scratch.length;
+        long magnitude = Math.abs(e6);
+        for (int digit = 0; digit < 6; digit++) {
+            scratch[--position] = (char) ('0' + magnitude % 10);
+            magnitude /= 10;
+        }
+        scratch[--position] = '.';
+        do {
+            scratch[--position] = (char) ('0' + magnitude % 10);
+            magnitude /= 10;
+        } while (magnitude > 0);
+        if (e6 < 0) {
+            scratch[--position] = '-';
+        }
+        out.write(scratch, position, scratch.length - position);
+    }
+
+    protected void writeLong(Writer out, long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            out.write(Long.toString(value));
+            return;
+        }
+        int position = scratch.length;
+        long magnitude = Math.abs(value);
+        do {
+            scratch[--position] = (char) ('0' + magnitude % 10);
+            magnitude /= 10;
+        } while (magnitude > 0);
+        if (value < 0) {
+            scratch[--position] = '-';
+        }
+        out.write(scratch, position, scratch.length - position);
+    }
+
+    // Non-negative value with at most one decimal, the precision speeds and accuracies are stored with
+    protected void writeTenths(Writer out, float value) throws IOException {
+        long tenths = Math.round(value * 10f);
+        writeLong(out, tenths / 10);
+        if (tenths % 10 != 0) {
+            out.write('.');
+            out.write((char) ('0' + tenths % 10));
+        }
+    }
+
+    // UTC time as ISO 8601 with milliseconds, e.g. 2021-06-01T08:30:00.250Z
+    protected void writeTime(Writer out, long timeMs) throws IOException {
+        long days = Math.floorDiv(timeMs, 86_400_000L);
+        int millisOfDay = (int) Math.floorMod(timeMs, 86_400_000L);
+        // Civil date from days since 1970-01-01 (proleptic Gregorian calendar)
+        long z = days + 719_468;
+        long era = Math.floorDiv(z, 146_097);
+        long dayOfEra = z - era * 146_097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        int position = 0;
+        position = putDigits(position, (int) year, 4);
+        scratch[position++] = '-';
+        position = putDigits(position, month, 2);
+        scratch[position++] = '-';
+        position = putDigits(position, day, 2);
+        scratch[position++] = 'T';
+        position = putDigits(position, millisOfDay / 3_600_000, 2);
+        scratch[position++] = ':';
+        position = putDigits(position, millisOfDay / 60_000 % 60, 2);
+        scratch[position++] = ':';
+        position = putDigits(position, millisOfDay / 1000 % 60, 2);
+        scratch[position++] = '.';
+        position = putDigits(position, millisOfDay % 1000, 3);
+        scratch[position++] = 'Z';
+        out.write(scratch, 0, position);
+    }
+
+    private int putDigits(int position, int value, int width) {
+        for (int i = width - 1; i >= 0; i--) {
+            scratch[position + i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return position + width;
+    }
+
+    // Text content or attribute value, for the name given by the caller
+    protected static void writeEscaped(Writer out, String text, boolean json) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (json) {
+                if (c == '"' || c == '\\') {
+                    out.write('\\');
+                    out.write(c);
+                } else if (c < 0x20) {
+                    out.write(String.format("\\u%04x", (int) c));
+                } else {
+                    out.write(c);
+                }
+            } else if (c == '<') {
+                out.write("&lt;");
+            } else if (c == '>') {
+                out.write("&gt;");
+            } else if (c == '&') {
+                out.write("&amp;");
+            } else if (c == '"') {
+                out.write("&quot;");
+            } else if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+                out.write(c);
+            }
+        }
+    }
+}
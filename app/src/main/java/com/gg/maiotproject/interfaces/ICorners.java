@@ -0,0 +1,10 @@
+package com.gg.maiotproject.interfaces;
+
+import com.gg.maiotproject.storage.CornerFile;
+
+public interface ICorners {
+    // Both callbacks run on the store's I/O thread, UI updates must be posted to the main thread.
+    // Fails for rides recorded before corners were kept
+    void onCornersLoaded(CornerFile corners);
+    void onCornersLoadFailed(long rideId, Exception e);
+}
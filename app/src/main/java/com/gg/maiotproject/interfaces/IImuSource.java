@@ -0,0 +1,18 @@
+package com.gg.maiotproject.interfaces;
+
+import com.gg.maiotproject.sensors.SensorBatchingMode;
+
+// Where the IMU samples of the pipeline come from: the phone's sensors (LiveImuSource) or a recorded ride
+// replayed (ReplayImuSource). A source publishes on its SensorEventBus from a single thread, in timestamp order
+public interface IImuSource {
+    // Applied by the next start()
+    void setBatchingMode(SensorBatchingMode batchingMode);
+
+    void start();
+
+    // afterLastSample runs on the publishing thread once every sample measured before this call has been published
+    void stop(Runnable afterLastSample);
+
+    // Smallest step between two readings of the sensor (ImuRecorder.SENSOR_* id), 0 when unknown
+    float getResolution(int sensorId);
+}
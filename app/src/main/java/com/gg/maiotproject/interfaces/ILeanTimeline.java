@@ -0,0 +1,10 @@
+package com.gg.maiotproject.interfaces;
+
+import com.gg.maiotproject.fusion.LeanTimeline;
+
+public interface ILeanTimeline {
+    // Both callbacks run on the store's I/O thread, UI updates must be posted to the main thread.
+    // Fails for rides recorded before lean timelines were kept and for rides interrupted by the app being killed
+    void onLeanTimelineLoaded(LeanTimeline timeline);
+    void onLeanTimelineLoadFailed(long rideId, Exception e);
+}
@@ -0,0 +1,13 @@
+package com.gg.maiotproject.interfaces;
+
+public interface ILocationListener {
+    // Called on the thread of the location source (the main thread for the live one), for each delivery:
+    // onFixBatch(), its fixes, then onFixBatchEnd()
+    void onFixBatch(int fixCount);
+
+    // Missing values are NaN. elapsedRealtimeMs is when the fix was measured, on the clock the policy runs on
+    void onFix(double latitude, double longitude, long timeMs, long elapsedRealtimeMs, double altitude,
+               float speed, float bearing, float accuracy);
+
+    void onFixBatchEnd();
+}
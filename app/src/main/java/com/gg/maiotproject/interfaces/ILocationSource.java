@@ -0,0 +1,15 @@
+package com.gg.maiotproject.interfaces;
+
+import com.gg.maiotproject.map.LocationPolicy;
+
+// Where the ride's fixes come from: the fused location provider (LiveLocationSource) or a recorded track
+// replayed (ReplayLocationSource)
+public interface ILocationSource {
+    // Fixes go to the listener until stop(), requested with the given setting
+    void start(ILocationListener listener, LocationPolicy.Setting setting);
+
+    // Replaces the request of a started source without gap in the fixes
+    void setRequest(LocationPolicy.Setting setting);
+
+    void stop();
+}
@@ -0,0 +1,23 @@
+package com.gg.maiotproject.interfaces;
+
+import android.util.Log;
+
+// Where the classes that also run on the JVM (replays, ride tracking, fusion consumer) write their log.
+// ANDROID is the phone's log; JVM tests pass their own
+public interface ILogger {
+    void d(String tag, String message);
+
+    void e(String tag, String message, Throwable error);
+
+    ILogger ANDROID = new ILogger() {
+        @Override
+        public void d(String tag, String message) {
+            Log.d(tag, message);
+        }
+
+        @Override
+        public void e(String tag, String message, Throwable error) {
+            Log.e(tag, message, error);
+        }
+    };
+}
@@ -1,5 +1,5 @@
 package com.gg.maiotproject.interfaces;
 
 public interface IMyAccelerometer {
-    void onNewAccelerometerDataAvailable(float AccX, float AccY, float AccZ);
+    void onNewAccelerometerDataAvailable(float AccX, float AccY, float AccZ, long timestamp);
 }
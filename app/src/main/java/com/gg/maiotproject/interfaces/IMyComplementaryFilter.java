@@ -2,8 +2,8 @@ package com.gg.maiotproject.interfaces;
 
 public interface IMyComplementaryFilter {
 
-    void onNewFilteredAngleAvailable(float filteredRoll);
     void onNewMaxPositiveRollAvailable(double maxPositiveRoll);
     void onNewMaxNegativeRollAvailable(double maxNegativeRoll);
+    void onCalibrationProgress(float progress, boolean complete); // 0 to 1, back to 0 when the device moved
 
 }
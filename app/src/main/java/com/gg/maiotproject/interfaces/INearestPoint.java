@@ -0,0 +1,10 @@
+package com.gg.maiotproject.interfaces;
+
+import com.gg.maiotproject.spatial.SegmentIndex;
+
+public interface INearestPoint {
+    // Both callbacks run on the store's I/O thread, UI updates must be posted to the main thread.
+    // nearest is null when the ride does not pass within the requested distance
+    void onNearestPoint(SegmentIndex.Nearest nearest);
+    void onNearestPointFailed(Exception e);
+}
@@ -0,0 +1,11 @@
+package com.gg.maiotproject.interfaces;
+
+import com.gg.maiotproject.fusion.ArchiveReanalysis;
+
+public interface IReanalysis {
+    // All callbacks run on the re-analysis threads, UI updates must be posted to the main thread.
+    // A cancelled run fails with a CancellationException
+    void onReanalysisProgress(int ridesDone, int rideCount);
+    void onReanalysisFinished(ArchiveReanalysis.Result result);
+    void onReanalysisFailed(Exception e);
+}
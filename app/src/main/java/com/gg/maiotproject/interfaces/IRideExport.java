@@ -0,0 +1,9 @@
+package com.gg.maiotproject.interfaces;
+
+import java.io.File;
+
+public interface IRideExport {
+    // Both callbacks run on the store's I/O thread, UI updates must be posted to the main thread
+    void onRideExported(long rideId, File file);
+    void onRideExportFailed(long rideId, Exception e);
+}
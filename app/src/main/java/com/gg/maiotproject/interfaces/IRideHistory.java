@@ -0,0 +1,11 @@
+package com.gg.maiotproject.interfaces;
+
+import com.gg.maiotproject.storage.RideSummary;
+
+import java.util.List;
+
+public interface IRideHistory {
+    // Both callbacks run on the store's I/O thread, UI updates must be posted to the main thread
+    void onRidesListed(List<RideSummary> page, int offset, int totalCount);
+    void onRideHistoryFailed(Exception e);
+}
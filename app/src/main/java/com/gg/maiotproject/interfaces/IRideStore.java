@@ -0,0 +1,9 @@
+package com.gg.maiotproject.interfaces;
+
+import com.gg.maiotproject.storage.RideFile;
+
+public interface IRideStore {
+    // Both callbacks run on the store's I/O thread, UI updates must be posted to the main thread
+    void onRideLoaded(RideFile ride);
+    void onRideLoadFailed(long rideId, Exception e);
+}
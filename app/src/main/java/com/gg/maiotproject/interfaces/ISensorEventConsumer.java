@@ -0,0 +1,14 @@
+package com.gg.maiotproject.interfaces;
+
+public interface ISensorEventConsumer {
+    // Called on the consumer's own thread, in publishing order. sensorId is one of the ImuRecorder.SENSOR_* ids
+    void onSensorEvent(int sensorId, long timestampNs, float x, float y, float z);
+
+    // Called with a run of consecutive events; the arrays are reused once the call returns.
+    // Consumers that can process a run in one loop override this
+    default void onSensorEvents(int[] sensorIds, long[] timestampsNs, float[] xs, float[] ys, float[] zs, int count) {
+        for (int i = 0; i < count; i++) {
+            onSensorEvent(sensorIds[i], timestampsNs[i], xs[i], ys[i], zs[i]);
+        }
+    }
+}
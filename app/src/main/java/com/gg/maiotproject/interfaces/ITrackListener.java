@@ -0,0 +1,6 @@
+package com.gg.maiotproject.interfaces;
+
+public interface ITrackListener {
+    // A point was added to the track: the segment from the previous point (pointIndex) to it
+    void onNewSegment(int pointIndex, double lat1, double lon1, double lat2, double lon2);
+}
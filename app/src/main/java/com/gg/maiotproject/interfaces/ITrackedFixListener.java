@@ -0,0 +1,7 @@
+package com.gg.maiotproject.interfaces;
+
+public interface ITrackedFixListener {
+    // Every fix received by the RideTracker, on its location source's thread. accepted is false when the fix was
+    // too close to the last track point to be added. Missing bearing or speed are NaN
+    void onTrackedFix(double latitude, double longitude, float bearing, float speed, boolean accepted);
+}
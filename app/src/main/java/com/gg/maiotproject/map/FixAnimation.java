@@ -0,0 +1,79 @@
+package com.gg.maiotproject.map;
+
+// Position shown between location fixes: glides linearly from where it was shown when a fix arrives to that fix,
+// over the time since the previous fix (so it reaches each fix about when the next one is due).
+// Distant jumps (first fix, fix after a gap) are shown at once. Plain Java, used by MapRenderScheduler.
+public class FixAnimation {
+
+    private static final long MIN_DURATION_NS = 100_000_000L;
+    private static final long MAX_DURATION_NS = 1_000_000_000L;
+    private static final double SNAP_DEGREES = 0.005; // ~500 m, not animated
+    private static final double SETTLED_DEGREES = 1e-7; // ~1 cm, below any pixel
+
+    private boolean hasPosition = false;
+    private double latitude, longitude; // Shown position
+    private double fromLatitude, fromLongitude, toLatitude, toLongitude;
+    private long startNs, durationNs;
+    private long lastTargetNs;
+
+    // A new fix arrived at nowNs (System.nanoTime() base, like Choreographer frame times)
+    public void setTarget(double targetLatitude, double targetLongitude, long nowNs) {
+        if (!hasPosition || Math.abs(targetLatitude - latitude) > SNAP_DEGREES || Math.abs(targetLongitude - longitude) > SNAP_DEGREES) {
+            jumpTo(targetLatitude, targetLongitude);
+        } else {
+            fromLatitude = latitude;
+            fromLongitude = longitude;
+            toLatitude = targetLatitude;
+            toLongitude = targetLongitude;
+            startNs = nowNs;
+            durationNs = Math.max(MIN_DURATION_NS, Math.min(MAX_DURATION_NS, nowNs - lastTargetNs));
+        }
+        lastTargetNs = nowNs;
+    }
+
+    // Shows the position right away on the next frame
+    public void jumpTo(double targetLatitude, double targetLongitude) {
+        fromLatitude = toLatitude = targetLatitude;
+        fromLongitude = toLongitude = targetLongitude;
+        durationNs = 0;
+        if (!hasPosition) {
+            latitude = Double.NaN; // Reported as moved by the next step()
+            hasPosition = true;
+        }
+    }
+
+    // Advances the shown position to the frame time. Returns true when it moved enough to be drawn
+    public boolean step(long frameTimeNs) {
+        if (!hasPosition) {
+            return false;
+        }
+        double fraction = durationNs <= 0 ? 1.0 : Math.max(0.0, Math.min(1.0, (frameTimeNs - startNs) / (double) durationNs));
+        double newLatitude = fromLatitude + (toLatitude - fromLatitude) * fraction;
+        double newLongitude = fromLongitude + (toLongitude - fromLongitude) * fraction;
+        boolean moved = Double.isNaN(latitude) // First step
+                || Math.abs(newLatitude - latitude) > SETTLED_DEGREES || Math.abs(newLongitude - longitude) > SETTLED_DEGREES;
+        if (!moved) {
+            return false; // Slow movements accumulate until they are worth a frame
+        }
+        latitude = newLatitude;
+        longitude = newLongitude;
+        return true;
+    }
+
+    // True once the shown position is the newest fix, no more frames are needed
+    public boolean isSettled(long frameTimeNs) {
+        return durationNs <= 0 || frameTimeNs - startNs >= durationNs;
+    }
+
+    public boolean hasPosition() {
+        return hasPosition;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+}
@@ -0,0 +1,74 @@
+package com.gg.maiotproject.map;
+
+import android.annotation.SuppressLint;
+import android.location.Location;
+import android.os.Looper;
+
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
+import com.google.android.gms.location.Priority;
+
+import com.gg.maiotproject.interfaces.ILocationListener;
+import com.gg.maiotproject.interfaces.ILocationSource;
+
+// Fixes of Google's fused location provider, delivered on the main thread
+public class LiveLocationSource implements ILocationSource {
+
+    private final FusedLocationProviderClient fusedLocationClient;
+    private LocationCallback locationCallback = null;
+
+    public LiveLocationSource(FusedLocationProviderClient fusedLocationClient) {
+        this.fusedLocationClient = fusedLocationClient;
+    }
+
+    @Override
+    public void start(final ILocationListener listener, LocationPolicy.Setting setting) {
+        locationCallback = new LocationCallback() {
+            @Override
+            public void onLocationResult(LocationResult locationResult) {
+                if (locationResult == null) {
+                    return;
+                }
+                listener.onFixBatch(locationResult.getLocations().size());
+                for (Location location : locationResult.getLocations()) {
+                    // Fix times rather than now: a batch of fixes arrives at once
+                    listener.onFix(location.getLatitude(), location.getLongitude(), location.getTime(),
+                            location.getElapsedRealtimeNanos() / 1_000_000L,
+                            location.hasAltitude() ? location.getAltitude() : Double.NaN,
+                            location.hasSpeed() ? location.getSpeed() : Float.NaN,
+                            location.hasBearing() ? location.getBearing() : Float.NaN,
+                            location.hasAccuracy() ? location.getAccuracy() : Float.NaN);
+                }
+                listener.onFixBatchEnd();
+            }
+        };
+        setRequest(setting);
+    }
+
+    // Requesting again with the same callback replaces the previous request, fixes keep coming to the same track
+    @SuppressLint("MissingPermission")
+    @Override
+    public void setRequest(LocationPolicy.Setting setting) {
+        if (locationCallback == null) {
+            return;
+        }
+        LocationRequest locationRequest = new LocationRequest.Builder(
+                setting.highAccuracy ? Priority.PRIORITY_HIGH_ACCURACY : Priority.PRIORITY_BALANCED_POWER_ACCURACY, setting.intervalMs)
+                .setMinUpdateIntervalMillis(setting.intervalMs)
+                .setMinUpdateDistanceMeters(setting.minUpdateDistanceMeters)
+                .setMaxUpdateDelayMillis(setting.maxUpdateDelayMs)
+                .build();
+        // Starts receiving location updates on the main Looper thread
+        fusedLocationClient.requestLocationUpdates(locationRequest, locationCallback, Looper.getMainLooper());
+    }
+
+    @Override
+    public void stop() {
+        if (locationCallback != null) {
+            fusedLocationClient.removeLocationUpdates(locationCallback); // Stops receiving location updates
+            locationCallback = null;
+        }
+    }
+}
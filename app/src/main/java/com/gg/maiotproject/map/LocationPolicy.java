@@ -0,0 +1,257 @@
+package com.gg.maiotproject.map;
+
+import java.util.Locale;
+
+// Chooses how often to ask for location fixes from what the bike is doing, instead of a fixed 250 ms request:
+// - still (below STILL_SPEED_MPS for STILL_DELAY_MS): a fix every 5 s at balanced power, only after moving 5 m,
+//   delivered in batches. Moving again produces a fix, whose speed switches back to riding. Fixes at balanced power
+//   are often network fixes without a speed: theirs is derived from the displacement since the previous fix.
+// - cornering (bank angle from the fusion filter or heading change rate above the thresholds, held CORNER_HOLD_MS
+//   after the corner): a fix every 250 ms, delivered right away, and points 1 m apart kept in the track.
+// - cruising: GNSS at high accuracy with fixes about CRUISE_SPACING_METERS apart (the interval follows the speed,
+//   250 ms to 2 s), two fixes per callback.
+// The caller re-requests location updates with the same callback whenever a method returns true, which replaces the
+// request without gap in the track. Changes are at most one per MIN_SWITCH_INTERVAL_MS, except entering a corner.
+// Also accounts, per ride, for the callbacks and high-accuracy fixes saved against the fixed 250 ms request.
+// Not synchronized, used from the main thread.
+public class LocationPolicy {
+
+    public static final long BASELINE_INTERVAL_MS = 250;
+
+    private static final double STILL_SPEED_MPS = 1.5;
+    private static final long STILL_DELAY_MS = 5000;
+    private static final double CORNER_BANK_DEG = 12.0;
+    private static final double CORNER_HEADING_RATE_DEG_S = 15.0;
+    private static final long CORNER_HOLD_MS = 3000;
+    private static final double CRUISE_SPACING_METERS = 15.0;
+    private static final long MIN_SWITCH_INTERVAL_MS = 2000;
+    private static final double METERS_PER_DEGREE = 111_320.0;
+
+    public static final Setting STILL = new Setting("still", 5000, 5.0f, 15000, false, 3.0);
+    public static final Setting CORNER = new Setting("corner", 250, 0.0f, 0, true, 1.0);
+    private static final Setting[] CRUISE = new Setting[8]; // 250 ms to 2 s in 250 ms steps
+
+    static {
+        for (int i = 0; i < CRUISE.length; i++) {
+            long interval = (i + 1) * 250L;
+            CRUISE[i] = new Setting("cruise", interval, 0.0f, 2 * interval, true, 3.0);
+        }
+    }
+
+    // One location request configuration
+    public static final class Setting {
+        public final String name;
+        public final long intervalMs;
+        public final float minUpdateDistanceMeters;
+        public final long maxUpdateDelayMs;   // Batching, 0 delivers each fix right away
+        public final boolean highAccuracy;    // GNSS, otherwise balanced power (network and sparse GNSS)
+        public final double acceptDistanceMeters; // Fixes closer than this to the last track point are not recorded
+
+        Setting(String name, long intervalMs, float minUpdateDistanceMeters, long maxUpdateDelayMs, boolean highAccuracy, double acceptDistanceMeters) {
+            this.name = name;
+            this.intervalMs = intervalMs;
+            this.minUpdateDistanceMeters = minUpdateDistanceMeters;
+            this.maxUpdateDelayMs = maxUpdateDelayMs;
+            this.highAccuracy = highAccuracy;
+            this.acceptDistanceMeters = acceptDistanceMeters;
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + intervalMs + " ms";
+        }
+    }
+
+    private Setting setting = CRUISE[0];
+    private long settingSinceMs = -1; // -1 while not running
+    private long lastSwitchMs = Long.MIN_VALUE / 2;
+    private long slowSinceMs = -1;    // Start of the current run of slow fixes
+    private long lastCornerMs = Long.MIN_VALUE / 2;
+    private double speedMps = 0.0;
+    private double lastBearingDeg = Double.NaN;
+    private long lastBearingMs = 0;
+    private double lastLatitude = Double.NaN, lastLongitude = Double.NaN; // Previous fix, NaN before the first one
+    private long lastFixMs = 0;
+
+    // Per ride accounting
+    private long stillMs, cornerMs, cruiseMs;
+    private double highAccuracyFixes, baselineFixes;
+    private long callbacks, fixes, switches;
+
+    public Setting getSetting() {
+        return setting;
+    }
+
+    // Tracking starts with the current setting (first call after reset(): cruising at the fastest rate)
+    public void start(long nowMs) {
+        settingSinceMs = nowMs;
+    }
+
+    public void stop(long nowMs) {
+        account(nowMs);
+        settingSinceMs = -1;
+    }
+
+    // New ride: statistics and state are cleared
+    public void reset() {
+        setting = CRUISE[0];
+        slowSinceMs = -1;
+        lastCornerMs = Long.MIN_VALUE / 2;
+        lastSwitchMs = Long.MIN_VALUE / 2;
+        lastBearingDeg = Double.NaN;
+        lastLatitude = Double.NaN;
+        lastLongitude = Double.NaN;
+        speedMps = 0.0;
+        stillMs = cornerMs = cruiseMs = 0;
+        highAccuracyFixes = baselineFixes = 0.0;
+        callbacks = fixes = switches = 0;
+    }
+
+    // A location callback delivered the given number of fixes
+    public void onCallback(int fixCount) {
+        callbacks++;
+        fixes += fixCount;
+    }
+
+    // A fix: position in degrees, speed in m/s, bearing in degrees and accuracy in meters (NaN when unknown).
+    // Returns true when the setting changed
+    public boolean onFix(long nowMs, double latitude, double longitude, double speedMps, double bearingDeg,
+                         double accuracyMeters) {
+        double previousLatitude = lastLatitude, previousLongitude = lastLongitude;
+        long previousMs = lastFixMs;
+        lastLatitude = latitude;
+        lastLongitude = longitude;
+        lastFixMs = nowMs;
+        if (Double.isNaN(speedMps)) {
+            if (Double.isNaN(previousLatitude) || nowMs <= previousMs) {
+                return false; // Nothing to decide on, keeps the current setting
+            }
+            // Only the displacement beyond the accuracy radius counts, so the jitter of a still position is not speed
+            double displacement = distanceMeters(previousLatitude, previousLongitude, latitude, longitude)
+                    - (Double.isNaN(accuracyMeters) ? 0.0 : accuracyMeters);
+            speedMps = Math.max(0.0, displacement) * 1000.0 / (nowMs - previousMs);
+        }
+        this.speedMps = speedMps;
+        if (speedMps < STILL_SPEED_MPS) {
+            if (slowSinceMs < 0) {
+                slowSinceMs = nowMs;
+            }
+        } else {
+            slowSinceMs = -1;
+        }
+        if (!Double.isNaN(bearingDeg) && speedMps >= STILL_SPEED_MPS) {
+            if (!Double.isNaN(lastBearingDeg) && nowMs > lastBearingMs) {
+                double change = Math.abs(((bearingDeg - lastBearingDeg) % 360 + 540) % 360 - 180);
+                if (change * 1000.0 / (nowMs - lastBearingMs) >= CORNER_HEADING_RATE_DEG_S) {
+                    lastCornerMs = nowMs;
+                }
+            }
+            lastBearingDeg = bearingDeg;
+            lastBearingMs = nowMs;
+        } else {
+            lastBearingDeg = Double.NaN; // The bearing of a slow fix is noise
+        }
+        return evaluate(nowMs);
+    }
+
+    // Bank angle from the fusion filter, in degrees. Returns true when the setting changed.
+    // Ignored when the last fix was slow (e.g. the bike leaning on its stand)
+    public boolean onBankAngle(long nowMs, double rollDeg) {
+        if (Math.abs(rollDeg) >= CORNER_BANK_DEG && speedMps >= STILL_SPEED_MPS) {
+            lastCornerMs = nowMs;
+            if (setting != CORNER) {
+                return evaluate(nowMs);
+            }
+        }
+        return false;
+    }
+
+    private boolean evaluate(long nowMs) {
+        Setting next;
+        if (nowMs - lastCornerMs < CORNER_HOLD_MS) {
+            next = CORNER;
+        } else if (slowSinceMs >= 0 && nowMs - slowSinceMs >= STILL_DELAY_MS) {
+            next = STILL;
+        } else if (slowSinceMs >= 0) {
+            next = setting; // Stopping or crawling, decided once still for STILL_DELAY_MS
+        } else {
+            long interval = speedMps > 0 ? (long) (CRUISE_SPACING_METERS / speedMps * 1000.0) : Long.MAX_VALUE;
+            int index = (int) Math.max(0, Math.min(CRUISE.length - 1, interval / 250 - 1));
+            next = CRUISE[index];
+            if (isCruise(setting) && Math.abs(setting.intervalMs - next.intervalMs) < 500) {
+                next = setting; // Speed wobbling around a step does not re-request
+            }
+        }
+        if (next == setting || (next != CORNER && nowMs - lastSwitchMs < MIN_SWITCH_INTERVAL_MS)) {
+            return false;
+        }
+        account(nowMs);
+        setting = next;
+        lastSwitchMs = nowMs;
+        switches++;
+        return true;
+    }
+
+    private static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double north = (lat2 - lat1) * METERS_PER_DEGREE;
+        double east = (lon2 - lon1) * METERS_PER_DEGREE * Math.cos(Math.toRadians(lat1));
+        return Math.sqrt(north * north + east * east);
+    }
+
+    private static boolean isCruise(Setting candidate) {
+        return candidate != STILL && candidate != CORNER;
+    }
+
+    // Adds the time spent with the current setting, up to now
+    private void account(long nowMs) {
+        if (settingSinceMs < 0 || nowMs <= settingSinceMs) {
+            return;
+        }
+        long elapsed = nowMs - settingSinceMs;
+        if (setting == STILL) {
+            stillMs += elapsed;
+        } else if (setting == CORNER) {
+            cornerMs += elapsed;
+        } else {
+            cruiseMs += elapsed;
+        }
+        if (setting.highAccuracy) {
+            highAccuracyFixes += (double) elapsed / setting.intervalMs;
+        }
+        baselineFixes += (double) elapsed / BASELINE_INTERVAL_MS;
+        settingSinceMs = nowMs;
+    }
+
+    public long getCallbackCount() {
+        return callbacks;
+    }
+
+    public long getFixCount() {
+        return fixes;
+    }
+
+    public long getSwitchCount() {
+        return switches;
+    }
+
+    // Callbacks the fixed 250 ms request (one fix per callback) would have made, minus the ones received
+    public long getSavedCallbacks(long nowMs) {
+        account(nowMs);
+        return Math.round(baselineFixes) - callbacks;
+    }
+
+    // High-accuracy (GNSS) fixes the fixed request would have asked for, minus the ones requested
+    public long getSavedHighAccuracyFixes(long nowMs) {
+        account(nowMs);
+        return Math.round(baselineFixes - highAccuracyFixes);
+    }
+
+    public String summary(long nowMs) {
+        account(nowMs);
+        long total = Math.max(1, stillMs + cornerMs + cruiseMs);
+        return String.format(Locale.US, "gps %s, still %d%% corner %d%% cruise %d%%, %d switches%n" +
+                        "gps %d callbacks (%d saved), %d fixes, %d GNSS fixes saved",
+                setting, 100 * stillMs / total, 100 * cornerMs / total, 100 * cruiseMs / total, switches,
+                callbacks, getSavedCallbacks(nowMs), fixes, getSavedHighAccuracyFixes(nowMs));
+    }
+}
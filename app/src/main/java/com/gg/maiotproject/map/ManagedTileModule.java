@@ -0,0 +1,131 @@
+package com.gg.maiotproject.map;
+
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.util.Log;
+
+import com.gg.maiotproject.tiles.HttpTileFetcher;
+import com.gg.maiotproject.tiles.TileCache;
+import com.gg.maiotproject.tiles.TileStore;
+
+import org.osmdroid.config.Configuration;
+import org.osmdroid.tileprovider.MapTileProviderArray;
+import org.osmdroid.tileprovider.MapTileProviderBase;
+import org.osmdroid.tileprovider.modules.MapTileModuleProviderBase;
+import org.osmdroid.tileprovider.tilesource.BitmapTileSourceBase;
+import org.osmdroid.tileprovider.tilesource.ITileSource;
+import org.osmdroid.tileprovider.tilesource.OnlineTileSourceBase;
+import org.osmdroid.tileprovider.util.SimpleRegisterReceiver;
+import org.osmdroid.util.MapTileIndex;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+// osmdroid tile provider module serving the map from our TileCache instead of osmdroid's own cache and downloader:
+// stored tiles are read from disk, missing ones are fetched (and stored) on the module's threads.
+// The cache is shared by every map of the app (MapHandler, SummaryActivity) and by the prefetcher.
+public class ManagedTileModule extends MapTileModuleProviderBase {
+    private final String TAG = "ManagedTileModule";
+
+    private static final int THREAD_COUNT = 2;
+    private static final int PENDING_QUEUE_SIZE = 40;
+    private static final int DEFAULT_BUDGET_MB = 256; // Overridden by the "budgetMb" preference of "tiles"
+
+    private static TileCache sharedCache = null;
+
+    private final TileCache tileCache;
+    private volatile ITileSource tileSource;
+
+    public ManagedTileModule(TileCache tileCache, ITileSource tileSource) {
+        super(THREAD_COUNT, PENDING_QUEUE_SIZE);
+        this.tileCache = tileCache;
+        this.tileSource = tileSource;
+    }
+
+    // Tile provider to give to MapView.setTileProvider(), with this module as its only source
+    public static MapTileProviderBase createProvider(Context context, OnlineTileSourceBase tileSource) {
+        ManagedTileModule module = new ManagedTileModule(getSharedCache(context, tileSource), tileSource);
+        return new MapTileProviderArray(tileSource, new SimpleRegisterReceiver(context.getApplicationContext()),
+                new MapTileModuleProviderBase[]{module});
+    }
+
+    // The app's tile cache, in its private files (not the cache directory, the system may clear it and
+    // imported areas must stay available offline). Fetches from the given source's server
+    public static synchronized TileCache getSharedCache(Context context, OnlineTileSourceBase tileSource) {
+        if (sharedCache == null) {
+            int budgetMb = context.getSharedPreferences("tiles", Context.MODE_PRIVATE).getInt("budgetMb", DEFAULT_BUDGET_MB);
+            TileStore store = new TileStore(new File(context.getFilesDir(), "tiles/" + tileSource.name()), budgetMb * 1024L * 1024L);
+            String urlTemplate = tileSource.getBaseUrl() + "{z}/{x}/{y}" + tileSource.imageFilenameEnding();
+            sharedCache = new TileCache(store, new HttpTileFetcher(urlTemplate, Configuration.getInstance().getUserAgentValue()));
+        }
+        return sharedCache;
+    }
+
+    public TileCache getTileCache() {
+        return tileCache;
+    }
+
+    // Stored tiles are served offline too, so the provider must not skip the module without a data connection
+    @Override
+    public boolean getUsesDataConnection() {
+        return false;
+    }
+
+    @Override
+    protected String getName() {
+        return "Managed tile cache";
+    }
+
+    @Override
+    protected String getThreadGroupName() {
+        return "managedtiles";
+    }
+
+    @Override
+    public TileLoader getTileLoader() {
+        return new CacheTileLoader();
+    }
+
+    @Override
+    public int getMinimumZoomLevel() {
+        ITileSource source = tileSource;
+        return source != null ? source.getMinimumZoomLevel() : 0;
+    }
+
+    @Override
+    public int getMaximumZoomLevel() {
+        ITileSource source = tileSource;
+        return source != null ? source.getMaximumZoomLevel() : 0;
+    }
+
+    @Override
+    public void setTileSource(ITileSource tileSource) {
+        this.tileSource = tileSource;
+    }
+
+    private class CacheTileLoader extends TileLoader {
+        @Override
+        public Drawable loadTile(long mapTileIndex) throws CantContinueException {
+            ITileSource source = tileSource;
+            if (source == null) {
+                return null;
+            }
+            byte[] data;
+            try {
+                data = tileCache.get(MapTileIndex.getZoom(mapTileIndex), MapTileIndex.getX(mapTileIndex), MapTileIndex.getY(mapTileIndex));
+            } catch (IOException e) {
+                return null; // No coverage, requested again on a later redraw
+            }
+            if (data == null) {
+                return null;
+            }
+            try {
+                return source.getDrawable(new ByteArrayInputStream(data));
+            } catch (BitmapTileSourceBase.LowMemoryException e) {
+                Log.w(TAG, "Low memory decoding tile " + MapTileIndex.getZoom(mapTileIndex) + "/" + MapTileIndex.getX(mapTileIndex));
+                throw new CantContinueException(e);
+            }
+        }
+    }
+}
@@ -2,40 +2,56 @@ package com.gg.maiotproject.map;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
-import android.location.Location;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.widget.Toast;
 
 import com.google.android.gms.location.FusedLocationProviderClient;
-import com.google.android.gms.location.LocationCallback;
-import com.google.android.gms.location.LocationRequest;
-import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
-import com.google.android.gms.location.Priority;
 
 import org.osmdroid.config.Configuration;
 import org.osmdroid.util.GeoPoint;
 import org.osmdroid.views.MapView;
 import org.osmdroid.views.overlay.Marker;
-import org.osmdroid.views.overlay.Polyline;
 import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
 
+import com.gg.maiotproject.interfaces.ILocationSource;
+import com.gg.maiotproject.interfaces.ILogger;
+import com.gg.maiotproject.interfaces.ITrackListener;
+import com.gg.maiotproject.interfaces.ITrackedFixListener;
+import com.gg.maiotproject.tiles.TileCache;
+import com.gg.maiotproject.tiles.TilePrefetcher;
+import com.gg.maiotproject.track.TrackBuffer;
+
+import java.io.File;
+
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
 
-public class MapHandler {
+// Draws the ride recorded by its RideTracker from the fixes of an ILocationSource (the fused location provider,
+// unless replaced with setLocationSource())
+public class MapHandler implements ITrackedFixListener {
+    private final String TAG = "MapHandler";
+
     private MapView mapView;
     private FusedLocationProviderClient fusedLocationClient;
     private WeakReference<Context> contextRef;
-    private List<GeoPoint> geoPoints;
-    private Polyline polyline;
-    private LocationCallback locationCallback;
+    private RideTracker rideTracker; // Track, statistics and location policy of the ride
+    private ILocationSource locationSource;
+    private TrackOverlay trackOverlay; // Draws the smoothed path at the level of detail of the zoom
+    private final List<GeoPoint> provisionalPoints = new ArrayList<>();
+    private PathSmoother pathSmoother;
     private Marker currentLocationMarker;
+    private MapRenderScheduler renderScheduler; // Applies marker, camera and track changes once per frame
+    private TileCache tileCache;
+    private TilePrefetcher tilePrefetcher;
 
-    private static final double DISTANCE_THRESHOLD_METERS = 3.0; // Movement threshold
     private static final int WINDOW_SIZE = 2;
+    // Zoom levels prefetched along the way: 19 is drawn at the riding zoom (20, beyond MAPNIK's deepest level),
+    // 16 keeps the surroundings visible when zooming out
+    private static final int[] PREFETCH_ZOOM_LEVELS = {16, 19};
 
     // The constructor initializes the MapHandler with the application context and MapView instance from the layout
     public MapHandler(Context context, MapView mapView) {
@@ -46,92 +62,148 @@ public class MapHandler {
         Configuration.getInstance().load(context, context.getSharedPreferences("osmdroid", Context.MODE_PRIVATE));
         Configuration.getInstance().setUserAgentValue("MyApp/1.0");
 
-        // Configures the MapView to use MAPNIK as tile source and set initial zoom level
-        mapView.setTileSource(TileSourceFactory.MAPNIK);
+        // Configures the MapView to use MAPNIK tiles, through our tile cache, and set initial zoom level
+        mapView.setTileProvider(ManagedTileModule.createProvider(context, TileSourceFactory.MAPNIK));
         mapView.setMultiTouchControls(true);
         mapView.getController().setZoom(20.0);
 
+        // Tiles are prefetched ahead of the rider. Tile archives of a planned area can be dropped
+        // (e.g. with adb) in the app's external files, under tiles-import, they are imported on the next start
+        tileCache = ManagedTileModule.getSharedCache(context, TileSourceFactory.MAPNIK);
+        tilePrefetcher = new TilePrefetcher(tileCache, PREFETCH_ZOOM_LEVELS);
+        File importDir = context.getExternalFilesDir("tiles-import");
+        if (importDir != null) {
+            tilePrefetcher.importArchives(importDir);
+        }
+
         // Instantiates Google's recommended API for location services
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(context);
+        locationSource = new LiveLocationSource(fusedLocationClient);
 
-        // Initializes an array to store GeoPoints (latitude/longitude) and creates a polyline obj to draw the path
-        geoPoints = new ArrayList<>();
-        polyline = new Polyline();
-        mapView.getOverlays().add(polyline);
+        // Initializes a primitive track store for the recorded fixes and creates a polyline obj to draw the path
+        rideTracker = new RideTracker(context.getCacheDir(), SystemClock::elapsedRealtime, ILogger.ANDROID);
+        rideTracker.setFixListener(this);
+        pathSmoother = new PathSmoother(WINDOW_SIZE);
+        trackOverlay = new TrackOverlay(mapView);
 
         // Initialize a marker to display the user's current position on the map
         currentLocationMarker = new Marker(mapView);
         currentLocationMarker.setTitle("Current Location");
         mapView.getOverlays().add(currentLocationMarker);
+        renderScheduler = new MapRenderScheduler(mapView, currentLocationMarker);
     }
 
-    // Calculates distance of journey
-    // It iterates through the geoPoints calculating distance between consecutive point using distanceToDouble()
+    // Returns distance of journey in kilometers
+    // The distance is accumulated fix by fix in RideStats, so this no longer walks the whole path
     public double getDistance() {
-        double distance = 0.0;
-        for (int i = 1; i < geoPoints.size(); i++) {
-            distance += geoPoints.get(i - 1).distanceToAsDouble(geoPoints.get(i));
-        }
-        return distance / 1000; // Convert from meters to kilometers
+        return rideTracker.getRideStats().getDistanceKm();
+    }
+
+    // Returns the live ride statistics (distance, speed, moving time, elevation gain)
+    public RideStats getRideStats() {
+        return rideTracker.getRideStats();
     }
 
     // Returns the recorded path (crucial for passing to SummaryActivity
+    // This is a lazy view over the track store: GeoPoints are only created for the elements that are read
     public List<GeoPoint> getGeoPoints() {
-        return geoPoints;
-    }
-
-    // Implements a moving average filter to smooth out fluctuations in GPS readings
-    private List<GeoPoint> applyMovingAverageFilter(List<GeoPoint> points, int WINDOW_SIZE) {
-        List<GeoPoint> smoothedPoints = new ArrayList<>();
-        for (int i = 0; i < points.size(); i++) {
-            double sumLat = 0.0;
-            double sumLon = 0.0;
-            int count = 0;
-            for (int j = Math.max(0, i - WINDOW_SIZE); j <= Math.min(points.size() - 1, i + WINDOW_SIZE); j++) {
-                sumLat += points.get(j).getLatitude();
-                sumLon += points.get(j).getLongitude();
-                count++;
-            }
-            smoothedPoints.add(new GeoPoint(sumLat / count, sumLon / count));
-        }
-        return smoothedPoints;
+        return rideTracker.getTrack().asGeoPoints();
+    }
+
+    // Returns the recorded track as primitive columns, for callers that can avoid GeoPoint objects
+    public TrackBuffer getTrack() {
+        return rideTracker.getTrack();
+    }
+
+    // Latest fix of the ride, accepted in the track or not. Thread safe
+    public boolean getLatestPosition(double[] latLon) {
+        return rideTracker.getLatestPosition(latLon);
+    }
+
+    // Told about every segment added to the track, e.g. to index the ride while it is recorded
+    public void setTrackListener(ITrackListener trackListener) {
+        rideTracker.setTrackListener(trackListener);
+    }
+
+    // Starts a fresh track and statistics. The previous TrackBuffer and RideStats are left untouched,
+    // so they can be handed over (e.g. to RideStore) before calling this
+    public void newRide() {
+        rideTracker.newRide();
+    }
+
+    // Where the fixes come from, e.g. a recorded ride replayed. Applied by the next startTracking()
+    public void setLocationSource(ILocationSource locationSource) {
+        this.locationSource = locationSource;
     }
 
-    @SuppressLint("MissingPermission")
     public void startTracking() {
-        LocationRequest locationRequest = new LocationRequest.Builder(
-                Priority.PRIORITY_HIGH_ACCURACY, 250)
-                .setMinUpdateIntervalMillis(250)
-                .build();
-
-        locationCallback = new LocationCallback() {
-            @Override
-            public void onLocationResult(LocationResult locationResult) {
-                if (locationResult == null) {
-                    return;
-                }
-                for (Location location : locationResult.getLocations()) {
-                    GeoPoint point = new GeoPoint(location.getLatitude(), location.getLongitude()); // When new location is received a GeoPoint is created
-                    if (!geoPoints.isEmpty()) {
-                        GeoPoint lastPoint = geoPoints.get(geoPoints.size() - 1);
-                        double distance = lastPoint.distanceToAsDouble(point);
-                        if (distance < DISTANCE_THRESHOLD_METERS) {
-                            continue; // Skip this point if the distance is below the threshold
-                        }
-                    }
-                    geoPoints.add(point);
-                    List<GeoPoint> smoothedPoints = applyMovingAverageFilter(geoPoints, WINDOW_SIZE); // moving average method called to smooth out points when drawing
-                    polyline.setPoints(smoothedPoints);
-                    mapView.getController().setCenter(point);
-
-                    // Update the marker position
-                    currentLocationMarker.setPosition(point);
-                    mapView.invalidate();
-                }
+        // Re-seed the smoothed path from the points recorded so far (e.g. when tracking is resumed after a pause)
+        pathSmoother.reset();
+        TrackBuffer track = rideTracker.getTrack();
+        PathPyramid pyramid = new PathPyramid();
+        for (int i = 0; i < track.size(); i++) {
+            pathSmoother.add(track.getLatitude(i), track.getLongitude(i));
+            GeoPoint finalized = pathSmoother.getLastFinalized();
+            if (finalized != null) {
+                pyramid.add(finalized);
             }
-        };
-        // Starts receiving location updates on the main Looper thread
-        fusedLocationClient.requestLocationUpdates(locationRequest, locationCallback, Looper.getMainLooper());
+        }
+        trackOverlay.setPyramid(pyramid);
+        updateProvisionalPoints();
+        renderScheduler.onTrackChanged();
+
+        rideTracker.start(locationSource);
+    }
+
+    @Override
+    public void onTrackedFix(double latitude, double longitude, float bearing, float speed, boolean accepted) {
+        tilePrefetcher.onLocation(latitude, longitude, bearing, Float.isNaN(speed) ? 0.0 : speed);
+        if (!accepted) {
+            return;
+        }
+        // The smoother appends one smoothed point and updates the last WINDOW_SIZE ones in place.
+        // Points enter the simplified path once final, the others are drawn as its live tail
+        pathSmoother.add(latitude, longitude);
+        GeoPoint finalized = pathSmoother.getLastFinalized();
+        if (finalized != null) {
+            trackOverlay.addPoint(finalized);
+        }
+        updateProvisionalPoints();
+
+        // Marker, camera and track are redrawn on the next frame, once for the whole batch of fixes
+        renderScheduler.moveTo(latitude, longitude);
+        renderScheduler.onTrackChanged();
+    }
+
+    // Bank angle from the fusion filter, called once per frame while tracking: a corner asks for denser fixes
+    public void onBankAngle(float rollDeg) {
+        rideTracker.onBankAngle(rollDeg);
+    }
+
+    private void updateProvisionalPoints() {
+        provisionalPoints.clear();
+        pathSmoother.getProvisionalPoints(provisionalPoints);
+        trackOverlay.setProvisionalPoints(provisionalPoints);
+    }
+
+    // Drawn vertex count and draw time of the path, they depend on the zoom but not on the ride length
+    public TrackOverlay getTrackOverlay() {
+        return trackOverlay;
+    }
+
+    // Hit rate and traffic of the map tiles
+    public TileCache getTileCache() {
+        return tileCache;
+    }
+
+    // Frame rate and cost of the map updates
+    public MapRenderScheduler getRenderScheduler() {
+        return renderScheduler;
+    }
+
+    // Location request switches and the callbacks and GNSS fixes they saved during the ride
+    public LocationPolicy getLocationPolicy() {
+        return rideTracker.getLocationPolicy();
     }
 
     @SuppressLint("MissingPermission")
@@ -140,10 +212,7 @@ public class MapHandler {
             // Used to get most recently location
             fusedLocationClient.getLastLocation().addOnSuccessListener(location -> {
                 if (location != null) {
-                    GeoPoint point = new GeoPoint(location.getLatitude(), location.getLongitude());
-                    mapView.getController().setCenter(point);
-                    currentLocationMarker.setPosition(point);
-                    mapView.invalidate();
+                    renderScheduler.jumpTo(location.getLatitude(), location.getLongitude());
                 } else {
                     // Handle the case where location is null after the delay
                     Toast.makeText(contextRef.get(), "Unable to get current location", Toast.LENGTH_SHORT).show();
@@ -154,11 +223,9 @@ public class MapHandler {
 
     // Cleans up tracking resources
     public void stopTracking() {
-        if (locationCallback != null) {
-            fusedLocationClient.removeLocationUpdates(locationCallback);    // Stops receiving location updates
-        }
+        rideTracker.stop(); // Stops receiving location updates
+        tilePrefetcher.cancel();
 
-        polyline.setPoints(geoPoints);
-        mapView.invalidate();
+        renderScheduler.onTrackChanged();
     }
 }
\ No newline at end of file
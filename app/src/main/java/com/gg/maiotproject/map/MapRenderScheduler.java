@@ -0,0 +1,127 @@
+package com.gg.maiotproject.map;
+
+import android.view.Choreographer;
+
+import com.gg.maiotproject.metrics.LatencyHistogram;
+
+import org.osmdroid.util.GeoPoint;
+import org.osmdroid.views.MapView;
+import org.osmdroid.views.overlay.Marker;
+
+import java.util.Locale;
+
+// Applies the map changes caused by location fixes once per display frame.
+// Fixes only record what changed (the newest position, the track); a Choreographer frame callback then moves the
+// marker and the camera and invalidates the map once, however many fixes of a batch arrived since the last frame.
+// Between fixes the marker and the camera glide towards the newest fix (FixAnimation), one step per frame.
+// Frames where nothing visible changed are not drawn, and no callback is posted once the animation has settled.
+// Must be used from the UI thread.
+public class MapRenderScheduler implements Choreographer.FrameCallback {
+
+    private final MapView mapView;
+    private final Marker marker;
+    private final FixAnimation animation = new FixAnimation();
+    private final GeoPoint shown = new GeoPoint(0.0, 0.0);
+    private boolean trackChanged = false;
+    private boolean framePosted = false;
+    private boolean animating = false; // The previous frame was part of the same animation
+    private long lastFrameTimeNs = 0;
+
+    // Frame statistics
+    private final LatencyHistogram frameWork = new LatencyHistogram();     // Time spent applying the changes
+    private final LatencyHistogram frameInterval = new LatencyHistogram(); // Between consecutive animated frames
+    private long updates = 0;     // Position and track changes requested
+    private long drawnFrames = 0; // Frames that invalidated the map
+    private long idleFrames = 0;  // Frames that found nothing visible to change
+
+    public MapRenderScheduler(MapView mapView, Marker marker) {
+        this.mapView = mapView;
+        this.marker = marker;
+    }
+
+    // New position of the rider, shown by gliding from the current one
+    public void moveTo(double latitude, double longitude) {
+        animation.setTarget(latitude, longitude, System.nanoTime());
+        updates++;
+        requestFrame();
+    }
+
+    // New position shown as it is, e.g. the last known location at startup
+    public void jumpTo(double latitude, double longitude) {
+        animation.jumpTo(latitude, longitude);
+        updates++;
+        requestFrame();
+    }
+
+    // The track overlay changed and has to be drawn again
+    public void onTrackChanged() {
+        trackChanged = true;
+        updates++;
+        requestFrame();
+    }
+
+    private void requestFrame() {
+        if (!framePosted) {
+            framePosted = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        framePosted = false;
+        long startNs = System.nanoTime();
+        boolean moved = animation.step(frameTimeNanos);
+        if (moved) {
+            shown.setCoords(animation.getLatitude(), animation.getLongitude());
+            marker.setPosition(shown);
+            mapView.getController().setCenter(shown);
+        }
+        if (moved || trackChanged) {
+            trackChanged = false;
+            mapView.invalidate();
+            drawnFrames++;
+            frameWork.record(System.nanoTime() - startNs);
+        } else {
+            idleFrames++;
+        }
+
+        boolean settled = animation.isSettled(frameTimeNanos);
+        if (animating) {
+            frameInterval.record(frameTimeNanos - lastFrameTimeNs);
+        }
+        animating = !settled;
+        lastFrameTimeNs = frameTimeNanos;
+        if (!settled) {
+            requestFrame();
+        }
+    }
+
+    public LatencyHistogram getFrameWork() {
+        return frameWork;
+    }
+
+    public LatencyHistogram getFrameInterval() {
+        return frameInterval;
+    }
+
+    public long getUpdateCount() {
+        return updates;
+    }
+
+    public long getDrawnFrameCount() {
+        return drawnFrames;
+    }
+
+    public long getIdleFrameCount() {
+        return idleFrames;
+    }
+
+    @Override
+    public String toString() {
+        long meanIntervalNs = frameInterval.getMeanNs();
+        return String.format(Locale.US, "map %.0f fps, %d updates -> %d frames (%d idle), apply p99 %d us, frame p99 %.1f ms",
+                meanIntervalNs > 0 ? 1e9 / meanIntervalNs : 0.0, updates, drawnFrames, idleFrames,
+                frameWork.getPercentileNs(99) / 1000, frameInterval.getPercentileNs(99) / 1e6);
+    }
+}
@@ -0,0 +1,205 @@
+package com.gg.maiotproject.map;
+
+import org.osmdroid.util.GeoPoint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Multi-resolution version of the path, built point by point as the ride goes, for drawing.
+// Level k is the path simplified with a tolerance of BASE_TOLERANCE_METERS * 2^k: every point of the path
+// lies within that distance of the level's polyline. The overlay draws the level whose tolerance matches
+// a pixel at the current zoom, so the number of drawn vertices depends on the screen, not on the ride length.
+// Each level is simplified on the fly with a sleeve (cone intersection) test, O(1) per point and level:
+// from the last vertex, every point narrows the cone of directions a segment may take to stay within the
+// tolerance of it; the first point outside the cone, or closer to the vertex than a point before it (the path
+// turns back, the segment would end short of that point), makes the previous point a vertex.
+// Vertices are the path's own GeoPoints (no copies), the points given to add() must no longer change.
+public class PathPyramid {
+
+    public static final int LEVELS = 18;
+    private static final double BASE_TOLERANCE_METERS = 0.5; // Level 17 is ~65 km
+    private static final double METERS_PER_DEGREE = GeoPoint.RADIUS_EARTH_METERS * Math.PI / 180.0;
+
+    private final Level[] levels = new Level[LEVELS];
+    private int count = 0;
+    private GeoPoint lastPoint = null;
+    private double originLat, originLon, metersPerDegreeLon; // Local projection, set by the first point
+
+    public PathPyramid() {
+        for (int k = 0; k < LEVELS; k++) {
+            levels[k] = new Level(BASE_TOLERANCE_METERS * (1 << k));
+        }
+    }
+
+    // Builds the pyramid of a complete path (e.g. the summary screen)
+    public static PathPyramid of(List<GeoPoint> points) {
+        PathPyramid pyramid = new PathPyramid();
+        for (GeoPoint point : points) {
+            pyramid.add(point);
+        }
+        return pyramid;
+    }
+
+    // Adds the next point of the path. Returns a bit mask of the levels that gained a vertex,
+    // whose last vertex is then the previous point
+    public int add(GeoPoint point) {
+        if (count == 0) {
+            originLat = point.getLatitude();
+            originLon = point.getLongitude();
+            metersPerDegreeLon = METERS_PER_DEGREE * Math.cos(Math.toRadians(originLat));
+        }
+        double x = (point.getLongitude() - originLon) * metersPerDegreeLon;
+        double y = (point.getLatitude() - originLat) * METERS_PER_DEGREE;
+        int changed = 0;
+        for (int k = 0; k < LEVELS; k++) {
+            if (levels[k].add(point, count, x, y)) {
+                changed |= 1 << k;
+            }
+        }
+        lastPoint = point;
+        count++;
+        return changed;
+    }
+
+    public void clear() {
+        for (Level level : levels) {
+            level.clear();
+        }
+        count = 0;
+        lastPoint = null;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public static double getTolerance(int level) {
+        return BASE_TOLERANCE_METERS * (1 << level);
+    }
+
+    // Coarsest level whose tolerance is at most pixelTolerance pixels of metersPerPixel
+    public static int levelFor(double metersPerPixel, double pixelTolerance) {
+        double allowed = metersPerPixel * pixelTolerance;
+        int level = 0;
+        while (level + 1 < LEVELS && getTolerance(level + 1) <= allowed) {
+            level++;
+        }
+        return level;
+    }
+
+    // Vertices of the level (read-only view), the path from the first point to the level's last vertex.
+    // The rest of the path, up to getLastPoint(), is within the tolerance of the segment from the last vertex
+    public List<GeoPoint> getVertices(int level) {
+        return levels[level].verticesView;
+    }
+
+    // Index in the path of the level's i-th vertex
+    public int getVertexIndex(int level, int i) {
+        return levels[level].indices[i];
+    }
+
+    public int getVertexCount(int level) {
+        return levels[level].vertices.size();
+    }
+
+    // Newest point added, null when empty
+    public GeoPoint getLastPoint() {
+        return lastPoint;
+    }
+
+    private static final class Level {
+        final double tolerance;
+        final List<GeoPoint> vertices = new ArrayList<>();
+        final List<GeoPoint> verticesView = Collections.unmodifiableList(vertices);
+        int[] indices = new int[64];
+
+        // Last vertex, in local meters
+        double anchorX, anchorY;
+        // Cone of admissible directions from the anchor, as angles relative to coneCenter (radians)
+        boolean coneOpen = false; // False until a point farther than the tolerance is seen
+        double coneCenter, coneLow, coneHigh;
+        double maxDistance; // Farthest point from the anchor so far
+        // Previous point, candidate for the next vertex
+        GeoPoint previous;
+        int previousIndex;
+        double previousX, previousY;
+
+        Level(double tolerance) {
+            this.tolerance = tolerance;
+        }
+
+        void clear() {
+            vertices.clear();
+            previous = null;
+            coneOpen = false;
+        }
+
+        boolean add(GeoPoint point, int index, double x, double y) {
+            boolean added = false;
+            if (vertices.isEmpty()) {
+                addVertex(point, index, x, y);
+                added = true;
+            } else if (!fits(x, y)) {
+                // No segment from the anchor reaches this point and passes close enough to the ones before
+                addVertex(previous, previousIndex, previousX, previousY);
+                added = true;
+                fits(x, y); // Starts the new cone with this point
+            }
+            previous = point;
+            previousIndex = index;
+            previousX = x;
+            previousY = y;
+            return added;
+        }
+
+        // Checks the direction to the point against the cone, then narrows the cone with it
+        private boolean fits(double x, double y) {
+            double dx = x - anchorX;
+            double dy = y - anchorY;
+            double distance = Math.sqrt(dx * dx + dy * dy);
+            if (distance <= tolerance) {
+                return true; // Within the tolerance of the anchor itself
+            }
+            if (distance < maxDistance) {
+                return false;
+            }
+            maxDistance = distance;
+            double direction = Math.atan2(dy, dx);
+            double halfWidth = Math.asin(tolerance / distance);
+            if (!coneOpen) {
+                coneOpen = true;
+                coneCenter = direction;
+                coneLow = -halfWidth;
+                coneHigh = halfWidth;
+                return true;
+            }
+            double relative = normalize(direction - coneCenter);
+            if (relative < coneLow || relative > coneHigh) {
+                return false;
+            }
+            coneLow = Math.max(coneLow, relative - halfWidth);
+            coneHigh = Math.min(coneHigh, relative + halfWidth);
+            return true;
+        }
+
+        private void addVertex(GeoPoint point, int index, double x, double y) {
+            if (vertices.size() == indices.length) {
+                indices = Arrays.copyOf(indices, indices.length * 2);
+            }
+            indices[vertices.size()] = index;
+            vertices.add(point);
+            anchorX = x;
+            anchorY = y;
+            coneOpen = false;
+            maxDistance = 0;
+        }
+
+        private static double normalize(double angle) {
+            while (angle > Math.PI) angle -= 2 * Math.PI;
+            while (angle <= -Math.PI) angle += 2 * Math.PI;
+            return angle;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.gg.maiotproject.map;
+
+import com.gg.maiotproject.track.TrackView;
+
+import org.osmdroid.util.GeoPoint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Streaming version of the centered moving average used to smooth the GPS path.
+// Smoothed point i averages raw points [i - windowSize, i + windowSize], clipped at the track ends,
+// so only the last windowSize + 1 smoothed points can still change when a new raw point arrives.
+// Those provisional points are recomputed from a small ring of raw coordinates; everything older is final.
+public class PathSmoother {
+    private final int windowSize;
+
+    // Ring of the last (2 * windowSize + 1) raw coordinates, enough to recompute every provisional point
+    private final double[] rawLat;
+    private final double[] rawLon;
+
+    // Ring of the smoothed points that are still provisional (they are mutated in place as new points arrive)
+    private final GeoPoint[] provisional;
+
+    private int count = 0; // Number of raw points received so far
+
+    public PathSmoother(int windowSize) {
+        this.windowSize = windowSize;
+        this.rawLat = new double[2 * windowSize + 1];
+        this.rawLon = new double[2 * windowSize + 1];
+        this.provisional = new GeoPoint[windowSize + 1];
+    }
+
+    // Adds a raw point and returns the newly created smoothed point for it.
+    // The previous windowSize smoothed points are updated in place, so callers holding them (e.g. a Polyline) see the new values.
+    public GeoPoint add(double latitude, double longitude) {
+        int rawSlot = count % rawLat.length;
+        rawLat[rawSlot] = latitude;
+        rawLon[rawSlot] = longitude;
+        count++;
+
+        GeoPoint appended = new GeoPoint(latitude, longitude);
+        provisional[(count - 1) % provisional.length] = appended;
+
+        int last = count - 1;
+        for (int i = Math.max(0, last - windowSize); i <= last; i++) {
+            // Same summation order as smooth() so the result is bit-for-bit identical
+            double sumLat = 0.0;
+            double sumLon = 0.0;
+            int n = 0;
+            for (int j = Math.max(0, i - windowSize); j <= Math.min(last, i + windowSize); j++) {
+                sumLat += rawLat[j % rawLat.length];
+                sumLon += rawLon[j % rawLon.length];
+                n++;
+            }
+            provisional[i % provisional.length].setCoords(sumLat / n, sumLon / n);
+        }
+        return appended;
+    }
+
+    // Smoothed point that became final with the last add(): no later point changes it any more.
+    // Null until more than windowSize points were added
+    public GeoPoint getLastFinalized() {
+        int index = count - 1 - windowSize;
+        return index >= 0 ? provisional[index % provisional.length] : null;
+    }
+
+    // Adds to out the smoothed points that can still change (the last windowSize ones), oldest first
+    public void getProvisionalPoints(List<GeoPoint> out) {
+        for (int i = Math.max(0, count - windowSize); i < count; i++) {
+            out.add(provisional[i % provisional.length]);
+        }
+    }
+
+    public void reset() {
+        count = 0;
+        Arrays.fill(provisional, null);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // Batch moving average filter over a complete path (used by the summary screen and as the reference for add())
+    public static List<GeoPoint> smooth(List<GeoPoint> points, int windowSize) {
+        List<GeoPoint> smoothedPoints = new ArrayList<>();
+        for (int i = 0; i < points.size(); i++) {
+            double sumLat = 0.0;
+            double sumLon = 0.0;
+            int count = 0;
+            for (int j = Math.max(0, i - windowSize); j <= Math.min(points.size() - 1, i + windowSize); j++) {
+                sumLat += points.get(j).getLatitude();
+                sumLon += points.get(j).getLongitude();
+                count++;
+            }
+            smoothedPoints.add(new GeoPoint(sumLat / count, sumLon / count));
+        }
+        return smoothedPoints;
+    }
+
+    // Same filter over a primitive track (e.g. a memory-mapped ride), streamed through add() so no raw GeoPoints are created
+    public static List<GeoPoint> smooth(TrackView track, int windowSize) {
+        PathSmoother smoother = new PathSmoother(windowSize);
+        List<GeoPoint> smoothedPoints = new ArrayList<>(track.size());
+        for (int i = 0; i < track.size(); i++) {
+            smoothedPoints.add(smoother.add(track.getLatitude(i), track.getLongitude(i)));
+        }
+        return smoothedPoints;
+    }
+}
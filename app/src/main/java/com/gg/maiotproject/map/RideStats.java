@@ -0,0 +1,234 @@
+package com.gg.maiotproject.map;
+
+import android.location.Location;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.nio.ByteBuffer;
+
+// Ride statistics maintained incrementally, one O(1) update per location fix.
+// MainActivity polls it for the live readout and it is handed as-is to SummaryActivity,
+// so nothing has to be recomputed over the whole path when the ride stops.
+public class RideStats implements Parcelable {
+
+    private static final double MOVING_SPEED_THRESHOLD_MPS = 1.0; // Below ~3.6 km/h the bike is considered stopped
+    private static final double ELEVATION_THRESHOLD_METERS = 3.0; // Climbs smaller than this are treated as GPS altitude noise
+    private static final long MAX_MOVING_GAP_MS = 10000; // Longer gaps between fixes (signal loss) are not counted as moving time
+
+    // Total distance of the accepted path, accumulated with Kahan (compensated) summation
+    private double distanceMeters = 0.0;
+    private double distanceCompensation = 0.0;
+
+    private double currentSpeedMps = 0.0;
+    private double maxSpeedMps = 0.0;
+    private long movingTimeMs = 0;
+    private long startTimeMs = 0;
+    private long lastFixTimeMs = 0;
+    private int fixCount = 0;
+
+    private double elevationGainMeters = 0.0;
+    private double elevationReference = Double.NaN;
+
+    // Time of the last accepted point, used to derive speed when the provider reports none
+    private boolean hasLastPoint = false;
+    private long lastPointTimeMs = 0;
+
+    public RideStats() {
+    }
+
+    public void reset() {
+        distanceMeters = 0.0;
+        distanceCompensation = 0.0;
+        currentSpeedMps = 0.0;
+        maxSpeedMps = 0.0;
+        movingTimeMs = 0;
+        startTimeMs = 0;
+        lastFixTimeMs = 0;
+        fixCount = 0;
+        elevationGainMeters = 0.0;
+        elevationReference = Double.NaN;
+        hasLastPoint = false;
+        lastPointTimeMs = 0;
+    }
+
+    // Called for every received fix. segmentMeters is the distance from the previous accepted point
+    // when this fix was accepted into the path, or NaN when it was dropped by the movement threshold.
+    public void onFix(Location location, double segmentMeters) {
+        onFix(location.getTime(),
+                location.hasSpeed() ? location.getSpeed() : Double.NaN,
+                location.hasAltitude() ? location.getAltitude() : Double.NaN,
+                segmentMeters);
+    }
+
+    // Primitive variant of onFix(Location, double); missing speed or altitude are passed as NaN
+    public void onFix(long timeMs, double speedMps, double altitudeMeters, double segmentMeters) {
+        if (fixCount == 0) {
+            startTimeMs = timeMs;
+        }
+
+        boolean accepted = !Double.isNaN(segmentMeters);
+        if (accepted && hasLastPoint) {
+            double y = segmentMeters - distanceCompensation;
+            double t = distanceMeters + y;
+            distanceCompensation = (t - distanceMeters) - y;
+            distanceMeters = t;
+        }
+
+        // Prefer the speed reported by the provider, otherwise derive it from the last accepted segment
+        if (!Double.isNaN(speedMps)) {
+            currentSpeedMps = speedMps;
+        } else if (accepted && hasLastPoint && timeMs > lastPointTimeMs) {
+            currentSpeedMps = segmentMeters * 1000.0 / (timeMs - lastPointTimeMs);
+        }
+        if (currentSpeedMps > maxSpeedMps) {
+            maxSpeedMps = currentSpeedMps;
+        }
+
+        if (fixCount > 0) {
+            long deltaMs = timeMs - lastFixTimeMs;
+            if (deltaMs > 0 && deltaMs <= MAX_MOVING_GAP_MS && currentSpeedMps >= MOVING_SPEED_THRESHOLD_MPS) {
+                movingTimeMs += deltaMs;
+            }
+        }
+
+        // Elevation gain with hysteresis: the reference follows descents, climbs only count once they exceed the threshold
+        if (!Double.isNaN(altitudeMeters)) {
+            if (Double.isNaN(elevationReference) || altitudeMeters < elevationReference) {
+                elevationReference = altitudeMeters;
+            } else if (altitudeMeters - elevationReference >= ELEVATION_THRESHOLD_METERS) {
+                elevationGainMeters += altitudeMeters - elevationReference;
+                elevationReference = altitudeMeters;
+            }
+        }
+
+        if (accepted) {
+            hasLastPoint = true;
+            lastPointTimeMs = timeMs;
+        }
+        lastFixTimeMs = timeMs;
+        fixCount++;
+    }
+
+    public double getDistanceMeters() {
+        return distanceMeters;
+    }
+
+    public double getDistanceKm() {
+        return distanceMeters / 1000;
+    }
+
+    public double getCurrentSpeedKmh() {
+        return currentSpeedMps * 3.6;
+    }
+
+    public double getMaxSpeedKmh() {
+        return maxSpeedMps * 3.6;
+    }
+
+    // Average speed over the time actually spent moving
+    public double getAverageSpeedKmh() {
+        if (movingTimeMs == 0) {
+            return 0.0;
+        }
+        return distanceMeters / (movingTimeMs / 1000.0) * 3.6;
+    }
+
+    public long getMovingTimeMs() {
+        return movingTimeMs;
+    }
+
+    public long getElapsedTimeMs() {
+        return fixCount == 0 ? 0 : lastFixTimeMs - startTimeMs;
+    }
+
+    public double getElevationGainMeters() {
+        return elevationGainMeters;
+    }
+
+    public int getFixCount() {
+        return fixCount;
+    }
+
+    // Fixed-size binary form used by the ride files (see storage.RideFile)
+    public static final int SERIALIZED_BYTES = 6 * 8 + 4 * 8 + 2 * 4;
+
+    public void writeTo(ByteBuffer out) {
+        out.putDouble(distanceMeters);
+        out.putDouble(distanceCompensation);
+        out.putDouble(currentSpeedMps);
+        out.putDouble(maxSpeedMps);
+        out.putLong(movingTimeMs);
+        out.putLong(startTimeMs);
+        out.putLong(lastFixTimeMs);
+        out.putInt(fixCount);
+        out.putDouble(elevationGainMeters);
+        out.putDouble(elevationReference);
+        out.putInt(hasLastPoint ? 1 : 0);
+        out.putLong(lastPointTimeMs);
+    }
+
+    public static RideStats readFrom(ByteBuffer in) {
+        RideStats stats = new RideStats();
+        stats.distanceMeters = in.getDouble();
+        stats.distanceCompensation = in.getDouble();
+        stats.currentSpeedMps = in.getDouble();
+        stats.maxSpeedMps = in.getDouble();
+        stats.movingTimeMs = in.getLong();
+        stats.startTimeMs = in.getLong();
+        stats.lastFixTimeMs = in.getLong();
+        stats.fixCount = in.getInt();
+        stats.elevationGainMeters = in.getDouble();
+        stats.elevationReference = in.getDouble();
+        stats.hasLastPoint = in.getInt() != 0;
+        stats.lastPointTimeMs = in.getLong();
+        return stats;
+    }
+
+    protected RideStats(Parcel in) {
+        distanceMeters = in.readDouble();
+        distanceCompensation = in.readDouble();
+        currentSpeedMps = in.readDouble();
+        maxSpeedMps = in.readDouble();
+        movingTimeMs = in.readLong();
+        startTimeMs = in.readLong();
+        lastFixTimeMs = in.readLong();
+        fixCount = in.readInt();
+        elevationGainMeters = in.readDouble();
+        elevationReference = in.readDouble();
+        hasLastPoint = in.readInt() != 0;
+        lastPointTimeMs = in.readLong();
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeDouble(distanceMeters);
+        dest.writeDouble(distanceCompensation);
+        dest.writeDouble(currentSpeedMps);
+        dest.writeDouble(maxSpeedMps);
+        dest.writeLong(movingTimeMs);
+        dest.writeLong(startTimeMs);
+        dest.writeLong(lastFixTimeMs);
+        dest.writeInt(fixCount);
+        dest.writeDouble(elevationGainMeters);
+        dest.writeDouble(elevationReference);
+        dest.writeInt(hasLastPoint ? 1 : 0);
+        dest.writeLong(lastPointTimeMs);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<RideStats> CREATOR = new Creator<RideStats>() {
+        @Override
+        public RideStats createFromParcel(Parcel in) {
+            return new RideStats(in);
+        }
+
+        @Override
+        public RideStats[] newArray(int size) {
+            return new RideStats[size];
+        }
+    };
+}
@@ -0,0 +1,164 @@
+package com.gg.maiotproject.map;
+
+import org.osmdroid.util.GeoPoint;
+
+import com.gg.maiotproject.interfaces.ILocationListener;
+import com.gg.maiotproject.interfaces.ILocationSource;
+import com.gg.maiotproject.interfaces.ILogger;
+import com.gg.maiotproject.interfaces.ITrackListener;
+import com.gg.maiotproject.interfaces.ITrackedFixListener;
+import com.gg.maiotproject.track.TrackBuffer;
+
+import java.io.File;
+import java.util.function.LongSupplier;
+
+// The ride recorded from the fixes of an ILocationSource, without the map: the track, its statistics and the
+// location policy. MapHandler draws what it records; replays run it on their own, on the JVM too.
+// The policy runs on elapsedRealtimeMs only (SystemClock.elapsedRealtime() on the phone), the clock of the fixes'
+// elapsed realtime too.
+// Not synchronized: called from the thread delivering the fixes, except getLatestPosition()
+public class RideTracker implements ILocationListener {
+    private final String TAG = "RideTracker";
+
+    private static final int MAX_RESIDENT_TRACK_CHUNKS = 32; // ~32k points in memory, older chunks are spilled to disk
+
+    private final File cacheDir;
+    private final LongSupplier elapsedRealtimeMs;
+    private final ILogger logger;
+    private TrackBuffer track;
+    private RideStats rideStats;
+    private final GeoPoint lastPoint = new GeoPoint(0.0, 0.0); // Last accepted point, reused for the movement threshold check
+    private final LocationPolicy locationPolicy = new LocationPolicy(); // Location request rate, from speed and lean
+    private ITrackListener trackListener = null;
+    private ITrackedFixListener fixListener = null;
+    private ILocationSource locationSource = null; // Between start() and stop()
+    private volatile GeoPoint latestPosition = null; // Latest fix, read from the fusion thread (corner apexes)
+    private boolean policyChanged = false;
+
+    // The track spills its older points to cacheDir
+    public RideTracker(File cacheDir, LongSupplier elapsedRealtimeMs, ILogger logger) {
+        this.cacheDir = cacheDir;
+        this.elapsedRealtimeMs = elapsedRealtimeMs;
+        this.logger = logger;
+        newRide();
+    }
+
+    // Starts a fresh track and statistics. The previous TrackBuffer and RideStats are left untouched,
+    // so they can be handed over (e.g. to RideStore) before calling this
+    public void newRide() {
+        track = new TrackBuffer(MAX_RESIDENT_TRACK_CHUNKS, new File(cacheDir, "track-" + System.nanoTime() + ".spill"));
+        rideStats = new RideStats();
+        locationPolicy.reset();
+        latestPosition = null;
+    }
+
+    // Told about every segment added to the track, e.g. to index the ride while it is recorded
+    public void setTrackListener(ITrackListener trackListener) {
+        this.trackListener = trackListener;
+    }
+
+    // Told about every fix once recorded, e.g. to draw it
+    public void setFixListener(ITrackedFixListener fixListener) {
+        this.fixListener = fixListener;
+    }
+
+    // Fixes of the source are recorded until stop(), requested as the policy says
+    public void start(ILocationSource locationSource) {
+        this.locationSource = locationSource;
+        locationPolicy.start(elapsedRealtimeMs.getAsLong());
+        locationSource.start(this, locationPolicy.getSetting());
+    }
+
+    public void stop() {
+        if (locationSource == null) {
+            return;
+        }
+        locationSource.stop();
+        locationSource = null;
+        long now = elapsedRealtimeMs.getAsLong();
+        locationPolicy.stop(now);
+        logger.d(TAG, locationPolicy.summary(now));
+    }
+
+    public boolean isStarted() {
+        return locationSource != null;
+    }
+
+    // Bank angle from the fusion filter, called once per frame while tracking: a corner asks for denser fixes
+    public void onBankAngle(float rollDeg) {
+        if (locationSource != null && locationPolicy.onBankAngle(elapsedRealtimeMs.getAsLong(), rollDeg)) {
+            locationSource.setRequest(locationPolicy.getSetting());
+        }
+    }
+
+    @Override
+    public void onFixBatch(int fixCount) {
+        locationPolicy.onCallback(fixCount);
+        policyChanged = false;
+    }
+
+    @Override
+    public void onFix(double latitude, double longitude, long timeMs, long elapsedRealtimeMs, double altitude,
+                      float speed, float bearing, float accuracy) {
+        boolean accepted = record(latitude, longitude, timeMs, elapsedRealtimeMs, altitude, speed, bearing, accuracy);
+        if (fixListener != null) {
+            fixListener.onTrackedFix(latitude, longitude, bearing, speed, accepted);
+        }
+    }
+
+    // Returns true when the fix was added to the track, false when it was too close to the last point
+    private boolean record(double latitude, double longitude, long timeMs, long elapsedRealtimeMs, double altitude,
+                           float speed, float bearing, float accuracy) {
+        policyChanged |= locationPolicy.onFix(elapsedRealtimeMs, latitude, longitude, speed, bearing, accuracy);
+        GeoPoint point = new GeoPoint(latitude, longitude);
+        latestPosition = point;
+        double distance = 0.0;
+        if (!track.isEmpty()) {
+            distance = lastPoint.distanceToAsDouble(point);
+            if (distance < locationPolicy.getSetting().acceptDistanceMeters) {
+                rideStats.onFix(timeMs, speed, altitude, Double.NaN); // Still updates speed and moving time
+                return false; // Skip this point if the distance is below the threshold
+            }
+        }
+        track.append(latitude, longitude, timeMs, speed, accuracy);
+        if (trackListener != null && track.size() > 1) {
+            trackListener.onNewSegment(track.size() - 2, lastPoint.getLatitude(), lastPoint.getLongitude(),
+                    latitude, longitude);
+        }
+        lastPoint.setCoords(latitude, longitude);
+        rideStats.onFix(timeMs, speed, altitude, distance);
+        return true;
+    }
+
+    // The delivery is over: the location request changes if the policy did
+    @Override
+    public void onFixBatchEnd() {
+        if (policyChanged && locationSource != null) {
+            locationSource.setRequest(locationPolicy.getSetting());
+        }
+        policyChanged = false;
+    }
+
+    public TrackBuffer getTrack() {
+        return track;
+    }
+
+    public RideStats getRideStats() {
+        return rideStats;
+    }
+
+    public LocationPolicy getLocationPolicy() {
+        return locationPolicy;
+    }
+
+    // Latest fix of the ride, accepted in the track or not. Thread safe: the point is never modified once published
+    public boolean getLatestPosition(double[] latLon) {
+        GeoPoint position = latestPosition;
+        if (position == null) {
+            return false;
+        }
+        latLon[0] = position.getLatitude();
+        latLon[1] = position.getLongitude();
+        return true;
+    }
+}
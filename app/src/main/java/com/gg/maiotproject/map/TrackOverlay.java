@@ -0,0 +1,128 @@
+package com.gg.maiotproject.map;
+
+import android.graphics.Canvas;
+
+import com.gg.maiotproject.metrics.LatencyHistogram;
+
+import org.osmdroid.api.IGeoPoint;
+import org.osmdroid.events.MapListener;
+import org.osmdroid.events.ScrollEvent;
+import org.osmdroid.events.ZoomEvent;
+import org.osmdroid.util.GeoPoint;
+import org.osmdroid.views.MapView;
+import org.osmdroid.views.Projection;
+import org.osmdroid.views.overlay.Polyline;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Draws a path from its PathPyramid: only the level of detail the current zoom needs.
+// One polyline holds the vertices of that level and grows as the level gains vertices; a second, short one
+// joins the level's last vertex to the newest point and to the points the smoother may still move.
+// The level is chosen again on every zoom change. Must be used from the UI thread.
+public class TrackOverlay implements MapListener {
+
+    private static final double PIXEL_TOLERANCE = 1.5; // Simplification error allowed on screen
+    private static final double EQUATOR_METERS_PER_PIXEL = 156543.03392; // At zoom 0, 256 px tiles
+
+    private final MapView mapView;
+    private final LatencyHistogram drawTime = new LatencyHistogram();
+    private final Polyline polyline = new TimedPolyline();
+    private final Polyline tail = new Polyline();
+    private final List<GeoPoint> tailPoints = new ArrayList<>();
+    private final List<GeoPoint> provisionalPoints = new ArrayList<>();
+    private PathPyramid pyramid = new PathPyramid();
+    private int level = -1; // Level drawn by polyline
+
+    public TrackOverlay(MapView mapView) {
+        this.mapView = mapView;
+        mapView.getOverlays().add(polyline);
+        mapView.getOverlays().add(tail);
+        mapView.addMapListener(this);
+    }
+
+    // Replaces the whole path, e.g. with a pyramid built off the UI thread
+    public void setPyramid(PathPyramid pyramid) {
+        this.pyramid = pyramid;
+        provisionalPoints.clear();
+        level = -1;
+        updateLevel();
+    }
+
+    public PathPyramid getPyramid() {
+        return pyramid;
+    }
+
+    // Appends a point that will not change any more
+    public void addPoint(GeoPoint point) {
+        int changedLevels = pyramid.add(point);
+        if (level >= 0 && (changedLevels & (1 << level)) != 0) {
+            List<GeoPoint> vertices = pyramid.getVertices(level);
+            polyline.addPoint(vertices.get(vertices.size() - 1));
+        }
+        updateTail();
+    }
+
+    // Points after the last one added that can still change (e.g. the smoother's provisional points), oldest first
+    public void setProvisionalPoints(List<GeoPoint> points) {
+        provisionalPoints.clear();
+        provisionalPoints.addAll(points);
+        updateTail();
+    }
+
+    // Vertices currently handed to the map, for the metrics overlay
+    public int getDrawnVertexCount() {
+        return level >= 0 ? pyramid.getVertexCount(level) + tailPoints.size() : 0;
+    }
+
+    // Time spent drawing the simplified path, per frame
+    public LatencyHistogram getDrawTime() {
+        return drawTime;
+    }
+
+    @Override
+    public boolean onZoom(ZoomEvent event) {
+        updateLevel();
+        return false;
+    }
+
+    @Override
+    public boolean onScroll(ScrollEvent event) {
+        return false;
+    }
+
+    private void updateLevel() {
+        IGeoPoint center = mapView.getMapCenter();
+        double latitude = center != null ? center.getLatitude() : 0;
+        double metersPerPixel = EQUATOR_METERS_PER_PIXEL * Math.cos(Math.toRadians(latitude)) / Math.pow(2, mapView.getZoomLevelDouble());
+        int newLevel = PathPyramid.levelFor(metersPerPixel, PIXEL_TOLERANCE);
+        if (newLevel != level) {
+            level = newLevel;
+            polyline.setPoints(pyramid.getVertices(level));
+            updateTail();
+        }
+    }
+
+    private void updateTail() {
+        tailPoints.clear();
+        if (level >= 0 && pyramid.getVertexCount(level) > 0) {
+            List<GeoPoint> vertices = pyramid.getVertices(level);
+            GeoPoint lastVertex = vertices.get(vertices.size() - 1);
+            tailPoints.add(lastVertex);
+            if (pyramid.getLastPoint() != lastVertex) {
+                tailPoints.add(pyramid.getLastPoint());
+            }
+        }
+        tailPoints.addAll(provisionalPoints);
+        tail.setPoints(tailPoints);
+    }
+
+    private final class TimedPolyline extends Polyline {
+        @Override
+        public void draw(Canvas canvas, Projection projection) {
+            long startNs = System.nanoTime();
+            super.draw(canvas, projection);
+            drawTime.record(System.nanoTime() - startNs);
+        }
+    }
+}
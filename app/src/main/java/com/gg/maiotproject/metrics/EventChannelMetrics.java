@@ -0,0 +1,56 @@
+package com.gg.maiotproject.metrics;
+
+// Metrics for one stream of timestamped events (a sensor, or the UI angle updates):
+// inter-arrival time, jitter between consecutive intervals and delivery latency
+// (callback time minus the event's own timestamp). onEvent() is meant to be called by a single thread.
+public class EventChannelMetrics {
+    private final LatencyHistogram interArrival = new LatencyHistogram();
+    private final LatencyHistogram jitter = new LatencyHistogram();
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+
+    // Written only by the event thread
+    private long lastEventNs = 0;
+    private long lastIntervalNs = -1;
+
+    // eventTimestampNs and callbackTimeNs must use the same clock (SystemClock.elapsedRealtimeNanos() for sensors)
+    public void onEvent(long eventTimestampNs, long callbackTimeNs) {
+        if (lastEventNs != 0) {
+            long interval = eventTimestampNs - lastEventNs;
+            interArrival.record(interval);
+            if (lastIntervalNs >= 0) {
+                jitter.record(Math.abs(interval - lastIntervalNs));
+            }
+            lastIntervalNs = interval;
+        }
+        lastEventNs = eventTimestampNs;
+        deliveryLatency.record(callbackTimeNs - eventTimestampNs);
+    }
+
+    // Events that carry no timestamp of their own (e.g. UI publishes)
+    public void onEvent(long timeNs) {
+        onEvent(timeNs, timeNs);
+    }
+
+    // Forgets the previous event, so the pause between a stop and the next start is not counted as an interval
+    public void restart() {
+        lastEventNs = 0;
+        lastIntervalNs = -1;
+    }
+
+    // Total events seen (the delivery latency is recorded for every event)
+    public long getEventCount() {
+        return deliveryLatency.getCount();
+    }
+
+    public LatencyHistogram getInterArrival() {
+        return interArrival;
+    }
+
+    public LatencyHistogram getJitter() {
+        return jitter;
+    }
+
+    public LatencyHistogram getDeliveryLatency() {
+        return deliveryLatency;
+    }
+}
@@ -0,0 +1,69 @@
+package com.gg.maiotproject.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Lock-free histogram of nanosecond durations with fixed power-of-two buckets:
+// bucket b counts values in [2^(b-1), 2^b), bucket 0 counts zero/negative values.
+// record() only does atomic increments on preallocated state, so it can run on the sensor thread;
+// any thread can read it concurrently (readers may see a value a few increments behind).
+public class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long valueNs) {
+        int bucket = valueNs <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(valueNs));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        if (valueNs > 0) {
+            sum.addAndGet(valueNs);
+            long currentMax;
+            while (valueNs > (currentMax = max.get()) && !max.compareAndSet(currentMax, valueNs)) {
+                // Retry until the max is updated or another thread stored a bigger value
+            }
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMeanNs() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / n;
+    }
+
+    public long getMaxNs() {
+        return max.get();
+    }
+
+    // Upper bound of the bucket holding the given percentile (0..100)
+    public long getPercentileNs(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(n * percentile / 100.0);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += buckets.get(b);
+            if (seen >= rank) {
+                return b == 0 ? 0 : (b >= 63 ? Long.MAX_VALUE : 1L << b);
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int b = 0; b < BUCKETS; b++) {
+            buckets.set(b, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+}
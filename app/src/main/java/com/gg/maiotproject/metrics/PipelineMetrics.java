@@ -0,0 +1,107 @@
+package com.gg.maiotproject.metrics;
+
+import java.util.Locale;
+
+// Metrics of the sensor pipeline: per-sensor event rate, jitter and delivery latency,
+// the cost of each complementary filter update, the rate of angle updates published to the UI
+// and the application processor wakeups needed to receive the samples.
+// Recording is allocation-free; snapshot() is the only method that allocates and is meant for
+// occasional reads (debug overlay, logs).
+public class PipelineMetrics {
+    private final EventChannelMetrics accelerometer = new EventChannelMetrics();
+    private final EventChannelMetrics gyroscope = new EventChannelMetrics();
+    private final LatencyHistogram filterUpdate = new LatencyHistogram();
+    private final EventChannelMetrics uiPublish = new EventChannelMetrics();
+    private final WakeupMetrics sensorWakeups = new WakeupMetrics();
+
+    // State of the previous snapshot, used to turn counters into rates
+    private boolean hasPreviousSnapshot = false;
+    private long lastSnapshotNs = 0;
+    private long lastAccelerometerCount = 0;
+    private long lastGyroscopeCount = 0;
+    private long lastUiPublishCount = 0;
+    private long lastWakeupCount = 0;
+    private long lastSavedWakeups = 0;
+
+    public EventChannelMetrics getAccelerometer() {
+        return accelerometer;
+    }
+
+    public EventChannelMetrics getGyroscope() {
+        return gyroscope;
+    }
+
+    public LatencyHistogram getFilterUpdate() {
+        return filterUpdate;
+    }
+
+    public EventChannelMetrics getUiPublish() {
+        return uiPublish;
+    }
+
+    public WakeupMetrics getSensorWakeups() {
+        return sensorWakeups;
+    }
+
+    // Rates are computed over the time elapsed since the previous snapshot
+    public synchronized Snapshot snapshot(long nowNs) {
+        Snapshot snapshot = new Snapshot();
+        double seconds = hasPreviousSnapshot ? (nowNs - lastSnapshotNs) / 1e9 : 0;
+        long accelerometerCount = accelerometer.getEventCount();
+        long gyroscopeCount = gyroscope.getEventCount();
+        long uiPublishCount = uiPublish.getEventCount();
+        long wakeupCount = sensorWakeups.getWakeupCount();
+        long savedWakeups = sensorWakeups.getSavedWakeups();
+        if (seconds > 0) {
+            snapshot.accelerometerHz = (accelerometerCount - lastAccelerometerCount) / seconds;
+            snapshot.gyroscopeHz = (gyroscopeCount - lastGyroscopeCount) / seconds;
+            snapshot.uiPublishHz = (uiPublishCount - lastUiPublishCount) / seconds;
+            snapshot.wakeupsPerMinute = (wakeupCount - lastWakeupCount) * 60 / seconds;
+            snapshot.savedWakeupsPerMinute = (savedWakeups - lastSavedWakeups) * 60 / seconds;
+        }
+        hasPreviousSnapshot = true;
+        lastSnapshotNs = nowNs;
+        lastAccelerometerCount = accelerometerCount;
+        lastGyroscopeCount = gyroscopeCount;
+        lastUiPublishCount = uiPublishCount;
+        lastWakeupCount = wakeupCount;
+        lastSavedWakeups = savedWakeups;
+
+        snapshot.accelerometerJitterP99Ns = accelerometer.getJitter().getPercentileNs(99);
+        snapshot.gyroscopeJitterP99Ns = gyroscope.getJitter().getPercentileNs(99);
+        snapshot.accelerometerLatencyP50Ns = accelerometer.getDeliveryLatency().getPercentileNs(50);
+        snapshot.gyroscopeLatencyP50Ns = gyroscope.getDeliveryLatency().getPercentileNs(50);
+        snapshot.gyroscopeLatencyMaxNs = gyroscope.getDeliveryLatency().getMaxNs();
+        snapshot.filterUpdateMeanNs = filterUpdate.getMeanNs();
+        snapshot.filterUpdateP99Ns = filterUpdate.getPercentileNs(99);
+        return snapshot;
+    }
+
+    public static class Snapshot {
+        public double accelerometerHz;
+        public double gyroscopeHz;
+        public double uiPublishHz;
+        public double wakeupsPerMinute;
+        public double savedWakeupsPerMinute; // Compared with one wakeup per sample (unbatched delivery)
+        public long accelerometerJitterP99Ns;
+        public long gyroscopeJitterP99Ns;
+        public long accelerometerLatencyP50Ns;
+        public long gyroscopeLatencyP50Ns;
+        public long gyroscopeLatencyMaxNs;
+        public long filterUpdateMeanNs;
+        public long filterUpdateP99Ns;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "acc %.0f Hz jit99 %.2f ms lat50 %.2f ms%n" +
+                    "gyro %.0f Hz jit99 %.2f ms lat50 %.2f ms max %.2f ms%n" +
+                    "filter %d ns avg, %d ns p99 - ui %.0f Hz%n" +
+                    "wakeups %.0f/min, saved %.0f/min",
+                    accelerometerHz, accelerometerJitterP99Ns / 1e6, accelerometerLatencyP50Ns / 1e6,
+                    gyroscopeHz, gyroscopeJitterP99Ns / 1e6, gyroscopeLatencyP50Ns / 1e6, gyroscopeLatencyMaxNs / 1e6,
+                    filterUpdateMeanNs, filterUpdateP99Ns, uiPublishHz,
+                    wakeupsPerMinute, savedWakeupsPerMinute);
+        }
+    }
+}
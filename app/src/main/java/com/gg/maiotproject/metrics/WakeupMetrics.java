@@ -0,0 +1,34 @@
+package com.gg.maiotproject.metrics;
+
+// Counts how often the application processor is woken up to receive IMU samples.
+// Samples flushed together from a hardware FIFO are delivered back to back: a delivery that comes more than
+// BURST_GAP_NS after the previous one is counted as a new wakeup. In unbatched mode every sample is
+// delivered on its own, so samples - wakeups is the number of wakeups saved by batching.
+// onDelivery() must always be called from the same thread (the capture thread).
+public class WakeupMetrics {
+    private static final long BURST_GAP_NS = 2_000_000L;
+
+    private long lastDeliveryNs = Long.MIN_VALUE / 2;
+    private volatile long sampleCount = 0;
+    private volatile long wakeupCount = 0;
+
+    public void onDelivery(long nowNs) {
+        if (nowNs - lastDeliveryNs > BURST_GAP_NS) {
+            wakeupCount++;
+        }
+        lastDeliveryNs = nowNs;
+        sampleCount++;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    public long getWakeupCount() {
+        return wakeupCount;
+    }
+
+    public long getSavedWakeups() {
+        return sampleCount - wakeupCount;
+    }
+}
@@ -0,0 +1,49 @@
+package com.gg.maiotproject.replay;
+
+// Maps the timestamps of a recording onto the replay clock, sped up by a factor: 1 is real time, 4 four times
+// faster, 0 (or less) as fast as the pipeline takes it. anchor() pins a recorded time to now, e.g. on every start(),
+// so a pause is not caught up afterwards. anchor() and await() are called from the replay thread only
+final class Pacer {
+
+    private final double speed;
+    private final ReplayClock clock;
+    private volatile long anchorTraceNs = 0; // Read by getDueTimeNs() from other threads
+    private volatile long anchorNanoTime = 0;
+
+    Pacer(double speed, ReplayClock clock) {
+        this.speed = speed;
+        this.clock = clock;
+    }
+
+    boolean isPaced() {
+        return speed > 0;
+    }
+
+    void anchor(long traceNs) {
+        anchorTraceNs = traceNs;
+        anchorNanoTime = clock.nanoTime();
+    }
+
+    // When traceNs is due on the clock; the anchor time for all of them when not paced
+    long getDueTimeNs(long traceNs) {
+        return isPaced() ? anchorNanoTime + (long) ((traceNs - anchorTraceNs) / speed) : anchorNanoTime;
+    }
+
+    boolean isDue(long traceNs) {
+        return clock.nanoTime() - getDueTimeNs(traceNs) >= 0;
+    }
+
+    // Parks until traceNs is due. Returns false when woken early (LockSupport.unpark()), so the caller can check
+    // whether it was stopped before waiting again
+    boolean await(long traceNs) {
+        if (!isPaced()) {
+            return true;
+        }
+        long waitNs = getDueTimeNs(traceNs) - clock.nanoTime();
+        if (waitNs <= 0) {
+            return true;
+        }
+        clock.parkNanos(waitNs);
+        return isDue(traceNs);
+    }
+}
@@ -0,0 +1,24 @@
+package com.gg.maiotproject.replay;
+
+import java.util.concurrent.locks.LockSupport;
+
+// Time of the replays: the pacing of the samples and fixes. SYSTEM runs on System.nanoTime(); tests pass a fake one
+// that moves forward when parked, so pacing can be checked without waiting nor timing thresholds
+public interface ReplayClock {
+    long nanoTime();
+
+    // Waits up to nanos; may return early, e.g. when the replay is stopped (LockSupport.unpark())
+    void parkNanos(long nanos);
+
+    ReplayClock SYSTEM = new ReplayClock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void parkNanos(long nanos) {
+            LockSupport.parkNanos(nanos);
+        }
+    };
+}
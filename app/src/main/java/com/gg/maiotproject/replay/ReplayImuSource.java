@@ -0,0 +1,167 @@
+package com.gg.maiotproject.replay;
+
+import com.gg.maiotproject.bus.SensorEventBus;
+import com.gg.maiotproject.fusion.ArchiveReanalysis;
+import com.gg.maiotproject.interfaces.IImuSource;
+import com.gg.maiotproject.interfaces.ILogger;
+import com.gg.maiotproject.sensors.ImuRecorder;
+import com.gg.maiotproject.sensors.SensorBatchingMode;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.locks.LockSupport;
+
+// Replays a recorded ride (ArchiveReanalysis.recording() or trace()) on the event bus, in place of the sensors,
+// with the recorded timestamps: the filter, the recorder and the timeline see the ride as it was measured.
+// Samples are paced by their timestamps (see Pacer): speed 1 replays in real time, higher speeds compress the ride
+// and 0 publishes as fast as the bus's BLOCK consumers take them. A batching mode holds the samples back and
+// publishes them in bursts of maxReportLatencyUs of recorded time, like a sensor FIFO.
+// The ride is streamed from its thread, never held in memory. start() after stop() goes on where it stopped:
+// the ride is read again from its start and the samples already published are skipped. A start() while a stopped
+// replay is still publishing its last samples restarts it once they are out and the stop's callback has run.
+public class ReplayImuSource implements IImuSource {
+    private final String TAG = "ReplayImuSource";
+
+    private final ArchiveReanalysis.Ride ride;
+    private final SensorEventBus eventBus;
+    private final Pacer pacer;
+    private final ILogger logger;
+    private final float accelerometerResolution;
+    private final float gyroscopeResolution;
+    private SensorBatchingMode batchingMode = SensorBatchingMode.LIVE;
+    private Runnable onEnd = null;
+
+    // Replay thread state
+    private volatile long position = 0; // Samples published so far, written by the replay thread only
+    private long batchNs = 0;
+    private long anchorNs = -1;
+
+    // Guarded by this
+    private Thread thread = null;
+    private Runnable afterStop = null;
+    private boolean restartRequested = false;
+    private volatile boolean stopRequested = false;
+
+    public ReplayImuSource(ArchiveReanalysis.Ride ride, SensorEventBus eventBus, double speed) {
+        this(ride, eventBus, speed, 0.0f, 0.0f, ReplayClock.SYSTEM, ILogger.ANDROID);
+    }
+
+    // Resolutions of the recording's sensors (0 when unknown), for the recorder
+    public ReplayImuSource(ArchiveReanalysis.Ride ride, SensorEventBus eventBus, double speed,
+                           float accelerometerResolution, float gyroscopeResolution, ReplayClock clock, ILogger logger) {
+        this.ride = ride;
+        this.eventBus = eventBus;
+        this.pacer = new Pacer(speed, clock);
+        this.logger = logger;
+        this.accelerometerResolution = accelerometerResolution;
+        this.gyroscopeResolution = gyroscopeResolution;
+    }
+
+    // Runs on the replay thread once the last sample of the ride has been published (not after a stop())
+    public void setOnEnd(Runnable onEnd) {
+        this.onEnd = onEnd;
+    }
+
+    @Override
+    public void setBatchingMode(SensorBatchingMode batchingMode) {
+        this.batchingMode = batchingMode;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (thread != null) {
+            restartRequested = stopRequested; // Started again before the stopped replay ended
+            return;
+        }
+        stopRequested = false;
+        afterStop = null;
+        batchNs = batchingMode.isBatched() ? batchingMode.maxReportLatencyUs * 1000L : 0;
+        anchorNs = -1;
+        thread = new Thread(this::replay, "ImuReplay");
+        thread.start();
+    }
+
+    @Override
+    public void stop(Runnable afterLastSample) {
+        synchronized (this) {
+            if (thread != null) {
+                Runnable previous = afterStop;
+                afterStop = previous == null ? afterLastSample : () -> {
+                    previous.run(); // Stopped again after a restart that did not happen yet
+                    afterLastSample.run();
+                };
+                restartRequested = false;
+                stopRequested = true;
+                LockSupport.unpark(thread);
+                return;
+            }
+        }
+        afterLastSample.run(); // Not replaying: nothing left to publish
+    }
+
+    @Override
+    public float getResolution(int sensorId) {
+        return sensorId == ImuRecorder.SENSOR_GYROSCOPE ? gyroscopeResolution : accelerometerResolution;
+    }
+
+    // When the sample of timestampNs was due on the replay clock, for latency measurements in the consumers.
+    // Any thread; when replaying as fast as possible, the time of the last start()
+    public long getDueTimeNs(long timestampNs) {
+        return pacer.getDueTimeNs(timestampNs);
+    }
+
+    // Samples published since the first start(). Any thread
+    public long getPosition() {
+        return position;
+    }
+
+    private void replay() {
+        final long skip = position;
+        final long[] index = {0};
+        boolean ended = false;
+        try {
+            ride.read((sensorId, timestampNs, x, y, z) -> {
+                if (index[0]++ < skip) {
+                    return;
+                }
+                if (anchorNs < 0) {
+                    anchorNs = timestampNs;
+                    pacer.anchor(timestampNs);
+                }
+                // Batched: released at the end of the report latency window the sample falls in
+                long dueNs = batchNs > 0 ? anchorNs + ((timestampNs - anchorNs) / batchNs + 1) * batchNs : timestampNs;
+                while (!pacer.await(dueNs) && !stopRequested) {
+                    // Woken early, wait again
+                }
+                // Once stopped, the samples already measured are still published, like a sensor FIFO's flush
+                if (stopRequested && !(pacer.isPaced() && pacer.isDue(timestampNs))) {
+                    throw new CancellationException();
+                }
+                eventBus.publish(sensorId, timestampNs, x, y, z);
+                position++;
+            });
+            ended = true;
+        } catch (CancellationException e) {
+            // stop()
+        } catch (IOException e) {
+            logger.e(TAG, "Replay of " + ride.getName() + " failed after " + position + " samples", e);
+        }
+        Runnable after;
+        boolean restart;
+        synchronized (this) {
+            thread = null;
+            after = afterStop;
+            restart = restartRequested;
+            restartRequested = false;
+        }
+        if (after != null) {
+            after.run();
+        }
+        if (ended && onEnd != null) {
+            onEnd.run();
+        }
+        if (restart && !ended) {
+            start();
+        }
+    }
+}
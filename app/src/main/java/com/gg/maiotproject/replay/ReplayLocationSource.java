@@ -0,0 +1,125 @@
+package com.gg.maiotproject.replay;
+
+import android.os.SystemClock;
+
+import com.gg.maiotproject.interfaces.ILocationListener;
+import com.gg.maiotproject.interfaces.ILocationSource;
+import com.gg.maiotproject.interfaces.ILogger;
+import com.gg.maiotproject.map.LocationPolicy;
+import com.gg.maiotproject.track.TrackView;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+// Replays the fixes of a recorded track (e.g. RideFile.getTrack()) in place of the fused location provider, each as
+// a delivery of its own, paced by their recorded times like ReplayImuSource: originTimeMs is the recorded time
+// replayed at start(), the ride's start (its id) to keep the track in step with the IMU recording.
+// The track is loaded on the replay thread, fixes are handed to the listener through the executor: posted to the
+// main thread on the phone, run on the replay thread in tests (Runnable::run).
+// Only the accepted points were recorded, so the track is replayed whatever the request: setRequest() is ignored.
+// Fixes have no altitude nor bearing. Their elapsed realtime is read from elapsedRealtimeMs when they are due, the
+// clock the location policy runs on (SystemClock.elapsedRealtime() on the phone): sped up, the policy's dwell and
+// hysteresis times shrink with the ride instead of drifting from the times it reads itself.
+public class ReplayLocationSource implements ILocationSource {
+    private final String TAG = "ReplayLocationSource";
+
+    private final Callable<TrackView> trackLoader;
+    private final long originTimeMs;
+    private final Executor executor;
+    private final Pacer pacer;
+    private final LongSupplier elapsedRealtimeMs;
+    private final ILogger logger;
+    private Runnable onEnd = null;
+
+    // Replay thread state
+    private TrackView track = null;
+    private int position = 0; // Fixes delivered so far
+
+    // Guarded by this
+    private Thread thread = null;
+    private volatile boolean stopRequested = false;
+
+    public ReplayLocationSource(Callable<TrackView> trackLoader, long originTimeMs, Executor executor, double speed) {
+        this(trackLoader, originTimeMs, executor, speed, ReplayClock.SYSTEM, SystemClock::elapsedRealtime, ILogger.ANDROID);
+    }
+
+    public ReplayLocationSource(Callable<TrackView> trackLoader, long originTimeMs, Executor executor, double speed,
+                                ReplayClock clock, LongSupplier elapsedRealtimeMs, ILogger logger) {
+        this.trackLoader = trackLoader;
+        this.originTimeMs = originTimeMs;
+        this.executor = executor;
+        this.pacer = new Pacer(speed, clock);
+        this.elapsedRealtimeMs = elapsedRealtimeMs;
+        this.logger = logger;
+    }
+
+    // Handed to the executor after the last fix of the track (not after a stop())
+    public void setOnEnd(Runnable onEnd) {
+        this.onEnd = onEnd;
+    }
+
+    @Override
+    public synchronized void start(final ILocationListener listener, LocationPolicy.Setting setting) {
+        if (thread != null) {
+            return;
+        }
+        stopRequested = false;
+        thread = new Thread(() -> replay(listener), "LocationReplay");
+        thread.start();
+    }
+
+    @Override
+    public void setRequest(LocationPolicy.Setting setting) {
+    }
+
+    // Fixes already handed to the executor are still delivered
+    @Override
+    public synchronized void stop() {
+        if (thread != null) {
+            stopRequested = true;
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void replay(final ILocationListener listener) {
+        boolean ended = false;
+        try {
+            if (track == null) {
+                track = trackLoader.call();
+            }
+            long anchorMs = position == 0 ? originTimeMs : track.getTime(position);
+            pacer.anchor(anchorMs * 1_000_000L);
+            for (; position < track.size(); position++) {
+                final int index = position;
+                final long timeMs = track.getTime(index);
+                while (!pacer.await(timeMs * 1_000_000L) && !stopRequested) {
+                    // Woken early, wait again
+                }
+                if (stopRequested) {
+                    break;
+                }
+                final long fixElapsedMs = elapsedRealtimeMs.getAsLong();
+                final double latitude = track.getLatitude(index);
+                final double longitude = track.getLongitude(index);
+                final float speed = track.getSpeed(index);
+                final float accuracy = track.getAccuracy(index);
+                executor.execute(() -> {
+                    listener.onFixBatch(1);
+                    listener.onFix(latitude, longitude, timeMs, fixElapsedMs, Double.NaN, speed, Float.NaN, accuracy);
+                    listener.onFixBatchEnd();
+                });
+            }
+            ended = position == track.size();
+        } catch (Exception e) {
+            logger.e(TAG, "Replay of the track failed after " + position + " fixes", e);
+        }
+        synchronized (this) {
+            thread = null;
+        }
+        if (ended && onEnd != null) {
+            executor.execute(onEnd);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.gg.maiotproject.sensors;
+
+import android.util.Log;
+
+import com.gg.maiotproject.fusion.FusionEngine;
+import com.gg.maiotproject.fusion.ImuRecordFormat;
+import com.gg.maiotproject.interfaces.ISensorEventConsumer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Append-only recorder for raw accelerometer/gyroscope samples.
+// Samples are written as fixed-width records straight into memory-mapped segment files:
+// a record is a handful of absolute puts into the mapping, with no allocation and no system call.
+// Each segment header holds the number of committed records, updated after every record, so a reader
+// only ever sees complete records. Mapped pages belong to the kernel page cache, hence a process kill
+// loses at most the sample being written; force() additionally makes the data durable on storage.
+// The next segment is created and mapped on a background thread before the current one fills up,
+// so rolling over never stalls the recording thread.
+// record() must always be called from the same thread (its event bus consumer thread).
+public class ImuRecorder implements ISensorEventConsumer {
+    private final String TAG = "ImuRecorder";
+
+    public static final int SENSOR_ACCELEROMETER = FusionEngine.SENSOR_ACCELEROMETER;
+    public static final int SENSOR_GYROSCOPE = FusionEngine.SENSOR_GYROSCOPE;
+
+    // File layout shared with ImuRecordReader (fusion module)
+    private static final int MAGIC = ImuRecordFormat.MAGIC;
+    private static final int VERSION = ImuRecordFormat.VERSION;
+    private static final int HEADER_BYTES = ImuRecordFormat.HEADER_BYTES;
+    private static final int COUNT_OFFSET = ImuRecordFormat.COUNT_OFFSET;
+    private static final int RECORD_BYTES = ImuRecordFormat.RECORD_BYTES;
+    private static final ByteOrder ORDER = ImuRecordFormat.ORDER;
+
+    private static final int DEFAULT_SEGMENT_RECORDS = 1 << 19; // 12 MB, ~10 minutes at 2 x 400 Hz
+
+    private final File directory;
+    private final int segmentRecords;
+    private final ExecutorService segmentExecutor = Executors.newSingleThreadExecutor();
+
+    private MappedByteBuffer segment;
+    private int segmentIndex = -1;
+    private int recordCount = 0; // Records in the current segment
+    private long totalRecords = 0;
+    private Future<MappedByteBuffer> nextSegment;
+    private boolean failed = false;
+
+    public ImuRecorder(File directory) {
+        this(directory, DEFAULT_SEGMENT_RECORDS);
+    }
+
+    public ImuRecorder(File directory, int segmentRecords) {
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+    }
+
+    public void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        // Continue after existing segments, e.g. when a paused ride is resumed in the same directory
+        segmentIndex = 0;
+        while (segmentFile(directory, segmentIndex).exists()) {
+            segmentIndex++;
+        }
+        segment = mapSegment(segmentIndex);
+        recordCount = 0;
+    }
+
+    public void record(int sensorId, long timestampNs, float x, float y, float z) {
+        if (segment == null || failed) {
+            return;
+        }
+        if (recordCount == segmentRecords) {
+            rollSegment();
+            if (failed) {
+                return;
+            }
+        }
+        int position = HEADER_BYTES + recordCount * RECORD_BYTES;
+        segment.putInt(position, sensorId);
+        segment.putLong(position + 4, timestampNs);
+        segment.putFloat(position + 12, x);
+        segment.putFloat(position + 16, y);
+        segment.putFloat(position + 20, z);
+        recordCount++;
+        totalRecords++;
+        // Publish the record only once it is completely written
+        segment.putLong(COUNT_OFFSET, recordCount);
+
+        // Prepare the next segment in the background once this one is half full
+        if (recordCount == segmentRecords / 2 && nextSegment == null) {
+            final int index = segmentIndex + 1;
+            nextSegment = segmentExecutor.submit(() -> mapSegment(index));
+        }
+    }
+
+    @Override
+    public void onSensorEvent(int sensorId, long timestampNs, float x, float y, float z) {
+        record(sensorId, timestampNs, x, y, z);
+    }
+
+    private void rollSegment() {
+        try {
+            MappedByteBuffer next = nextSegment != null ? nextSegment.get() : mapSegment(segmentIndex + 1);
+            nextSegment = null;
+            segmentExecutor.execute(segment::force); // Flush the full segment off the sensor thread
+            segment = next;
+            segmentIndex++;
+            recordCount = 0;
+        } catch (Exception e) {
+            Log.e(TAG, "Unable to roll IMU segment, recording stopped", e);
+            failed = true;
+        }
+    }
+
+    private MappedByteBuffer mapSegment(int index) throws IOException {
+        File file = segmentFile(directory, index);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            long size = HEADER_BYTES + (long) segmentRecords * RECORD_BYTES;
+            raf.setLength(size);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ORDER);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, RECORD_BYTES);
+            buffer.putLong(COUNT_OFFSET, 0);
+            return buffer;
+        }
+    }
+
+    static File segmentFile(File directory, int index) {
+        return ImuRecordFormat.segmentFile(directory, index);
+    }
+
+    // Forces the current segment to storage (protects against power loss, not needed for a process kill)
+    public void force() {
+        if (segment != null) {
+            segment.force();
+        }
+    }
+
+    public void close() {
+        if (segment == null) {
+            return;
+        }
+        force();
+        segment = null;
+        if (nextSegment != null) {
+            // The prepared segment was never used, remove it so readers do not see an empty segment
+            nextSegment.cancel(false);
+            final int unused = segmentIndex + 1;
+            segmentExecutor.execute(() -> segmentFile(directory, unused).delete());
+            nextSegment = null;
+        }
+        segmentExecutor.shutdown();
+        try {
+            // Pending work is at most one segment mapping and one force, both short
+            segmentExecutor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getTotalRecords() {
+        return totalRecords;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+}
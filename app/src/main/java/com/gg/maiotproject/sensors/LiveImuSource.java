@@ -0,0 +1,66 @@
+package com.gg.maiotproject.sensors;
+
+import android.content.Context;
+import android.os.Handler;
+
+import com.gg.maiotproject.bus.SensorEventBus;
+import com.gg.maiotproject.interfaces.IImuSource;
+import com.gg.maiotproject.metrics.PipelineMetrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The phone's accelerometer and gyroscope, published on the event bus from the capture thread (the handler's).
+// In a batching mode both go through a shared SensorBatchMerger, which restores their time order
+public class LiveImuSource implements IImuSource {
+
+    private final MyAccelerometer accelerometer;
+    private final MyGyroscope gyroscope;
+    private final SensorBatchMerger batchMerger;
+    private SensorBatchingMode batchingMode = SensorBatchingMode.LIVE;
+
+    public LiveImuSource(Context context, Handler handler, SensorEventBus eventBus) {
+        accelerometer = new MyAccelerometer(context, handler, eventBus);
+        gyroscope = new MyGyroscope(context, handler, eventBus);
+        batchMerger = new SensorBatchMerger(eventBus);
+    }
+
+    // Event rates, delivery latency and wakeups of both sensors
+    public void setMetrics(PipelineMetrics metrics) {
+        accelerometer.setMetrics(metrics.getAccelerometer());
+        gyroscope.setMetrics(metrics.getGyroscope());
+        accelerometer.setWakeupMetrics(metrics.getSensorWakeups());
+        gyroscope.setWakeupMetrics(metrics.getSensorWakeups());
+    }
+
+    @Override
+    public void setBatchingMode(SensorBatchingMode batchingMode) {
+        this.batchingMode = batchingMode;
+    }
+
+    @Override
+    public void start() {
+        accelerometer.setBatching(batchingMode, batchMerger);
+        gyroscope.setBatching(batchingMode, batchMerger);
+        accelerometer.start();
+        gyroscope.start();
+    }
+
+    // Both sensor FIFOs are flushed first, then the samples still held by the merger are published
+    @Override
+    public void stop(final Runnable afterLastSample) {
+        final AtomicInteger running = new AtomicInteger(2);
+        Runnable onStopped = () -> {
+            if (running.decrementAndGet() == 0) {
+                batchMerger.flush();
+                afterLastSample.run();
+            }
+        };
+        accelerometer.stop(onStopped);
+        gyroscope.stop(onStopped);
+    }
+
+    @Override
+    public float getResolution(int sensorId) {
+        return sensorId == ImuRecorder.SENSOR_GYROSCOPE ? gyroscope.getResolution() : accelerometer.getResolution();
+    }
+}
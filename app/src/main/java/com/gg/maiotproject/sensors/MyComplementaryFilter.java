@@ -1,176 +1,294 @@
 package com.gg.maiotproject.sensors;
 
-import android.content.Context;
-import android.util.Log;
-
+import com.gg.maiotproject.fusion.CornerDetector;
+import com.gg.maiotproject.fusion.FusionEngine;
+import com.gg.maiotproject.fusion.FusionEngineType;
+import com.gg.maiotproject.fusion.LeanTimelineWriter;
+import com.gg.maiotproject.fusion.PublishedRoll;
+import com.gg.maiotproject.fusion.StillnessCalibration;
 import com.gg.maiotproject.interfaces.IMyAccelerometer;
+import com.gg.maiotproject.interfaces.ILogger;
 import com.gg.maiotproject.interfaces.IMyComplementaryFilter;
 import com.gg.maiotproject.interfaces.IMyGyroscope;
+import com.gg.maiotproject.interfaces.ISensorEventConsumer;
+import com.gg.maiotproject.metrics.LatencyHistogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.function.LongConsumer;
 
-public class MyComplementaryFilter implements IMyAccelerometer, IMyGyroscope {
+// Connects the sensors to the fusion math, which lives in the Android-free fusion engines (fusion module).
+// The engine can be switched at runtime: the complementary roll filter (default) or the quaternion engine.
+// The filter is not synchronized: all its methods must be called from the same thread (its event bus consumer
+// thread, control calls are posted to the subscription).
+// Results leave the filter through the IMyComplementaryFilter callbacks, which also run on that thread, through the
+// published roll, read from any thread, and through the ride's lean timeline and corner detector while a ride is
+// recorded, fed with every fused sample.
+public class MyComplementaryFilter implements IMyAccelerometer, IMyGyroscope, ISensorEventConsumer, FusionEngine.Listener {
     private final String TAG = "MyComplementaryFilter";
 
     private IMyComplementaryFilter iMyComplementaryFilter = null;
+    private final ILogger logger;
+    private FusionEngineType engineType = FusionEngineType.COMPLEMENTARY;
+    private FusionEngine engine = engineType.create(this);
+    private LongConsumer updateCostRecorder = null;
+    private final PublishedRoll publishedRoll = new PublishedRoll(); // Kept across engine switches
+    private final float[] calibration = new float[FusionEngine.CALIBRATION_SIZE];
+    private LeanTimelineWriter leanTimeline = null;
+    private CornerDetector cornerDetector = null;
+    private long rideId = -1; // Ride recorded since startRide(), -1 when none
+    // A ride retired by the start of the next one before its own stop was fused: its stop is queued behind the
+    // sensor FIFO flush, which can end after Start is pressed again. Its timeline and corners wait here for it
+    private long retiredRideId = -1;
+    private RideEnd retiredRide = null;
 
-    private float filteredRoll = 0.0f;
-    private long lastGyroTimestamp = 0; // Store timestamp of previous gyro event
-    private static final float NS2S = 1.0f / 1000000000.0f;
-
-    // Complementary filter constant:
-    // ALPHA = 0.98f  -->  97% weight from previous filtered state (gyro integrated)
-    //                     3% weight from accelerometer (for drift correction).
-    private static final float ALPHA = 0.97f;
+    // What a stopped ride hands over, null members when it recorded none. Both are finished off the fusion thread.
+    // The roll extremes include every sample fused before the stop, in degrees (maxNegativeRoll is negative)
+    public static final class RideEnd {
+        public final LeanTimelineWriter leanTimeline;
+        public final CornerDetector cornerDetector;
+        public final float maxPositiveRoll;
+        public final float maxNegativeRoll;
 
-    private float maxPositiveRoll = 0.0f;
-    private float maxNegativeRoll = 0.0f;
+        RideEnd(LeanTimelineWriter leanTimeline, CornerDetector cornerDetector, float maxPositiveRoll, float maxNegativeRoll) {
+            this.leanTimeline = leanTimeline;
+            this.cornerDetector = cornerDetector;
+            this.maxPositiveRoll = maxPositiveRoll;
+            this.maxNegativeRoll = maxNegativeRoll;
+        }
+    }
 
-    // Calibration variables
-    private boolean isCalibrating = false;
-    private boolean isTrackingMode = false;
+    public MyComplementaryFilter(IMyComplementaryFilter iMyComplementaryFilter) {
+        this(iMyComplementaryFilter, ILogger.ANDROID);
+    }
 
-    private float avgGyroX_cal = 0.0f;
-    // We only care about X for roll, but keeping Y and Z for completeness
-    private float avgGyroY_cal = 0.0f;
-    private float avgGyroZ_cal = 0.0f;
-    private float initialAccRoll_cal = 0.0f;
+    public MyComplementaryFilter(IMyComplementaryFilter iMyComplementaryFilter, ILogger logger) {
+        this.iMyComplementaryFilter = iMyComplementaryFilter;
+        this.logger = logger;
+        engine.setPublishedRoll(publishedRoll);
+    }
 
-    private int calibrationSampleCount = 0;
-    private float tempGyroX = 0.0f, tempGyroY = 0.0f, tempGyroZ = 0.0f;
-    private float tempAccRoll = 0.0f;
+    // Records the cost of each filter update (in ns) when set
+    public void setMetrics(LatencyHistogram updateCostMetrics) {
+        updateCostRecorder = updateCostMetrics != null ? updateCostMetrics::record : null;
+        engine.setUpdateCostRecorder(updateCostRecorder);
+    }
 
-    // Store latest raw accelerometer data
-    private float latestAccX = 0.0f;
-    private float latestAccY = 0.0f;
-    private float latestAccZ = 0.0f;
+    // Switches the fusion engine, the new one keeps the current calibration.
+    // Call it while not tracking: the new engine starts from the level position
+    public void setEngineType(FusionEngineType type) {
+        if (type == engineType) {
+            return;
+        }
+        FusionEngine next = type.create(this);
+        engine.getCalibration(calibration);
+        next.setCalibration(calibration);
+        next.setUpdateCostRecorder(updateCostRecorder);
+        next.setPublishedRoll(publishedRoll);
+        engine = next;
+        engineType = type;
+        logger.d(TAG, "Fusion engine: " + engine.getName());
+    }
 
-    public MyComplementaryFilter(Context context) {
-        this.iMyComplementaryFilter = (IMyComplementaryFilter) context;
+    public FusionEngineType getEngineType() {
+        return engineType;
     }
 
     // Starts the calibration process. Resets accumulated calibration data
     public void startCalibration() {
-        isCalibrating = true;
-        isTrackingMode = false;
-        calibrationSampleCount = 0;
-        tempGyroX = 0.0f;
-        tempGyroY = 0.0f;
-        tempGyroZ = 0.0f;
-        tempAccRoll = 0.0f;
-
-        // Reset latest accelerometer data to ensure a clean start
-        latestAccX = 0.0f;
-        latestAccY = 0.0f;
-        latestAccZ = 0.0f;
+        engine.startCalibration();
     }
 
     // Finalizes the calibration process by calculating averages and setting offsets.
-
+    // Not needed when the engine reported a complete calibration, it finishes by itself once confident
     public void finalizeCalibration() {
-        isCalibrating = false;
-
-        // Conditional check ensures calibration proceeds if sensor data was acquired
-        if (calibrationSampleCount > 0) {
-            // Gyroscope average bias collection for each axis (then subtracted to gyro measures during tracking
-            avgGyroX_cal = tempGyroX / calibrationSampleCount;
-            avgGyroY_cal = tempGyroY / calibrationSampleCount;
-            avgGyroZ_cal = tempGyroZ / calibrationSampleCount;
-
-            // initialAccRoll_cal is the offset subtracted to from the live accelerometer roll
-            initialAccRoll_cal = tempAccRoll / calibrationSampleCount;
-
-        } else {
-            avgGyroX_cal = 0.0f;
-            avgGyroY_cal = 0.0f;
-            avgGyroZ_cal = 0.0f;
-            initialAccRoll_cal = 0.0f;
-        }
-
-        // Initialize filteredRoll to 0.0f to represent the calibrated "level" state.
-        // This ensures the displayed angle starts at 0 relative to the calibrated position.
-        filteredRoll = 0.0f;
+        engine.finalizeCalibration();
+    }
 
-        // Reset lastGyroTimestamp to ensure delta time is calculated correctly on first gyro reading after calibration
-        lastGyroTimestamp = 0;
+    // Stops calibrating, e.g. when the device never stayed still long enough
+    public void cancelCalibration() {
+        engine.cancelCalibration();
+        logger.d(TAG, "Calibration cancelled after " + engine.getStillnessCalibration().getMotionCount() + " motions");
     }
 
     // Controls whether the filter should actively process data
     public void setTrackingMode(boolean trackingMode) {
-        this.isTrackingMode = trackingMode;
-        if (trackingMode) {
-            // Reset max angles when starting a new journey
-            maxPositiveRoll = 0.0f;
-            maxNegativeRoll = 0.0f;
-            // Also explicitly reset filteredRoll to 0 at the start of tracking.
-            // This ensures that even if there was some drift between calibration and start button press,
-            // the new journey starts from an assumed level/zero.
-            filteredRoll = 0.0f;
-            lastGyroTimestamp = 0; // Reset timestamp for fresh start
-        } else {
-            Log.d(TAG, "Tracking mode stopped.");
+        engine.setTrackingMode(trackingMode);
+        if (!trackingMode) {
+            logger.d(TAG, "Tracking mode stopped.");
         }
     }
 
-    // Two states: calibration and tracking
-    @Override
-    public void onNewAccelerometerDataAvailable(float AccX, float AccY, float AccZ) {
-        if (isCalibrating) {
-            // It accumulates raw accelerometer roll angle
-            float rollAngle = (float) Math.toDegrees(Math.atan2(AccX, AccZ));
-            tempAccRoll += rollAngle;
-            calibrationSampleCount++;
-        } else if (isTrackingMode) {
-            // Store the latest accelerometer data
-            latestAccX = AccX;
-            latestAccY = AccY;
-            latestAccZ = AccZ;
-            // The actual filtering will happen in onNewGyroscopeDataAvailable
+    // Starts recording a ride: tracking mode, lean timeline in leanFile and corners in detector.
+    // Starting the same ride again after a pause goes on with it
+    public void startRide(long rideId, File leanFile, CornerDetector detector) {
+        if (this.rideId != -1 && this.rideId != rideId) {
+            finishRetiredRide(); // Never stopped, nobody waits for it any more
+            retiredRideId = this.rideId;
+            retiredRide = new RideEnd(stopLeanTimeline(), stopCornerDetection(),
+                    engine.getMaxPositiveRoll(), engine.getMaxNegativeRoll());
         }
+        this.rideId = rideId;
+        setTrackingMode(true);
+        startLeanTimeline(leanFile);
+        startCornerDetection(detector);
     }
 
-    @Override
-    public void onNewGyroscopeDataAvailable(float RotX, float RotY, float RotZ, long timestamp) {
-        if (isCalibrating) {
-            tempGyroX += RotX;
-            tempGyroY += RotY;
-            tempGyroZ += RotZ;
-        } else if (isTrackingMode) {
-            // Perform complementary filter update here
-            if (lastGyroTimestamp != 0) {
-                float deltaTime = (timestamp - lastGyroTimestamp) * NS2S;
-
-                // 1. Calculate accelerometer-derived roll angle using the LATEST stored accelerometer data
-                float accRollAngle = (float) Math.toDegrees(Math.atan2(latestAccX, latestAccZ));
-                float calibratedAccRoll = accRollAngle - initialAccRoll_cal;
-
-                // 2. Apply gyroscope bias compensation to the current gyroscope reading
-                float calibratedRotX = RotX - avgGyroX_cal;
-
-                // 3. Integrate gyroscope data to predict the new angle
-                float gyroIntegratedRoll = filteredRoll + (calibratedRotX * deltaTime);
-
-                // 4. Combine gyroscope prediction with accelerometer correction using the complementary filter
-                filteredRoll = ALPHA * gyroIntegratedRoll + (1 - ALPHA) * calibratedAccRoll;
-
-                updateMaxRollAngles(filteredRoll);
-                onNewFilteredAngleAvailable();
+    // Stops recording the ride and hands over what it recorded. The stop of a ride already retired by the next
+    // one leaves the next one recording
+    public RideEnd stopRide(long rideId) {
+        if (rideId == retiredRideId) {
+            RideEnd end = retiredRide;
+            retiredRideId = -1;
+            retiredRide = null;
+            return end;
+        }
+        if (rideId != this.rideId) {
+            return new RideEnd(null, null, 0f, 0f);
+        }
+        this.rideId = -1;
+        setTrackingMode(false); // Fuses the gyro samples still waiting for an accelerometer reading
+        return new RideEnd(stopLeanTimeline(), stopCornerDetection(),
+                engine.getMaxPositiveRoll(), engine.getMaxNegativeRoll());
+    }
+
+    // Closes whatever is still recorded, e.g. a paused ride that was never stopped when the app is closed
+    public void closeRides() {
+        finishRetiredRide();
+        rideId = -1;
+        LeanTimelineWriter writer = stopLeanTimeline();
+        if (writer != null) {
+            writer.close();
+        }
+        stopCornerDetection();
+    }
+
+    private void finishRetiredRide() {
+        if (retiredRide != null && retiredRide.leanTimeline != null) {
+            retiredRide.leanTimeline.close();
+        }
+        retiredRideId = -1;
+        retiredRide = null;
+    }
+
+    // Records every filtered roll into the lean timeline file until stopLeanTimeline().
+    // Recording to the same file again is a no-op, so a ride resumed after a pause goes on in the same timeline
+    private void startLeanTimeline(File file) {
+        if (leanTimeline != null) {
+            if (leanTimeline.getFile().equals(file)) {
+                return;
             }
-            lastGyroTimestamp = timestamp; // Update timestamp AFTER calculation
+            leanTimeline.close(); // Left over from another ride
+        }
+        try {
+            file.getParentFile().mkdirs();
+            leanTimeline = LeanTimelineWriter.create(file);
+        } catch (IOException e) {
+            leanTimeline = null;
+            logger.e(TAG, "Unable to record the lean timeline", e);
         }
     }
 
-    private void updateMaxRollAngles(float roll) {
-        if (roll > maxPositiveRoll) {
-            maxPositiveRoll = roll;
-            iMyComplementaryFilter.onNewMaxPositiveRollAvailable(maxPositiveRoll);
+    // Detaches the lean timeline, null when none was recorded. The caller finishes it (off this thread)
+    private LeanTimelineWriter stopLeanTimeline() {
+        LeanTimelineWriter writer = leanTimeline;
+        leanTimeline = null;
+        return writer;
+    }
+
+    // Feeds the ride's corner detector until stopCornerDetection(). Passing the same detector again after a pause
+    // goes on with the same ride
+    private void startCornerDetection(CornerDetector detector) {
+        cornerDetector = detector;
+    }
+
+    // Detaches the corner detector after closing the corner being ridden, null when none was running
+    private CornerDetector stopCornerDetection() {
+        CornerDetector detector = cornerDetector;
+        cornerDetector = null;
+        if (detector != null) {
+            detector.finish();
         }
-        // Use Math.abs for sending negative roll to UI to simplify display logic
-        if (roll < maxNegativeRoll) {
-            maxNegativeRoll = roll;
-            iMyComplementaryFilter.onNewMaxNegativeRollAvailable(Math.abs(maxNegativeRoll));
+        return detector;
+    }
+
+    public float getFilteredRoll() {
+        return engine.getFilteredRoll();
+    }
+
+    // The filtered roll for readers on other threads, e.g. the UI once per frame. Converted to degrees when read
+    public PublishedRoll getPublishedRoll() {
+        return publishedRoll;
+    }
+
+    // Timestamp of the last gyro sample fused into getFilteredRoll(), 0 before the first one
+    public long getFilteredRollTimestamp() {
+        return engine.getFilteredRollTimestamp();
+    }
+
+    // Roll, pitch and yaw in degrees (pitch and yaw are NaN with the complementary filter)
+    public void getAttitude(float[] rollPitchYaw) {
+        engine.getAttitude(rollPitchYaw);
+    }
+
+    // Samples coming from the sensor event bus (same sensor ids as the filter)
+    @Override
+    public void onSensorEvent(int sensorId, long timestampNs, float x, float y, float z) {
+        engine.onSample(sensorId, timestampNs, x, y, z);
+    }
+
+    // Runs of samples coming from the sensor event bus (a whole FIFO burst in batching mode)
+    @Override
+    public void onSensorEvents(int[] sensorIds, long[] timestampsNs, float[] xs, float[] ys, float[] zs, int count) {
+        engine.onSamples(sensorIds, timestampsNs, xs, ys, zs, count);
+    }
+
+    @Override
+    public void onNewAccelerometerDataAvailable(float AccX, float AccY, float AccZ, long timestamp) {
+        engine.onSample(FusionEngine.SENSOR_ACCELEROMETER, timestamp, AccX, AccY, AccZ);
+    }
+
+    @Override
+    public void onNewGyroscopeDataAvailable(float RotX, float RotY, float RotZ, long timestamp) {
+        engine.onSample(FusionEngine.SENSOR_GYROSCOPE, timestamp, RotX, RotY, RotZ);
+    }
+
+    // Only while a ride is recorded, the engine skips the per-sample roll and yaw rate otherwise
+    @Override
+    public boolean wantsFusedSamples() {
+        return leanTimeline != null || cornerDetector != null;
+    }
+
+    @Override
+    public void onFusedSample(float roll, float yawRate, long timestampNs) {
+        if (leanTimeline != null) {
+            leanTimeline.add(timestampNs, roll);
+        }
+        if (cornerDetector != null) {
+            cornerDetector.add(timestampNs, roll, yawRate);
         }
     }
 
-    private void onNewFilteredAngleAvailable() {
-        iMyComplementaryFilter.onNewFilteredAngleAvailable(filteredRoll);
+    @Override
+    public void onNewMaxPositiveRoll(float maxPositiveRoll) {
+        iMyComplementaryFilter.onNewMaxPositiveRollAvailable(maxPositiveRoll);
+    }
+
+    @Override
+    public void onNewMaxNegativeRoll(float maxNegativeRoll) {
+        // Use Math.abs for sending negative roll to UI to simplify display logic
+        iMyComplementaryFilter.onNewMaxNegativeRollAvailable(Math.abs(maxNegativeRoll));
+    }
+
+    @Override
+    public void onCalibrationProgress(float progress, boolean complete) {
+        if (complete) {
+            StillnessCalibration calibration = engine.getStillnessCalibration();
+            logger.d(TAG, String.format(Locale.US, "Calibration complete: %d gyro / %d acc samples, bias error %.4f rad/s, level error %.3f deg, %d motions",
+                    calibration.getGyroSampleCount(), calibration.getAccelerometerSampleCount(),
+                    calibration.getGyroBiasError(), calibration.getLevelRollError(), calibration.getMotionCount()));
+        }
+        iMyComplementaryFilter.onCalibrationProgress(progress, complete);
     }
-}
\ No newline at end of file
+}
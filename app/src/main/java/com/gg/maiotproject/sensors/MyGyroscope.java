@@ -3,51 +3,146 @@ package com.gg.maiotproject.sensors;
 import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
 import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.gg.maiotproject.bus.SensorEventBus;
 import com.gg.maiotproject.interfaces.IMyGyroscope;
+import com.gg.maiotproject.metrics.EventChannelMetrics;
+import com.gg.maiotproject.metrics.WakeupMetrics;
 
-public class MyGyroscope implements SensorEventListener {
+public class MyGyroscope implements SensorEventListener2 {
 
     private final String TAG = "MyGyroscope";
 
     private SensorManager sensorManager = null;
     private Sensor gyroscope = null;
     private IMyGyroscope iMyGyroscope = null;
+    private SensorEventBus eventBus = null;
+    private EventChannelMetrics metrics = null;
+    private WakeupMetrics wakeupMetrics = null;
+    private SensorBatchingMode batchingMode = SensorBatchingMode.LIVE;
+    private SensorBatchMerger batchMerger = null;
+    private Runnable pendingStop = null; // Set while waiting for the FIFO flush that ends a stop()
+    private Handler handler = null; // Thread that receives the sensor events, null for the main thread
 
+    // Samples are delivered to the context, on the main thread
     public MyGyroscope(Context context) {
+        this(context, null, null);
+        this.iMyGyroscope = (IMyGyroscope) context;
+    }
+
+    // Samples are published on the event bus from the handler's thread
+    public MyGyroscope(Context context, Handler handler, SensorEventBus eventBus) {
+        this.handler = handler;
+        this.eventBus = eventBus;
         sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
         if (sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE) != null) {
             gyroscope = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
         }
         else
             Log.i(TAG, "Sensor GYROSCOPE not available");
-
-        this.iMyGyroscope = (IMyGyroscope) context;
     }
 
+    // Registration, flush and unregistration all happen on the handler's thread, like the sensor callbacks
     public void start() {
-        sensorManager.registerListener(this, gyroscope, SensorManager.SENSOR_DELAY_GAME);
+        post(() -> {
+            if (metrics != null) {
+                metrics.restart();
+            }
+            if (pendingStop != null) {
+                // Restarted before the flush of the previous stop() completed: end that stop now
+                Runnable stopped = pendingStop;
+                pendingStop = null;
+                sensorManager.unregisterListener(this);
+                stopped.run();
+            }
+            sensorManager.registerListener(this, gyroscope, batchingMode.samplingPeriodUs, batchingMode.maxReportLatencyUs, handler);
+        });
     }
 
     public void stop() {
-        sensorManager.unregisterListener(this);
+        stop(null);
+    }
+
+    // In batching mode the hardware FIFO is flushed before unregistering, so the samples measured before this
+    // call are still delivered. onStopped runs on the handler's thread after the last sample has been delivered
+    public void stop(Runnable onStopped) {
+        final Runnable stopped = onStopped != null ? onStopped : () -> { };
+        post(() -> {
+            if (batchingMode.isBatched() && gyroscope != null && sensorManager.flush(this)) {
+                pendingStop = stopped; // Completed by onFlushCompleted()
+                return;
+            }
+            sensorManager.unregisterListener(this);
+            stopped.run();
+        });
+    }
+
+    private void post(Runnable runnable) {
+        if (handler != null) {
+            handler.post(runnable);
+        } else {
+            runnable.run();
+        }
+    }
+
+    // Applied by the next start(). With a batching mode and a merger, samples reach the bus in timestamp order
+    // through the merger, which is shared with the other IMU sensor
+    public void setBatching(SensorBatchingMode batchingMode, SensorBatchMerger batchMerger) {
+        this.batchingMode = batchingMode;
+        this.batchMerger = batchMerger;
+    }
+
+    public void setWakeupMetrics(WakeupMetrics wakeupMetrics) {
+        this.wakeupMetrics = wakeupMetrics;
+    }
+
+    // Smallest step between two readings, 0 when the sensor is not available
+    public float getResolution() {
+        return gyroscope != null ? gyroscope.getResolution() : 0f;
+    }
+
+    // Event rate, jitter and delivery latency are recorded here instead of logging every event
+    public void setMetrics(EventChannelMetrics metrics) {
+        this.metrics = metrics;
     }
 
     @Override
     public void onSensorChanged(SensorEvent event) {
-        Log.i(TAG, "onGyroSensorChanged");
+        long nowNs = SystemClock.elapsedRealtimeNanos();
+        if (metrics != null) {
+            metrics.onEvent(event.timestamp, nowNs);
+        }
+        if (wakeupMetrics != null) {
+            wakeupMetrics.onDelivery(nowNs);
+        }
 
         float RotX = event.values[0];
         float RotY = event.values[1];
         float RotZ = event.values[2];
         long timestamp = event.timestamp;
 
-        iMyGyroscope.onNewGyroscopeDataAvailable(RotX, RotY, RotZ, timestamp);
+        if (batchMerger != null && batchingMode.isBatched()) {
+            batchMerger.add(ImuRecorder.SENSOR_GYROSCOPE, timestamp, RotX, RotY, RotZ);
+        } else if (eventBus != null) {
+            eventBus.publish(ImuRecorder.SENSOR_GYROSCOPE, timestamp, RotX, RotY, RotZ);
+        } else {
+            iMyGyroscope.onNewGyroscopeDataAvailable(RotX, RotY, RotZ, timestamp);
+        }
+    }
 
-        Log.i(TAG, "Rotation --> X: " + RotX + " - Y: " + RotY + " - Z: " + RotZ);
+    @Override
+    public void onFlushCompleted(Sensor sensor) {
+        if (pendingStop != null) {
+            Runnable stopped = pendingStop;
+            pendingStop = null;
+            sensorManager.unregisterListener(this);
+            stopped.run();
+        }
     }
 
     @Override
@@ -0,0 +1,97 @@
+package com.gg.maiotproject.sensors;
+
+import com.gg.maiotproject.bus.SensorEventBus;
+
+// Restores the time order of batched samples before they are published on the event bus.
+// A hardware FIFO delivers each sensor in its own burst (e.g. 25 accelerometer samples, then 25 gyroscope
+// samples), while fusion needs the two streams interleaved by timestamp. Samples are held per sensor and
+// released oldest first as long as both sensors have pending samples; flush() releases what is left.
+// Only used from the capture thread.
+public class SensorBatchMerger {
+
+    private static final int DEFAULT_CAPACITY = 512; // Per sensor, ~10 s at 50 Hz
+
+    private final SensorEventBus eventBus;
+    private final SampleQueue accelerometer;
+    private final SampleQueue gyroscope;
+
+    public SensorBatchMerger(SensorEventBus eventBus) {
+        this(eventBus, DEFAULT_CAPACITY);
+    }
+
+    public SensorBatchMerger(SensorEventBus eventBus, int capacity) {
+        this.eventBus = eventBus;
+        accelerometer = new SampleQueue(ImuRecorder.SENSOR_ACCELEROMETER, capacity);
+        gyroscope = new SampleQueue(ImuRecorder.SENSOR_GYROSCOPE, capacity);
+    }
+
+    public void add(int sensorId, long timestampNs, float x, float y, float z) {
+        SampleQueue queue = sensorId == ImuRecorder.SENSOR_GYROSCOPE ? gyroscope : accelerometer;
+        if (queue.size == queue.capacity) {
+            releaseOldest(); // The other sensor is silent (or missing), do not hold samples forever
+        }
+        queue.add(timestampNs, x, y, z);
+        while (accelerometer.size > 0 && gyroscope.size > 0) {
+            releaseOldest();
+        }
+    }
+
+    // Releases every held sample, e.g. once both sensors have flushed their FIFO
+    public void flush() {
+        while (accelerometer.size > 0 || gyroscope.size > 0) {
+            releaseOldest();
+        }
+    }
+
+    public int getPendingCount() {
+        return accelerometer.size + gyroscope.size;
+    }
+
+    private void releaseOldest() {
+        SampleQueue queue;
+        if (accelerometer.size == 0) {
+            queue = gyroscope;
+        } else if (gyroscope.size == 0) {
+            queue = accelerometer;
+        } else {
+            queue = gyroscope.headTimestamp() < accelerometer.headTimestamp() ? gyroscope : accelerometer;
+        }
+        int slot = queue.head;
+        eventBus.publish(queue.sensorId, queue.timestamps[slot], queue.xs[slot], queue.ys[slot], queue.zs[slot]);
+        queue.head = (slot + 1) % queue.capacity;
+        queue.size--;
+    }
+
+    private static final class SampleQueue {
+        final int sensorId;
+        final int capacity;
+        final long[] timestamps;
+        final float[] xs;
+        final float[] ys;
+        final float[] zs;
+        int head = 0;
+        int size = 0;
+
+        SampleQueue(int sensorId, int capacity) {
+            this.sensorId = sensorId;
+            this.capacity = capacity;
+            timestamps = new long[capacity];
+            xs = new float[capacity];
+            ys = new float[capacity];
+            zs = new float[capacity];
+        }
+
+        void add(long timestampNs, float x, float y, float z) {
+            int slot = (head + size) % capacity;
+            timestamps[slot] = timestampNs;
+            xs[slot] = x;
+            ys[slot] = y;
+            zs[slot] = z;
+            size++;
+        }
+
+        long headTimestamp() {
+            return timestamps[head];
+        }
+    }
+}
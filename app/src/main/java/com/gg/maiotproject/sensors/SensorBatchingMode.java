@@ -0,0 +1,25 @@
+package com.gg.maiotproject.sensors;
+
+// How the IMU sensors are registered.
+// LIVE: every sample is delivered as soon as it is measured, waking the application processor each time.
+// BATTERY_SAVER: the sensor hub buffers samples in its hardware FIFO and delivers them in bursts, so the
+// application processor only wakes a few times per second; the angle on screen lags by up to the report latency.
+// Sensors without a FIFO ignore the report latency and behave as in LIVE mode.
+// CALIBRATION: the fastest rate, unbatched, for the short still window of the calibration only.
+public enum SensorBatchingMode {
+    LIVE(20_000, 0),                  // Same rate as SENSOR_DELAY_GAME
+    BATTERY_SAVER(20_000, 500_000),
+    CALIBRATION(0, 0);                // Same rate as SENSOR_DELAY_FASTEST
+
+    public final int samplingPeriodUs;
+    public final int maxReportLatencyUs;
+
+    SensorBatchingMode(int samplingPeriodUs, int maxReportLatencyUs) {
+        this.samplingPeriodUs = samplingPeriodUs;
+        this.maxReportLatencyUs = maxReportLatencyUs;
+    }
+
+    public boolean isBatched() {
+        return maxReportLatencyUs > 0;
+    }
+}
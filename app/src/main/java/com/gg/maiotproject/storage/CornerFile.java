@@ -0,0 +1,136 @@
+package com.gg.maiotproject.storage;
+
+import com.gg.maiotproject.fusion.Corner;
+import com.gg.maiotproject.fusion.LeanHistogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Binary file holding the corners of one ride and its time-in-lean histogram, as found by the CornerDetector
+// while riding: a header, the histogram (left and right ns per bucket), then one fixed-size record per corner.
+// A few hundred corners per ride, so the whole file is read at once.
+public final class CornerFile {
+
+    private static final int MAGIC = 0x43524E52; // "CRNR"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int HISTOGRAM_BYTES = LeanHistogram.BUCKETS * 2 * 8;
+    private static final int CORNER_BYTES = 64;
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private final long rideId;
+    private final List<Corner> corners;
+    private final LeanHistogram histogram;
+
+    private CornerFile(long rideId, List<Corner> corners, LeanHistogram histogram) {
+        this.rideId = rideId;
+        this.corners = corners;
+        this.histogram = histogram;
+    }
+
+    // Written under a temporary name and renamed, like RideFile
+    public static void write(File file, long rideId, List<Corner> corners, LeanHistogram histogram) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + HISTOGRAM_BYTES + corners.size() * CORNER_BYTES).order(ORDER);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(rideId);
+        buffer.putInt(corners.size());
+        buffer.position(HEADER_BYTES);
+        for (int bucket = 0; bucket < LeanHistogram.BUCKETS; bucket++) {
+            buffer.putLong(histogram.getLeftNs(bucket));
+            buffer.putLong(histogram.getRightNs(bucket));
+        }
+        for (Corner corner : corners) {
+            int start = buffer.position();
+            buffer.putLong(corner.entryNs);
+            buffer.putLong(corner.apexNs);
+            buffer.putLong(corner.exitNs);
+            buffer.putLong(corner.timeAtLeanNs);
+            buffer.putFloat(corner.peakLean);
+            buffer.putFloat(corner.meanLean);
+            buffer.putFloat(corner.peakYawRate);
+            buffer.putDouble(corner.apexLatitude);
+            buffer.putDouble(corner.apexLongitude);
+            buffer.position(start + CORNER_BYTES);
+        }
+        buffer.flip();
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+             FileChannel channel = raf.getChannel()) {
+            channel.truncate(0);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Unable to rename " + tmp + " to " + file);
+        }
+    }
+
+    public static CornerFile open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() < HEADER_BYTES + HISTOGRAM_BYTES || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Not a corner file: " + file);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size()).order(ORDER);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Truncated corner file: " + file);
+                }
+            }
+            buffer.flip();
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a corner file: " + file);
+            }
+            long rideId = buffer.getLong();
+            int count = buffer.getInt();
+            if (count < 0 || buffer.limit() != HEADER_BYTES + HISTOGRAM_BYTES + (long) count * CORNER_BYTES) {
+                throw new IOException("Corrupted corner file: " + file);
+            }
+            buffer.position(HEADER_BYTES);
+            LeanHistogram histogram = new LeanHistogram();
+            for (int bucket = 0; bucket < LeanHistogram.BUCKETS; bucket++) {
+                histogram.set(bucket, buffer.getLong(), buffer.getLong());
+            }
+            List<Corner> corners = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int start = buffer.position();
+                long entryNs = buffer.getLong();
+                long apexNs = buffer.getLong();
+                long exitNs = buffer.getLong();
+                long timeAtLeanNs = buffer.getLong();
+                float peakLean = buffer.getFloat();
+                float meanLean = buffer.getFloat();
+                float peakYawRate = buffer.getFloat();
+                double latitude = buffer.getDouble();
+                double longitude = buffer.getDouble();
+                corners.add(new Corner(entryNs, apexNs, exitNs, peakLean, meanLean, timeAtLeanNs, peakYawRate, latitude, longitude));
+                buffer.position(start + CORNER_BYTES);
+            }
+            return new CornerFile(rideId, Collections.unmodifiableList(corners), histogram);
+        }
+    }
+
+    public long getRideId() {
+        return rideId;
+    }
+
+    public List<Corner> getCorners() {
+        return corners;
+    }
+
+    public LeanHistogram getHistogram() {
+        return histogram;
+    }
+}
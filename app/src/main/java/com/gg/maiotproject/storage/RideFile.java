@@ -0,0 +1,243 @@
+package com.gg.maiotproject.storage;
+
+import com.gg.maiotproject.map.RideStats;
+import com.gg.maiotproject.track.TrackView;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Binary file holding one finished ride: a fixed-size header with the precomputed summary,
+// followed by the track as plain columns (lat, lon, time, speed, accuracy).
+// Opening a ride only reads the header and memory-maps the columns, so it costs the same for any ride length;
+// track points are paged in by the OS when they are actually read.
+public final class RideFile {
+
+    private static final int MAGIC = 0x52494445; // "RIDE"
+    private static final int VERSION = 1;
+    static final int HEADER_BYTES = 256;
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private final long rideId;
+    private final int pointCount;
+    private final double maxPositiveRoll;
+    private final double maxNegativeRoll;
+    private final double latNorth, latSouth, lonEast, lonWest;
+    private final RideStats rideStats;
+    private final TrackView track;
+
+    private RideFile(ByteBuffer header, MappedByteBuffer columns) {
+        rideId = header.getLong();
+        pointCount = header.getInt();
+        maxPositiveRoll = header.getDouble();
+        maxNegativeRoll = header.getDouble();
+        latNorth = header.getDouble();
+        latSouth = header.getDouble();
+        lonEast = header.getDouble();
+        lonWest = header.getDouble();
+        rideStats = RideStats.readFrom(header);
+        track = new MappedTrack(columns, pointCount);
+    }
+
+    // Writes a finished ride. The file is written under a temporary name and renamed,
+    // so a reader never sees a partially written ride.
+    public static void write(File file, long rideId, TrackView track, RideStats rideStats,
+                             double maxPositiveRoll, double maxNegativeRoll) throws IOException {
+        int n = track.size();
+
+        // Bounding box of the raw path, computed in the same pass that writes it
+        double latNorth = -90, latSouth = 90, lonEast = -180, lonWest = 180;
+        for (int i = 0; i < n; i++) {
+            double lat = track.getLatitude(i);
+            double lon = track.getLongitude(i);
+            if (lat > latNorth) latNorth = lat;
+            if (lat < latSouth) latSouth = lat;
+            if (lon > lonEast) lonEast = lon;
+            if (lon < lonWest) lonWest = lon;
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+             FileChannel channel = raf.getChannel()) {
+            channel.truncate(0);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024).order(ORDER);
+
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putLong(rideId);
+            buffer.putInt(n);
+            buffer.putDouble(maxPositiveRoll);
+            buffer.putDouble(maxNegativeRoll);
+            buffer.putDouble(latNorth);
+            buffer.putDouble(latSouth);
+            buffer.putDouble(lonEast);
+            buffer.putDouble(lonWest);
+            rideStats.writeTo(buffer);
+            buffer.position(HEADER_BYTES);
+
+            for (int i = 0; i < n; i++) {
+                if (buffer.remaining() < 8) drain(buffer, channel);
+                buffer.putDouble(track.getLatitude(i));
+            }
+            for (int i = 0; i < n; i++) {
+                if (buffer.remaining() < 8) drain(buffer, channel);
+                buffer.putDouble(track.getLongitude(i));
+            }
+            for (int i = 0; i < n; i++) {
+                if (buffer.remaining() < 8) drain(buffer, channel);
+                buffer.putLong(track.getTime(i));
+            }
+            for (int i = 0; i < n; i++) {
+                if (buffer.remaining() < 4) drain(buffer, channel);
+                buffer.putFloat(track.getSpeed(i));
+            }
+            for (int i = 0; i < n; i++) {
+                if (buffer.remaining() < 4) drain(buffer, channel);
+                buffer.putFloat(track.getAccuracy(i));
+            }
+            drain(buffer, channel);
+            channel.force(true);
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Unable to rename " + tmp + " to " + file);
+        }
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Reads the header and maps the track columns; no track data is read here
+    public static RideFile open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ORDER);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IOException("Truncated ride file " + file);
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a ride file or unsupported version: " + file);
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer columns = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, channel.size() - HEADER_BYTES);
+            return new RideFile(header, columns);
+        }
+    }
+
+    public long getRideId() {
+        return rideId;
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    public double getMaxPositiveRoll() {
+        return maxPositiveRoll;
+    }
+
+    public double getMaxNegativeRoll() {
+        return maxNegativeRoll;
+    }
+
+    public double getLatNorth() {
+        return latNorth;
+    }
+
+    public double getLatSouth() {
+        return latSouth;
+    }
+
+    public double getLonEast() {
+        return lonEast;
+    }
+
+    public double getLonWest() {
+        return lonWest;
+    }
+
+    public RideStats getRideStats() {
+        return rideStats;
+    }
+
+    // Memory-mapped view of the track columns
+    public TrackView getTrack() {
+        return track;
+    }
+
+    private static final class MappedTrack implements TrackView {
+        private final int size;
+        private final DoubleBuffer lat;
+        private final DoubleBuffer lon;
+        private final LongBuffer time;
+        private final FloatBuffer speed;
+        private final FloatBuffer accuracy;
+
+        MappedTrack(MappedByteBuffer columns, int size) {
+            this.size = size;
+            lat = column(columns, 0).asDoubleBuffer();
+            lon = column(columns, 8L * size).asDoubleBuffer();
+            time = column(columns, 16L * size).asLongBuffer();
+            speed = column(columns, 24L * size).asFloatBuffer();
+            accuracy = column(columns, 28L * size).asFloatBuffer();
+        }
+
+        private static ByteBuffer column(ByteBuffer columns, long offset) {
+            ByteBuffer view = columns.duplicate();
+            view.position((int) offset);
+            return view.slice().order(ORDER);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public double getLatitude(int index) {
+            return lat.get(checkIndex(index));
+        }
+
+        @Override
+        public double getLongitude(int index) {
+            return lon.get(checkIndex(index));
+        }
+
+        @Override
+        public long getTime(int index) {
+            return time.get(checkIndex(index));
+        }
+
+        @Override
+        public float getSpeed(int index) {
+            return speed.get(checkIndex(index));
+        }
+
+        @Override
+        public float getAccuracy(int index) {
+            return accuracy.get(checkIndex(index));
+        }
+
+        private int checkIndex(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return index;
+        }
+    }
+}
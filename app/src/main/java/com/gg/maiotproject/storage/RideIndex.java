@@ -0,0 +1,197 @@
+package com.gg.maiotproject.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Summaries of all stored rides, the ride history. One small file (rides.idx: a header and a fixed-size record per
+// ride, ordered by ride id) read whole when the history is first used, so listing hundreds of rides opens no ride file.
+// In memory the rides are kept ordered by date (ride id) and, through a second array of positions, by distance:
+// queries of a date or distance range are a binary search plus the requested page.
+// Every change rewrites the file under a temporary name and renames it (a crash leaves the previous version).
+// Not synchronized, RideStore uses it from its I/O thread only.
+public final class RideIndex {
+
+    private static final int MAGIC = 0x52494458; // "RIDX"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private final List<RideSummary> byId = new ArrayList<>();
+    private int[] byDistance = null; // Positions in byId ordered by distance, rebuilt after a change
+
+    // Empty index when the file does not exist
+    public static RideIndex load(File file) throws IOException {
+        RideIndex index = new RideIndex();
+        if (!file.exists()) {
+            return index;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size()).order(ORDER);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a ride index or unsupported version: " + file);
+            }
+            int count = buffer.getInt();
+            buffer.getInt(); // Reserved
+            if (buffer.remaining() < (long) count * RideSummary.SERIALIZED_BYTES) {
+                throw new IOException("Truncated ride index " + file);
+            }
+            for (int i = 0; i < count; i++) {
+                index.byId.add(RideSummary.readFrom(buffer));
+            }
+        }
+        return index;
+    }
+
+    public void save(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + byId.size() * RideSummary.SERIALIZED_BYTES).order(ORDER);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(byId.size());
+        buffer.putInt(0);
+        for (RideSummary summary : byId) {
+            summary.writeTo(buffer);
+        }
+        buffer.flip();
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+             FileChannel channel = raf.getChannel()) {
+            channel.truncate(0);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Unable to rename " + tmp + " to " + file);
+        }
+    }
+
+    // Adds the ride, or replaces the summary of the same ride id
+    public void put(RideSummary summary) {
+        int position = positionOf(summary.getRideId());
+        if (position >= 0) {
+            byId.set(position, summary);
+        } else {
+            byId.add(-position - 1, summary);
+        }
+        byDistance = null;
+    }
+
+    public boolean remove(long rideId) {
+        int position = positionOf(rideId);
+        if (position < 0) {
+            return false;
+        }
+        byId.remove(position);
+        byDistance = null;
+        return true;
+    }
+
+    public RideSummary get(long rideId) {
+        int position = positionOf(rideId);
+        return position >= 0 ? byId.get(position) : null;
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    // Rides started in [fromTimeMs, toTimeMs), the page of limit rides after skipping offset of them
+    public List<RideSummary> byDate(long fromTimeMs, long toTimeMs, boolean newestFirst, int offset, int limit) {
+        int from = lowerBound(fromTimeMs);
+        int to = lowerBound(toTimeMs);
+        List<RideSummary> page = new ArrayList<>();
+        for (int i = offset; i < to - from && page.size() < limit; i++) {
+            page.add(byId.get(newestFirst ? to - 1 - i : from + i));
+        }
+        return page;
+    }
+
+    public int countByDate(long fromTimeMs, long toTimeMs) {
+        return Math.max(0, lowerBound(toTimeMs) - lowerBound(fromTimeMs));
+    }
+
+    // Rides with a distance in [minMeters, maxMeters), paged like byDate()
+    public List<RideSummary> byDistance(double minMeters, double maxMeters, boolean longestFirst, int offset, int limit) {
+        int[] order = distanceOrder();
+        int from = lowerBoundDistance(order, minMeters);
+        int to = lowerBoundDistance(order, maxMeters);
+        List<RideSummary> page = new ArrayList<>();
+        for (int i = offset; i < to - from && page.size() < limit; i++) {
+            page.add(byId.get(order[longestFirst ? to - 1 - i : from + i]));
+        }
+        return page;
+    }
+
+    public int countByDistance(double minMeters, double maxMeters) {
+        int[] order = distanceOrder();
+        return Math.max(0, lowerBoundDistance(order, maxMeters) - lowerBoundDistance(order, minMeters));
+    }
+
+    // Position of the ride id in byId, or -(insertion point) - 1
+    private int positionOf(long rideId) {
+        int position = lowerBound(rideId);
+        if (position < byId.size() && byId.get(position).getRideId() == rideId) {
+            return position;
+        }
+        return -position - 1;
+    }
+
+    // First position whose ride id is >= rideId
+    private int lowerBound(long rideId) {
+        int low = 0, high = byId.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (byId.get(mid).getRideId() < rideId) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int lowerBoundDistance(int[] order, double meters) {
+        int low = 0, high = order.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (byId.get(order[mid]).getDistanceMeters() < meters) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int[] distanceOrder() {
+        if (byDistance == null) {
+            List<Integer> positions = new ArrayList<>(byId.size());
+            for (int i = 0; i < byId.size(); i++) {
+                positions.add(i);
+            }
+            // Stable sort: equal distances stay in date order
+            Collections.sort(positions, (a, b) -> Double.compare(byId.get(a).getDistanceMeters(), byId.get(b).getDistanceMeters()));
+            byDistance = new int[positions.size()];
+            for (int i = 0; i < byDistance.length; i++) {
+                byDistance[i] = positions.get(i);
+            }
+        }
+        return byDistance;
+    }
+}
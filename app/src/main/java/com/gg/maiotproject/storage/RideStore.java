@@ -0,0 +1,543 @@
+package com.gg.maiotproject.storage;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.gg.maiotproject.export.TrackExporter;
+import com.gg.maiotproject.fusion.ArchiveReanalysis;
+import com.gg.maiotproject.fusion.CornerDetector;
+import com.gg.maiotproject.fusion.FusionParameters;
+import com.gg.maiotproject.fusion.ImuBlockFile;
+import com.gg.maiotproject.fusion.ImuBlockWriter;
+import com.gg.maiotproject.fusion.ImuRecordFormat;
+import com.gg.maiotproject.fusion.ImuRecordReader;
+import com.gg.maiotproject.fusion.LeanTimeline;
+import com.gg.maiotproject.fusion.LeanTimelineWriter;
+import com.gg.maiotproject.interfaces.ICorners;
+import com.gg.maiotproject.interfaces.ILeanTimeline;
+import com.gg.maiotproject.interfaces.INearestPoint;
+import com.gg.maiotproject.interfaces.IReanalysis;
+import com.gg.maiotproject.interfaces.IRideExport;
+import com.gg.maiotproject.interfaces.IRideHistory;
+import com.gg.maiotproject.interfaces.IRideStore;
+import com.gg.maiotproject.map.RideStats;
+import com.gg.maiotproject.sensors.ImuRecorder;
+import com.gg.maiotproject.spatial.SegmentIndex;
+import com.gg.maiotproject.track.TrackBuffer;
+import com.gg.maiotproject.track.TrackDecoder;
+import com.gg.maiotproject.track.TrackEncoder;
+import com.gg.maiotproject.track.TrackView;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Keeps finished rides as files in the app's private storage, one RideFile per ride id.
+// All file I/O runs on a single background thread shared by every RideStore instance: a load
+// queued after a save is therefore guaranteed to see the complete file, which lets MainActivity
+// hand SummaryActivity just the ride id right after stopping.
+// The ride history is a RideIndex of precomputed summaries, updated on the same thread right after each ride is
+// written, so a listing queued after a save includes that ride.
+// The segments of every ride are also kept in a SegmentIndex (where rides went), filled while the ride is recorded
+// and flushed when it is saved. Rides deleted from the history are left in it, results are checked against the history.
+// The fused roll of each ride is kept in a LeanTimeline next to its ride file, recorded by the filter on the fusion
+// thread and finished here once the filter hands it over; its corners (CornerFile) are handed over the same way.
+// A compact copy of the track (TrackEncoder) is kept for archiving and exports, which stream from it chunk by chunk.
+// The raw IMU segments of a ride are compressed into an ImuBlockFile once the recorder is closed, on a thread of their
+// own (a long ride takes a few seconds) which also deletes IMU directories, so the two never overlap.
+// The IMU recordings can be re-run through the fusion with other parameters (ArchiveReanalysis), on a pool of low
+// priority threads of its own; a ride archived or deleted meanwhile is reported as unreadable in the result.
+public class RideStore {
+    private final String TAG = "RideStore";
+
+    // Longest wait for the filter to hand over the lean timeline and corners, or for the IMU recorder to close
+    // (the sensor FIFOs are flushed first)
+    private static final long FUSION_HANDOFF_S = 10;
+
+    private static final ExecutorService ioExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "RideStoreIO");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private static final ExecutorService imuExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "RideStoreIMU");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    // Half the cores at most, so a re-analysis leaves the phone usable
+    private static final ForkJoinPool reanalysisPool = new ForkJoinPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2), pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("RideStoreReanalysis-" + thread.getPoolIndex());
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }, null, false);
+
+    // Loaded once per directory, only touched on the I/O thread
+    private static final Map<File, RideIndex> indexes = new HashMap<>();
+    private static final Map<File, SegmentIndex> segmentIndexes = new HashMap<>();
+
+    private final File ridesDir;
+
+    public RideStore(Context context) {
+        this(new File(context.getFilesDir(), "rides"));
+    }
+
+    public RideStore(File ridesDir) {
+        this.ridesDir = ridesDir;
+    }
+
+    // Ride ids are the wall-clock start time of the ride
+    public static long newRideId() {
+        return System.currentTimeMillis();
+    }
+
+    public File getRideFile(long rideId) {
+        return new File(ridesDir, rideId + ".ride");
+    }
+
+    // Directory holding the raw IMU segments recorded during the ride (see ImuRecorder)
+    public File getImuDirectory(long rideId) {
+        return new File(ridesDir, rideId + ".imu");
+    }
+
+    // Roll of the ride over time, for the lean chart (see LeanTimeline)
+    public File getLeanFile(long rideId) {
+        return new File(ridesDir, rideId + ".lean");
+    }
+
+    // Corners and time-in-lean histogram of the ride (see CornerDetector)
+    public File getCornerFile(long rideId) {
+        return new File(ridesDir, rideId + ".corners");
+    }
+
+    // Compact encoded track, exported from (see TrackEncoder)
+    public File getTrackFile(long rideId) {
+        return new File(ridesDir, rideId + ".trk");
+    }
+
+    // Queues the ride to be written and returns immediately.
+    // The store takes ownership of the track buffer and closes it once it has been written.
+    // maxRolls is handed over by the filter once the last samples of the ride are fused: the largest positive roll
+    // and the largest negative one as a positive value. The I/O thread waits for it, like finishLeanTimeline()
+    public void save(long rideId, TrackBuffer track, RideStats rideStats, Future<double[]> maxRolls) {
+        ioExecutor.execute(() -> {
+            try {
+                double maxPositiveRoll = 0.0;
+                double maxNegativeRoll = 0.0;
+                try {
+                    double[] rolls = maxRolls.get(FUSION_HANDOFF_S, TimeUnit.SECONDS);
+                    maxPositiveRoll = rolls[0];
+                    maxNegativeRoll = rolls[1];
+                } catch (ExecutionException | TimeoutException e) {
+                    Log.e(TAG, "No lean extremes for ride " + rideId + ", saved without them", e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                ridesDir.mkdirs();
+                File rideFile = getRideFile(rideId);
+                RideFile.write(rideFile, rideId, track, rideStats, maxPositiveRoll, maxNegativeRoll);
+                // The summary comes from the header just written
+                RideIndex index = getIndex();
+                index.put(RideSummary.of(RideFile.open(rideFile), getImuDirectory(rideId).isDirectory()));
+                index.save(getIndexFile());
+                getSegmentIndex().flush(); // The segments were indexed while recording
+                writeTrackFile(rideId, track);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to save ride " + rideId, e);
+            } finally {
+                track.close();
+            }
+        });
+    }
+
+    // Opens the ride in the background; the listener is called on the I/O thread
+    public void load(long rideId, IRideStore listener) {
+        ioExecutor.execute(() -> {
+            RideFile ride;
+            try {
+                ride = RideFile.open(getRideFile(rideId));
+            } catch (IOException e) {
+                listener.onRideLoadFailed(rideId, e);
+                return;
+            }
+            listener.onRideLoaded(ride);
+        });
+    }
+
+    // Finishes the ride's lean timeline once the filter hands it over. Queued when the ride stops, before the
+    // summary is shown, so a load queued after it finds the timeline complete. The I/O thread waits for the handoff
+    public void finishLeanTimeline(long rideId, Future<LeanTimelineWriter> handoff) {
+        ioExecutor.execute(() -> {
+            try {
+                LeanTimelineWriter writer = handoff.get(FUSION_HANDOFF_S, TimeUnit.SECONDS);
+                if (writer != null) {
+                    writer.finish();
+                    if (writer.getDroppedSampleCount() > 0) {
+                        Log.w(TAG, writer.getDroppedSampleCount() + " out of order rolls left out of ride " + rideId);
+                    }
+                }
+            } catch (IOException | ExecutionException | TimeoutException e) {
+                Log.e(TAG, "Unable to finish the lean timeline of ride " + rideId, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    // Writes the corners found during the ride once the filter hands its detector over, like finishLeanTimeline()
+    public void saveCorners(long rideId, Future<CornerDetector> handoff) {
+        ioExecutor.execute(() -> {
+            try {
+                CornerDetector detector = handoff.get(FUSION_HANDOFF_S, TimeUnit.SECONDS);
+                if (detector != null) {
+                    ridesDir.mkdirs();
+                    CornerFile.write(getCornerFile(rideId), rideId, detector.getCorners(), detector.getHistogram());
+                }
+            } catch (IOException | ExecutionException | TimeoutException e) {
+                Log.e(TAG, "Unable to save the corners of ride " + rideId, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    // Compresses the ride's raw IMU segments once the recorder is closed, then deletes them. The resolutions are the
+    // sensors' (0 when unknown): readings that are exact steps of them compress several times better
+    public void archiveImu(long rideId, Future<?> recorderClosed, float accelerometerResolution, float gyroscopeResolution) {
+        imuExecutor.execute(() -> {
+            File directory = getImuDirectory(rideId);
+            File tmp = new File(directory, ImuBlockFile.FILE_NAME + ".tmp");
+            try {
+                recorderClosed.get(FUSION_HANDOFF_S, TimeUnit.SECONDS);
+                if (!ImuRecordFormat.segmentFile(directory, 0).exists()) {
+                    return; // Not recorded
+                }
+                ImuBlockWriter writer = ImuBlockWriter.create(tmp)
+                        .setResolution(ImuRecorder.SENSOR_ACCELEROMETER, accelerometerResolution)
+                        .setResolution(ImuRecorder.SENSOR_GYROSCOPE, gyroscopeResolution);
+                long records;
+                try {
+                    records = new ImuRecordReader(directory).read(writer);
+                } finally {
+                    writer.finish();
+                }
+                if (writer.getSampleCount() != records) {
+                    throw new IOException(writer.getDroppedSampleCount() + " unknown IMU records in " + directory);
+                }
+                File blocks = new File(directory, ImuBlockFile.FILE_NAME);
+                if (!tmp.renameTo(blocks)) {
+                    throw new IOException("Unable to rename " + tmp + " to " + blocks);
+                }
+                for (int index = 0; ImuRecordFormat.segmentFile(directory, index).delete(); index++) {
+                    // The ride reads back from the blocks
+                }
+                Log.i(TAG, "Archived " + records + " IMU samples of ride " + rideId + " in " + blocks.length() + " bytes");
+            } catch (IOException | ExecutionException | TimeoutException e) {
+                tmp.delete();
+                Log.e(TAG, "Unable to archive the IMU recording of ride " + rideId + ", kept as is", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    // Re-runs the fusion over every ride with an IMU recording, once per parameter set, and returns at once.
+    // The returned run can be cancelled from any thread
+    public ArchiveReanalysis reanalyse(List<FusionParameters> parameterSets, IReanalysis listener) {
+        final ArchiveReanalysis reanalysis = new ArchiveReanalysis(parameterSets);
+        reanalysisPool.execute(() -> {
+            List<ArchiveReanalysis.Ride> rides = new ArrayList<>();
+            File[] files = ridesDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.isDirectory() && file.getName().endsWith(".imu")) {
+                        rides.add(ArchiveReanalysis.recording(file));
+                    }
+                }
+            }
+            ArchiveReanalysis.Result result;
+            try {
+                // Forks its rides within this pool, this worker takes its share
+                result = reanalysis.run(rides, reanalysisPool, listener::onReanalysisProgress);
+            } catch (RuntimeException e) {
+                listener.onReanalysisFailed(e);
+                return;
+            }
+            Log.i(TAG, "Re-analysed " + result.getRideCount() + " rides (" + result.getFailedRideCount() + " unreadable) with "
+                    + parameterSets.size() + " parameter sets");
+            listener.onReanalysisFinished(result);
+        });
+        return reanalysis;
+    }
+
+    // Reads the ride's corners in the background; the listener is called on the I/O thread
+    public void loadCorners(long rideId, ICorners listener) {
+        ioExecutor.execute(() -> {
+            CornerFile corners;
+            try {
+                corners = CornerFile.open(getCornerFile(rideId));
+            } catch (IOException e) {
+                listener.onCornersLoadFailed(rideId, e);
+                return;
+            }
+            listener.onCornersLoaded(corners);
+        });
+    }
+
+    // Opens the ride's lean timeline in the background; the listener is called on the I/O thread
+    public void loadLeanTimeline(long rideId, ILeanTimeline listener) {
+        ioExecutor.execute(() -> {
+            LeanTimeline timeline;
+            try {
+                timeline = LeanTimeline.open(getLeanFile(rideId));
+            } catch (IOException e) {
+                listener.onLeanTimelineLoadFailed(rideId, e);
+                return;
+            }
+            listener.onLeanTimelineLoaded(timeline);
+        });
+    }
+
+    // Exports the ride to the given file in the exporter's format; the listener is called on the I/O thread.
+    // Rides saved before tracks were encoded are encoded from their ride file first
+    public void export(long rideId, TrackExporter exporter, File file, IRideExport listener) {
+        ioExecutor.execute(() -> {
+            try {
+                File trackFile = getTrackFile(rideId);
+                if (!trackFile.exists()) {
+                    writeTrackFile(rideId, RideFile.open(getRideFile(rideId)).getTrack());
+                }
+                File parent = file.getParentFile();
+                if (parent != null) {
+                    parent.mkdirs();
+                }
+                File tmp = new File(file.getPath() + ".tmp");
+                try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8), 1 << 16)) {
+                    exporter.export(() -> openTrack(trackFile), "Ride " + rideId, out);
+                }
+                if (!tmp.renameTo(file)) {
+                    tmp.delete();
+                    throw new IOException("Unable to rename " + tmp + " to " + file);
+                }
+            } catch (IOException e) {
+                listener.onRideExportFailed(rideId, e);
+                return;
+            }
+            listener.onRideExported(rideId, file);
+        });
+    }
+
+    private static TrackDecoder openTrack(File trackFile) throws IOException {
+        return new TrackDecoder(new BufferedInputStream(new FileInputStream(trackFile), 1 << 16));
+    }
+
+    // I/O thread only. Written under a temporary name and renamed, like RideFile
+    private void writeTrackFile(long rideId, TrackView track) throws IOException {
+        File file = getTrackFile(rideId);
+        File tmp = new File(file.getPath() + ".tmp");
+        try (TrackEncoder encoder = new TrackEncoder(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            encoder.appendAll(track);
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Unable to rename " + tmp + " to " + file);
+        }
+    }
+
+    // Lists a page of the ride history by date, newest first
+    public void listByDate(int offset, int limit, IRideHistory listener) {
+        ioExecutor.execute(() -> {
+            RideIndex index;
+            try {
+                index = getIndex();
+            } catch (IOException e) {
+                listener.onRideHistoryFailed(e);
+                return;
+            }
+            listener.onRidesListed(index.byDate(Long.MIN_VALUE, Long.MAX_VALUE, true, offset, limit), offset, index.size());
+        });
+    }
+
+    // Lists a page of the ride history by distance, longest first
+    public void listByDistance(int offset, int limit, IRideHistory listener) {
+        ioExecutor.execute(() -> {
+            RideIndex index;
+            try {
+                index = getIndex();
+            } catch (IOException e) {
+                listener.onRideHistoryFailed(e);
+                return;
+            }
+            List<RideSummary> page = index.byDistance(0, Double.POSITIVE_INFINITY, true, offset, limit);
+            listener.onRidesListed(page, offset, index.size());
+        });
+    }
+
+    // Indexes a segment of the ride being recorded, from its point pointIndex to the next one
+    public void indexSegment(long rideId, int pointIndex, double lat1, double lon1, double lat2, double lon2) {
+        ioExecutor.execute(() -> {
+            try {
+                ridesDir.mkdirs();
+                getSegmentIndex().insert(rideId, pointIndex, lat1, lon1, lat2, lon2);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to index a segment of ride " + rideId, e);
+            }
+        });
+    }
+
+    // Lists a page of the rides that passed within the given distance of a location, newest first
+    public void listThrough(double latitude, double longitude, double meters, int offset, int limit, IRideHistory listener) {
+        ioExecutor.execute(() -> {
+            List<RideSummary> rides = new ArrayList<>();
+            try {
+                RideIndex index = getIndex();
+                long[] rideIds = getSegmentIndex().ridesWithin(latitude, longitude, meters);
+                for (int i = rideIds.length - 1; i >= 0; i--) {
+                    RideSummary summary = index.get(rideIds[i]);
+                    if (summary != null) { // Not deleted, not the ride being recorded
+                        rides.add(summary);
+                    }
+                }
+            } catch (IOException e) {
+                listener.onRideHistoryFailed(e);
+                return;
+            }
+            int from = Math.min(offset, rides.size());
+            listener.onRidesListed(new ArrayList<>(rides.subList(from, Math.min(rides.size(), from + limit))), offset, rides.size());
+        });
+    }
+
+    // Finds the point of the ride closest to a location, within maxMeters
+    public void nearestPoint(long rideId, double latitude, double longitude, double maxMeters, INearestPoint listener) {
+        ioExecutor.execute(() -> {
+            SegmentIndex.Nearest nearest;
+            try {
+                nearest = getSegmentIndex().nearest(latitude, longitude, rideId, maxMeters);
+            } catch (IOException e) {
+                listener.onNearestPointFailed(e);
+                return;
+            }
+            listener.onNearestPoint(nearest);
+        });
+    }
+
+    // Deletes the ride, its encoded track, its lean timeline and corners, its IMU recording and its history entry
+    public void delete(long rideId) {
+        ioExecutor.execute(() -> {
+            try {
+                RideIndex index = getIndex();
+                if (index.remove(rideId)) {
+                    index.save(getIndexFile());
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to update the ride history", e);
+            }
+            getRideFile(rideId).delete();
+            getTrackFile(rideId).delete();
+            getLeanFile(rideId).delete();
+            getCornerFile(rideId).delete();
+            imuExecutor.execute(() -> { // After an archiving of the same ride
+                File[] files = getImuDirectory(rideId).listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+                getImuDirectory(rideId).delete();
+            });
+        });
+    }
+
+    private File getIndexFile() {
+        return new File(ridesDir, "rides.idx");
+    }
+
+    // I/O thread only. Rebuilt from the ride headers when the index file is missing or unreadable
+    private RideIndex getIndex() throws IOException {
+        RideIndex index = indexes.get(ridesDir);
+        if (index == null) {
+            try {
+                index = RideIndex.load(getIndexFile());
+                if (index.size() == 0 && !getIndexFile().exists()) {
+                    index = rebuildIndex();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Rebuilding the ride history", e);
+                index = rebuildIndex();
+            }
+            indexes.put(ridesDir, index);
+        }
+        return index;
+    }
+
+    // I/O thread only. A new segment index is filled with the rides already stored
+    private SegmentIndex getSegmentIndex() throws IOException {
+        SegmentIndex segments = segmentIndexes.get(ridesDir);
+        if (segments == null) {
+            File file = new File(ridesDir, "segments.idx");
+            boolean created = !file.exists();
+            segments = SegmentIndex.open(file);
+            segmentIndexes.put(ridesDir, segments);
+            if (created) {
+                RideIndex index = getIndex();
+                for (RideSummary summary : index.byDate(Long.MIN_VALUE, Long.MAX_VALUE, false, 0, index.size())) {
+                    try {
+                        indexTrack(segments, summary.getRideId(), RideFile.open(getRideFile(summary.getRideId())).getTrack());
+                    } catch (IOException e) {
+                        Log.w(TAG, "Leaving unreadable ride out of the segment index: " + summary.getRideId(), e);
+                    }
+                }
+                segments.flush();
+            }
+        }
+        return segments;
+    }
+
+    private static void indexTrack(SegmentIndex segments, long rideId, TrackView track) throws IOException {
+        for (int i = 0; i + 1 < track.size(); i++) {
+            segments.insert(rideId, i, track.getLatitude(i), track.getLongitude(i), track.getLatitude(i + 1), track.getLongitude(i + 1));
+        }
+    }
+
+    // Index of the ride files found in the directory, from their headers (e.g. rides stored before the index existed)
+    private RideIndex rebuildIndex() throws IOException {
+        RideIndex index = new RideIndex();
+        File[] files = ridesDir.listFiles((dir, name) -> name.endsWith(".ride"));
+        if (files != null) {
+            for (File file : files) {
+                try {
+                    RideFile ride = RideFile.open(file);
+                    index.put(RideSummary.of(ride, getImuDirectory(ride.getRideId()).isDirectory()));
+                } catch (IOException e) {
+                    Log.w(TAG, "Leaving unreadable ride out of the history: " + file, e);
+                }
+            }
+        }
+        if (index.size() > 0) {
+            index.save(getIndexFile());
+        }
+        return index;
+    }
+}
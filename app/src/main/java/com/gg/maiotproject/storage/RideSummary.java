@@ -0,0 +1,126 @@
+package com.gg.maiotproject.storage;
+
+import java.nio.ByteBuffer;
+
+// What the ride history shows of a ride, kept in the RideIndex so that listing rides never opens their files.
+// Computed once when the ride is stored, from the ride file header.
+public final class RideSummary {
+
+    // Fixed-size binary form used by the index file
+    static final int SERIALIZED_BYTES = 3 * 8 + 8 * 8 + 2 * 4;
+
+    private static final int FLAG_IMU = 1; // Raw IMU samples were recorded with the ride
+
+    private final long rideId;
+    private final long durationMs;
+    private final long movingTimeMs;
+    private final double distanceMeters;
+    private final double maxSpeedKmh;
+    private final double maxPositiveRoll;
+    private final double maxNegativeRoll;
+    private final double latNorth, latSouth, lonEast, lonWest;
+    private final int pointCount;
+    private final int flags;
+
+    RideSummary(long rideId, long durationMs, long movingTimeMs, double distanceMeters, double maxSpeedKmh,
+                double maxPositiveRoll, double maxNegativeRoll,
+                double latNorth, double latSouth, double lonEast, double lonWest, int pointCount, int flags) {
+        this.rideId = rideId;
+        this.durationMs = durationMs;
+        this.movingTimeMs = movingTimeMs;
+        this.distanceMeters = distanceMeters;
+        this.maxSpeedKmh = maxSpeedKmh;
+        this.maxPositiveRoll = maxPositiveRoll;
+        this.maxNegativeRoll = maxNegativeRoll;
+        this.latNorth = latNorth;
+        this.latSouth = latSouth;
+        this.lonEast = lonEast;
+        this.lonWest = lonWest;
+        this.pointCount = pointCount;
+        this.flags = flags;
+    }
+
+    // Reads the header fields only, no track data
+    public static RideSummary of(RideFile ride, boolean hasImu) {
+        return new RideSummary(ride.getRideId(), ride.getRideStats().getElapsedTimeMs(), ride.getRideStats().getMovingTimeMs(),
+                ride.getRideStats().getDistanceMeters(), ride.getRideStats().getMaxSpeedKmh(),
+                ride.getMaxPositiveRoll(), ride.getMaxNegativeRoll(),
+                ride.getLatNorth(), ride.getLatSouth(), ride.getLonEast(), ride.getLonWest(),
+                ride.getPointCount(), hasImu ? FLAG_IMU : 0);
+    }
+
+    void writeTo(ByteBuffer out) {
+        out.putLong(rideId);
+        out.putLong(durationMs);
+        out.putLong(movingTimeMs);
+        out.putDouble(distanceMeters);
+        out.putDouble(maxSpeedKmh);
+        out.putDouble(maxPositiveRoll);
+        out.putDouble(maxNegativeRoll);
+        out.putDouble(latNorth);
+        out.putDouble(latSouth);
+        out.putDouble(lonEast);
+        out.putDouble(lonWest);
+        out.putInt(pointCount);
+        out.putInt(flags);
+    }
+
+    static RideSummary readFrom(ByteBuffer in) {
+        return new RideSummary(in.getLong(), in.getLong(), in.getLong(), in.getDouble(), in.getDouble(),
+                in.getDouble(), in.getDouble(), in.getDouble(), in.getDouble(), in.getDouble(), in.getDouble(),
+                in.getInt(), in.getInt());
+    }
+
+    // Ride ids are the wall-clock start time of the ride
+    public long getRideId() {
+        return rideId;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    public long getMovingTimeMs() {
+        return movingTimeMs;
+    }
+
+    public double getDistanceMeters() {
+        return distanceMeters;
+    }
+
+    public double getMaxSpeedKmh() {
+        return maxSpeedKmh;
+    }
+
+    public double getMaxPositiveRoll() {
+        return maxPositiveRoll;
+    }
+
+    public double getMaxNegativeRoll() {
+        return maxNegativeRoll;
+    }
+
+    public double getLatNorth() {
+        return latNorth;
+    }
+
+    public double getLatSouth() {
+        return latSouth;
+    }
+
+    public double getLonEast() {
+        return lonEast;
+    }
+
+    public double getLonWest() {
+        return lonWest;
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    public boolean hasImu() {
+        return (flags & FLAG_IMU) != 0;
+    }
+}
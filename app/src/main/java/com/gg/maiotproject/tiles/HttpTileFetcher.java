@@ -0,0 +1,50 @@
+package com.gg.maiotproject.tiles;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+// Downloads tiles from a slippy map server, the URL template contains {z}, {x} and {y}
+// (e.g. "https://tile.openstreetmap.org/{z}/{x}/{y}.png", or a local stand-in server in tests)
+public class HttpTileFetcher implements TileFetcher {
+
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS = 10000;
+
+    private final String urlTemplate;
+    private final String userAgent;
+
+    public HttpTileFetcher(String urlTemplate, String userAgent) {
+        this.urlTemplate = urlTemplate;
+        this.userAgent = userAgent;
+    }
+
+    @Override
+    public byte[] fetch(int zoom, int x, int y) throws IOException {
+        URL url = new URL(urlTemplate
+                .replace("{z}", Integer.toString(zoom))
+                .replace("{x}", Integer.toString(x))
+                .replace("{y}", Integer.toString(y)));
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            if (userAgent != null) {
+                connection.setRequestProperty("User-Agent", userAgent);
+            }
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                return null;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + status + " for " + url);
+            }
+            try (InputStream in = connection.getInputStream()) {
+                return TileStore.readFully(in);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.gg.maiotproject.tiles;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Tiles served from the TileStore when present, fetched and stored otherwise.
+// Counts hits and misses of the map's requests and the bytes fetched (by the map and by the prefetcher).
+// Thread safe, used by osmdroid's tile threads and the prefetch thread at the same time.
+public class TileCache {
+
+    private final TileStore store;
+    private final TileFetcher fetcher;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong fetchedTiles = new AtomicLong();
+    private final AtomicLong fetchedBytes = new AtomicLong();
+    private final AtomicLong prefetchedTiles = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public TileCache(TileStore store, TileFetcher fetcher) {
+        this.store = store;
+        this.fetcher = fetcher;
+    }
+
+    public TileStore getStore() {
+        return store;
+    }
+
+    // Tile requested by the map, null if the source has none. Throws when it is not stored and cannot be fetched
+    public byte[] get(int zoom, int x, int y) throws IOException {
+        byte[] data = store.get(zoom, x, y);
+        if (data != null) {
+            hits.incrementAndGet();
+            return data;
+        }
+        misses.incrementAndGet();
+        return fetch(zoom, x, y);
+    }
+
+    // Fetches the tile ahead of the map if it is not stored yet, without counting a hit or a miss.
+    // Returns true when it was downloaded
+    public boolean prefetch(int zoom, int x, int y) throws IOException {
+        if (store.contains(zoom, x, y)) {
+            return false;
+        }
+        if (fetch(zoom, x, y) == null) {
+            return false;
+        }
+        prefetchedTiles.incrementAndGet();
+        return true;
+    }
+
+    private byte[] fetch(int zoom, int x, int y) throws IOException {
+        byte[] data;
+        try {
+            data = fetcher.fetch(zoom, x, y);
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            throw e;
+        }
+        if (data != null) {
+            fetchedTiles.incrementAndGet();
+            fetchedBytes.addAndGet(data.length);
+            store.put(zoom, x, y, data);
+        }
+        return data;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    // Share of the map's requests served from the store, NaN before the first one
+    public double getHitRate() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total > 0 ? (double) hitCount / total : Double.NaN;
+    }
+
+    public long getFetchedTileCount() {
+        return fetchedTiles.get();
+    }
+
+    public long getFetchedBytes() {
+        return fetchedBytes.get();
+    }
+
+    public long getPrefetchedTileCount() {
+        return prefetchedTiles.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "tiles %.0f%% hits (%d/%d), %.1f MB fetched, %d prefetched, %d failed%n" +
+                        "tile store %.1f/%.0f MB, %d tiles",
+                getHitRate() * 100, getHitCount(), getHitCount() + getMissCount(), getFetchedBytes() / 1e6,
+                getPrefetchedTileCount(), getFailureCount(),
+                store.getSizeBytes() / 1e6, store.getBudgetBytes() / 1e6, store.getTileCount());
+    }
+}
@@ -0,0 +1,9 @@
+package com.gg.maiotproject.tiles;
+
+import java.io.IOException;
+
+// Source of the tiles missing from the store, normally the tile server (see HttpTileFetcher)
+public interface TileFetcher {
+    // Returns the encoded tile, null if the source has no such tile
+    byte[] fetch(int zoom, int x, int y) throws IOException;
+}
@@ -0,0 +1,200 @@
+package com.gg.maiotproject.tiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Downloads the tiles the map is about to show before it asks for them, while there is coverage.
+// On each fix it plans a corridor of tiles ahead along the heading, as long as the distance covered in
+// LOOKAHEAD_SECONDS at the current speed, for each of the zoom levels the map uses (nearest tiles first).
+// Plans run on a single background thread shared by all prefetchers. A new plan supersedes the one still running,
+// and a failed download ends the plan (no coverage: the next one retries after REPLAN_DISTANCE_METERS).
+// Tiles already stored are skipped, so a new plan mostly fetches the row of tiles that entered the corridor.
+// The number of tiles per plan and per seeded area is capped to stay within fair use of public tile servers.
+public class TilePrefetcher {
+
+    private static final double LOOKAHEAD_SECONDS = 90.0;
+    private static final double MIN_LOOKAHEAD_METERS = 500.0;  // Also the radius planned when the heading is unknown
+    private static final double MAX_LOOKAHEAD_METERS = 3000.0;
+    private static final double CORRIDOR_HALF_WIDTH_METERS = 150.0;
+    private static final double REPLAN_DISTANCE_METERS = 250.0;
+    private static final int MAX_TILES_PER_PLAN = 96;
+    public static final int MAX_SEED_TILES = 5000;
+
+    private static final double EARTH_CIRCUMFERENCE_METERS = 40075016.686;
+    private static final double METERS_PER_DEGREE = EARTH_CIRCUMFERENCE_METERS / 360.0;
+
+    private final TileCache tileCache;
+    private final int[] zoomLevels;
+    // Shared by every prefetcher, like RideStore's I/O thread
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "TilePrefetch");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicInteger generation = new AtomicInteger();
+    private double plannedLatitude = Double.NaN, plannedLongitude = Double.NaN;
+
+    public TilePrefetcher(TileCache tileCache, int... zoomLevels) {
+        this.tileCache = tileCache;
+        this.zoomLevels = zoomLevels.clone();
+    }
+
+    // Called with each location fix (from a single thread). Bearing in degrees, NaN when unknown, speed in m/s
+    public void onLocation(double latitude, double longitude, double bearingDeg, double speedMps) {
+        if (!Double.isNaN(plannedLatitude)
+                && distanceMeters(plannedLatitude, plannedLongitude, latitude, longitude) < REPLAN_DISTANCE_METERS) {
+            return;
+        }
+        plannedLatitude = latitude;
+        plannedLongitude = longitude;
+        double lookahead = Math.min(MAX_LOOKAHEAD_METERS, Math.max(MIN_LOOKAHEAD_METERS, speedMps * LOOKAHEAD_SECONDS));
+        List<Long> tiles = new ArrayList<>();
+        int perZoom = MAX_TILES_PER_PLAN / zoomLevels.length;
+        for (int zoom : zoomLevels) {
+            for (long key : planCorridor(latitude, longitude, bearingDeg, lookahead, zoom, perZoom)) {
+                tiles.add(key);
+            }
+        }
+        submit(tiles);
+    }
+
+    // Queues every tile of the area at the given zoom levels, e.g. a planned ride. Returns the number of tiles,
+    // throws IllegalArgumentException above MAX_SEED_TILES
+    public int seedArea(double north, double east, double south, double west, int minZoom, int maxZoom) {
+        List<Long> tiles = new ArrayList<>();
+        for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+            int minX = tileX(west, zoom), maxX = tileX(east, zoom);
+            int minY = tileY(north, zoom), maxY = tileY(south, zoom);
+            if (tiles.size() + (long) (maxX - minX + 1) * (maxY - minY + 1) > MAX_SEED_TILES) {
+                throw new IllegalArgumentException("Area too large to seed at zoom " + zoom);
+            }
+            for (int x = minX; x <= maxX; x++) {
+                for (int y = minY; y <= maxY; y++) {
+                    tiles.add(TileStore.key(zoom, x, y));
+                }
+            }
+        }
+        submit(tiles);
+        return tiles.size();
+    }
+
+    // Imports, on the prefetch thread, every zip archive of tiles found in the directory (see
+    // TileStore.importArchive), deleting each one once imported
+    public void importArchives(File directory) {
+        executor.execute(() -> {
+            File[] archives = directory.listFiles((dir, name) -> name.endsWith(".zip"));
+            if (archives == null) {
+                return;
+            }
+            for (File archive : archives) {
+                try {
+                    tileCache.getStore().importArchive(archive);
+                    archive.delete();
+                } catch (IOException e) {
+                    // Left in place, retried on the next start
+                }
+            }
+        });
+    }
+
+    // Abandons the current plan, e.g. when tracking stops
+    public void cancel() {
+        generation.incrementAndGet();
+        plannedLatitude = Double.NaN;
+    }
+
+    private void submit(List<Long> tiles) {
+        int plan = generation.incrementAndGet();
+        executor.execute(() -> {
+            for (long key : tiles) {
+                if (generation.get() != plan) {
+                    return;
+                }
+                try {
+                    tileCache.prefetch((int) (key >>> 58), (int) ((key >>> 29) & 0x1FFFFFFF), (int) (key & 0x1FFFFFFF));
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+    }
+
+    // Tiles of a corridor along the bearing, nearest first, at most maxTiles. The corridor starts at the position
+    // and is lookaheadMeters long and 2 * CORRIDOR_HALF_WIDTH_METERS wide (at least three tiles).
+    // With an unknown bearing (NaN) it is the square of tiles within MIN_LOOKAHEAD_METERS around the position
+    public static long[] planCorridor(double latitude, double longitude, double bearingDeg, double lookaheadMeters,
+                                      int zoom, int maxTiles) {
+        double tileMeters = EARTH_CIRCUMFERENCE_METERS * Math.cos(Math.toRadians(latitude)) / (1 << zoom);
+        double step = tileMeters / 2; // Fine enough not to skip a tile
+        double halfWidth = Math.max(CORRIDOR_HALF_WIDTH_METERS, tileMeters);
+        LinkedHashSet<Long> tiles = new LinkedHashSet<>();
+        if (Double.isNaN(bearingDeg)) {
+            int radius = (int) Math.ceil(MIN_LOOKAHEAD_METERS / tileMeters);
+            int centerX = tileX(longitude, zoom), centerY = tileY(latitude, zoom);
+            for (int ring = 0; ring <= radius && tiles.size() < maxTiles; ring++) {
+                for (int dx = -ring; dx <= ring; dx++) {
+                    for (int dy = -ring; dy <= ring; dy++) {
+                        if (Math.max(Math.abs(dx), Math.abs(dy)) == ring && tiles.size() < maxTiles) {
+                            tiles.add(TileStore.key(zoom, wrapX(centerX + dx, zoom), clampY(centerY + dy, zoom)));
+                        }
+                    }
+                }
+            }
+        } else {
+            double bearing = Math.toRadians(bearingDeg);
+            double forwardNorth = Math.cos(bearing), forwardEast = Math.sin(bearing);
+            double metersPerDegreeLon = METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+            int sideSteps = (int) Math.ceil(halfWidth / step);
+            for (double along = 0; along <= lookaheadMeters && tiles.size() < maxTiles; along += step) {
+                // From the center line outwards, alternating sides
+                for (int side = 0; side <= 2 * sideSteps && tiles.size() < maxTiles; side++) {
+                    double across = ((side + 1) / 2) * (side % 2 == 0 ? -step : step);
+                    double north = along * forwardNorth - across * forwardEast;
+                    double east = along * forwardEast + across * forwardNorth;
+                    int x = tileX(longitude + east / metersPerDegreeLon, zoom);
+                    int y = tileY(latitude + north / METERS_PER_DEGREE, zoom);
+                    tiles.add(TileStore.key(zoom, wrapX(x, zoom), clampY(y, zoom)));
+                }
+            }
+        }
+        long[] keys = new long[tiles.size()];
+        int i = 0;
+        for (long key : tiles) {
+            keys[i++] = key;
+        }
+        return keys;
+    }
+
+    // Slippy map tile coordinates (Web Mercator)
+    public static int tileX(double longitude, int zoom) {
+        return wrapX((int) Math.floor((longitude + 180.0) / 360.0 * (1 << zoom)), zoom);
+    }
+
+    public static int tileY(double latitude, int zoom) {
+        double latRad = Math.toRadians(latitude);
+        double y = (1.0 - Math.log(Math.tan(latRad) + 1.0 / Math.cos(latRad)) / Math.PI) / 2.0 * (1 << zoom);
+        return clampY((int) Math.floor(y), zoom);
+    }
+
+    private static int wrapX(int x, int zoom) {
+        int n = 1 << zoom;
+        return ((x % n) + n) % n;
+    }
+
+    private static int clampY(int y, int zoom) {
+        return Math.max(0, Math.min((1 << zoom) - 1, y));
+    }
+
+    private static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double north = (lat2 - lat1) * METERS_PER_DEGREE;
+        double east = (lon2 - lon1) * METERS_PER_DEGREE * Math.cos(Math.toRadians(lat1));
+        return Math.sqrt(north * north + east * east);
+    }
+}
@@ -0,0 +1,269 @@
+package com.gg.maiotproject.tiles;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+// Map tiles kept on disk within a byte budget, one file per tile (root/z/x/y.tile).
+// The index (tile key -> entry) is an access-ordered LinkedHashMap: when a put goes over the budget the least
+// recently used tiles are deleted first. It is rebuilt from the directory on first use, oldest file first. A tile's
+// file time is set when it is written and touched again on its first hit of the session, so the LRU order survives
+// restarts approximately without a disk write per hit.
+// Thread safe: only the index is guarded by the store, files are read and written outside the lock
+// (a tile evicted while it is being read is reported as missing).
+public class TileStore {
+
+    private static final String TILE_SUFFIX = ".tile";
+
+    private final File root;
+    private long budgetBytes;
+    private final LinkedHashMap<Long, Entry> index = new LinkedHashMap<>(256, 0.75f, true);
+    private boolean loaded = false;
+    private long sizeBytes = 0;
+
+    public TileStore(File root, long budgetBytes) {
+        this.root = root;
+        this.budgetBytes = budgetBytes;
+    }
+
+    // Same layout as osmdroid's MapTileIndex, zoom levels up to 29
+    public static long key(int zoom, int x, int y) {
+        return ((long) zoom << 58) | ((long) x << 29) | y;
+    }
+
+    public byte[] get(int zoom, int x, int y) throws IOException {
+        long key = key(zoom, x, y);
+        Entry entry;
+        boolean touch;
+        synchronized (this) {
+            ensureLoaded();
+            entry = index.get(key); // Moves it to the most recently used end
+            if (entry == null) {
+                return null;
+            }
+            touch = !entry.touched;
+            entry.touched = true;
+        }
+        File file = fileFor(zoom, x, y);
+        byte[] data;
+        try (InputStream in = new FileInputStream(file)) {
+            data = readFully(in);
+        } catch (FileNotFoundException e) {
+            synchronized (this) {
+                if (index.remove(key, entry)) {
+                    sizeBytes -= entry.size;
+                }
+            }
+            return null;
+        }
+        if (touch) {
+            file.setLastModified(System.currentTimeMillis());
+        }
+        return data;
+    }
+
+    public synchronized boolean contains(int zoom, int x, int y) {
+        ensureLoaded();
+        return index.containsKey(key(zoom, x, y)); // Does not count as an access
+    }
+
+    // Stores the tile as the most recently used one, evicting older tiles if the budget is exceeded
+    public void put(int zoom, int x, int y, byte[] data) throws IOException {
+        File file = fileFor(zoom, x, y);
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        // Written aside and renamed, readers never see a partial tile
+        File temporary = new File(directory, y + ".tmp" + Thread.currentThread().getId());
+        try (OutputStream out = new FileOutputStream(temporary)) {
+            out.write(data);
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("Unable to store " + file);
+        }
+
+        long key = key(zoom, x, y);
+        List<Long> evicted;
+        synchronized (this) {
+            ensureLoaded();
+            Entry entry = new Entry(data.length);
+            entry.touched = true;
+            Entry previous = index.put(key, entry);
+            sizeBytes += data.length - (previous != null ? previous.size : 0);
+            evicted = trimToBudget(key);
+        }
+        deleteFiles(evicted);
+    }
+
+    // Imports a zip of tiles laid out as [prefix/]z/x/y.ext (the layout of osmdroid's zip archives),
+    // e.g. an area prepared before a ride. Entries that are not tiles are skipped. Returns the number of tiles stored
+    public int importArchive(File archive) throws IOException {
+        int count = 0;
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(archive))) {
+            ZipEntry zipEntry;
+            while ((zipEntry = in.getNextEntry()) != null) {
+                if (zipEntry.isDirectory()) {
+                    continue;
+                }
+                int[] zxy = parseTilePath(zipEntry.getName());
+                if (zxy == null) {
+                    continue;
+                }
+                put(zxy[0], zxy[1], zxy[2], readFully(in));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Shrinking the budget evicts right away
+    public void setBudgetBytes(long budgetBytes) {
+        List<Long> evicted;
+        synchronized (this) {
+            this.budgetBytes = budgetBytes;
+            if (!loaded) {
+                return; // Applied when the index is loaded
+            }
+            evicted = trimToBudget(-1);
+        }
+        deleteFiles(evicted);
+    }
+
+    public synchronized long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    // Bytes and tiles stored, 0 until the store is first used
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public synchronized int getTileCount() {
+        return index.size();
+    }
+
+    private File fileFor(int zoom, int x, int y) {
+        return new File(root, zoom + File.separator + x + File.separator + y + TILE_SUFFIX);
+    }
+
+    // Removes least recently used tiles from the index until the store fits the budget, never the key just stored.
+    // Returns the evicted keys, whose files the caller deletes outside the lock
+    private List<Long> trimToBudget(long keep) {
+        List<Long> evicted = new ArrayList<>();
+        Iterator<Map.Entry<Long, Entry>> iterator = index.entrySet().iterator();
+        while (sizeBytes > budgetBytes && iterator.hasNext()) {
+            Map.Entry<Long, Entry> eldest = iterator.next();
+            if (eldest.getKey() == keep) {
+                continue;
+            }
+            sizeBytes -= eldest.getValue().size;
+            evicted.add(eldest.getKey());
+            iterator.remove();
+        }
+        return evicted;
+    }
+
+    private void deleteFiles(List<Long> keys) {
+        for (long key : keys) {
+            fileFor((int) (key >>> 58), (int) ((key >>> 29) & 0x1FFFFFFF), (int) (key & 0x1FFFFFFF)).delete();
+        }
+    }
+
+    // Scans the directory once, the first time the store is used (not on the thread that creates it)
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        List<long[]> found = new ArrayList<>(); // {key, size, lastModified}
+        File[] zooms = root.listFiles();
+        if (zooms != null) {
+            for (File zoomDir : zooms) {
+                File[] xs = zoomDir.listFiles();
+                if (xs == null) {
+                    continue;
+                }
+                for (File xDir : xs) {
+                    File[] tiles = xDir.listFiles();
+                    if (tiles == null) {
+                        continue;
+                    }
+                    for (File tile : tiles) {
+                        String name = tile.getName();
+                        if (!name.endsWith(TILE_SUFFIX)) {
+                            tile.delete(); // Left over by an interrupted put
+                            continue;
+                        }
+                        try {
+                            long key = key(Integer.parseInt(zoomDir.getName()), Integer.parseInt(xDir.getName()),
+                                    Integer.parseInt(name.substring(0, name.length() - TILE_SUFFIX.length())));
+                            found.add(new long[]{key, tile.length(), tile.lastModified()});
+                        } catch (NumberFormatException e) {
+                            // Not one of ours
+                        }
+                    }
+                }
+            }
+        }
+        found.sort((a, b) -> Long.compare(a[2], b[2]));
+        for (long[] tile : found) {
+            index.put(tile[0], new Entry((int) tile[1]));
+            sizeBytes += tile[1];
+        }
+        deleteFiles(trimToBudget(-1));
+    }
+
+    // z, x and y of a path ending in z/x/y.ext, null if it does not name a tile
+    static int[] parseTilePath(String path) {
+        String[] parts = path.split("/");
+        if (parts.length < 3) {
+            return null;
+        }
+        String last = parts[parts.length - 1];
+        int dot = last.indexOf('.');
+        try {
+            int zoom = Integer.parseInt(parts[parts.length - 3]);
+            int x = Integer.parseInt(parts[parts.length - 2]);
+            int y = Integer.parseInt(dot >= 0 ? last.substring(0, dot) : last);
+            if (zoom < 0 || zoom > 29 || x < 0 || y < 0 || x >= (1 << zoom) || y >= (1 << zoom)) {
+                return null;
+            }
+            return new int[]{zoom, x, y};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static final class Entry {
+        final int size;
+        boolean touched; // File time refreshed this session
+
+        Entry(int size) {
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.gg.maiotproject.track;
+
+import org.osmdroid.util.GeoPoint;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+// Growable track store with one primitive column per field (lat, lon, time, speed, accuracy).
+// Points are stored in fixed-size chunks, so appending never copies the existing data and, once a chunk
+// exists, appending to it allocates nothing. When a resident chunk limit is given, the oldest full chunks
+// are written to a spill file and their arrays are recycled for new chunks, which keeps memory bounded
+// however long the ride is. Spilled chunks are read back on demand through a single-chunk cache.
+// Not thread-safe: the track is written and read on the main thread.
+public class TrackBuffer implements TrackView {
+
+    public static final int CHUNK_SIZE = 1024; // Points per chunk
+    private static final int CHUNK_BYTES = CHUNK_SIZE * (8 + 8 + 8 + 4 + 4);
+
+    private static final class Chunk {
+        final double[] lat = new double[CHUNK_SIZE];
+        final double[] lon = new double[CHUNK_SIZE];
+        final long[] time = new long[CHUNK_SIZE];
+        final float[] speed = new float[CHUNK_SIZE];
+        final float[] accuracy = new float[CHUNK_SIZE];
+    }
+
+    private final ArrayList<Chunk> chunks = new ArrayList<>(); // null entries have been spilled to disk
+    private final int maxResidentChunks;
+    private final File spillFile;
+    private int size = 0;
+    private int firstResidentChunk = 0; // Chunks below this index are on disk
+
+    private FileChannel spillChannel;
+    private ByteBuffer ioBuffer;
+    private Chunk recycledChunk; // Arrays of the last spilled chunk, reused for the next new chunk
+    private Chunk readCache;      // Last spilled chunk read back from disk
+    private int readCacheIndex = -1;
+
+    // Unbounded, memory-only track
+    public TrackBuffer() {
+        this(Integer.MAX_VALUE, null);
+    }
+
+    // Keeps at most maxResidentChunks chunks in memory, older ones are spilled to spillFile
+    public TrackBuffer(int maxResidentChunks, File spillFile) {
+        if (maxResidentChunks < 1) {
+            throw new IllegalArgumentException("maxResidentChunks must be at least 1");
+        }
+        if (maxResidentChunks != Integer.MAX_VALUE && spillFile == null) {
+            throw new IllegalArgumentException("A spill file is required when memory is bounded");
+        }
+        this.maxResidentChunks = maxResidentChunks;
+        this.spillFile = spillFile;
+    }
+
+    public void append(double latitude, double longitude, long time, float speed, float accuracy) {
+        int offset = size % CHUNK_SIZE;
+        if (offset == 0) {
+            addChunk();
+        }
+        Chunk chunk = chunks.get(chunks.size() - 1);
+        chunk.lat[offset] = latitude;
+        chunk.lon[offset] = longitude;
+        chunk.time[offset] = time;
+        chunk.speed[offset] = speed;
+        chunk.accuracy[offset] = accuracy;
+        size++;
+    }
+
+    private void addChunk() {
+        if (chunks.size() - firstResidentChunk >= maxResidentChunks) {
+            spillOldestChunk();
+        }
+        Chunk chunk = recycledChunk != null ? recycledChunk : new Chunk();
+        recycledChunk = null;
+        chunks.add(chunk);
+    }
+
+    private void spillOldestChunk() {
+        Chunk chunk = chunks.get(firstResidentChunk);
+        try {
+            ensureSpillChannel();
+            ioBuffer.clear();
+            for (int i = 0; i < CHUNK_SIZE; i++) ioBuffer.putDouble(chunk.lat[i]);
+            for (int i = 0; i < CHUNK_SIZE; i++) ioBuffer.putDouble(chunk.lon[i]);
+            for (int i = 0; i < CHUNK_SIZE; i++) ioBuffer.putLong(chunk.time[i]);
+            for (int i = 0; i < CHUNK_SIZE; i++) ioBuffer.putFloat(chunk.speed[i]);
+            for (int i = 0; i < CHUNK_SIZE; i++) ioBuffer.putFloat(chunk.accuracy[i]);
+            ioBuffer.flip();
+            long position = (long) firstResidentChunk * CHUNK_BYTES;
+            while (ioBuffer.hasRemaining()) {
+                position += spillChannel.write(ioBuffer, position);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to spill track chunk", e);
+        }
+        chunks.set(firstResidentChunk, null);
+        firstResidentChunk++;
+        recycledChunk = chunk;
+    }
+
+    private void ensureSpillChannel() throws IOException {
+        if (spillChannel == null) {
+            spillChannel = new RandomAccessFile(spillFile, "rw").getChannel();
+            spillChannel.truncate(0);
+            ioBuffer = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    private Chunk chunkFor(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        int chunkIndex = index / CHUNK_SIZE;
+        Chunk chunk = chunks.get(chunkIndex);
+        if (chunk != null) {
+            return chunk;
+        }
+        if (chunkIndex != readCacheIndex) {
+            loadSpilledChunk(chunkIndex);
+        }
+        return readCache;
+    }
+
+    private void loadSpilledChunk(int chunkIndex) {
+        if (readCache == null) {
+            readCache = new Chunk();
+        }
+        try {
+            ioBuffer.clear();
+            long position = (long) chunkIndex * CHUNK_BYTES;
+            while (ioBuffer.hasRemaining()) {
+                int read = spillChannel.read(ioBuffer, position);
+                if (read < 0) {
+                    throw new IOException("Spill file truncated");
+                }
+                position += read;
+            }
+            ioBuffer.flip();
+            for (int i = 0; i < CHUNK_SIZE; i++) readCache.lat[i] = ioBuffer.getDouble();
+            for (int i = 0; i < CHUNK_SIZE; i++) readCache.lon[i] = ioBuffer.getDouble();
+            for (int i = 0; i < CHUNK_SIZE; i++) readCache.time[i] = ioBuffer.getLong();
+            for (int i = 0; i < CHUNK_SIZE; i++) readCache.speed[i] = ioBuffer.getFloat();
+            for (int i = 0; i < CHUNK_SIZE; i++) readCache.accuracy[i] = ioBuffer.getFloat();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read spilled track chunk", e);
+        }
+        readCacheIndex = chunkIndex;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public double getLatitude(int index) {
+        return chunkFor(index).lat[index % CHUNK_SIZE];
+    }
+
+    @Override
+    public double getLongitude(int index) {
+        return chunkFor(index).lon[index % CHUNK_SIZE];
+    }
+
+    @Override
+    public long getTime(int index) {
+        return chunkFor(index).time[index % CHUNK_SIZE];
+    }
+
+    @Override
+    public float getSpeed(int index) {
+        return chunkFor(index).speed[index % CHUNK_SIZE];
+    }
+
+    @Override
+    public float getAccuracy(int index) {
+        return chunkFor(index).accuracy[index % CHUNK_SIZE];
+    }
+
+    // Number of chunks currently held in memory (spilled ones excluded)
+    public int getResidentChunkCount() {
+        return chunks.size() - firstResidentChunk;
+    }
+
+    // Lazy List<GeoPoint> adapter for APIs that need GeoPoints (osmdroid overlays, Parcelable extras).
+    // A GeoPoint is created only when an element is actually read.
+    public List<GeoPoint> asGeoPoints() {
+        return new GeoPointList(this);
+    }
+
+    public void clear() {
+        chunks.clear();
+        size = 0;
+        firstResidentChunk = 0;
+        readCacheIndex = -1;
+    }
+
+    // Releases the spill file; the buffer must not be read afterwards
+    public void close() {
+        clear();
+        if (spillChannel != null) {
+            try {
+                spillChannel.close();
+            } catch (IOException ignored) {
+                // Nothing useful to do, the file is deleted below anyway
+            }
+            spillChannel = null;
+        }
+        if (spillFile != null) {
+            spillFile.delete();
+        }
+    }
+
+    private static final class GeoPointList extends AbstractList<GeoPoint> implements RandomAccess {
+        private final TrackView track;
+
+        GeoPointList(TrackView track) {
+            this.track = track;
+        }
+
+        @Override
+        public GeoPoint get(int index) {
+            return new GeoPoint(track.getLatitude(index), track.getLongitude(index));
+        }
+
+        @Override
+        public int size() {
+            return track.size();
+        }
+    }
+}
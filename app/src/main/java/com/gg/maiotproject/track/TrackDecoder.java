@@ -0,0 +1,191 @@
+package com.gg.maiotproject.track;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static com.gg.maiotproject.track.TrackEncoder.ACCURACY;
+import static com.gg.maiotproject.track.TrackEncoder.CHUNK_SIZE;
+import static com.gg.maiotproject.track.TrackEncoder.COLUMNS;
+import static com.gg.maiotproject.track.TrackEncoder.LAT;
+import static com.gg.maiotproject.track.TrackEncoder.LON;
+import static com.gg.maiotproject.track.TrackEncoder.SPEED;
+import static com.gg.maiotproject.track.TrackEncoder.TIME;
+
+// Streaming decoder of the format written by TrackEncoder, one chunk at a time:
+// nextChunk() decodes the next CHUNK_SIZE points at most, which are then read through the TrackView methods
+// (indexes within the chunk). Memory is one chunk whatever the length of the ride. Not thread-safe.
+public class TrackDecoder implements TrackView, Closeable {
+
+    private final InputStream in;
+    private final long[][] columns = new long[COLUMNS][CHUNK_SIZE];
+    private int count = 0;
+    private byte[] payload = new byte[CHUNK_SIZE * 8];
+    private int position;
+    private int end;
+    private long pointsRead = 0;
+
+    public TrackDecoder(InputStream in) throws IOException {
+        this.in = in;
+        if (readInt() != TrackEncoder.MAGIC || readInt() != TrackEncoder.VERSION) {
+            throw new IOException("Not an encoded track");
+        }
+    }
+
+    private int readInt() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated track header");
+            }
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+    // Decodes the next chunk, false at the end of the track
+    public boolean nextChunk() throws IOException {
+        long points = readStreamVarint(true);
+        if (points < 0) {
+            count = 0;
+            return false;
+        }
+        long length = readStreamVarint(false);
+        if (points == 0 || points > CHUNK_SIZE || length < 0 || length > (long) CHUNK_SIZE * COLUMNS * 10 + 16) {
+            throw new IOException("Corrupted track chunk");
+        }
+        if (payload.length < length) {
+            payload = new byte[(int) length];
+        }
+        int read = 0;
+        while (read < length) {
+            int n = in.read(payload, read, (int) length - read);
+            if (n < 0) {
+                throw new EOFException("Truncated track chunk");
+            }
+            read += n;
+        }
+        count = (int) points;
+        position = 0;
+        end = (int) length;
+        decodeColumn(columns[LAT], true);
+        decodeColumn(columns[LON], true);
+        decodeColumn(columns[TIME], true);
+        decodeColumn(columns[SPEED], false);
+        decodeColumn(columns[ACCURACY], false);
+        pointsRead += count;
+        return true;
+    }
+
+    private void decodeColumn(long[] values, boolean secondOrder) throws IOException {
+        long previous = 0, previousDelta = 0;
+        int i = 0;
+        while (i < count) {
+            long encoded = readVarint();
+            int run = 1;
+            long residual = 0;
+            if (encoded == 0) {
+                run = (int) readVarint() + 1;
+                if (i + run > count) {
+                    throw new IOException("Corrupted track chunk");
+                }
+            } else {
+                residual = (encoded >>> 1) ^ -(encoded & 1);
+            }
+            for (int r = 0; r < run; r++, i++) {
+                long delta = secondOrder ? previousDelta + residual : residual;
+                previous += delta;
+                previousDelta = delta;
+                values[i] = previous;
+            }
+        }
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position == end) {
+                throw new IOException("Corrupted track chunk");
+            }
+            byte b = payload[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupted track chunk");
+    }
+
+    // -1 on a clean end of stream before the first byte when allowed
+    private long readStreamVarint(boolean endAllowed) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0 && endAllowed) {
+                    return -1;
+                }
+                throw new EOFException("Truncated track chunk");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupted track chunk");
+    }
+
+    // Points of the current chunk
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public double getLatitude(int index) {
+        return columns[LAT][index] / TrackEncoder.E6;
+    }
+
+    @Override
+    public double getLongitude(int index) {
+        return columns[LON][index] / TrackEncoder.E6;
+    }
+
+    // Exact fixed-point values, for writers that print them without going through doubles
+    public long getLatitudeE6(int index) {
+        return columns[LAT][index];
+    }
+
+    public long getLongitudeE6(int index) {
+        return columns[LON][index];
+    }
+
+    @Override
+    public long getTime(int index) {
+        return columns[TIME][index];
+    }
+
+    @Override
+    public float getSpeed(int index) {
+        long value = columns[SPEED][index];
+        return value < 0 ? Float.NaN : value / 10f;
+    }
+
+    @Override
+    public float getAccuracy(int index) {
+        long value = columns[ACCURACY][index];
+        return value < 0 ? Float.NaN : value / 10f;
+    }
+
+    // Points decoded so far, including the current chunk
+    public long getPointsRead() {
+        return pointsRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
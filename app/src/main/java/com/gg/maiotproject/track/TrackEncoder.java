@@ -0,0 +1,163 @@
+package com.gg.maiotproject.track;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Streaming encoder of the compact track format read by TrackDecoder, for archiving and exporting rides.
+// Values are fixed point: lat/lon in 1e-6 degrees (~11 cm, well below the accuracy of a phone's fix), time in ms,
+// speed in dm/s (0.36 km/h) and accuracy in dm, -1 when unknown.
+// Points are encoded CHUNK_SIZE at a time, each chunk on its own so it can be decoded without the previous ones:
+// a varint point count, a varint payload length, then one column after the other. Lat, lon and time are stored as
+// deltas of deltas (a rider at steady speed and fix rate gives zeros), speed and accuracy as deltas; every value is
+// zigzag varint encoded, runs of zeros as a 0 followed by the run length. A 1 Hz ride takes ~3.5 bytes per point
+// instead of the 40 of five doubles (32 in a TrackBuffer).
+// Memory is one chunk whatever the length of the ride. Not thread-safe.
+public class TrackEncoder implements Closeable {
+
+    public static final int MAGIC = 0x54524B43; // "TRKC"
+    public static final int VERSION = 1;
+    public static final int CHUNK_SIZE = 1024;
+    static final int COLUMNS = 5;
+    static final int LAT = 0, LON = 1, TIME = 2, SPEED = 3, ACCURACY = 4;
+    static final double E6 = 1e6;
+
+    private final OutputStream out;
+    private final long[][] columns = new long[COLUMNS][CHUNK_SIZE];
+    private int count = 0;
+    private byte[] payload = new byte[CHUNK_SIZE * 8];
+    private int payloadLength = 0;
+    private final byte[] prefix = new byte[20];
+    private long pointCount = 0;
+    private long bytesWritten = 0;
+    private boolean closed = false;
+
+    public TrackEncoder(OutputStream out) throws IOException {
+        this.out = out;
+        writeInt(MAGIC);
+        writeInt(VERSION);
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+        bytesWritten += 4;
+    }
+
+    public void append(double latitude, double longitude, long timeMs, float speed, float accuracy) throws IOException {
+        columns[LAT][count] = Math.round(latitude * E6);
+        columns[LON][count] = Math.round(longitude * E6);
+        columns[TIME][count] = timeMs;
+        columns[SPEED][count] = Float.isNaN(speed) ? -1 : Math.round(Math.max(0f, speed) * 10f);
+        columns[ACCURACY][count] = Float.isNaN(accuracy) ? -1 : Math.round(Math.max(0f, accuracy) * 10f);
+        count++;
+        pointCount++;
+        if (count == CHUNK_SIZE) {
+            writeChunk();
+        }
+    }
+
+    // Every point of the track, in order
+    public void appendAll(TrackView track) throws IOException {
+        for (int i = 0; i < track.size(); i++) {
+            append(track.getLatitude(i), track.getLongitude(i), track.getTime(i), track.getSpeed(i), track.getAccuracy(i));
+        }
+    }
+
+    private void writeChunk() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        payloadLength = 0;
+        encodeColumn(columns[LAT], true);
+        encodeColumn(columns[LON], true);
+        encodeColumn(columns[TIME], true);
+        encodeColumn(columns[SPEED], false);
+        encodeColumn(columns[ACCURACY], false);
+
+        int prefixLength = putVarint(prefix, 0, count);
+        prefixLength = putVarint(prefix, prefixLength, payloadLength);
+        out.write(prefix, 0, prefixLength);
+        out.write(payload, 0, payloadLength);
+        bytesWritten += prefixLength + payloadLength;
+        count = 0;
+    }
+
+    // Deltas (of deltas) from 0 at the start of the chunk, zero runs collapsed
+    private void encodeColumn(long[] values, boolean secondOrder) {
+        long previous = 0, previousDelta = 0;
+        int zeros = 0;
+        for (int i = 0; i < count; i++) {
+            long delta = values[i] - previous;
+            long residual = secondOrder ? delta - previousDelta : delta;
+            previous = values[i];
+            previousDelta = delta;
+            if (residual == 0) {
+                zeros++;
+                continue;
+            }
+            if (zeros > 0) {
+                writeZeroRun(zeros);
+                zeros = 0;
+            }
+            ensurePayload(10);
+            payloadLength = putVarint(payload, payloadLength, (residual << 1) ^ (residual >> 63));
+        }
+        if (zeros > 0) {
+            writeZeroRun(zeros);
+        }
+    }
+
+    private void writeZeroRun(int zeros) {
+        ensurePayload(6);
+        payload[payloadLength++] = 0;
+        payloadLength = putVarint(payload, payloadLength, zeros - 1);
+    }
+
+    private void ensurePayload(int bytes) {
+        if (payloadLength + bytes > payload.length) {
+            byte[] larger = new byte[payload.length * 2];
+            System.arraycopy(payload, 0, larger, 0, payloadLength);
+            payload = larger;
+        }
+    }
+
+    static int putVarint(byte[] buffer, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    // Writes the last, partial chunk. The stream is left open
+    public void finish() throws IOException {
+        writeChunk();
+        out.flush();
+    }
+
+    // Finishes and closes the stream
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                finish();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    public long getPointCount() {
+        return pointCount;
+    }
+
+    // Bytes of the encoded track written so far (the last chunk is only counted once written)
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+}
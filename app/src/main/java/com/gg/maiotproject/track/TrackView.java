@@ -0,0 +1,12 @@
+package com.gg.maiotproject.track;
+
+// Read-only, index based access to a recorded track.
+// Values are returned as primitives so callers can iterate a whole ride without creating a GeoPoint per fix.
+public interface TrackView {
+    int size();
+    double getLatitude(int index);
+    double getLongitude(int index);
+    long getTime(int index);   // Fix time in milliseconds (Location.getTime())
+    float getSpeed(int index); // m/s, NaN when the fix had no speed
+    float getAccuracy(int index); // meters, NaN when the fix had no accuracy
+}
@@ -0,0 +1,152 @@
+package com.gg.maiotproject.bus;
+
+import com.gg.maiotproject.interfaces.ISensorEventConsumer;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SensorEventBusTest {
+
+    // Checks that events arrive complete and in order: timestamp i carries x = i, y = -i, z = 2i
+    private static class CheckingConsumer implements ISensorEventConsumer {
+        long count = 0;
+        long lastTimestamp = -1;
+        boolean ordered = true;
+        boolean consistent = true;
+
+        @Override
+        public void onSensorEvent(int sensorId, long timestampNs, float x, float y, float z) {
+            if (timestampNs <= lastTimestamp) ordered = false;
+            if (x != timestampNs || y != -timestampNs || z != 2 * timestampNs || sensorId != (int) (timestampNs % 2)) {
+                consistent = false;
+            }
+            lastTimestamp = timestampNs;
+            count++;
+        }
+    }
+
+    private static void publish(SensorEventBus bus, long from, long to) {
+        for (long i = from; i < to; i++) {
+            bus.publish((int) (i % 2), i, i, -i, 2 * i);
+        }
+    }
+
+    @Test
+    public void blockingConsumers_receiveEveryEventInOrder() throws InterruptedException {
+        SensorEventBus bus = new SensorEventBus(256);
+        CheckingConsumer first = new CheckingConsumer();
+        CheckingConsumer second = new CheckingConsumer();
+        SensorEventBus.Subscription a = bus.subscribe("a", first, SensorEventBus.OverflowPolicy.BLOCK,
+                new WaitStrategy.Blocking(), Thread.NORM_PRIORITY);
+        SensorEventBus.Subscription b = bus.subscribe("b", second, SensorEventBus.OverflowPolicy.BLOCK,
+                new WaitStrategy.Yielding(), Thread.NORM_PRIORITY);
+
+        int count = 200_000; // Many times the capacity, so the producer wraps and waits
+        publish(bus, 0, count);
+        a.close();
+        b.close();
+        assertTrue(a.awaitTermination(5000));
+        assertTrue(b.awaitTermination(5000));
+
+        for (CheckingConsumer consumer : new CheckingConsumer[]{first, second}) {
+            assertEquals(count, consumer.count);
+            assertTrue(consumer.ordered);
+            assertTrue(consumer.consistent);
+        }
+        assertEquals(0, a.getDroppedCount());
+        assertEquals(count, a.getConsumedCount());
+    }
+
+    @Test
+    public void stalledDropOldestConsumer_losesOldEventsWithoutBlockingProducer() throws InterruptedException {
+        SensorEventBus bus = new SensorEventBus(64);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CheckingConsumer slow = new CheckingConsumer();
+        SensorEventBus.Subscription subscription = bus.subscribe("slow", (id, t, x, y, z) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            slow.onSensorEvent(id, t, x, y, z);
+        }, SensorEventBus.OverflowPolicy.DROP_OLDEST, new WaitStrategy.Sleeping(100_000L), Thread.NORM_PRIORITY);
+
+        // The consumer is stuck in its first batch; the producer must still be able to go on
+        int count = 10_000;
+        publish(bus, 0, count);
+        assertTrue(subscription.getLag() <= bus.getCapacity());
+        assertTrue(subscription.getDroppedCount() > 0);
+
+        release.countDown();
+        subscription.close();
+        assertTrue(subscription.awaitTermination(5000));
+
+        assertTrue(slow.ordered);
+        assertTrue(slow.consistent);
+        assertEquals(count, slow.lastTimestamp + 1); // The newest events are always kept
+        assertTrue(slow.count < count);
+    }
+
+    @Test
+    public void postedTasks_runOnConsumerThreadAfterPublishedEvents() throws InterruptedException {
+        SensorEventBus bus = new SensorEventBus(1024);
+        final CheckingConsumer consumer = new CheckingConsumer();
+        final Thread[] consumerThread = new Thread[1];
+        final long[] countAtClose = new long[1];
+        final CountDownLatch posted = new CountDownLatch(1);
+        SensorEventBus.Subscription subscription = bus.subscribe("tasks", consumer,
+                SensorEventBus.OverflowPolicy.BLOCK, new WaitStrategy.Blocking(), Thread.NORM_PRIORITY);
+
+        subscription.post(() -> {
+            consumerThread[0] = Thread.currentThread();
+            posted.countDown();
+        });
+        assertTrue(posted.await(5, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), consumerThread[0]);
+
+        publish(bus, 0, 1000);
+        subscription.post(() -> countAtClose[0] = consumer.count);
+        subscription.close();
+        assertTrue(subscription.awaitTermination(5000));
+        assertEquals(1000, countAtClose[0]);
+        try {
+            subscription.post(() -> { });
+            fail("post() after close() must be rejected");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void postRacingClose_eitherRunsOrIsRejected() throws InterruptedException {
+        for (int round = 0; round < 200; round++) {
+            SensorEventBus bus = new SensorEventBus(64);
+            final SensorEventBus.Subscription subscription = bus.subscribe("race", new CheckingConsumer(),
+                    SensorEventBus.OverflowPolicy.BLOCK, new WaitStrategy.Blocking(), Thread.NORM_PRIORITY);
+            final CountDownLatch go = new CountDownLatch(1);
+            final int[] accepted = {0};
+            final int[] ran = {0}; // Written on the consumer thread only
+            Thread poster = new Thread(() -> {
+                try {
+                    go.await();
+                    while (true) {
+                        subscription.post(() -> ran[0]++);
+                        accepted[0]++;
+                    }
+                } catch (IllegalStateException | InterruptedException e) {
+                    // Closed
+                }
+            });
+            poster.start();
+            go.countDown();
+            Thread.sleep(0, 100_000);
+            subscription.close();
+            poster.join(5000);
+            assertTrue(subscription.awaitTermination(5000));
+            assertEquals(accepted[0], ran[0]);
+        }
+    }
+}
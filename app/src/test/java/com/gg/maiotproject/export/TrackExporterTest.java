@@ -0,0 +1,129 @@
+package com.gg.maiotproject.export;
+
+import com.gg.maiotproject.track.TrackBuffer;
+import com.gg.maiotproject.track.TrackDecoder;
+import com.gg.maiotproject.track.TrackEncoder;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import static org.junit.Assert.*;
+
+public class TrackExporterTest {
+
+    private static final long START_MS = 1_622_536_200_250L; // 2021-06-01T08:30:00.250Z
+
+    private static byte[] encodedTrack(int points) throws IOException {
+        TrackBuffer track = new TrackBuffer();
+        for (int i = 0; i < points; i++) {
+            track.append(45.4642 + i * 1e-4, -0.0000024 - i * 2e-4, START_MS + i * 1000L,
+                    i % 10 == 0 ? Float.NaN : 12.3f, i % 7 == 0 ? Float.NaN : 4f);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (TrackEncoder encoder = new TrackEncoder(bytes)) {
+            encoder.appendAll(track);
+        }
+        track.close();
+        return bytes.toByteArray();
+    }
+
+    private static TrackDecoder decoder(byte[] encoded) throws IOException {
+        return new TrackDecoder(new ByteArrayInputStream(encoded));
+    }
+
+    @Test
+    public void gpx_isValidXmlWithEveryPoint() throws Exception {
+        byte[] encoded = encodedTrack(2500); // Three chunks
+        StringWriter out = new StringWriter();
+        assertEquals(2500, new GpxExporter().export(() -> decoder(encoded), "Ride <1> & co", out));
+
+        Document gpx = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(out.toString().getBytes(StandardCharsets.UTF_8)));
+        assertEquals("Ride <1> & co", gpx.getElementsByTagName("name").item(0).getTextContent());
+        NodeList points = gpx.getElementsByTagName("trkpt");
+        assertEquals(2500, points.getLength());
+        for (int i = 0; i < points.getLength(); i += 97) {
+            Element point = (Element) points.item(i);
+            assertEquals(45.4642 + i * 1e-4, Double.parseDouble(point.getAttribute("lat")), 1e-6);
+            assertEquals(-0.0000024 - i * 2e-4, Double.parseDouble(point.getAttribute("lon")), 1e-6);
+            String time = point.getElementsByTagName("time").item(0).getTextContent();
+            assertEquals(START_MS + i * 1000L, Instant.parse(time).toEpochMilli());
+            assertEquals(i % 10 == 0 ? 0 : 1, point.getElementsByTagName("speed").getLength());
+        }
+        assertEquals("12.3", ((Element) points.item(1)).getElementsByTagName("speed").item(0).getTextContent());
+        assertEquals("-0.000002", ((Element) points.item(0)).getAttribute("lon"));
+    }
+
+    @Test
+    public void geoJson_hasLonLatPairsAndParallelTimes() throws IOException {
+        byte[] encoded = encodedTrack(1500);
+        StringWriter out = new StringWriter();
+        assertEquals(1500, new GeoJsonExporter().export(() -> decoder(encoded), "Ride \"1\"", out));
+
+        String json = out.toString();
+        assertTrue(json.startsWith("{\"type\":\"Feature\",\"geometry\":{\"type\":\"LineString\",\"coordinates\":[\n[-0.000002,45.464200],"));
+        assertTrue(json.contains("\"name\":\"Ride \\\"1\\\"\""));
+        assertTrue(json.contains("\"pointCount\":1500"));
+        assertTrue(json.contains("\"startTime\":\"2021-06-01T08:30:00.250Z\""));
+        assertTrue(json.contains("\"endTime\":\"2021-06-01T08:54:59.250Z\""));
+        String coordinates = json.substring(json.indexOf("\"coordinates\":["), json.indexOf("]},"));
+        assertEquals(1500, coordinates.split("\\[", -1).length - 2);
+        String times = json.substring(json.indexOf("\"times\":["), json.indexOf("],\"pointCount\""));
+        assertEquals(1500, times.split("Z\"", -1).length - 1);
+        assertEquals(countOf(json, '{'), countOf(json, '}'));
+        assertEquals(countOf(json, '['), countOf(json, ']'));
+    }
+
+    @Test
+    public void export_closesEveryDecoderItOpens() throws IOException {
+        byte[] encoded = encodedTrack(100);
+        for (TrackExporter exporter : new TrackExporter[]{new GpxExporter(), new GeoJsonExporter()}) {
+            final int[] opened = {0};
+            final int[] closed = {0};
+            TrackExporter.Source source = () -> {
+                opened[0]++;
+                return new TrackDecoder(new ByteArrayInputStream(encoded) {
+                    @Override
+                    public void close() {
+                        closed[0]++;
+                    }
+                });
+            };
+            assertEquals(100, exporter.export(source, "Ride", new StringWriter()));
+            assertTrue(opened[0] > 0);
+            assertEquals(opened[0], closed[0]);
+        }
+    }
+
+    @Test
+    public void times_matchJavaTime_acrossCenturiesAndLeapDays() throws IOException {
+        GpxExporter exporter = new GpxExporter();
+        long[] times = {0L, -1L, 951_782_400_000L, 951_868_799_999L, 4_107_542_400_000L, -2_208_988_800_001L, START_MS};
+        for (long time : times) {
+            StringWriter out = new StringWriter();
+            exporter.writeTime(out, time);
+            assertEquals(Instant.ofEpochMilli(time).toEpochMilli(), Instant.parse(out.toString()).toEpochMilli());
+        }
+    }
+
+    private static int countOf(String text, char c) {
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == c) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,72 @@
+package com.gg.maiotproject.map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FixAnimationTest {
+
+    private static final long FRAME_NS = 16_666_667L;
+
+    @Test
+    public void firstFix_isShownOnTheNextFrame() {
+        FixAnimation animation = new FixAnimation();
+        assertFalse(animation.step(0));
+
+        animation.setTarget(45.0, 9.0, 1_000_000_000L);
+        assertTrue(animation.step(1_000_000_000L + FRAME_NS));
+        assertEquals(45.0, animation.getLatitude(), 0.0);
+        assertEquals(9.0, animation.getLongitude(), 0.0);
+        assertTrue(animation.isSettled(1_000_000_000L + FRAME_NS));
+        assertFalse(animation.step(1_000_000_000L + 2 * FRAME_NS)); // Nothing left to draw
+    }
+
+    @Test
+    public void nextFixes_glideOverTheIntervalBetweenFixes() {
+        FixAnimation animation = new FixAnimation();
+        long t = 1_000_000_000L;
+        animation.setTarget(45.0, 9.0, t);
+        animation.step(t);
+
+        // Fixes every 250 ms, 10 m apart: the shown position moves every frame and reaches the fix in 250 ms
+        long next = t + 250_000_000L;
+        animation.setTarget(45.0 + 9e-5, 9.0, next);
+        double previous = animation.getLatitude();
+        int frames = 0;
+        long frame = next;
+        do {
+            frame += FRAME_NS;
+            assertTrue(animation.step(frame));
+            assertTrue(animation.getLatitude() > previous);
+            previous = animation.getLatitude();
+            frames++;
+        } while (!animation.isSettled(frame));
+        assertEquals(15, frames, 1);
+        assertEquals(45.0 + 9e-5, animation.getLatitude(), 1e-12);
+    }
+
+    @Test
+    public void batchedFixes_animateTowardsTheNewestOnly() {
+        FixAnimation animation = new FixAnimation();
+        long t = 1_000_000_000L;
+        animation.setTarget(45.0, 9.0, t);
+        animation.step(t);
+
+        long batch = t + 1_000_000_000L;
+        animation.setTarget(45.0 + 1e-5, 9.0, batch);
+        animation.setTarget(45.0 + 2e-5, 9.0, batch);
+        animation.setTarget(45.0 + 3e-5, 9.0, batch);
+        animation.step(batch + 10 * FRAME_NS);
+        assertEquals(45.0 + 3e-5, animation.getLatitude(), 1e-12);
+    }
+
+    @Test
+    public void distantFix_jumps() {
+        FixAnimation animation = new FixAnimation();
+        animation.setTarget(45.0, 9.0, 0);
+        animation.step(0);
+        animation.setTarget(46.0, 9.0, 250_000_000L);
+        assertTrue(animation.step(250_000_000L));
+        assertEquals(46.0, animation.getLatitude(), 0.0);
+    }
+}
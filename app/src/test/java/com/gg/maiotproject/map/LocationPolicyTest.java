@@ -0,0 +1,114 @@
+package com.gg.maiotproject.map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LocationPolicyTest {
+
+    private static final double LAT = 45.07, LON = 7.68;
+    private static final double METERS_PER_DEGREE = 111_320.0;
+
+    @Test
+    public void cruising_spacesFixesByDistance() {
+        LocationPolicy policy = new LocationPolicy();
+        policy.start(0);
+        assertTrue(policy.onFix(0, LAT, LON, 10.0, 0.0, 5.0)); // 15 m apart at 10 m/s
+        assertEquals(1500, policy.getSetting().intervalMs);
+        assertTrue(policy.getSetting().highAccuracy);
+        assertEquals(3000, policy.getSetting().maxUpdateDelayMs);
+
+        // Small speed changes do not re-request
+        assertFalse(policy.onFix(5000, LAT, LON, 11.0, 0.0, 5.0));
+        assertFalse(policy.onFix(10000, LAT, LON, 9.0, 0.0, 5.0));
+        // Faster: denser fixes, once the switch interval has passed
+        assertTrue(policy.onFix(15000, LAT, LON, 30.0, 0.0, 5.0));
+        assertEquals(500, policy.getSetting().intervalMs);
+        assertEquals(2, policy.getSwitchCount());
+    }
+
+    @Test
+    public void standstill_dropsToBalancedPowerAfterADelay() {
+        LocationPolicy policy = new LocationPolicy();
+        policy.start(0);
+        policy.onFix(0, LAT, LON, 10.0, 0.0, 5.0);
+        long t = 3000;
+        for (; t < 7000; t += 1000) {
+            assertFalse(policy.onFix(t, LAT, LON, 0.2, Double.NaN, 5.0));
+        }
+        assertTrue(policy.onFix(t + 1000, LAT, LON, 0.1, Double.NaN, 5.0));
+        assertSame(LocationPolicy.STILL, policy.getSetting());
+        assertFalse(policy.getSetting().highAccuracy);
+
+        // Leaning on the stand is not a corner, riding away is cruising again
+        assertFalse(policy.onBankAngle(t + 2000, 20.0));
+        assertTrue(policy.onFix(t + 9000, LAT, LON, 8.0, 90.0, 5.0));
+        assertNotSame(LocationPolicy.STILL, policy.getSetting());
+    }
+
+    @Test
+    public void standstill_isLeftWithNetworkFixesWithoutSpeed() {
+        LocationPolicy policy = new LocationPolicy();
+        policy.start(0);
+        policy.onFix(0, LAT, LON, 10.0, 0.0, 5.0);
+        for (long t = 3000; t <= 9000; t += 1000) {
+            policy.onFix(t, LAT, LON, 0.0, Double.NaN, 5.0);
+        }
+        assertSame(LocationPolicy.STILL, policy.getSetting());
+
+        // Balanced power: a network fix every 5 s, no speed, a position jittering within its accuracy
+        assertFalse(policy.onFix(14000, LAT + 10 / METERS_PER_DEGREE, LON, Double.NaN, Double.NaN, 25.0));
+        assertFalse(policy.onFix(19000, LAT - 10 / METERS_PER_DEGREE, LON, Double.NaN, Double.NaN, 25.0));
+        assertSame(LocationPolicy.STILL, policy.getSetting());
+
+        // Riding away at 8 m/s: 40 m between fixes, 15 m beyond the accuracy radius, 3 m/s
+        assertTrue(policy.onFix(24000, LAT + 30 / METERS_PER_DEGREE, LON, Double.NaN, Double.NaN, 25.0));
+        assertNotSame(LocationPolicy.STILL, policy.getSetting());
+        assertTrue(policy.getSetting().highAccuracy);
+        // The bank angle counts again, the derived speed is not slow
+        assertTrue(policy.onBankAngle(25000, 20.0));
+        assertSame(LocationPolicy.CORNER, policy.getSetting());
+    }
+
+    @Test
+    public void corner_fromBankOrHeading_densifiesRightAwayAndIsHeld() {
+        LocationPolicy policy = new LocationPolicy();
+        policy.start(0);
+        policy.onFix(0, LAT, LON, 20.0, 0.0, 5.0);
+        assertFalse(policy.onBankAngle(500, 8.0));
+        assertTrue(policy.onBankAngle(600, -25.0)); // No switch delay to enter a corner
+        assertSame(LocationPolicy.CORNER, policy.getSetting());
+        assertEquals(0, policy.getSetting().maxUpdateDelayMs);
+        assertEquals(1.0, policy.getSetting().acceptDistanceMeters, 0.0);
+
+        // Held after the lean ends, then back to cruising
+        assertFalse(policy.onFix(3000, LAT, LON, 20.0, 0.0, 5.0));
+        assertTrue(policy.onFix(3700, LAT, LON, 20.0, 0.0, 5.0));
+        assertEquals(750, policy.getSetting().intervalMs);
+
+        // Heading turning 30 deg/s without a lean reading (e.g. filter not calibrated)
+        policy.onFix(6000, LAT, LON, 15.0, 0.0, 5.0);
+        assertTrue(policy.onFix(7000, LAT, LON, 15.0, 30.0, 5.0));
+        assertSame(LocationPolicy.CORNER, policy.getSetting());
+    }
+
+    @Test
+    public void accounting_comparesAgainstTheFixed250msRequest() {
+        LocationPolicy policy = new LocationPolicy();
+        policy.start(0);
+        policy.onFix(0, LAT, LON, 10.0, 0.0, 5.0); // 1.5 s interval, 2 fixes per callback
+        for (long t = 3000; t <= 60000; t += 3000) {
+            policy.onCallback(2);
+        }
+        policy.stop(60000);
+
+        assertEquals(20, policy.getCallbackCount());
+        assertEquals(40, policy.getFixCount());
+        assertEquals(240 - 20, policy.getSavedCallbacks(60000));
+        assertEquals(240 - 40, policy.getSavedHighAccuracyFixes(60000));
+
+        policy.reset();
+        assertEquals(0, policy.getCallbackCount());
+        assertEquals(0, policy.getSavedCallbacks(60000));
+    }
+}
@@ -0,0 +1,111 @@
+package com.gg.maiotproject.map;
+
+import org.junit.Test;
+import org.osmdroid.util.GeoPoint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PathPyramidTest {
+
+    private static final double METERS_PER_DEGREE = GeoPoint.RADIUS_EARTH_METERS * Math.PI / 180.0;
+
+    // Winding road with GPS noise: one point every ~3 m, heading changing smoothly, hairpins now and then
+    private static List<GeoPoint> windingRide(int points, long seed) {
+        Random random = new Random(seed);
+        List<GeoPoint> path = new ArrayList<>();
+        double lat = 45.0, lon = 9.0, heading = 0, turnRate = 0;
+        double metersPerDegreeLon = METERS_PER_DEGREE * Math.cos(Math.toRadians(lat));
+        for (int i = 0; i < points; i++) {
+            turnRate = 0.95 * turnRate + random.nextGaussian() * 0.01;
+            heading += turnRate;
+            double step = 3 + random.nextDouble();
+            lat += step * Math.cos(heading) / METERS_PER_DEGREE;
+            lon += step * Math.sin(heading) / metersPerDegreeLon;
+            path.add(new GeoPoint(lat + random.nextGaussian() * 0.3 / METERS_PER_DEGREE,
+                    lon + random.nextGaussian() * 0.3 / metersPerDegreeLon));
+        }
+        return path;
+    }
+
+    // Distance in meters from p to segment ab, in a local projection around a
+    private static double distanceToSegment(GeoPoint p, GeoPoint a, GeoPoint b) {
+        double k = Math.cos(Math.toRadians(a.getLatitude())) * METERS_PER_DEGREE;
+        double bx = (b.getLongitude() - a.getLongitude()) * k, by = (b.getLatitude() - a.getLatitude()) * METERS_PER_DEGREE;
+        double px = (p.getLongitude() - a.getLongitude()) * k, py = (p.getLatitude() - a.getLatitude()) * METERS_PER_DEGREE;
+        double lengthSquared = bx * bx + by * by;
+        double t = lengthSquared > 0 ? Math.max(0, Math.min(1, (px * bx + py * by) / lengthSquared)) : 0;
+        return Math.hypot(px - t * bx, py - t * by);
+    }
+
+    @Test
+    public void everyPoint_isWithinTheLevelTolerance() {
+        List<GeoPoint> path = windingRide(20_000, 1);
+        PathPyramid pyramid = PathPyramid.of(path);
+        for (int level = 0; level < PathPyramid.LEVELS; level++) {
+            double tolerance = PathPyramid.getTolerance(level);
+            int vertexCount = pyramid.getVertexCount(level);
+            assertEquals(0, pyramid.getVertexIndex(level, 0));
+            for (int v = 0; v < vertexCount; v++) {
+                int from = pyramid.getVertexIndex(level, v);
+                // After the last vertex the path is drawn as a segment to the newest point
+                int to = v + 1 < vertexCount ? pyramid.getVertexIndex(level, v + 1) : path.size() - 1;
+                for (int i = from; i <= to; i++) {
+                    double distance = distanceToSegment(path.get(i), path.get(from), path.get(to));
+                    assertTrue("level " + level + " point " + i + " off by " + distance + " m", distance <= tolerance * 1.001);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void coarseLevels_stayFewVerticesWhateverTheRideLength() {
+        PathPyramid shortRide = PathPyramid.of(windingRide(2_000, 2));
+        PathPyramid longRide = PathPyramid.of(windingRide(100_000, 2));
+        for (int level = 1; level < PathPyramid.LEVELS; level++) {
+            assertTrue(longRide.getVertexCount(level) <= longRide.getVertexCount(level - 1));
+        }
+        assertTrue(longRide.getVertexCount(0) < longRide.size());
+        // Zoomed out to a whole 300 km ride on a phone screen (~200 m per pixel)
+        int wholeRideLevel = PathPyramid.levelFor(200, 1.5);
+        assertTrue(longRide.getVertexCount(wholeRideLevel) < 2_000);
+        assertTrue(shortRide.getVertexCount(wholeRideLevel) < 100);
+    }
+
+    @Test
+    public void streaming_reportsTheLevelsThatGainedAVertex() {
+        List<GeoPoint> path = windingRide(5_000, 3);
+        PathPyramid pyramid = new PathPyramid();
+        int[] counted = new int[PathPyramid.LEVELS];
+        for (GeoPoint point : path) {
+            int changed = pyramid.add(point);
+            for (int level = 0; level < PathPyramid.LEVELS; level++) {
+                if ((changed & (1 << level)) != 0) {
+                    counted[level]++;
+                }
+            }
+        }
+        PathPyramid batch = PathPyramid.of(path);
+        for (int level = 0; level < PathPyramid.LEVELS; level++) {
+            assertEquals(batch.getVertexCount(level), counted[level]);
+            assertSame(path.get(0), pyramid.getVertices(level).get(0)); // Vertices are the path's own points
+        }
+        assertSame(path.get(path.size() - 1), pyramid.getLastPoint());
+    }
+
+    @Test
+    public void levelFor_followsTheZoom() {
+        assertEquals(0, PathPyramid.levelFor(0.1, 1.5));
+        int previous = 0;
+        for (double metersPerPixel = 0.1; metersPerPixel < 1e5; metersPerPixel *= 2) {
+            int level = PathPyramid.levelFor(metersPerPixel, 1.5);
+            assertTrue(level >= previous);
+            assertTrue(PathPyramid.getTolerance(level) <= metersPerPixel * 1.5 || level == 0);
+            previous = level;
+        }
+        assertEquals(PathPyramid.LEVELS - 1, previous);
+    }
+}
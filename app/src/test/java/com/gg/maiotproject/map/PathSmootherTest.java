@@ -0,0 +1,64 @@
+package com.gg.maiotproject.map;
+
+import org.junit.Test;
+import org.osmdroid.util.GeoPoint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+// Checks that the streaming smoother produces exactly the same path as the batch moving average filter
+public class PathSmootherTest {
+
+    private static List<GeoPoint> syntheticTrack(int size, long seed) {
+        Random random = new Random(seed);
+        List<GeoPoint> points = new ArrayList<>();
+        double lat = 45.0;
+        double lon = 9.0;
+        for (int i = 0; i < size; i++) {
+            lat += (random.nextDouble() - 0.5) * 1e-4;
+            lon += (random.nextDouble() - 0.5) * 1e-4;
+            points.add(new GeoPoint(lat, lon));
+        }
+        return points;
+    }
+
+    private static void assertStreamingMatchesBatch(List<GeoPoint> raw, int windowSize) {
+        PathSmoother smoother = new PathSmoother(windowSize);
+        List<GeoPoint> streamed = new ArrayList<>();
+        for (GeoPoint p : raw) {
+            streamed.add(smoother.add(p.getLatitude(), p.getLongitude()));
+        }
+
+        List<GeoPoint> expected = PathSmoother.smooth(raw, windowSize);
+        assertEquals(expected.size(), streamed.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals("lat at " + i, expected.get(i).getLatitude(), streamed.get(i).getLatitude(), 0.0);
+            assertEquals("lon at " + i, expected.get(i).getLongitude(), streamed.get(i).getLongitude(), 0.0);
+        }
+    }
+
+    @Test
+    public void streaming_matchesBatchOnLargeTrack() {
+        assertStreamingMatchesBatch(syntheticTrack(50_000, 42), 2);
+    }
+
+    @Test
+    public void streaming_matchesBatchForEveryPrefix() {
+        // Provisional points must be correct after every single add, not only at the end
+        List<GeoPoint> raw = syntheticTrack(40, 7);
+        for (int n = 0; n <= raw.size(); n++) {
+            assertStreamingMatchesBatch(raw.subList(0, n), 2);
+        }
+    }
+
+    @Test
+    public void streaming_matchesBatchForOtherWindowSizes() {
+        List<GeoPoint> raw = syntheticTrack(5_000, 3);
+        for (int windowSize = 0; windowSize <= 5; windowSize++) {
+            assertStreamingMatchesBatch(raw, windowSize);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.gg.maiotproject.map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RideStatsTest {
+
+    @Test
+    public void distance_isCompensatedOverManySmallSegments() {
+        RideStats stats = new RideStats();
+        stats.onFix(0, Double.NaN, Double.NaN, 0.0);
+        // 1M segments of 3.1 m: naive summation drifts by about 6e-5 m, Kahan summation stays within 2 ulps
+        double naive = 0.0;
+        for (int i = 1; i <= 1_000_000; i++) {
+            stats.onFix(i * 250L, Double.NaN, Double.NaN, 3.1);
+            naive += 3.1;
+        }
+        assertTrue(Math.abs(naive - 3_100_000.0) > 1e-9);
+        assertEquals(3_100_000.0, stats.getDistanceMeters(), 1e-9);
+    }
+
+    @Test
+    public void droppedFixes_updateSpeedButNotDistance() {
+        RideStats stats = new RideStats();
+        stats.onFix(0, 10.0, Double.NaN, 0.0);
+        stats.onFix(1000, 10.0, Double.NaN, 10.0);
+        stats.onFix(2000, 0.5, Double.NaN, Double.NaN);
+
+        assertEquals(10.0, stats.getDistanceMeters(), 0.0);
+        assertEquals(1.8, stats.getCurrentSpeedKmh(), 1e-9);
+        assertEquals(36.0, stats.getMaxSpeedKmh(), 1e-9);
+        assertEquals(1000, stats.getMovingTimeMs()); // The last second was below the moving threshold
+        assertEquals(36.0, stats.getAverageSpeedKmh(), 1e-9);
+    }
+
+    @Test
+    public void elevationGain_ignoresSmallNoise() {
+        RideStats stats = new RideStats();
+        double[] altitudes = {100, 102, 100, 101, 99, 105, 104, 110};
+        for (int i = 0; i < altitudes.length; i++) {
+            stats.onFix(i * 1000L, Double.NaN, altitudes[i], Double.NaN);
+        }
+        // 99 -> 105 and 105 -> 110 (the reference follows the dip to 104) count, the +-2 m wobble does not
+        assertEquals(12.0, stats.getElevationGainMeters(), 1e-9);
+    }
+}
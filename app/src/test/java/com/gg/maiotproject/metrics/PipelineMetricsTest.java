@@ -0,0 +1,70 @@
+package com.gg.maiotproject.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PipelineMetricsTest {
+
+    @Test
+    public void histogram_reportsBucketUpperBounds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1000); // bucket [512, 1024)
+        }
+        histogram.record(1_000_000); // bucket [524288, 1048576)
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(1024, histogram.getPercentileNs(50));
+        assertEquals(1024, histogram.getPercentileNs(99));
+        assertEquals(1 << 20, histogram.getPercentileNs(100));
+        assertEquals(1_000_000, histogram.getMaxNs());
+        assertEquals((99 * 1000 + 1_000_000) / 100, histogram.getMeanNs());
+    }
+
+    @Test
+    public void channel_tracksIntervalsJitterAndLatency() {
+        EventChannelMetrics channel = new EventChannelMetrics();
+        long[] timestamps = {0, 5_000_000, 10_000_000, 17_000_000};
+        for (long t : timestamps) {
+            channel.onEvent(t + 1, t + 1 + 200_000); // delivered 0.2 ms after the sensor timestamp
+        }
+
+        assertEquals(4, channel.getEventCount());
+        assertEquals(3, channel.getInterArrival().getCount());
+        assertEquals(2, channel.getJitter().getCount());
+        assertEquals(2_000_000, channel.getJitter().getMaxNs());
+        assertEquals(200_000, channel.getDeliveryLatency().getMaxNs());
+
+        channel.restart();
+        channel.onEvent(1_000_000_000L, 1_000_000_000L);
+        assertEquals(3, channel.getInterArrival().getCount()); // The pause is not an interval
+    }
+
+    @Test
+    public void snapshot_turnsCountsIntoRates() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.snapshot(0);
+        for (int i = 1; i <= 200; i++) {
+            metrics.getGyroscope().onEvent(i * 5_000_000L, i * 5_000_000L);
+        }
+        PipelineMetrics.Snapshot snapshot = metrics.snapshot(1_000_000_000L);
+        assertEquals(200.0, snapshot.gyroscopeHz, 1e-9);
+        assertEquals(0.0, snapshot.accelerometerHz, 0.0);
+    }
+
+    @Test
+    public void wakeups_countBurstsNotSamples() {
+        WakeupMetrics wakeups = new WakeupMetrics();
+        long now = 0;
+        for (int burst = 0; burst < 10; burst++) {
+            now += 500_000_000L; // One FIFO flush every 0.5 s
+            for (int i = 0; i < 50; i++) {
+                wakeups.onDelivery(now + i * 20_000L);
+            }
+        }
+        assertEquals(500, wakeups.getSampleCount());
+        assertEquals(10, wakeups.getWakeupCount());
+        assertEquals(490, wakeups.getSavedWakeups());
+    }
+}
@@ -0,0 +1,447 @@
+package com.gg.maiotproject.replay;
+
+import com.gg.maiotproject.bus.SensorEventBus;
+import com.gg.maiotproject.bus.WaitStrategy;
+import com.gg.maiotproject.fusion.ArchiveReanalysis;
+import com.gg.maiotproject.fusion.FusionEngine;
+import com.gg.maiotproject.fusion.ImuRecordReader;
+import com.gg.maiotproject.fusion.ImuTrace;
+import com.gg.maiotproject.interfaces.ILocationListener;
+import com.gg.maiotproject.interfaces.ILogger;
+import com.gg.maiotproject.interfaces.IMyComplementaryFilter;
+import com.gg.maiotproject.map.RideStats;
+import com.gg.maiotproject.map.RideTracker;
+import com.gg.maiotproject.sensors.ImuRecorder;
+import com.gg.maiotproject.sensors.MyComplementaryFilter;
+import com.gg.maiotproject.sensors.SensorBatchingMode;
+import com.gg.maiotproject.storage.RideFile;
+import com.gg.maiotproject.track.TrackBuffer;
+import com.gg.maiotproject.track.TrackView;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+// The ride pipeline of the app fed by replayed sources on the JVM: event bus, filter, IMU recorder, ride tracker
+// and ride file, without a phone. Paced replays run on a fake clock, so they take no time and depend on no timing
+public class ReplayPipelineTest {
+
+    private static final long ORIGIN_TIME_MS = 1_700_000_000_000L;
+    private static final double METERS_PER_DEGREE = 111_195.0;
+
+    private static final IMyComplementaryFilter NO_CALLBACKS = new IMyComplementaryFilter() {
+        @Override
+        public void onNewMaxPositiveRollAvailable(double maxPositiveRoll) {
+        }
+
+        @Override
+        public void onNewMaxNegativeRollAvailable(double maxNegativeRoll) {
+        }
+
+        @Override
+        public void onCalibrationProgress(float progress, boolean complete) {
+        }
+    };
+
+    // Keeps the errors, so a test can check none was logged
+    private static class TestLogger implements ILogger {
+        final List<Throwable> errors = new ArrayList<>();
+
+        @Override
+        public void d(String tag, String message) {
+        }
+
+        @Override
+        public synchronized void e(String tag, String message, Throwable error) {
+            errors.add(error);
+        }
+    }
+
+    // Time only moves when the replay parks, by exactly what it asked for. The wakeAtPark-th park returns at once
+    // after running wake, like an unpark() from stop()
+    private static class FakeClock implements ReplayClock {
+        private final AtomicLong nowNs = new AtomicLong(1_000_000_000L);
+        volatile int parks = 0;
+        int wakeAtPark = -1;
+        Runnable wake = null;
+
+        @Override
+        public long nanoTime() {
+            return nowNs.get();
+        }
+
+        @Override
+        public void parkNanos(long nanos) {
+            parks++;
+            if (parks == wakeAtPark) {
+                wake.run();
+                return;
+            }
+            nowNs.addAndGet(nanos);
+        }
+
+        long millis() {
+            return nowNs.get() / 1_000_000L;
+        }
+    }
+
+    // Lean oscillating between +-amplitudeDeg every periodS, generated while it is read so a ride of hours takes no
+    // memory (ImuTrace.synthetic() holds the samples)
+    private static ArchiveReanalysis.Ride generatedRide(final long durationNs, final long gyroPeriodNs,
+                                                        final double amplitudeDeg, final double periodS) {
+        return new ArchiveReanalysis.Ride() {
+            @Override
+            public String getName() {
+                return "generated";
+            }
+
+            @Override
+            public long read(ImuRecordReader.RecordVisitor visitor) {
+                Random random = new Random(7);
+                double omega = 2 * Math.PI / periodS;
+                long count = 0;
+                for (long t = gyroPeriodNs; t <= durationNs; t += gyroPeriodNs) {
+                    double phase = omega * t / 1e9;
+                    double rate = Math.toRadians(amplitudeDeg * omega * Math.cos(phase));
+                    visitor.onRecord(FusionEngine.SENSOR_GYROSCOPE, t, (float) (rate + random.nextGaussian() * 0.01),
+                            (float) (random.nextGaussian() * 0.01), (float) (random.nextGaussian() * 0.01));
+                    count++;
+                    if ((t / gyroPeriodNs) % 2 == 0) {
+                        double roll = Math.toRadians(amplitudeDeg * Math.sin(phase));
+                        visitor.onRecord(FusionEngine.SENSOR_ACCELEROMETER, t + gyroPeriodNs / 2,
+                                (float) (9.81 * Math.sin(roll) + random.nextGaussian() * 0.05),
+                                (float) (random.nextGaussian() * 0.05),
+                                (float) (9.81 * Math.cos(roll) + random.nextGaussian() * 0.05));
+                        count++;
+                    }
+                }
+                return count;
+            }
+        };
+    }
+
+    // Straight north, one fix every periodMs
+    private static TrackView straightTrack(int fixes, long periodMs, float speedMps) {
+        TrackBuffer track = new TrackBuffer();
+        double step = speedMps * periodMs / 1000.0 / METERS_PER_DEGREE;
+        for (int i = 0; i < fixes; i++) {
+            track.append(45.0 + i * step, 9.0, ORIGIN_TIME_MS + i * periodMs, speedMps, 4.0f);
+        }
+        return track;
+    }
+
+    private static long countSamples(ArchiveReanalysis.Ride ride, int sensorId) throws IOException {
+        final long[] count = {0};
+        ride.read((id, timestampNs, x, y, z) -> {
+            if (id == sensorId) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    // Waits for the events published so far to reach the subscriber
+    private static void drain(SensorEventBus.Subscription subscription) throws InterruptedException {
+        final CountDownLatch drained = new CountDownLatch(1);
+        subscription.post(drained::countDown);
+        assertTrue(drained.await(1, TimeUnit.MINUTES));
+    }
+
+    private static void assertRecorded(ImuTrace trace, File directory) throws IOException {
+        final int[] index = {0};
+        long records = ImuTrace.readRecording(directory, (sensorId, timestampNs, x, y, z) -> {
+            int i = index[0]++;
+            assertEquals(trace.getSensorId(i), sensorId);
+            assertEquals(trace.getTimestamp(i), timestampNs);
+            assertEquals(trace.getX(i), x, 0.0f);
+            assertEquals(trace.getY(i), y, 0.0f);
+            assertEquals(trace.getZ(i), z, 0.0f);
+        });
+        assertEquals(trace.size(), records);
+    }
+
+    // Replays both sources as fast as possible through the consumers MainActivity subscribes, as it drives them,
+    // and checks the ride that comes out of it
+    private static void replayRide(ArchiveReanalysis.Ride ride, TrackView track, double amplitudeDeg)
+            throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        File dir = Files.createTempDirectory("replay").toFile();
+        long samples = countSamples(ride, FusionEngine.SENSOR_GYROSCOPE) + countSamples(ride, FusionEngine.SENSOR_ACCELEROMETER);
+        FakeClock clock = new FakeClock();
+        TestLogger logger = new TestLogger();
+
+        SensorEventBus bus = new SensorEventBus(4096);
+        final MyComplementaryFilter filter = new MyComplementaryFilter(NO_CALLBACKS, logger);
+        filter.startRide(1L, new File(dir, "1.lean"), null);
+        SensorEventBus.Subscription fusionSubscription = bus.subscribe("fusion", filter,
+                SensorEventBus.OverflowPolicy.BLOCK, new WaitStrategy.Blocking(), Thread.MAX_PRIORITY);
+        ImuRecorder recorder = new ImuRecorder(new File(dir, "1.imu"));
+        recorder.open();
+        SensorEventBus.Subscription recorderSubscription = bus.subscribe("recorder", recorder,
+                SensorEventBus.OverflowPolicy.DROP_OLDEST, new WaitStrategy.Sleeping(2_000_000L), Thread.NORM_PRIORITY);
+
+        ReplayImuSource imuSource = new ReplayImuSource(ride, bus, 0, 0.0f, 0.0f, clock, logger);
+        final CountDownLatch imuEnded = new CountDownLatch(1);
+        imuSource.setOnEnd(imuEnded::countDown);
+        RideTracker tracker = new RideTracker(dir, clock::millis, logger);
+        final TrackView replayedTrack = track;
+        ReplayLocationSource locationSource = new ReplayLocationSource(() -> replayedTrack, ORIGIN_TIME_MS,
+                Runnable::run, 0, clock, clock::millis, logger);
+        final CountDownLatch trackEnded = new CountDownLatch(1);
+        locationSource.setOnEnd(trackEnded::countDown);
+
+        tracker.start(locationSource);
+        imuSource.start();
+        assertTrue(imuEnded.await(10, TimeUnit.MINUTES));
+        assertTrue(trackEnded.await(1, TimeUnit.MINUTES));
+        tracker.stop();
+        final CompletableFuture<MyComplementaryFilter.RideEnd> stopped = new CompletableFuture<>();
+        fusionSubscription.post(() -> stopped.complete(filter.stopRide(1L))); // Runs after the last sample
+        MyComplementaryFilter.RideEnd end = stopped.get(1, TimeUnit.MINUTES);
+        recorderSubscription.post(recorder::close);
+        recorderSubscription.close();
+        fusionSubscription.close();
+        assertTrue(recorderSubscription.awaitTermination(60_000));
+        assertTrue(fusionSubscription.awaitTermination(60_000));
+
+        // Every gyro sample after the first (which starts the integration) was fused in the recorded order (the
+        // timeline drops the older ones), the recorder lost none it did not count
+        assertEquals(samples, imuSource.getPosition());
+        assertEquals(countSamples(ride, FusionEngine.SENSOR_GYROSCOPE) - 1, end.leanTimeline.getSampleCount());
+        assertEquals(0, end.leanTimeline.getDroppedSampleCount());
+        end.leanTimeline.close();
+        assertEquals(samples, recorder.getTotalRecords() + recorderSubscription.getDroppedCount());
+        assertEquals(recorder.getTotalRecords(), ImuTrace.readRecording(recorder.getDirectory(), (id, t, x, y, z) -> { }));
+        assertEquals(amplitudeDeg, end.maxPositiveRoll, 3.0);
+        assertEquals(amplitudeDeg, -end.maxNegativeRoll, 3.0);
+
+        // Every fix was recorded, and the summary reads back from the ride file
+        assertEquals(track.size(), tracker.getTrack().size());
+        RideStats stats = tracker.getRideStats();
+        double expectedMeters = (track.getLatitude(track.size() - 1) - track.getLatitude(0)) * METERS_PER_DEGREE;
+        assertEquals(expectedMeters, stats.getDistanceMeters(), expectedMeters * 0.01);
+        File rideFile = new File(dir, "1.ride");
+        RideFile.write(rideFile, 1L, tracker.getTrack(), stats, end.maxPositiveRoll, end.maxNegativeRoll);
+        RideFile saved = RideFile.open(rideFile);
+        assertEquals(track.size(), saved.getPointCount());
+        assertEquals(stats.getDistanceMeters(), saved.getRideStats().getDistanceMeters(), 0.0);
+        assertEquals(end.maxPositiveRoll, saved.getMaxPositiveRoll(), 0.0);
+        tracker.getTrack().close();
+        assertEquals(0, clock.parks);
+        assertTrue(logger.errors.isEmpty());
+    }
+
+    @Test
+    public void replayAsFastAsPossible_ridesThroughTheWholePipeline() throws Exception {
+        // 5 minutes: gyroscope at 400 Hz, accelerometer at 200 Hz, a fix per second
+        ImuTrace trace = ImuTrace.synthetic(300_000_000_000L, 2_500_000L, 5_000_000L, 35, 0.2, 1);
+        replayRide(ArchiveReanalysis.trace("trace", trace), straightTrack(300, 1000, 10.0f), 35);
+    }
+
+    @Test
+    public void replayAtSpeed_publishesEachSampleOnceDue() throws IOException, InterruptedException {
+        // 8 s at 8x
+        final ImuTrace trace = ImuTrace.synthetic(8_000_000_000L, 2_500_000L, 5_000_000L, 30, 0.5, 2);
+        final FakeClock clock = new FakeClock();
+        long startNs = clock.nanoTime();
+        SensorEventBus bus = new SensorEventBus(1024);
+        final ReplayImuSource source = new ReplayImuSource(ArchiveReanalysis.trace("trace", trace), bus, 8,
+                0.0f, 0.0f, clock, new TestLogger());
+        final long[] early = {0};
+        SensorEventBus.Subscription subscription = bus.subscribe("due", (sensorId, timestampNs, x, y, z) -> {
+            if (clock.nanoTime() < source.getDueTimeNs(timestampNs)) {
+                early[0]++;
+            }
+        }, SensorEventBus.OverflowPolicy.BLOCK, new WaitStrategy.Blocking(), Thread.NORM_PRIORITY);
+        final CountDownLatch ended = new CountDownLatch(1);
+        source.setOnEnd(ended::countDown);
+
+        source.start();
+        assertTrue(ended.await(1, TimeUnit.MINUTES));
+        drain(subscription);
+        subscription.close();
+        assertTrue(subscription.awaitTermination(5000));
+
+        assertEquals(0, early[0]);
+        long recordedNs = trace.getTimestamp(trace.size() - 1) - trace.getTimestamp(0);
+        assertEquals(startNs + (long) (recordedNs / 8.0), clock.nanoTime());
+    }
+
+    @Test
+    public void batchedReplay_parksOncePerReportLatencyWindow() throws InterruptedException {
+        ImuTrace trace = ImuTrace.synthetic(4_000_000_000L, 2_500_000L, 5_000_000L, 30, 0.5, 4);
+        FakeClock clock = new FakeClock();
+        SensorEventBus bus = new SensorEventBus(4096);
+        ReplayImuSource source = new ReplayImuSource(ArchiveReanalysis.trace("trace", trace), bus, 1,
+                0.0f, 0.0f, clock, new TestLogger());
+        source.setBatchingMode(SensorBatchingMode.BATTERY_SAVER);
+        final long[] count = {0};
+        SensorEventBus.Subscription subscription = bus.subscribe("count", (sensorId, timestampNs, x, y, z) -> count[0]++,
+                SensorEventBus.OverflowPolicy.BLOCK, new WaitStrategy.Blocking(), Thread.NORM_PRIORITY);
+        final CountDownLatch ended = new CountDownLatch(1);
+        source.setOnEnd(ended::countDown);
+
+        source.start();
+        assertTrue(ended.await(1, TimeUnit.MINUTES));
+        drain(subscription);
+        subscription.close();
+        assertTrue(subscription.awaitTermination(5000));
+
+        long windowNs = SensorBatchingMode.BATTERY_SAVER.maxReportLatencyUs * 1000L;
+        Set<Long> windows = new HashSet<>();
+        for (int i = 0; i < trace.size(); i++) {
+            windows.add((trace.getTimestamp(i) - trace.getTimestamp(0)) / windowNs);
+        }
+        assertEquals(trace.size(), count[0]);
+        assertEquals(windows.size(), clock.parks);
+    }
+
+    @Test
+    public void stopThenStart_goesOnWhereItStopped() throws IOException, InterruptedException {
+        ImuTrace trace = ImuTrace.synthetic(2_000_000_000L, 2_500_000L, 5_000_000L, 20, 0.5, 3);
+        File dir = Files.createTempDirectory("replay").toFile();
+        SensorEventBus bus = new SensorEventBus(1024);
+        ImuRecorder recorder = new ImuRecorder(new File(dir, "1.imu"));
+        recorder.open();
+        SensorEventBus.Subscription subscription = bus.subscribe("recorder", recorder,
+                SensorEventBus.OverflowPolicy.BLOCK, new WaitStrategy.Blocking(), Thread.NORM_PRIORITY);
+        FakeClock clock = new FakeClock();
+        final ReplayImuSource source = new ReplayImuSource(ArchiveReanalysis.trace("trace", trace), bus, 4,
+                0.0f, 0.0f, clock, new TestLogger());
+        final CountDownLatch ended = new CountDownLatch(1);
+        source.setOnEnd(ended::countDown);
+        final CountDownLatch stopped = new CountDownLatch(1);
+        final String[] stopThread = new String[1];
+        clock.wakeAtPark = 100;
+        clock.wake = () -> source.stop(() -> {
+            stopThread[0] = Thread.currentThread().getName();
+            stopped.countDown();
+        });
+
+        source.start();
+        assertTrue(stopped.await(1, TimeUnit.MINUTES));
+        assertEquals("ImuReplay", stopThread[0]);
+        long atStop = source.getPosition();
+        assertTrue(atStop > 0 && atStop < trace.size());
+        long stoppedAtNs = clock.nanoTime();
+
+        // Resumed later: the stop is not caught up, the rest of the ride is paced from the restart
+        clock.parkNanos(1_000_000_000L);
+        long restartNs = clock.nanoTime();
+        source.start();
+        assertTrue(ended.await(1, TimeUnit.MINUTES));
+        drain(subscription);
+        subscription.post(recorder::close);
+        subscription.close();
+        assertTrue(subscription.awaitTermination(5000));
+
+        assertEquals(trace.size(), source.getPosition());
+        assertRecorded(trace, recorder.getDirectory());
+        assertTrue(restartNs > stoppedAtNs);
+        long remainingNs = trace.getTimestamp(trace.size() - 1) - trace.getTimestamp((int) atStop);
+        assertEquals(restartNs + (long) (remainingNs / 4.0), clock.nanoTime());
+
+        // Stopping a source that is not replaying runs the callback at once
+        final boolean[] ran = {false};
+        source.stop(() -> ran[0] = true);
+        assertTrue(ran[0]);
+    }
+
+    @Test
+    public void startWhileStopping_restartsOnceTheStopIsOver() throws IOException, InterruptedException {
+        ImuTrace trace = ImuTrace.synthetic(2_000_000_000L, 2_500_000L, 5_000_000L, 20, 0.5, 5);
+        File dir = Files.createTempDirectory("replay").toFile();
+        SensorEventBus bus = new SensorEventBus(1024);
+        ImuRecorder recorder = new ImuRecorder(new File(dir, "1.imu"));
+        recorder.open();
+        SensorEventBus.Subscription subscription = bus.subscribe("recorder", recorder,
+                SensorEventBus.OverflowPolicy.BLOCK, new WaitStrategy.Blocking(), Thread.NORM_PRIORITY);
+        FakeClock clock = new FakeClock();
+        final ReplayImuSource source = new ReplayImuSource(ArchiveReanalysis.trace("trace", trace), bus, 4,
+                0.0f, 0.0f, clock, new TestLogger());
+        final CountDownLatch ended = new CountDownLatch(1);
+        source.setOnEnd(ended::countDown);
+        final List<String> stops = new ArrayList<>();
+        final long[] positionAtStop = {-1};
+        // Stop, start, stop and start again while the replay thread still runs: both stops complete, in order,
+        // before the replay goes on
+        clock.wakeAtPark = 100;
+        clock.wake = () -> {
+            source.stop(() -> stops.add("first"));
+            source.start();
+            source.stop(() -> {
+                stops.add("second");
+                positionAtStop[0] = source.getPosition();
+            });
+            source.start();
+        };
+
+        source.start();
+        assertTrue(ended.await(1, TimeUnit.MINUTES));
+        drain(subscription);
+        subscription.post(recorder::close);
+        subscription.close();
+        assertTrue(subscription.awaitTermination(5000));
+
+        assertEquals(Arrays.asList("first", "second"), stops);
+        assertTrue(positionAtStop[0] > 0 && positionAtStop[0] < trace.size());
+        assertEquals(trace.size(), source.getPosition());
+        assertRecorded(trace, recorder.getDirectory());
+    }
+
+    @Test
+    public void replayedFixes_runOnThePolicyClockSpedUp() throws InterruptedException {
+        FakeClock clock = new FakeClock();
+        final TrackView track = straightTrack(10, 1000, 10.0f);
+        ReplayLocationSource source = new ReplayLocationSource(() -> track, ORIGIN_TIME_MS, Runnable::run, 8,
+                clock, clock::millis, new TestLogger());
+        final List<Long> elapsedRealtimes = new ArrayList<>();
+        final CountDownLatch ended = new CountDownLatch(1);
+        source.setOnEnd(ended::countDown);
+        source.start(new ILocationListener() {
+            @Override
+            public void onFixBatch(int fixCount) {
+            }
+
+            @Override
+            public void onFix(double latitude, double longitude, long timeMs, long elapsedRealtimeMs, double altitude,
+                              float speed, float bearing, float accuracy) {
+                elapsedRealtimes.add(elapsedRealtimeMs);
+            }
+
+            @Override
+            public void onFixBatchEnd() {
+            }
+        }, null);
+        assertTrue(ended.await(1, TimeUnit.MINUTES));
+
+        assertEquals(track.size(), elapsedRealtimes.size());
+        for (int i = 1; i < elapsedRealtimes.size(); i++) {
+            assertEquals(125L, elapsedRealtimes.get(i) - elapsedRealtimes.get(i - 1));
+        }
+        assertEquals(clock.millis(), (long) elapsedRealtimes.get(elapsedRealtimes.size() - 1));
+    }
+
+    @Test
+    public void longRide_staysInBoundsWithoutDrift() throws Exception {
+        // Two hours of riding (gyroscope at 200 Hz, accelerometer at 100 Hz), 5 fixes per second at 90 km/h: the track spills
+        // to disk, and the lean must stay within the ride's over the hours (a drifting filter would exceed it)
+        long durationNs = 2 * 3600 * 1_000_000_000L;
+        replayRide(generatedRide(durationNs, 5_000_000L, 40, 8), straightTrack(2 * 3600 * 5, 200, 25.0f), 40);
+    }
+}
@@ -0,0 +1,75 @@
+package com.gg.maiotproject.sensors;
+
+import com.gg.maiotproject.fusion.ImuRecordReader;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ImuRecorderTest {
+
+    private static List<float[]> readAll(File directory) throws IOException {
+        List<float[]> records = new ArrayList<>();
+        new ImuRecordReader(directory).read((sensorId, timestampNs, x, y, z) ->
+                records.add(new float[]{sensorId, timestampNs, x, y, z}));
+        return records;
+    }
+
+    @Test
+    public void records_rollAcrossSegmentsAndReadBackInOrder() throws IOException {
+        File directory = Files.createTempDirectory("imu").toFile();
+        ImuRecorder recorder = new ImuRecorder(directory, 100);
+        recorder.open();
+        for (int i = 0; i < 250; i++) {
+            int sensor = i % 2 == 0 ? ImuRecorder.SENSOR_ACCELEROMETER : ImuRecorder.SENSOR_GYROSCOPE;
+            recorder.record(sensor, i, i * 0.5f, -i, 9.81f);
+        }
+        recorder.close();
+
+        assertEquals(250, recorder.getTotalRecords());
+        assertFalse(ImuRecorder.segmentFile(directory, 3).exists());
+        List<float[]> records = readAll(directory);
+        assertEquals(250, records.size());
+        for (int i = 0; i < 250; i++) {
+            float[] r = records.get(i);
+            assertEquals(i % 2 == 0 ? ImuRecorder.SENSOR_ACCELEROMETER : ImuRecorder.SENSOR_GYROSCOPE, (int) r[0]);
+            assertEquals(i, (long) r[1]);
+            assertEquals(i * 0.5f, r[2], 0.0f);
+            assertEquals(-i, r[3], 0.0f);
+        }
+    }
+
+    @Test
+    public void unclosedRecording_readsBackCommittedRecords() throws IOException {
+        // Simulates a process kill: the recorder is never closed or forced
+        File directory = Files.createTempDirectory("imu").toFile();
+        ImuRecorder recorder = new ImuRecorder(directory, 1000);
+        recorder.open();
+        for (int i = 0; i < 321; i++) {
+            recorder.record(ImuRecorder.SENSOR_GYROSCOPE, i, 1f, 2f, 3f);
+        }
+        assertEquals(321, readAll(directory).size());
+    }
+
+    @Test
+    public void reopenedRecorder_appendsNewSegments() throws IOException {
+        File directory = Files.createTempDirectory("imu").toFile();
+        for (int session = 0; session < 2; session++) {
+            ImuRecorder recorder = new ImuRecorder(directory, 100);
+            recorder.open();
+            for (int i = 0; i < 10; i++) {
+                recorder.record(ImuRecorder.SENSOR_ACCELEROMETER, session * 10 + i, 0f, 0f, 0f);
+            }
+            recorder.close();
+        }
+        List<float[]> records = readAll(directory);
+        assertEquals(20, records.size());
+        assertEquals(19, (long) records.get(19)[1]);
+    }
+}
@@ -0,0 +1,92 @@
+package com.gg.maiotproject.sensors;
+
+import com.gg.maiotproject.fusion.CornerDetector;
+import com.gg.maiotproject.interfaces.IMyComplementaryFilter;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class MyComplementaryFilterTest {
+
+    private static final long PERIOD_NS = 5_000_000L;
+
+    private static final IMyComplementaryFilter NO_CALLBACKS = new IMyComplementaryFilter() {
+        @Override
+        public void onNewMaxPositiveRollAvailable(double maxPositiveRoll) {
+        }
+
+        @Override
+        public void onNewMaxNegativeRollAvailable(double maxNegativeRoll) {
+        }
+
+        @Override
+        public void onCalibrationProgress(float progress, boolean complete) {
+        }
+    };
+
+    private static long feed(MyComplementaryFilter filter, long fromNs, int samples) {
+        return feed(filter, fromNs, samples, 0.0);
+    }
+
+    // Held at rollDeg, the accelerometer alone brings the filter there
+    private static long feed(MyComplementaryFilter filter, long fromNs, int samples, double rollDeg) {
+        float accX = (float) (9.81 * Math.sin(Math.toRadians(rollDeg)));
+        float accZ = (float) (9.81 * Math.cos(Math.toRadians(rollDeg)));
+        long t = fromNs;
+        for (int i = 0; i < samples; i++) {
+            t += PERIOD_NS;
+            filter.onSensorEvent(ImuRecorder.SENSOR_ACCELEROMETER, t, accX, 0f, accZ);
+            filter.onSensorEvent(ImuRecorder.SENSOR_GYROSCOPE, t, 0f, 0f, 0f);
+        }
+        return t;
+    }
+
+    @Test
+    public void staleStop_handsOverItsOwnRideAndLeavesTheNextOneRecording() throws IOException {
+        File dir = Files.createTempDirectory("rides").toFile();
+        File firstFile = new File(dir, "1.lean");
+        File secondFile = new File(dir, "2.lean");
+        CornerDetector first = new CornerDetector(null);
+        CornerDetector second = new CornerDetector(null);
+        MyComplementaryFilter filter = new MyComplementaryFilter(NO_CALLBACKS);
+
+        filter.startRide(1, firstFile, first);
+        long t = feed(filter, 0, 400, 30.0);
+        // Start pressed again before the stop of ride 1 reached the fusion thread
+        filter.startRide(2, secondFile, second);
+        MyComplementaryFilter.RideEnd end = filter.stopRide(1);
+        assertEquals(firstFile, end.leanTimeline.getFile());
+        assertSame(first, end.cornerDetector);
+        assertEquals(30.0f, end.maxPositiveRoll, 3.0f); // Ride 1's lean, not reset by the start of ride 2
+        long firstSamples = end.leanTimeline.getSampleCount();
+        assertTrue(firstSamples > 0);
+        end.leanTimeline.close();
+
+        // Ride 2 is still recorded, in its own timeline
+        feed(filter, t, 100);
+        assertTrue(filter.getFilteredRollTimestamp() > t);
+        assertTrue(second.getHistogram().getTotalNs() > 0);
+        assertEquals(firstSamples, end.leanTimeline.getSampleCount());
+        filter.closeRides();
+    }
+
+    @Test
+    public void stopOfAnotherRide_changesNothing() throws IOException {
+        File dir = Files.createTempDirectory("rides").toFile();
+        CornerDetector detector = new CornerDetector(null);
+        MyComplementaryFilter filter = new MyComplementaryFilter(NO_CALLBACKS);
+        filter.startRide(1, new File(dir, "1.lean"), detector);
+
+        MyComplementaryFilter.RideEnd end = filter.stopRide(7);
+        assertNull(end.leanTimeline);
+        assertNull(end.cornerDetector);
+        feed(filter, 0, 100);
+        assertTrue(detector.getHistogram().getTotalNs() > 0);
+        filter.closeRides();
+    }
+}
@@ -0,0 +1,115 @@
+package com.gg.maiotproject.sensors;
+
+import com.gg.maiotproject.bus.SensorEventBus;
+import com.gg.maiotproject.bus.WaitStrategy;
+import com.gg.maiotproject.interfaces.IMyComplementaryFilter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SensorBatchingTest {
+
+    private static class AngleListener implements IMyComplementaryFilter {
+        double maxPositive;
+        double maxNegative;
+
+        @Override
+        public void onNewMaxPositiveRollAvailable(double maxPositiveRoll) {
+            maxPositive = maxPositiveRoll;
+        }
+
+        @Override
+        public void onNewMaxNegativeRollAvailable(double maxNegativeRoll) {
+            maxNegative = maxNegativeRoll;
+        }
+
+        @Override
+        public void onCalibrationProgress(float progress, boolean complete) {
+        }
+    }
+
+    @Test
+    public void merger_restoresTimestampOrderOfFifoBursts() throws InterruptedException {
+        SensorEventBus bus = new SensorEventBus(1024);
+        final List<Long> timestamps = new ArrayList<>();
+        SensorEventBus.Subscription subscription = bus.subscribe("order", (id, t, x, y, z) -> timestamps.add(t),
+                SensorEventBus.OverflowPolicy.BLOCK, new WaitStrategy.Yielding(), Thread.NORM_PRIORITY);
+        SensorBatchMerger merger = new SensorBatchMerger(bus);
+
+        // Two FIFO bursts: all accelerometer samples of the burst first, then all gyroscope samples
+        for (int burst = 0; burst < 4; burst++) {
+            for (int i = 0; i < 25; i++) {
+                merger.add(ImuRecorder.SENSOR_ACCELEROMETER, (burst * 25 + i) * 20L + 3, 0, 0, 0);
+            }
+            for (int i = 0; i < 25; i++) {
+                merger.add(ImuRecorder.SENSOR_GYROSCOPE, (burst * 25 + i) * 20L + 7, 0, 0, 0);
+            }
+        }
+        merger.flush();
+        assertEquals(0, merger.getPendingCount());
+        subscription.close();
+        assertTrue(subscription.awaitTermination(5000));
+
+        assertEquals(200, timestamps.size());
+        for (int i = 1; i < timestamps.size(); i++) {
+            assertTrue(timestamps.get(i) > timestamps.get(i - 1));
+        }
+    }
+
+    @Test
+    public void filter_batchPathMatchesSampleBySamplePath() {
+        AngleListener single = new AngleListener();
+        AngleListener batched = new AngleListener();
+        MyComplementaryFilter one = new MyComplementaryFilter(single);
+        MyComplementaryFilter run = new MyComplementaryFilter(batched);
+        one.setTrackingMode(true);
+        run.setTrackingMode(true);
+
+        int count = 1000;
+        int[] ids = new int[count];
+        long[] timestamps = new long[count];
+        float[] xs = new float[count], ys = new float[count], zs = new float[count];
+        Random random = new Random(42);
+        for (int i = 0; i < count; i++) {
+            ids[i] = i % 2 == 0 ? ImuRecorder.SENSOR_ACCELEROMETER : ImuRecorder.SENSOR_GYROSCOPE;
+            timestamps[i] = 10_000_000L * i;
+            xs[i] = (float) Math.sin(i / 50.0) * 5 + random.nextFloat() * 0.1f;
+            ys[i] = random.nextFloat();
+            zs[i] = 9.81f;
+        }
+
+        for (int i = 0; i < count; i++) {
+            one.onSensorEvent(ids[i], timestamps[i], xs[i], ys[i], zs[i]);
+        }
+        for (int from = 0; from < count; from += 64) {
+            int n = Math.min(64, count - from);
+            run.onSensorEvents(slice(ids, from, n), slice(timestamps, from, n), slice(xs, from, n),
+                    slice(ys, from, n), slice(zs, from, n), n);
+        }
+
+        assertEquals(one.getFilteredRoll(), run.getFilteredRoll(), 0.0f);
+        assertEquals(one.getPublishedRoll().get(), run.getPublishedRoll().get(), 0.0f);
+        assertEquals(one.getFilteredRoll(), one.getPublishedRoll().get(), 0.0f);
+        assertEquals(single.maxPositive, batched.maxPositive, 0.0);
+        assertEquals(single.maxNegative, batched.maxNegative, 0.0);
+        assertTrue(single.maxPositive > 0);
+    }
+
+    private static int[] slice(int[] a, int from, int n) {
+        return Arrays.copyOfRange(a, from, from + n);
+    }
+
+    private static long[] slice(long[] a, int from, int n) {
+        return Arrays.copyOfRange(a, from, from + n);
+    }
+
+    private static float[] slice(float[] a, int from, int n) {
+        return Arrays.copyOfRange(a, from, from + n);
+    }
+}
@@ -0,0 +1,57 @@
+package com.gg.maiotproject.storage;
+
+import com.gg.maiotproject.fusion.Corner;
+import com.gg.maiotproject.fusion.LeanHistogram;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CornerFileTest {
+
+    @Test
+    public void writeThenOpen_givesBackTheCornersAndHistogram() throws IOException {
+        File file = new File(Files.createTempDirectory("corners").toFile(), "1.corners");
+        List<Corner> corners = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            long entry = i * 10_000_000_000L;
+            corners.add(new Corner(entry, entry + 2_000_000_000L, entry + 5_000_000_000L, i % 2 == 0 ? 30f + i % 20 : -25f,
+                    18.5f, 2_500_000_000L, 35f, i == 0 ? Double.NaN : 45.0 + i * 1e-4, i == 0 ? Double.NaN : 9.0));
+        }
+        LeanHistogram histogram = new LeanHistogram();
+        histogram.add(33f, 7_000_000_000L);
+        histogram.add(-2f, 60_000_000_000L);
+        CornerFile.write(file, 1L, corners, histogram);
+
+        CornerFile read = CornerFile.open(file);
+        assertEquals(1L, read.getRideId());
+        assertEquals(300, read.getCorners().size());
+        for (int i = 0; i < corners.size(); i++) {
+            Corner expected = corners.get(i), actual = read.getCorners().get(i);
+            assertEquals(expected.entryNs, actual.entryNs);
+            assertEquals(expected.apexNs, actual.apexNs);
+            assertEquals(expected.exitNs, actual.exitNs);
+            assertEquals(expected.peakLean, actual.peakLean, 0f);
+            assertEquals(expected.meanLean, actual.meanLean, 0f);
+            assertEquals(expected.timeAtLeanNs, actual.timeAtLeanNs);
+            assertEquals(expected.apexLatitude, actual.apexLatitude, 0.0);
+        }
+        assertEquals(7_000_000_000L, read.getHistogram().getTimeBeyondNs(30f));
+        assertEquals(60_000_000_000L, read.getHistogram().getRightNs(0));
+        assertEquals(67_000_000_000L, read.getHistogram().getTotalNs());
+    }
+
+    @Test
+    public void aRideWithoutCorners_isStillAValidFile() throws IOException {
+        File file = new File(Files.createTempDirectory("corners").toFile(), "2.corners");
+        CornerFile.write(file, 2L, Collections.emptyList(), new LeanHistogram());
+        assertEquals(0, CornerFile.open(file).getCorners().size());
+    }
+}
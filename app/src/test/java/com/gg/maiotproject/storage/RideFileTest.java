@@ -0,0 +1,57 @@
+package com.gg.maiotproject.storage;
+
+import com.gg.maiotproject.map.RideStats;
+import com.gg.maiotproject.track.TrackBuffer;
+import com.gg.maiotproject.track.TrackView;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class RideFileTest {
+
+    @Test
+    public void writeThenOpen_roundTripsHeaderAndTrack() throws IOException {
+        TrackBuffer track = new TrackBuffer();
+        RideStats stats = new RideStats();
+        int count = 5000;
+        for (int i = 0; i < count; i++) {
+            track.append(45.0 + i * 1e-5, 9.0 + Math.sin(i) * 1e-3, 1000L * i, 12.5f, 4.0f);
+            stats.onFix(1000L * i, 12.5, Double.NaN, i == 0 ? 0.0 : 1.1);
+        }
+
+        File file = new File(Files.createTempDirectory("rides").toFile(), "1.ride");
+        RideFile.write(file, 1L, track, stats, 42.0, 37.5);
+        RideFile ride = RideFile.open(file);
+
+        assertEquals(1L, ride.getRideId());
+        assertEquals(count, ride.getPointCount());
+        assertEquals(42.0, ride.getMaxPositiveRoll(), 0.0);
+        assertEquals(37.5, ride.getMaxNegativeRoll(), 0.0);
+        assertEquals(45.0 + (count - 1) * 1e-5, ride.getLatNorth(), 0.0);
+        assertEquals(45.0, ride.getLatSouth(), 0.0);
+        assertEquals(stats.getDistanceMeters(), ride.getRideStats().getDistanceMeters(), 0.0);
+        assertEquals(stats.getMovingTimeMs(), ride.getRideStats().getMovingTimeMs());
+
+        TrackView mapped = ride.getTrack();
+        assertEquals(count, mapped.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(track.getLatitude(i), mapped.getLatitude(i), 0.0);
+            assertEquals(track.getLongitude(i), mapped.getLongitude(i), 0.0);
+            assertEquals(track.getTime(i), mapped.getTime(i));
+            assertEquals(track.getSpeed(i), mapped.getSpeed(i), 0.0f);
+            assertEquals(track.getAccuracy(i), mapped.getAccuracy(i), 0.0f);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void open_rejectsForeignFiles() throws IOException {
+        File file = File.createTempFile("not", ".ride");
+        Files.write(file.toPath(), new byte[512]);
+        RideFile.open(file);
+    }
+}
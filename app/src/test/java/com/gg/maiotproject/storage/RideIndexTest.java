@@ -0,0 +1,111 @@
+package com.gg.maiotproject.storage;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RideIndexTest {
+
+    private static RideSummary ride(long rideId, double distanceMeters) {
+        return new RideSummary(rideId, 3_600_000, 3_000_000, distanceMeters, 120.0, 40.0, -35.0,
+                45.1, 45.0, 9.1, 9.0, 1000, 0);
+    }
+
+    // 300 rides, one a day, distances cycling through 0..96 km
+    private static RideIndex history() {
+        RideIndex index = new RideIndex();
+        for (int i = 299; i >= 0; i--) { // Inserted out of order
+            index.put(ride(86_400_000L * i, (i * 37 % 97) * 1000.0));
+        }
+        return index;
+    }
+
+    @Test
+    public void byDate_pagesNewestOrOldestFirst() {
+        RideIndex index = history();
+        assertEquals(300, index.size());
+
+        List<RideSummary> first = index.byDate(Long.MIN_VALUE, Long.MAX_VALUE, true, 0, 50);
+        assertEquals(50, first.size());
+        assertEquals(86_400_000L * 299, first.get(0).getRideId());
+        List<RideSummary> last = index.byDate(Long.MIN_VALUE, Long.MAX_VALUE, true, 280, 50);
+        assertEquals(20, last.size());
+        assertEquals(0L, last.get(19).getRideId());
+
+        // Days 10 to 19, oldest first
+        List<RideSummary> range = index.byDate(86_400_000L * 10, 86_400_000L * 20, false, 0, 100);
+        assertEquals(10, range.size());
+        assertEquals(86_400_000L * 10, range.get(0).getRideId());
+        assertEquals(10, index.countByDate(86_400_000L * 10, 86_400_000L * 20));
+        assertTrue(index.byDate(0, Long.MAX_VALUE, true, 300, 50).isEmpty());
+    }
+
+    @Test
+    public void byDistance_ordersEveryPageByDistance() {
+        RideIndex index = history();
+        double previous = Double.POSITIVE_INFINITY;
+        int seen = 0;
+        for (int offset = 0; offset < index.size(); offset += 64) {
+            for (RideSummary summary : index.byDistance(0, Double.POSITIVE_INFINITY, true, offset, 64)) {
+                assertTrue(summary.getDistanceMeters() <= previous);
+                previous = summary.getDistanceMeters();
+                seen++;
+            }
+        }
+        assertEquals(300, seen);
+
+        List<RideSummary> shortRides = index.byDistance(0, 10_000, false, 0, 100);
+        assertEquals(index.countByDistance(0, 10_000), shortRides.size());
+        for (RideSummary summary : shortRides) {
+            assertTrue(summary.getDistanceMeters() < 10_000);
+        }
+    }
+
+    @Test
+    public void put_replacesAndRemoveDeletes() {
+        RideIndex index = history();
+        index.put(ride(86_400_000L * 5, 500_000.0));
+        assertEquals(300, index.size());
+        assertEquals(86_400_000L * 5, index.byDistance(0, Double.POSITIVE_INFINITY, true, 0, 1).get(0).getRideId());
+
+        assertTrue(index.remove(86_400_000L * 5));
+        assertFalse(index.remove(86_400_000L * 5));
+        assertNull(index.get(86_400_000L * 5));
+        assertEquals(299, index.size());
+        assertEquals(299, index.countByDistance(0, Double.POSITIVE_INFINITY));
+    }
+
+    @Test
+    public void saveThenLoad_roundTripsTheSummaries() throws IOException {
+        File file = new File(Files.createTempDirectory("rides").toFile(), "rides.idx");
+        assertEquals(0, RideIndex.load(file).size()); // No file yet
+
+        history().save(file);
+        RideIndex loaded = RideIndex.load(file);
+        assertEquals(300, loaded.size());
+        RideSummary summary = loaded.get(86_400_000L * 42);
+        assertEquals(42 * 37 % 97 * 1000.0, summary.getDistanceMeters(), 0.0);
+        assertEquals(3_000_000, summary.getMovingTimeMs());
+        assertEquals(-35.0, summary.getMaxNegativeRoll(), 0.0);
+        assertEquals(9.1, summary.getLonEast(), 0.0);
+        assertEquals(1000, summary.getPointCount());
+        assertFalse(summary.hasImu());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test(expected = IOException.class)
+    public void load_rejectsTruncatedFiles() throws IOException {
+        File file = new File(Files.createTempDirectory("rides").toFile(), "rides.idx");
+        history().save(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 10);
+        }
+        RideIndex.load(file);
+    }
+}
@@ -0,0 +1,202 @@
+package com.gg.maiotproject.tiles;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class TileCacheTest {
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private String urlTemplate;
+    private File root;
+
+    // Stand-in tile server: answers /z/x/y.png with a body derived from the tile, 404 above zoom 18
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            String[] parts = exchange.getRequestURI().getPath().split("/");
+            int zoom = Integer.parseInt(parts[1]);
+            if (zoom > 18) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            byte[] body = tileBody(zoom, Integer.parseInt(parts[2]), Integer.parseInt(parts[3].replace(".png", "")));
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        urlTemplate = "http://127.0.0.1:" + server.getAddress().getPort() + "/{z}/{x}/{y}.png";
+        root = Files.createTempDirectory("tiles").toFile();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private static byte[] tileBody(int zoom, int x, int y) {
+        byte[] body = new byte[1000];
+        Arrays.fill(body, (byte) (zoom * 31 + x * 7 + y));
+        return body;
+    }
+
+    @Test
+    public void store_evictsLeastRecentlyUsedTilesBeyondTheBudget() throws IOException {
+        TileStore store = new TileStore(root, 3000);
+        store.put(15, 1, 1, tileBody(15, 1, 1));
+        store.put(15, 1, 2, tileBody(15, 1, 2));
+        store.put(15, 1, 3, tileBody(15, 1, 3));
+        assertNotNull(store.get(15, 1, 1)); // Now the most recently used
+
+        store.put(15, 1, 4, tileBody(15, 1, 4));
+
+        assertEquals(3000, store.getSizeBytes());
+        assertFalse(store.contains(15, 1, 2));
+        assertFalse(new File(root, "15/1/2.tile").exists());
+        assertArrayEquals(tileBody(15, 1, 1), store.get(15, 1, 1));
+        assertTrue(store.contains(15, 1, 3));
+        assertTrue(store.contains(15, 1, 4));
+    }
+
+    @Test
+    public void store_reloadsItsIndexFromDisk() throws IOException {
+        TileStore store = new TileStore(root, 1_000_000);
+        for (int y = 0; y < 10; y++) {
+            store.put(12, 5, y, tileBody(12, 5, y));
+        }
+
+        TileStore reopened = new TileStore(root, 1_000_000);
+        assertArrayEquals(tileBody(12, 5, 7), reopened.get(12, 5, 7));
+        assertEquals(10, reopened.getTileCount());
+        assertEquals(10_000, reopened.getSizeBytes());
+
+        reopened.setBudgetBytes(4000);
+        assertEquals(4, reopened.getTileCount());
+        assertTrue(reopened.contains(12, 5, 7)); // Just read, evicted last
+    }
+
+    @Test
+    public void cache_fetchesMissingTilesOnceAndCountsHits() throws IOException {
+        TileCache cache = new TileCache(new TileStore(root, 1_000_000), new HttpTileFetcher(urlTemplate, "test"));
+
+        assertArrayEquals(tileBody(16, 100, 200), cache.get(16, 100, 200));
+        assertArrayEquals(tileBody(16, 100, 200), cache.get(16, 100, 200));
+        assertArrayEquals(tileBody(16, 100, 200), cache.get(16, 100, 200));
+        assertNull(cache.get(19, 1, 1)); // Not on the server
+
+        assertEquals(2, requests.get());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate(), 0.0);
+        assertEquals(1000, cache.getFetchedBytes());
+
+        server.stop(0);
+        try {
+            cache.get(16, 100, 201);
+            fail("Expected the fetch to fail without a server");
+        } catch (IOException e) {
+            assertEquals(1, cache.getFailureCount());
+        }
+        assertNotNull(cache.get(16, 100, 200)); // Stored tiles are still served offline
+    }
+
+    @Test
+    public void corridor_followsTheHeading() {
+        double latitude = 45.0, longitude = 9.0;
+        int zoom = 17;
+        int x = TilePrefetcher.tileX(longitude, zoom), y = TilePrefetcher.tileY(latitude, zoom);
+        // Heading east for 2 km: tiles from the current one eastwards, none behind, about as wide as the corridor
+        long[] east = TilePrefetcher.planCorridor(latitude, longitude, 90.0, 2000.0, zoom, 1000);
+        assertEquals(TileStore.key(zoom, x, y), east[0]); // Nearest first
+        int maxX = x;
+        for (long key : east) {
+            int tileX = (int) ((key >>> 29) & 0x1FFFFFFF);
+            int tileY = (int) (key & 0x1FFFFFFF);
+            assertTrue(tileX >= x);
+            assertTrue(Math.abs(tileY - y) <= 2);
+            maxX = Math.max(maxX, tileX);
+        }
+        double tileMeters = 40075016.686 * Math.cos(Math.toRadians(latitude)) / (1 << zoom);
+        assertTrue(maxX - x >= (int) (2000 / tileMeters) - 1);
+
+        // Heading north: y decreases. The cap keeps the nearest tiles
+        long[] north = TilePrefetcher.planCorridor(latitude, longitude, 0.0, 2000.0, zoom, 12);
+        assertEquals(12, north.length);
+        for (long key : north) {
+            assertTrue((int) (key & 0x1FFFFFFF) <= y);
+            assertTrue((int) (key & 0x1FFFFFFF) >= y - 6);
+        }
+
+        // Unknown heading: the tiles around the position, starting with its own
+        long[] around = TilePrefetcher.planCorridor(latitude, longitude, Double.NaN, 2000.0, zoom, 9);
+        assertEquals(9, around.length);
+        assertEquals(TileStore.key(zoom, x, y), around[0]);
+    }
+
+    @Test
+    public void prefetcher_storesTheCorridorAheadFromTheServer() throws Exception {
+        TileCache cache = new TileCache(new TileStore(root, 10_000_000), new HttpTileFetcher(urlTemplate, "test"));
+        TilePrefetcher prefetcher = new TilePrefetcher(cache, 16, 18);
+
+        // 20 m/s looks 1800 m ahead, the plan is split between the two zoom levels
+        int planned = TilePrefetcher.planCorridor(45.0, 9.0, 45.0, 1800.0, 16, 48).length
+                + TilePrefetcher.planCorridor(45.0, 9.0, 45.0, 1800.0, 18, 48).length;
+        prefetcher.onLocation(45.0, 9.0, 45.0, 20.0);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (cache.getPrefetchedTileCount() < planned && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(planned, cache.getPrefetchedTileCount());
+        assertEquals(planned, requests.get());
+        int requestsAfterPlan = requests.get();
+
+        // Same place again: no new plan. The map then finds the tiles stored
+        prefetcher.onLocation(45.0001, 9.0001, 45.0, 20.0);
+        Thread.sleep(100);
+        assertEquals(requestsAfterPlan, requests.get());
+        assertNotNull(cache.get(18, TilePrefetcher.tileX(9.0, 18), TilePrefetcher.tileY(45.0, 18)));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @Test
+    public void store_importsTileArchives() throws IOException {
+        File archive = new File(root.getParentFile(), root.getName() + ".zip");
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(archive))) {
+            zip.putNextEntry(new ZipEntry("Mapnik/14/8500/5900.png"));
+            zip.write(tileBody(14, 8500, 5900));
+            zip.putNextEntry(new ZipEntry("Mapnik/14/8501/5900.png"));
+            zip.write(tileBody(14, 8501, 5900));
+            zip.putNextEntry(new ZipEntry("README.txt"));
+            zip.write(new byte[10]);
+            zip.putNextEntry(new ZipEntry("Mapnik/3/9/1.png")); // Outside the zoom level's range
+            zip.write(new byte[10]);
+        }
+
+        TileStore store = new TileStore(root, 1_000_000);
+        assertEquals(2, store.importArchive(archive));
+        assertArrayEquals(tileBody(14, 8501, 5900), store.get(14, 8501, 5900));
+        assertEquals(2000, store.getSizeBytes());
+    }
+}
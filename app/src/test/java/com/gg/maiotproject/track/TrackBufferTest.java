@@ -0,0 +1,68 @@
+package com.gg.maiotproject.track;
+
+import org.junit.Test;
+import org.osmdroid.util.GeoPoint;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TrackBufferTest {
+
+    private static void fill(TrackBuffer track, int count) {
+        for (int i = 0; i < count; i++) {
+            track.append(45.0 + i * 1e-5, 9.0 - i * 1e-5, 1000L * i, i % 30, i % 7 == 0 ? Float.NaN : 5.0f);
+        }
+    }
+
+    private static void assertContents(TrackView track, int count) {
+        assertEquals(count, track.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(45.0 + i * 1e-5, track.getLatitude(i), 0.0);
+            assertEquals(9.0 - i * 1e-5, track.getLongitude(i), 0.0);
+            assertEquals(1000L * i, track.getTime(i));
+            assertEquals(i % 30, track.getSpeed(i), 0.0f);
+            assertEquals(i % 7 == 0 ? Float.NaN : 5.0f, track.getAccuracy(i), 0.0f);
+        }
+    }
+
+    @Test
+    public void append_growsAcrossChunks() {
+        TrackBuffer track = new TrackBuffer();
+        fill(track, TrackBuffer.CHUNK_SIZE * 3 + 17);
+        assertContents(track, TrackBuffer.CHUNK_SIZE * 3 + 17);
+    }
+
+    @Test
+    public void boundedTrack_spillsOldChunksAndReadsThemBack() throws IOException {
+        File spillFile = File.createTempFile("track", ".spill");
+        TrackBuffer track = new TrackBuffer(2, spillFile);
+        int count = TrackBuffer.CHUNK_SIZE * 10 + 5;
+        fill(track, count);
+
+        assertEquals(2, track.getResidentChunkCount());
+        assertContents(track, count);
+        track.close();
+        assertFalse(spillFile.exists());
+    }
+
+    @Test
+    public void geoPointView_isLazyAndReflectsAppends() {
+        TrackBuffer track = new TrackBuffer();
+        List<GeoPoint> view = track.asGeoPoints();
+        assertTrue(view.isEmpty());
+
+        fill(track, 3);
+        assertEquals(3, view.size());
+        assertEquals(45.0 + 2e-5, view.get(2).getLatitude(), 0.0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void get_outOfRangeThrows() {
+        TrackBuffer track = new TrackBuffer();
+        fill(track, 1);
+        track.getLatitude(1);
+    }
+}
@@ -0,0 +1,112 @@
+package com.gg.maiotproject.track;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TrackCodecTest {
+
+    private static final int RAW_BYTES_PER_POINT = 5 * 8; // Five doubles
+
+    // A ride at 1 Hz: a winding road at varying speed with GPS jitter, a stop with missing speeds and a fix gap
+    static TrackBuffer ride(int points, long seed) {
+        Random random = new Random(seed);
+        TrackBuffer track = new TrackBuffer();
+        double lat = 45.4642, lon = 9.19, heading = 0, speed = 15;
+        long time = 1_622_536_200_000L;
+        for (int i = 0; i < points; i++) {
+            boolean stopped = i % 600 >= 570;
+            speed = stopped ? 0 : Math.max(3, Math.min(35, speed + random.nextGaussian() * 0.8));
+            heading += Math.sin(i / 20.0) * 4 + random.nextGaussian() * 2;
+            double meters = speed;
+            lat += meters * Math.cos(Math.toRadians(heading)) / 111_320.0 + random.nextGaussian() * 1e-6;
+            lon += meters * Math.sin(Math.toRadians(heading)) / (111_320.0 * Math.cos(Math.toRadians(lat))) + random.nextGaussian() * 1e-6;
+            time += i % 1000 == 999 ? 7000 : 1000;
+            float accuracy = i % 60 < 50 ? 3.9f : 4f + random.nextInt(8) / 2f;
+            track.append(lat, lon, time, stopped && i % 2 == 0 ? Float.NaN : (float) speed, accuracy);
+        }
+        return track;
+    }
+
+    static byte[] encode(TrackView track) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (TrackEncoder encoder = new TrackEncoder(bytes)) {
+            encoder.appendAll(track);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void roundTrip_isExactToTheFixedPointResolution() throws IOException {
+        TrackBuffer track = ride(3 * TrackEncoder.CHUNK_SIZE + 17, 1);
+        TrackDecoder decoder = new TrackDecoder(new ByteArrayInputStream(encode(track)));
+        int index = 0;
+        while (decoder.nextChunk()) {
+            assertTrue(decoder.size() <= TrackEncoder.CHUNK_SIZE);
+            for (int i = 0; i < decoder.size(); i++, index++) {
+                assertEquals(Math.round(track.getLatitude(index) * 1e6), decoder.getLatitudeE6(i));
+                assertEquals(Math.round(track.getLongitude(index) * 1e6), decoder.getLongitudeE6(i));
+                assertEquals(track.getLatitude(index), decoder.getLatitude(i), 0.6e-6);
+                assertEquals(track.getTime(index), decoder.getTime(i));
+                if (Float.isNaN(track.getSpeed(index))) {
+                    assertTrue(Float.isNaN(decoder.getSpeed(i)));
+                } else {
+                    assertEquals(track.getSpeed(index), decoder.getSpeed(i), 0.05f);
+                }
+                assertEquals(track.getAccuracy(index), decoder.getAccuracy(i), 0.05f);
+            }
+        }
+        assertEquals(track.size(), index);
+        assertEquals(track.size(), decoder.getPointsRead());
+        track.close();
+    }
+
+    @Test
+    public void extremeValues_andEmptyTracks_roundTrip() throws IOException {
+        TrackBuffer track = new TrackBuffer();
+        track.append(90, 180, 0, Float.NaN, Float.NaN);
+        track.append(-90, -180, Long.MAX_VALUE / 2, 0f, 0f);
+        track.append(0, 0, -1, 300f, 9999f);
+        TrackDecoder decoder = new TrackDecoder(new ByteArrayInputStream(encode(track)));
+        assertTrue(decoder.nextChunk());
+        assertEquals(3, decoder.size());
+        assertEquals(-180_000_000L, decoder.getLongitudeE6(1));
+        assertEquals(Long.MAX_VALUE / 2, decoder.getTime(1));
+        assertTrue(Float.isNaN(decoder.getAccuracy(0)));
+        assertEquals(9999f, decoder.getAccuracy(2), 0f);
+        assertFalse(decoder.nextChunk());
+        track.close();
+
+        TrackBuffer empty = new TrackBuffer();
+        TrackDecoder emptyDecoder = new TrackDecoder(new ByteArrayInputStream(encode(empty)));
+        assertFalse(emptyDecoder.nextChunk());
+        assertEquals(0, emptyDecoder.size());
+        empty.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void aTruncatedTrack_isRejected() throws IOException {
+        TrackBuffer track = ride(2000, 2);
+        byte[] bytes = encode(track);
+        track.close();
+        TrackDecoder decoder = new TrackDecoder(new ByteArrayInputStream(bytes, 0, bytes.length - 10));
+        while (decoder.nextChunk()) {
+            // The second chunk is cut short
+        }
+    }
+
+    @Test
+    public void aTypicalRide_isAnOrderOfMagnitudeSmallerThanRawDoubles() throws IOException {
+        TrackBuffer track = ride(3 * 3600, 3); // Three hours at 1 Hz
+        int raw = track.size() * RAW_BYTES_PER_POINT;
+        byte[] encoded = encode(track);
+
+        assertTrue("Only " + raw / (double) encoded.length + "x smaller", encoded.length * 10 <= raw);
+        track.close();
+    }
+}
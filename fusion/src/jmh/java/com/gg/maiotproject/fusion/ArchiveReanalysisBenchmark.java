@@ -0,0 +1,97 @@
+package com.gg.maiotproject.fusion;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+// Re-analysis of an archive of 64 one-minute rides (gyroscope at 400 Hz, accelerometer at 200 Hz, archived in
+// imu.blocks like the app does) on a pool of 1 to 8 threads, with 1 or 4 parameter sets per ride.
+// Each ride is decoded once whatever the number of parameter sets. With as many cores as threads, the time per
+// run should divide by the thread count. The metrics of each parameter set over the archive are printed at teardown.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ArchiveReanalysisBenchmark {
+
+    private static final int RIDES = 64;
+    private static final float ACCELEROMETER_RESOLUTION = 0.0023956299f;
+    private static final float GYROSCOPE_RESOLUTION = 0.0010652645f;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"1", "4"})
+    public int parameterSets;
+
+    private File dir;
+    private final List<ArchiveReanalysis.Ride> rides = new ArrayList<>();
+    private final List<FusionParameters> parameters = new ArrayList<>();
+    private ForkJoinPool pool;
+    private ArchiveReanalysis.Result result;
+
+    @Setup(Level.Trial)
+    public void recordRides() throws IOException {
+        dir = Files.createTempDirectory("reanalysis").toFile();
+        for (int r = 0; r < RIDES; r++) {
+            ImuTrace trace = ImuTrace.synthetic(60_000_000_000L, 2_500_000L, 5_000_000L, 20 + r % 25, 0.2, 2_000, r)
+                    .quantized(ACCELEROMETER_RESOLUTION, GYROSCOPE_RESOLUTION);
+            File ride = new File(dir, r + ".imu");
+            ride.mkdirs();
+            try (ImuBlockWriter writer = ImuBlockWriter.create(new File(ride, ImuBlockFile.FILE_NAME))
+                    .setResolution(FusionEngine.SENSOR_ACCELEROMETER, ACCELEROMETER_RESOLUTION)
+                    .setResolution(FusionEngine.SENSOR_GYROSCOPE, GYROSCOPE_RESOLUTION)) {
+                trace.read(writer);
+            }
+            rides.add(ArchiveReanalysis.recording(ride));
+        }
+        float[] alphas = {0.97f, 0.98f, 0.99f, 0.995f};
+        for (int p = 0; p < parameterSets; p++) {
+            parameters.add(FusionParameters.complementary(alphas[p]).withCalibration(2_000_000_000L));
+        }
+        pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteRides() {
+        pool.shutdown();
+        for (int p = 0; p < parameters.size() && result != null; p++) {
+            System.out.printf("%s: drift at stops %.3f deg (max %.3f), max lean %.1f / %.1f deg, %d corners%n",
+                    parameters.get(p), result.getMeanStopDrift(p), result.getMaxStopDrift(p),
+                    result.getMaxPositiveRoll(p), result.getMaxNegativeRoll(p), result.getCornerCount(p));
+        }
+        File[] rideDirs = dir.listFiles();
+        if (rideDirs != null) {
+            for (File ride : rideDirs) {
+                File[] files = ride.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+                ride.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public long reanalyseArchive() {
+        result = new ArchiveReanalysis(parameters).run(rides, pool, null);
+        return result.getSampleCount();
+    }
+}
@@ -0,0 +1,94 @@
+package com.gg.maiotproject.fusion;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Replays a whole IMU trace through a fusion engine per invocation, every engine on the same trace.
+// Scores are per trace; divide by the "samples" count printed at setup to get ns/sample, and the
+// gc profiler's gc.alloc.rate.norm by the same count to get bytes allocated per sample (expected 0).
+// The trace is a recorded ride when -DimuTrace=<"<rideId>.imu" directory> is set, a synthetic one otherwise.
+// Each engine's lean on the trace is printed at setup: its extremes and its mean offset from the accelerometer roll
+// (which does not drift, but is disturbed by vibration and cornering forces), as a recorded ride has no reference.
+@State(Scope.Thread)
+@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FusionBenchmark {
+
+    // 1 = sample by sample (live sensor delivery), 64 = the event bus batch size
+    @Param({"1", "64"})
+    public int runLength;
+
+    @Param({"COMPLEMENTARY", "QUATERNION"})
+    public FusionEngineType engine;
+
+    private ImuTrace trace;
+    private FusionEngine filter;
+
+    private static final FusionEngine.Listener NO_LISTENER = new FusionEngine.Listener() {
+        @Override
+        public void onNewMaxPositiveRoll(float roll) {
+        }
+
+        @Override
+        public void onNewMaxNegativeRoll(float roll) {
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void loadTrace() throws IOException {
+        String path = System.getProperty("imuTrace");
+        if (path != null && !path.isEmpty()) {
+            trace = ImuTrace.fromRecording(new File(path));
+        } else {
+            // One minute of riding, gyroscope at 400 Hz and accelerometer at 200 Hz
+            trace = ImuTrace.synthetic(60_000_000_000L, 2_500_000L, 5_000_000L, 40, 0.5, 42);
+        }
+        System.out.println("samples: " + trace.size());
+
+        FusionEngine lean = engine.create(NO_LISTENER);
+        lean.setTrackingMode(true);
+        double offsetSum = 0;
+        int offsetCount = 0;
+        for (int i = 0; i < trace.size(); i++) {
+            lean.onSample(trace.getSensorId(i), trace.getTimestamp(i), trace.getX(i), trace.getY(i), trace.getZ(i));
+            if (trace.getSensorId(i) == FusionEngine.SENSOR_ACCELEROMETER && lean.getFilteredRollTimestamp() != 0) {
+                offsetSum += lean.getFilteredRoll() - Math.toDegrees(Math.atan2(trace.getX(i), trace.getZ(i)));
+                offsetCount++;
+            }
+        }
+        System.out.printf("%s: mean offset from accelerometer %.2f deg, max %.1f / %.1f deg%n", lean.getName(),
+                offsetCount > 0 ? offsetSum / offsetCount : 0, lean.getMaxPositiveRoll(), lean.getMaxNegativeRoll());
+    }
+
+    @Setup(Level.Invocation)
+    public void resetFilter() {
+        filter = engine.create(NO_LISTENER);
+        filter.setTrackingMode(true);
+    }
+
+    @Benchmark
+    public float replay() {
+        trace.replay(filter, runLength);
+        return filter.getFilteredRoll();
+    }
+
+    // Cost of the accelerometer roll alone (atan2 + toDegrees), the most expensive call per sample
+    @Benchmark
+    public void accelerometerRoll(Blackhole blackhole) {
+        for (int i = 0; i < trace.size(); i++) {
+            blackhole.consume(Math.toDegrees(Math.atan2(trace.getX(i), trace.getZ(i))));
+        }
+    }
+}
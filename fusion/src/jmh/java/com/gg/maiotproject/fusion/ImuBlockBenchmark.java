@@ -0,0 +1,104 @@
+package com.gg.maiotproject.fusion;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+// Compression of ten minutes of IMU samples (gyroscope at 400 Hz, accelerometer at 200 Hz, readings quantized
+// like a MEMS driver's), per sample: encodeSample is ImuBlockWriter.add() on the recording thread, block encoding
+// and writes included; decodeSample reads a block back; decodeRandomBlock finds and decodes the block of a time.
+// The raw records take 24 bytes per sample, the compression ratios are printed at setup, with and without the
+// sensors' resolutions (XOR of the float bits only).
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ImuBlockBenchmark {
+
+    private static final float ACCELEROMETER_RESOLUTION = 0.0023956299f;
+    private static final float GYROSCOPE_RESOLUTION = 0.0010652645f;
+
+    private ImuTrace trace;
+    private File dir;
+    private ImuBlockFile blocks;
+    private final ImuBlockFile.Block block = new ImuBlockFile.Block();
+    private ImuBlockWriter writer;
+    private int sample = 0;
+    private int nextBlock = 0;
+
+    @Setup(Level.Trial)
+    public void recordRide() throws IOException {
+        trace = ImuTrace.synthetic(600_000_000_000L, 2_500_000L, 5_000_000L, 40, 0.5, 2_000, 42)
+                .quantized(ACCELEROMETER_RESOLUTION, GYROSCOPE_RESOLUTION);
+        dir = Files.createTempDirectory("imublocks").toFile();
+        File file = new File(dir, ImuBlockFile.FILE_NAME);
+        try (ImuBlockWriter ride = newWriter(file)) {
+            for (int i = 0; i < trace.size(); i++) {
+                ride.add(trace.getSensorId(i), trace.getTimestamp(i), trace.getX(i), trace.getY(i), trace.getZ(i));
+            }
+        }
+        File xorFile = new File(dir, "xor.blocks");
+        try (ImuBlockWriter ride = ImuBlockWriter.create(xorFile)) {
+            for (int i = 0; i < trace.size(); i++) {
+                ride.add(trace.getSensorId(i), trace.getTimestamp(i), trace.getX(i), trace.getY(i), trace.getZ(i));
+            }
+        }
+        blocks = ImuBlockFile.open(file);
+        writer = newWriter(new File(dir, "recording.blocks"));
+        System.out.printf("samples: %d, %.2f bytes/sample, %.1fx smaller than the raw records (%.1fx with XOR only)%n",
+                trace.size(), file.length() / (double) trace.size(), trace.size() * 24.0 / file.length(),
+                trace.size() * 24.0 / xorFile.length());
+    }
+
+    private static ImuBlockWriter newWriter(File file) throws IOException {
+        return ImuBlockWriter.create(file)
+                .setResolution(FusionEngine.SENSOR_ACCELEROMETER, ACCELEROMETER_RESOLUTION)
+                .setResolution(FusionEngine.SENSOR_GYROSCOPE, GYROSCOPE_RESOLUTION);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteRide() throws IOException {
+        writer.close();
+        blocks.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public void encodeSample() {
+        int i = sample;
+        writer.add(trace.getSensorId(i), trace.getTimestamp(i), trace.getX(i), trace.getY(i), trace.getZ(i));
+        sample = i + 1 == trace.size() ? 0 : i + 1;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ImuBlockFile.BLOCK_SAMPLES)
+    public float decodeSample() throws IOException {
+        blocks.decodeBlock(nextBlock, block);
+        nextBlock = nextBlock + 1 == blocks.getBlockCount() ? 0 : nextBlock + 1;
+        return block.xs[block.size - 1];
+    }
+
+    // The block of minute 7 and a half
+    @Benchmark
+    public float decodeRandomBlock() throws IOException {
+        blocks.decodeBlock(blocks.findBlock(trace.getTimestamp(0) + 450_000_000_000L), block);
+        return block.zs[0];
+    }
+}
@@ -0,0 +1,98 @@
+package com.gg.maiotproject.fusion;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Reads of the timeline of a 3-hour ride at 400 Hz (4.3 million samples), what SummaryActivity's chart does:
+// the whole ride on a ~540 px wide chart, a zoom on one minute, and a seek for the scrubbing cursor.
+// recordSample measures LeanTimelineWriter.add() on the fusion thread; the timeline grows with the iterations.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LeanTimelineBenchmark {
+
+    private static final long GYRO_PERIOD_NS = 2_500_000L;
+    private static final long RIDE_NS = 3 * 3600_000_000_000L;
+    private static final int CHART_BUCKETS = 540;
+    private static final int QUERY_COUNT = 1024;
+
+    private File dir;
+    private LeanTimeline timeline;
+    private final LeanTimeline.Chart chart = new LeanTimeline.Chart();
+    private final long[] queries = new long[QUERY_COUNT];
+    private int query = 0;
+
+    private LeanTimelineWriter writer;
+    private long recordNs = 0;
+
+    @Setup(Level.Trial)
+    public void recordRide() throws IOException {
+        dir = Files.createTempDirectory("lean").toFile();
+        Random random = new Random(42);
+        try (LeanTimelineWriter ride = LeanTimelineWriter.create(new File(dir, "ride.lean"))) {
+            for (long t = 0; t < RIDE_NS; t += GYRO_PERIOD_NS) {
+                ride.add(t + random.nextInt(50_000), (float) (40 * Math.sin(t / 4e9) + random.nextGaussian()));
+            }
+        }
+        timeline = LeanTimeline.open(new File(dir, "ride.lean"));
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            queries[i] = (long) (random.nextDouble() * RIDE_NS);
+        }
+        writer = LeanTimelineWriter.create(new File(dir, "recording.lean"));
+        System.out.println("samples: " + timeline.size() + ", levels: " + timeline.getLevelCount()
+                + ", " + new File(dir, "ride.lean").length() / (1024 * 1024) + " MB");
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteRide() {
+        writer.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private long nextQuery() {
+        query = (query + 1) & (QUERY_COUNT - 1);
+        return queries[query];
+    }
+
+    @Benchmark
+    public int chartWholeRide() {
+        return timeline.chart(timeline.getStartNs(), timeline.getEndNs() + 1, CHART_BUCKETS, chart);
+    }
+
+    // The minute from minute 97
+    @Benchmark
+    public int chartOneMinute() {
+        long from = timeline.getStartNs() + 97 * 60_000_000_000L;
+        return timeline.chart(from, from + 60_000_000_000L, CHART_BUCKETS, chart);
+    }
+
+    @Benchmark
+    public int seek() {
+        return timeline.seek(timeline.getStartNs() + nextQuery());
+    }
+
+    @Benchmark
+    public void recordSample() {
+        recordNs += GYRO_PERIOD_NS;
+        writer.add(recordNs, (float) (recordNs & 63));
+    }
+}
@@ -0,0 +1,383 @@
+package com.gg.maiotproject.fusion;
+
+import java.util.function.LongConsumer;
+
+// What every fusion engine shares: calibration, tracking mode, the alignment of the two sensor streams
+// and the listener callbacks. Subclasses only implement the attitude update.
+// It allocates nothing per sample.
+public abstract class AbstractFusionEngine implements FusionEngine {
+
+    private final Listener listener;
+    private LongConsumer updateCostRecorder = null;
+    private PublishedRoll publishedRoll = null;
+
+    private long lastGyroTimestamp = 0; // Store timestamp of previous gyro event
+    private static final float NS2S = 1.0f / 1000000000.0f;
+
+    // Calibration variables
+    private boolean isCalibrating = false;
+    private boolean isTrackingMode = false;
+
+    protected float avgGyroX_cal = 0.0f;
+    protected float avgGyroY_cal = 0.0f;
+    protected float avgGyroZ_cal = 0.0f;
+    protected float initialAccRoll_cal = 0.0f;
+
+    // Still samples collected while calibrating. Calibration finishes by itself once it is confident
+    private final StillnessCalibration stillnessCalibration = new StillnessCalibration();
+    private float calibrationProgress = 0.0f;
+    private static final float PROGRESS_STEP = 0.01f; // Progress is published in 1% steps
+
+    // Short window of each stream, used to fuse every gyro sample with the accelerometer reading at the same
+    // instant (linear interpolation between the two accelerometer samples around it). A gyro sample waits in
+    // its window until an accelerometer sample at least as recent arrives, or until it is MAX_ACC_WAIT_NS old.
+    private static final int ACC_WINDOW = 16;
+    private static final int GYRO_WINDOW = 64;
+    private static final long MAX_ACC_WAIT_NS = 50_000_000L;
+    private final long[] accTimestamps = new long[ACC_WINDOW];
+    private final float[] accXs = new float[ACC_WINDOW];
+    private final float[] accYs = new float[ACC_WINDOW];
+    private final float[] accZs = new float[ACC_WINDOW];
+    private int accNewest = -1; // Index of the newest accelerometer sample
+    private int accCount = 0;
+    private final long[] gyroTimestamps = new long[GYRO_WINDOW];
+    private final float[] gyroXs = new float[GYRO_WINDOW];
+    private final float[] gyroYs = new float[GYRO_WINDOW];
+    private final float[] gyroZs = new float[GYRO_WINDOW];
+    private int gyroOldest = 0;
+    private int gyroCount = 0;
+
+    // Accelerometer reading interpolated at the time of the gyro sample being fused
+    private float alignedAccX, alignedAccY, alignedAccZ;
+
+    // Set when the state changed since the last callbacks were sent
+    private boolean angleUpdated = false;
+    private boolean maxPositiveUpdated = false;
+    private boolean maxNegativeUpdated = false;
+    private boolean calibrationProgressUpdated = false;
+    private boolean calibrationComplete = false;
+
+    protected AbstractFusionEngine(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Back to the calibrated level position (called after calibration and when tracking starts)
+    protected abstract void resetAttitude();
+
+    // Clears the roll extremes (called when tracking starts)
+    protected abstract void resetMaxRoll();
+
+    // One fused gyro sample: rates in rad/s with the calibrated bias removed, the accelerometer reading
+    // at the same instant (only valid when hasAccReading) and the time since the previous gyro sample
+    protected abstract void update(float deltaTime, float gyroX, float gyroY, float gyroZ,
+                                   float accX, float accY, float accZ, boolean hasAccReading);
+
+    // Stores the state behind getFilteredRoll(), without trigonometry
+    protected abstract void publishRoll(PublishedRoll publishedRoll);
+
+    // Called by update() when the roll extremes grew, their callbacks are then sent with the next publication
+    protected final void maxPositiveRollChanged() {
+        maxPositiveUpdated = true;
+    }
+
+    protected final void maxNegativeRollChanged() {
+        maxNegativeUpdated = true;
+    }
+
+    @Override
+    public void setUpdateCostRecorder(LongConsumer updateCostRecorder) {
+        this.updateCostRecorder = updateCostRecorder;
+    }
+
+    @Override
+    public void setPublishedRoll(PublishedRoll publishedRoll) {
+        this.publishedRoll = publishedRoll;
+        if (publishedRoll != null) {
+            publishRoll(publishedRoll);
+        }
+    }
+
+    // Starts the calibration process. Resets accumulated calibration data
+    @Override
+    public void startCalibration() {
+        isCalibrating = true;
+        isTrackingMode = false;
+        stillnessCalibration.clear();
+        calibrationProgress = 0.0f;
+        calibrationComplete = false;
+
+        // Clear the sample windows to ensure a clean start
+        clearWindows();
+    }
+
+    // Finalizes the calibration process by setting the offsets from the current still window.
+    @Override
+    public void finalizeCalibration() {
+        isCalibrating = false;
+
+        // Means of the still window, 0 for a sensor without still samples.
+        // Each mean uses its own sample count, the two sensors may run at different rates
+        // Gyroscope average bias for each axis (then subtracted to gyro measures during tracking)
+        avgGyroX_cal = stillnessCalibration.getGyroBiasX();
+        avgGyroY_cal = stillnessCalibration.getGyroBiasY();
+        avgGyroZ_cal = stillnessCalibration.getGyroBiasZ();
+        // initialAccRoll_cal is the offset subtracted to from the live accelerometer roll
+        initialAccRoll_cal = stillnessCalibration.getLevelRoll();
+
+        // The displayed angle starts at 0 relative to the calibrated position
+        resetAttitude();
+
+        // Reset lastGyroTimestamp to ensure delta time is calculated correctly on first gyro reading after calibration
+        lastGyroTimestamp = 0;
+    }
+
+    @Override
+    public void cancelCalibration() {
+        isCalibrating = false;
+    }
+
+    @Override
+    public StillnessCalibration getStillnessCalibration() {
+        return stillnessCalibration;
+    }
+
+    // Moves the progress and finishes the calibration as soon as it is confident
+    private void updateCalibration() {
+        if (stillnessCalibration.isConfident()) {
+            finalizeCalibration();
+            calibrationProgress = 1.0f;
+            calibrationComplete = true;
+            calibrationProgressUpdated = true;
+            return;
+        }
+        float progress = stillnessCalibration.getProgress();
+        if (Math.abs(progress - calibrationProgress) >= PROGRESS_STEP || (progress == 0.0f && calibrationProgress != 0.0f)) {
+            calibrationProgress = progress;
+            calibrationProgressUpdated = true;
+        }
+    }
+
+    @Override
+    public void getCalibration(float[] calibration) {
+        calibration[0] = avgGyroX_cal;
+        calibration[1] = avgGyroY_cal;
+        calibration[2] = avgGyroZ_cal;
+        calibration[3] = initialAccRoll_cal;
+    }
+
+    @Override
+    public void setCalibration(float[] calibration) {
+        avgGyroX_cal = calibration[0];
+        avgGyroY_cal = calibration[1];
+        avgGyroZ_cal = calibration[2];
+        initialAccRoll_cal = calibration[3];
+        resetAttitude();
+    }
+
+    // Controls whether the engine should actively process data
+    @Override
+    public void setTrackingMode(boolean trackingMode) {
+        if (!trackingMode && isTrackingMode) {
+            // Gyro samples still waiting for an accelerometer reading are fused with the newest one
+            fuseWaitingGyroSamples(true);
+            publishUpdates();
+        }
+        this.isTrackingMode = trackingMode;
+        if (trackingMode) {
+            // Reset max angles when starting a new journey
+            resetMaxRoll();
+            // Also explicitly reset the attitude to level at the start of tracking.
+            // This ensures that even if there was some drift between calibration and start button press,
+            // the new journey starts from an assumed level/zero.
+            resetAttitude();
+            lastGyroTimestamp = 0; // Reset timestamp for fresh start
+            clearWindows();
+        }
+    }
+
+    @Override
+    public boolean isTrackingMode() {
+        return isTrackingMode;
+    }
+
+    @Override
+    public boolean isCalibrating() {
+        return isCalibrating;
+    }
+
+    private void clearWindows() {
+        accNewest = -1;
+        accCount = 0;
+        gyroOldest = 0;
+        gyroCount = 0;
+    }
+
+    @Override
+    public void onSample(int sensorId, long timestampNs, float x, float y, float z) {
+        addSample(sensorId, timestampNs, x, y, z);
+        publishUpdates();
+    }
+
+    @Override
+    public void onSamples(int[] sensorIds, long[] timestampsNs, float[] xs, float[] ys, float[] zs, int count) {
+        for (int i = 0; i < count; i++) {
+            addSample(sensorIds[i], timestampsNs[i], xs[i], ys[i], zs[i]);
+        }
+        publishUpdates();
+    }
+
+    private void addSample(int sensorId, long timestampNs, float x, float y, float z) {
+        if (sensorId == SENSOR_GYROSCOPE) {
+            addGyroscopeSample(x, y, z, timestampNs);
+        } else if (sensorId == SENSOR_ACCELEROMETER) {
+            addAccelerometerSample(x, y, z, timestampNs);
+        }
+    }
+
+    @Override
+    public long getFilteredRollTimestamp() {
+        return lastGyroTimestamp;
+    }
+
+    private void addAccelerometerSample(float AccX, float AccY, float AccZ, long timestamp) {
+        if (isCalibrating) {
+            // It accumulates raw accelerometer roll angle
+            stillnessCalibration.addAccelerometer(AccX, AccY, AccZ, timestamp);
+            updateCalibration();
+        } else if (isTrackingMode) {
+            if (accCount > 0 && timestamp <= accTimestamps[accNewest]) {
+                return; // Out of order or repeated sample
+            }
+            accNewest = (accNewest + 1) % ACC_WINDOW;
+            accTimestamps[accNewest] = timestamp;
+            accXs[accNewest] = AccX;
+            accYs[accNewest] = AccY;
+            accZs[accNewest] = AccZ;
+            if (accCount < ACC_WINDOW) {
+                accCount++;
+            }
+            // Gyro samples waiting for this accelerometer sample can now be fused
+            fuseWaitingGyroSamples(false);
+        }
+    }
+
+    private void addGyroscopeSample(float RotX, float RotY, float RotZ, long timestamp) {
+        if (isCalibrating) {
+            stillnessCalibration.addGyroscope(RotX, RotY, RotZ, timestamp);
+            updateCalibration();
+        } else if (isTrackingMode) {
+            if (gyroCount == GYRO_WINDOW) {
+                fuseOldestGyroSample(); // Window full: do not wait any longer for the accelerometer
+            }
+            int slot = (gyroOldest + gyroCount) % GYRO_WINDOW;
+            gyroTimestamps[slot] = timestamp;
+            gyroXs[slot] = RotX;
+            gyroYs[slot] = RotY;
+            gyroZs[slot] = RotZ;
+            gyroCount++;
+            fuseWaitingGyroSamples(false);
+        }
+    }
+
+    // Fuses, oldest first, the gyro samples that have an accelerometer reading at their time.
+    // Samples older than MAX_ACC_WAIT_NS (relative to the newest gyro sample) are fused with the newest
+    // accelerometer reading, so a slow or stopped accelerometer never holds the angle back
+    private void fuseWaitingGyroSamples(boolean all) {
+        while (gyroCount > 0) {
+            long timestamp = gyroTimestamps[gyroOldest];
+            long newestGyro = gyroTimestamps[(gyroOldest + gyroCount - 1) % GYRO_WINDOW];
+            boolean hasAccReading = accCount > 0 && timestamp <= accTimestamps[accNewest];
+            if (!all && !hasAccReading && newestGyro - timestamp < MAX_ACC_WAIT_NS) {
+                return;
+            }
+            fuseOldestGyroSample();
+        }
+    }
+
+    private void fuseOldestGyroSample() {
+        long timestamp = gyroTimestamps[gyroOldest];
+        float RotX = gyroXs[gyroOldest];
+        float RotY = gyroYs[gyroOldest];
+        float RotZ = gyroZs[gyroOldest];
+        gyroOldest = (gyroOldest + 1) % GYRO_WINDOW;
+        gyroCount--;
+
+        if (lastGyroTimestamp != 0) {
+            long updateStartNs = updateCostRecorder != null ? System.nanoTime() : 0;
+            float deltaTime = (timestamp - lastGyroTimestamp) * NS2S;
+            boolean hasAccReading = accCount > 0;
+            if (hasAccReading) {
+                alignAccelerometerAt(timestamp);
+            }
+            // Gyroscope bias compensation
+            update(deltaTime, RotX - avgGyroX_cal, RotY - avgGyroY_cal, RotZ - avgGyroZ_cal,
+                    alignedAccX, alignedAccY, alignedAccZ, hasAccReading);
+
+            if (updateCostRecorder != null) {
+                updateCostRecorder.accept(System.nanoTime() - updateStartNs);
+            }
+            angleUpdated = true;
+            if (listener.wantsFusedSamples()) {
+                listener.onFusedSample(getFilteredRoll(), yawRate(RotX - avgGyroX_cal, RotZ - avgGyroZ_cal), timestamp);
+            }
+        }
+        lastGyroTimestamp = timestamp; // Update timestamp AFTER calculation
+    }
+
+    // Rotation rate around the vertical in deg/s: the gyro rates projected on the gravity direction of the current
+    // roll, (sin, 0, cos) of the absolute roll in the device frame like atan2(AccX, AccZ)
+    private float yawRate(float gyroX, float gyroZ) {
+        double roll = Math.toRadians(getFilteredRoll() + initialAccRoll_cal);
+        return (float) Math.toDegrees(gyroX * Math.sin(roll) + gyroZ * Math.cos(roll));
+    }
+
+    // Accelerometer reading at the given time, interpolated between the two samples around it.
+    // Outside the window the closest sample is used
+    private void alignAccelerometerAt(long timestamp) {
+        int after = accNewest;
+        for (int i = 0; i < accCount; i++) {
+            int index = (accNewest - i + ACC_WINDOW) % ACC_WINDOW;
+            if (accTimestamps[index] <= timestamp) {
+                float x = accXs[index];
+                float y = accYs[index];
+                float z = accZs[index];
+                if (index != after) {
+                    float fraction = (float) (timestamp - accTimestamps[index]) / (accTimestamps[after] - accTimestamps[index]);
+                    x += (accXs[after] - x) * fraction;
+                    y += (accYs[after] - y) * fraction;
+                    z += (accZs[after] - z) * fraction;
+                }
+                alignedAccX = x;
+                alignedAccY = y;
+                alignedAccZ = z;
+                return;
+            }
+            after = index;
+        }
+        alignedAccX = accXs[after];
+        alignedAccY = accYs[after];
+        alignedAccZ = accZs[after];
+    }
+
+    // Sends the callbacks for what changed since the last call
+    private void publishUpdates() {
+        if (calibrationProgressUpdated) {
+            calibrationProgressUpdated = false;
+            listener.onCalibrationProgress(calibrationProgress, calibrationComplete);
+        }
+        if (maxPositiveUpdated) {
+            maxPositiveUpdated = false;
+            listener.onNewMaxPositiveRoll(getMaxPositiveRoll());
+        }
+        if (maxNegativeUpdated) {
+            maxNegativeUpdated = false;
+            listener.onNewMaxNegativeRoll(getMaxNegativeRoll());
+        }
+        if (angleUpdated) {
+            angleUpdated = false;
+            if (publishedRoll != null) {
+                publishRoll(publishedRoll);
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.gg.maiotproject.fusion;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Re-runs the fusion over a whole archive of recorded rides with one or more FusionParameters, to compare them.
+// The rides are split in halves down to single rides (RecursiveAction), so the pool's work stealing keeps every
+// thread busy whatever the length of each ride. Each ride is read once and streamed through one RideAnalysis per
+// parameter set: memory is a few blocks per thread, not the rides, and a run scales with the pool's threads as
+// long as there are more rides than threads. The pool decides where it runs: all the cores of a desktop, or a small
+// pool of low priority threads on the phone.
+// A ride that cannot be read or analysed (an I/O error, or a runtime exception from its samples) is reported in the
+// result without stopping the others. cancel() stops the run within
+// CANCEL_CHECK_SAMPLES samples of every thread, run() then throws a CancellationException.
+public final class ArchiveReanalysis {
+
+    private static final int CANCEL_CHECK_SAMPLES = 1 << 16;
+
+    // A recorded ride: each read() visits all its samples in recording order and returns how many
+    public interface Ride {
+        String getName();
+
+        long read(ImuRecordReader.RecordVisitor visitor) throws IOException;
+    }
+
+    // Called from the pool's threads after each ride, in no particular order
+    public interface ProgressListener {
+        void onProgress(int ridesDone, int rideCount);
+    }
+
+    private final List<FusionParameters> parameterSets;
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+    private final AtomicInteger ridesDone = new AtomicInteger(0);
+
+    public ArchiveReanalysis(List<FusionParameters> parameterSets) {
+        if (parameterSets.isEmpty()) {
+            throw new IllegalArgumentException("No parameter set");
+        }
+        this.parameterSets = new ArrayList<>(parameterSets);
+    }
+
+    // A "<rideId>.imu" directory, archived or not (see ImuTrace.readRecording())
+    public static Ride recording(final File directory) {
+        return new Ride() {
+            @Override
+            public String getName() {
+                return directory.getName();
+            }
+
+            @Override
+            public long read(ImuRecordReader.RecordVisitor visitor) throws IOException {
+                return ImuTrace.readRecording(directory, visitor);
+            }
+        };
+    }
+
+    // A trace already in memory, e.g. a synthetic one
+    public static Ride trace(final String name, final ImuTrace trace) {
+        return new Ride() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public long read(ImuRecordReader.RecordVisitor visitor) {
+                return trace.read(visitor);
+            }
+        };
+    }
+
+    // Blocks until every ride has been analysed. Can be called once; a run cancelled before it starts analyses nothing
+    public Result run(List<Ride> rides, ForkJoinPool pool, ProgressListener listener) {
+        rides = new ArrayList<>(rides);
+        Result result = new Result(rides, parameterSets);
+        if (!rides.isEmpty()) {
+            pool.invoke(new RideRange(rides, result, listener, 0, rides.size()));
+        }
+        if (cancelled.get()) {
+            throw new CancellationException("Reanalysis cancelled after " + ridesDone.get() + " of " + rides.size() + " rides");
+        }
+        return result;
+    }
+
+    // Any thread
+    public void cancel() {
+        cancelled.set(true);
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    private final class RideRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Ride> rides;
+        private final Result result;
+        private final ProgressListener listener;
+        private final int from;
+        private final int to;
+
+        RideRange(List<Ride> rides, Result result, ProgressListener listener, int from, int to) {
+            this.rides = rides;
+            this.result = result;
+            this.listener = listener;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled.get()) {
+                return;
+            }
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RideRange(rides, result, listener, from, middle), new RideRange(rides, result, listener, middle, to));
+                return;
+            }
+            analyse(from);
+        }
+
+        private void analyse(int index) {
+            final RideAnalysis[] analyses = new RideAnalysis[parameterSets.size()];
+            for (int p = 0; p < analyses.length; p++) {
+                analyses[p] = new RideAnalysis(parameterSets.get(p));
+            }
+            final int[] untilCheck = {CANCEL_CHECK_SAMPLES};
+            RideMetrics[] rideMetrics = new RideMetrics[analyses.length];
+            try {
+                rides.get(index).read((sensorId, timestampNs, x, y, z) -> {
+                    if (--untilCheck[0] == 0) {
+                        if (cancelled.get()) {
+                            throw new CancellationException();
+                        }
+                        untilCheck[0] = CANCEL_CHECK_SAMPLES;
+                    }
+                    for (RideAnalysis analysis : analyses) {
+                        analysis.onRecord(sensorId, timestampNs, x, y, z);
+                    }
+                });
+                for (int p = 0; p < analyses.length; p++) {
+                    rideMetrics[p] = analyses[p].finish();
+                }
+                result.metrics[index] = rideMetrics;
+            } catch (CancellationException e) {
+                return; // run() reports it
+            } catch (IOException | RuntimeException e) {
+                result.errors[index] = e; // A failed ride has no metrics with any parameter set
+            }
+            int done = ridesDone.incrementAndGet();
+            if (listener != null) {
+                listener.onProgress(done, rides.size());
+            }
+        }
+    }
+
+    // Metrics of every ride with every parameter set, and their totals per parameter set to compare them.
+    // Each ride's slot is written by one task only, and invoke() returning publishes them all
+    public static final class Result {
+        private final List<String> rideNames;
+        private final List<FusionParameters> parameterSets;
+        private final RideMetrics[][] metrics;
+        private final Exception[] errors;
+
+        private Result(List<Ride> rides, List<FusionParameters> parameterSets) {
+            List<String> names = new ArrayList<>(rides.size());
+            for (Ride ride : rides) {
+                names.add(ride.getName());
+            }
+            this.rideNames = Collections.unmodifiableList(names);
+            this.parameterSets = Collections.unmodifiableList(parameterSets);
+            this.metrics = new RideMetrics[rides.size()][parameterSets.size()];
+            this.errors = new Exception[rides.size()];
+        }
+
+        public int getRideCount() {
+            return rideNames.size();
+        }
+
+        public String getRideName(int ride) {
+            return rideNames.get(ride);
+        }
+
+        public List<FusionParameters> getParameterSets() {
+            return parameterSets;
+        }
+
+        // null when the ride failed, see getError()
+        public RideMetrics getMetrics(int ride, int parameterSet) {
+            return metrics[ride][parameterSet];
+        }
+
+        // The IOException or RuntimeException that failed the ride, null when it was analysed
+        public Exception getError(int ride) {
+            return errors[ride];
+        }
+
+        public int getFailedRideCount() {
+            int failed = 0;
+            for (Exception error : errors) {
+                if (error != null) {
+                    failed++;
+                }
+            }
+            return failed;
+        }
+
+        public long getSampleCount() {
+            long samples = 0;
+            for (RideMetrics[] ride : metrics) {
+                if (ride[0] != null) {
+                    samples += ride[0].sampleCount;
+                }
+            }
+            return samples;
+        }
+
+        // Mean drift over the accelerometer samples at stops of every ride, NaN without any stop
+        public double getMeanStopDrift(int parameterSet) {
+            double sum = 0.0;
+            long count = 0;
+            for (RideMetrics[] ride : metrics) {
+                RideMetrics m = ride[parameterSet];
+                if (m != null && m.driftSampleCount > 0) {
+                    sum += m.meanStopDrift * m.driftSampleCount;
+                    count += m.driftSampleCount;
+                }
+            }
+            return count > 0 ? sum / count : Double.NaN;
+        }
+
+        public float getMaxStopDrift(int parameterSet) {
+            float max = 0.0f;
+            for (RideMetrics[] ride : metrics) {
+                if (ride[parameterSet] != null) {
+                    max = Math.max(max, ride[parameterSet].maxStopDrift);
+                }
+            }
+            return max;
+        }
+
+        public float getMaxPositiveRoll(int parameterSet) {
+            float max = 0.0f;
+            for (RideMetrics[] ride : metrics) {
+                if (ride[parameterSet] != null) {
+                    max = Math.max(max, ride[parameterSet].maxPositiveRoll);
+                }
+            }
+            return max;
+        }
+
+        public float getMaxNegativeRoll(int parameterSet) {
+            float min = 0.0f;
+            for (RideMetrics[] ride : metrics) {
+                if (ride[parameterSet] != null) {
+                    min = Math.min(min, ride[parameterSet].maxNegativeRoll);
+                }
+            }
+            return min;
+        }
+
+        public int getCornerCount(int parameterSet) {
+            int corners = 0;
+            for (RideMetrics[] ride : metrics) {
+                if (ride[parameterSet] != null) {
+                    corners += ride[parameterSet].getCornerCount();
+                }
+            }
+            return corners;
+        }
+    }
+}
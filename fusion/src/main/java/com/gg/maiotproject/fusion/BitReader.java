@@ -0,0 +1,48 @@
+package com.gg.maiotproject.fusion;
+
+import java.io.IOException;
+
+// Reads back what BitWriter wrote, from a byte array range
+final class BitReader {
+
+    private byte[] bytes;
+    private int position;
+    private int limit;
+    private long accumulator;
+    private int availableBits;
+
+    void reset(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        position = offset;
+        limit = offset + length;
+        accumulator = 0;
+        availableBits = 0;
+    }
+
+    boolean readBit() throws IOException {
+        return read(1) != 0;
+    }
+
+    // width bits as an unsigned value, 1 <= width <= 64
+    long read(int width) throws IOException {
+        if (width > 32) {
+            long high = read(width - 32);
+            return (high << 32) | read(32);
+        }
+        while (availableBits < width) {
+            if (position == limit) {
+                throw new IOException("Corrupted IMU block");
+            }
+            accumulator = (accumulator << 8) | (bytes[position++] & 0xFF);
+            availableBits += 8;
+        }
+        availableBits -= width;
+        return (accumulator >>> availableBits) & ((1L << width) - 1);
+    }
+
+    // width bits as a two's complement value
+    long readSigned(int width) throws IOException {
+        long value = read(width);
+        return (value << (64 - width)) >> (64 - width);
+    }
+}
@@ -0,0 +1,54 @@
+package com.gg.maiotproject.fusion;
+
+import java.util.Arrays;
+
+// Bit-granular writer used by the IMU block codec, most significant bit first, into a growable byte array
+final class BitWriter {
+
+    private byte[] bytes = new byte[4096];
+    private int byteCount = 0;
+    private long accumulator = 0; // Only the low pendingBits bits are meaningful
+    private int pendingBits = 0;
+
+    void reset() {
+        byteCount = 0;
+        accumulator = 0;
+        pendingBits = 0;
+    }
+
+    void writeBit(boolean bit) {
+        write(bit ? 1 : 0, 1);
+    }
+
+    // The low width bits of value, 1 <= width <= 64
+    void write(long value, int width) {
+        if (width > 32) {
+            write(value >>> 32, width - 32);
+            width = 32;
+        }
+        accumulator = (accumulator << width) | (value & ((1L << width) - 1));
+        pendingBits += width;
+        while (pendingBits >= 8) {
+            pendingBits -= 8;
+            if (byteCount == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[byteCount++] = (byte) (accumulator >>> pendingBits);
+        }
+    }
+
+    // Pads the last byte with zeros; the written bytes are then bytes()[0, size())
+    void flush() {
+        if (pendingBits > 0) {
+            write(0, 8 - pendingBits);
+        }
+    }
+
+    byte[] bytes() {
+        return bytes;
+    }
+
+    int size() {
+        return byteCount;
+    }
+}
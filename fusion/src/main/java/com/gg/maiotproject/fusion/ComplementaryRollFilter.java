@@ -0,0 +1,106 @@
+package com.gg.maiotproject.fusion;
+
+// Complementary filter estimating the roll (bank) angle only, from the gyroscope X rate and the accelerometer roll.
+// Plain Java with no Android dependency, so it can be unit tested and benchmarked on the JVM.
+// The filter is not synchronized: all its methods must be called from the same thread.
+// It allocates nothing per sample.
+public class ComplementaryRollFilter extends AbstractFusionEngine {
+
+    // Complementary filter constant:
+    // ALPHA = 0.97f  -->  97% weight from previous filtered state (gyro integrated)
+    //                     3% weight from accelerometer (for drift correction).
+    public static final float DEFAULT_ALPHA = 0.97f;
+
+    private final float alpha;
+
+    private float filteredRoll = 0.0f;
+    private float maxPositiveRoll = 0.0f;
+    private float maxNegativeRoll = 0.0f;
+
+    public ComplementaryRollFilter(Listener listener) {
+        this(listener, DEFAULT_ALPHA);
+    }
+
+    // Another constant, e.g. to re-run recorded rides with it (see FusionParameters)
+    public ComplementaryRollFilter(Listener listener, float alpha) {
+        super(listener);
+        this.alpha = alpha;
+    }
+
+    @Override
+    public String getName() {
+        return "complementary";
+    }
+
+    @Override
+    protected void resetAttitude() {
+        // 0 represents the calibrated "level" state
+        filteredRoll = 0.0f;
+    }
+
+    @Override
+    protected void resetMaxRoll() {
+        maxPositiveRoll = 0.0f;
+        maxNegativeRoll = 0.0f;
+    }
+
+    @Override
+    protected void update(float deltaTime, float gyroX, float gyroY, float gyroZ,
+                          float accX, float accY, float accZ, boolean hasAccReading) {
+        // 1. Conversion from rad/s to the degrees used for the roll
+        float calibratedRotX = (float) Math.toDegrees(gyroX);
+
+        // 2. Integrate gyroscope data to predict the new angle
+        float gyroIntegratedRoll = filteredRoll + (calibratedRotX * deltaTime);
+
+        if (hasAccReading) {
+            // 3. Accelerometer-derived roll angle at the time of the gyro sample
+            float calibratedAccRoll = (float) Math.toDegrees(Math.atan2(accX, accZ)) - initialAccRoll_cal;
+
+            // 4. Combine gyroscope prediction with accelerometer correction using the complementary filter
+            filteredRoll = alpha * gyroIntegratedRoll + (1 - alpha) * calibratedAccRoll;
+        } else {
+            filteredRoll = gyroIntegratedRoll; // No accelerometer reading yet
+        }
+
+        updateMaxRollAngles(filteredRoll);
+    }
+
+    private void updateMaxRollAngles(float roll) {
+        if (roll > maxPositiveRoll) {
+            maxPositiveRoll = roll;
+            maxPositiveRollChanged();
+        }
+        if (roll < maxNegativeRoll) {
+            maxNegativeRoll = roll;
+            maxNegativeRollChanged();
+        }
+    }
+
+    @Override
+    protected void publishRoll(PublishedRoll publishedRoll) {
+        publishedRoll.setRoll(filteredRoll);
+    }
+
+    @Override
+    public float getFilteredRoll() {
+        return filteredRoll;
+    }
+
+    @Override
+    public float getMaxPositiveRoll() {
+        return maxPositiveRoll;
+    }
+
+    @Override
+    public float getMaxNegativeRoll() {
+        return maxNegativeRoll;
+    }
+
+    @Override
+    public void getAttitude(float[] rollPitchYaw) {
+        rollPitchYaw[0] = filteredRoll;
+        rollPitchYaw[1] = Float.NaN;
+        rollPitchYaw[2] = Float.NaN;
+    }
+}
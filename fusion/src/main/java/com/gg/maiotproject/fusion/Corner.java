@@ -0,0 +1,37 @@
+package com.gg.maiotproject.fusion;
+
+// One corner found by CornerDetector. Times are sensor timestamps in ns, leans in degrees (positive to the left).
+// The position is the latest GPS fix when the apex was reached, NaN when there was none.
+public final class Corner {
+
+    public final long entryNs;      // Last moment the bike was upright before the corner
+    public final long apexNs;       // Moment of the peak lean
+    public final long exitNs;       // Back upright, or no longer turning
+    public final float peakLean;    // Signed: positive for a left-hander
+    public final float meanLean;    // Mean absolute lean between entry and exit
+    public final long timeAtLeanNs; // Time leaned beyond the detector's entry lean
+    public final float peakYawRate; // deg/s, absolute
+    public final double apexLatitude;
+    public final double apexLongitude;
+
+    public Corner(long entryNs, long apexNs, long exitNs, float peakLean, float meanLean, long timeAtLeanNs,
+                  float peakYawRate, double apexLatitude, double apexLongitude) {
+        this.entryNs = entryNs;
+        this.apexNs = apexNs;
+        this.exitNs = exitNs;
+        this.peakLean = peakLean;
+        this.meanLean = meanLean;
+        this.timeAtLeanNs = timeAtLeanNs;
+        this.peakYawRate = peakYawRate;
+        this.apexLatitude = apexLatitude;
+        this.apexLongitude = apexLongitude;
+    }
+
+    public boolean isLeft() {
+        return peakLean > 0;
+    }
+
+    public long getDurationNs() {
+        return exitNs - entryNs;
+    }
+}
@@ -0,0 +1,141 @@
+package com.gg.maiotproject.fusion;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Splits the fused roll stream into corners as it arrives, and keeps the ride's time-in-lean histogram.
+// A corner opens when the bike leans beyond ENTRY_LEAN_DEG while turning faster than ENTRY_YAW_RATE, and closes
+// when it is back under EXIT_LEAN_DEG or turns slower than EXIT_YAW_RATE (hysteresis, so sensor noise around a
+// threshold does not split a corner). Its entry is the last upright sample before it opened, so the roll-in counts.
+// Only the corner being ridden is kept open, in a few fields: constant time per sample and no pass over the samples
+// after the ride. Not synchronized: called from the fusion thread only.
+public final class CornerDetector {
+
+    public static final float ENTRY_LEAN_DEG = 12f;
+    public static final float EXIT_LEAN_DEG = 6f;
+    public static final float ENTRY_YAW_RATE = 8f;   // deg/s
+    public static final float EXIT_YAW_RATE = 4f;
+    private static final long MIN_CORNER_NS = 1_000_000_000L; // Shorter ones are swerves, not corners
+    private static final long MAX_GAP_NS = 1_000_000_000L;    // Samples further apart (a pause) close the corner
+
+    // Position of the rider at the apex, read on the fusion thread (e.g. the latest GPS fix)
+    public interface PositionSource {
+        // Fills latLon and returns true, false when there is no position yet
+        boolean getPosition(double[] latLon);
+    }
+
+    private final PositionSource positionSource;
+    private final LeanHistogram histogram = new LeanHistogram();
+    private final List<Corner> corners = new ArrayList<>();
+    private final double[] position = new double[2];
+
+    private long lastNs = 0;
+    private long uprightNs = 0;   // Last sample under EXIT_LEAN_DEG
+    private double rollInSum = 0; // deg x ns since then, the roll-in of the next corner
+
+    // The open corner
+    private boolean open = false;
+    private long entryNs, apexNs;
+    private float peakLean, peakYawRate;
+    private double leanSum;       // deg x ns, for the mean
+    private long timeAtLeanNs;
+    private double apexLatitude, apexLongitude;
+
+    public CornerDetector(PositionSource positionSource) {
+        this.positionSource = positionSource;
+    }
+
+    public void add(long timestampNs, float roll, float yawRate) {
+        long dt = lastNs == 0 ? 0 : timestampNs - lastNs;
+        if (dt < 0) {
+            return; // Out of order
+        }
+        if (lastNs == 0) {
+            uprightNs = timestampNs;
+        }
+        if (dt > MAX_GAP_NS) {
+            close(lastNs);
+            dt = 0;
+            uprightNs = timestampNs;
+            rollInSum = 0.0;
+        }
+        lastNs = timestampNs;
+        histogram.add(roll, dt);
+
+        float lean = Math.abs(roll);
+        float turn = Math.abs(yawRate);
+        if (open) {
+            if (lean < EXIT_LEAN_DEG || turn < EXIT_YAW_RATE || (roll > 0) != (peakLean > 0)) {
+                close(timestampNs);
+            } else {
+                leanSum += (double) lean * dt;
+                if (lean >= ENTRY_LEAN_DEG) {
+                    timeAtLeanNs += dt;
+                }
+                peakYawRate = Math.max(peakYawRate, turn);
+                if (lean > Math.abs(peakLean)) {
+                    setApex(timestampNs, roll);
+                }
+                return;
+            }
+        }
+        if (lean < EXIT_LEAN_DEG) {
+            uprightNs = timestampNs;
+            rollInSum = 0.0;
+            return;
+        }
+        rollInSum += (double) lean * dt;
+        if (lean >= ENTRY_LEAN_DEG && turn >= ENTRY_YAW_RATE) {
+            open = true;
+            entryNs = uprightNs;
+            leanSum = rollInSum;
+            timeAtLeanNs = dt;
+            peakYawRate = turn;
+            setApex(timestampNs, roll);
+        }
+    }
+
+    private void setApex(long timestampNs, float roll) {
+        apexNs = timestampNs;
+        peakLean = roll;
+        if (positionSource != null && positionSource.getPosition(position)) {
+            apexLatitude = position[0];
+            apexLongitude = position[1];
+        } else {
+            apexLatitude = Double.NaN;
+            apexLongitude = Double.NaN;
+        }
+    }
+
+    private void close(long exitNs) {
+        if (!open) {
+            return;
+        }
+        open = false;
+        uprightNs = exitNs; // A corner right after another one (an S-bend) starts where the previous one ended
+        rollInSum = 0.0;
+        long duration = exitNs - entryNs;
+        if (duration >= MIN_CORNER_NS) {
+            corners.add(new Corner(entryNs, apexNs, exitNs, peakLean, (float) (leanSum / duration), timeAtLeanNs,
+                    peakYawRate, apexLatitude, apexLongitude));
+        }
+    }
+
+    // Closes the corner being ridden at the last sample (end of the ride)
+    public void finish() {
+        close(lastNs);
+    }
+
+    // Closed corners, in riding order
+    public List<Corner> getCorners() {
+        return corners;
+    }
+
+    public LeanHistogram getHistogram() {
+        return histogram;
+    }
+
+    public boolean isInCorner() {
+        return open;
+    }
+}
@@ -0,0 +1,88 @@
+package com.gg.maiotproject.fusion;
+
+import java.util.function.LongConsumer;
+
+// Attitude estimator fed with raw gyroscope and accelerometer samples.
+// Engines are not synchronized: all their methods must be called from the same thread.
+// The roll (bank angle) is in degrees, relative to the level position measured by the calibration,
+// and uses the app's convention: atan2(AccX, AccZ) of the gravity direction.
+public interface FusionEngine {
+
+    // Sensor ids of onSample()/onSamples(), the same ids used by the app's IMU recorder
+    int SENSOR_ACCELEROMETER = 1;
+    int SENSOR_GYROSCOPE = 2;
+
+    // Calibration values: gyro bias on x, y, z (rad/s) and level roll (degrees)
+    int CALIBRATION_SIZE = 4;
+
+    // The filtered roll is not a callback: it changes with every gyro sample, and readers want it at their own
+    // rate, see setPublishedRoll()
+    interface Listener {
+        void onNewMaxPositiveRoll(float maxPositiveRoll);
+        void onNewMaxNegativeRoll(float maxNegativeRoll);     // Negative value
+
+        // Every fused gyro sample while tracking, also inside runs of samples: roll in degrees and yaw rate around the vertical in deg/s. Called before the run's callbacks,
+        // and only while wantsFusedSamples() is true: computing them costs trigonometry on every sample
+        default void onFusedSample(float roll, float yawRate, long timestampNs) {
+        }
+
+        // Checked on every fused sample, e.g. true while a ride is recorded
+        default boolean wantsFusedSamples() {
+            return false;
+        }
+
+        // Calibration progress from 0 to 1, back to 0 when the device moved. When complete the engine has
+        // already applied the calibration
+        default void onCalibrationProgress(float progress, boolean complete) {
+        }
+    }
+
+    String getName();
+
+    // Receives the cost of each update (in ns) when set
+    void setUpdateCostRecorder(LongConsumer updateCostRecorder);
+
+    // Receives the filtered roll after each run of samples that changed it, without converting it to degrees, when set
+    void setPublishedRoll(PublishedRoll publishedRoll);
+
+    void startCalibration();
+
+    // Applies the calibration measured so far, whether or not it is confident yet
+    void finalizeCalibration();
+
+    // Stops calibrating and keeps the previous calibration
+    void cancelCalibration();
+
+    // The calibration the engine is measuring, with its progress and confidence
+    StillnessCalibration getStillnessCalibration();
+
+    // Copies the calibration values, so an engine can take over from another one without a new calibration
+    void getCalibration(float[] calibration);
+
+    void setCalibration(float[] calibration);
+
+    void setTrackingMode(boolean trackingMode);
+
+    boolean isTrackingMode();
+
+    boolean isCalibrating();
+
+    // Feeds one sample and sends the callbacks for what it changed
+    void onSample(int sensorId, long timestampNs, float x, float y, float z);
+
+    // Feeds a run of samples in one loop and sends the callbacks once, with the final values.
+    // Results are the same as feeding the samples one by one
+    void onSamples(int[] sensorIds, long[] timestampsNs, float[] xs, float[] ys, float[] zs, int count);
+
+    float getFilteredRoll();
+
+    // Timestamp of the last gyro sample fused into getFilteredRoll(), 0 before the first one
+    long getFilteredRollTimestamp();
+
+    float getMaxPositiveRoll();
+
+    float getMaxNegativeRoll();
+
+    // Roll, pitch and yaw in degrees. Engines that only estimate the roll return NaN for the other two
+    void getAttitude(float[] rollPitchYaw);
+}
@@ -0,0 +1,17 @@
+package com.gg.maiotproject.fusion;
+
+// The available fusion engines, so they can be selected at runtime and in benchmarks
+public enum FusionEngineType {
+    COMPLEMENTARY,
+    QUATERNION;
+
+    public FusionEngine create(FusionEngine.Listener listener) {
+        switch (this) {
+            case QUATERNION:
+                return new QuaternionFusionEngine(listener);
+            case COMPLEMENTARY:
+            default:
+                return new ComplementaryRollFilter(listener);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.gg.maiotproject.fusion;
+
+import java.util.Locale;
+
+// One set of fusion settings to re-run recorded rides with (see ArchiveReanalysis): the engine, its gains and how
+// the ride is calibrated. A recording starts when the ride does, after the app's calibration, which is not kept:
+// with a calibration window the engine calibrates on the first calibrationNs of the ride (the rider waiting to set
+// off), finishing early once confident; without one it starts from a zero gyro bias and a level mount.
+// Immutable, so one instance can be shared by every ride of a run.
+public final class FusionParameters {
+
+    public final FusionEngineType engineType;
+    public final float alpha;         // Complementary filter constant
+    public final float kp;            // Quaternion engine gains
+    public final float ki;
+    public final long calibrationNs;  // 0: no calibration
+
+    private FusionParameters(FusionEngineType engineType, float alpha, float kp, float ki, long calibrationNs) {
+        this.engineType = engineType;
+        this.alpha = alpha;
+        this.kp = kp;
+        this.ki = ki;
+        this.calibrationNs = calibrationNs;
+    }
+
+    // What the app runs
+    public static FusionParameters defaults(FusionEngineType engineType) {
+        return new FusionParameters(engineType, ComplementaryRollFilter.DEFAULT_ALPHA,
+                QuaternionFusionEngine.DEFAULT_KP, QuaternionFusionEngine.DEFAULT_KI, 0);
+    }
+
+    public static FusionParameters complementary(float alpha) {
+        return defaults(FusionEngineType.COMPLEMENTARY).withAlpha(alpha);
+    }
+
+    public static FusionParameters quaternion(float kp, float ki) {
+        return defaults(FusionEngineType.QUATERNION).withGains(kp, ki);
+    }
+
+    public FusionParameters withAlpha(float alpha) {
+        if (!(alpha >= 0f && alpha <= 1f)) {
+            throw new IllegalArgumentException("alpha must be within [0, 1]: " + alpha);
+        }
+        return new FusionParameters(engineType, alpha, kp, ki, calibrationNs);
+    }
+
+    public FusionParameters withGains(float kp, float ki) {
+        if (!(kp >= 0f) || !(ki >= 0f)) {
+            throw new IllegalArgumentException("Gains must be positive: " + kp + ", " + ki);
+        }
+        return new FusionParameters(engineType, alpha, kp, ki, calibrationNs);
+    }
+
+    public FusionParameters withCalibration(long calibrationNs) {
+        if (calibrationNs < 0) {
+            throw new IllegalArgumentException("Negative calibration window: " + calibrationNs);
+        }
+        return new FusionParameters(engineType, alpha, kp, ki, calibrationNs);
+    }
+
+    public FusionEngine createEngine(FusionEngine.Listener listener) {
+        switch (engineType) {
+            case QUATERNION:
+                return new QuaternionFusionEngine(listener, kp, ki);
+            case COMPLEMENTARY:
+            default:
+                return new ComplementaryRollFilter(listener, alpha);
+        }
+    }
+
+    @Override
+    public String toString() {
+        String gains = engineType == FusionEngineType.QUATERNION
+                ? String.format(Locale.US, "kp=%.3f ki=%.3f", kp, ki)
+                : String.format(Locale.US, "alpha=%.4f", alpha);
+        return engineType.name().toLowerCase(Locale.US) + " " + gains
+                + (calibrationNs > 0 ? String.format(Locale.US, " calibration=%.1fs", calibrationNs / 1e9) : "");
+    }
+}
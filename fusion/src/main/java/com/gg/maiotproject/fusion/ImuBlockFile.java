@@ -0,0 +1,333 @@
+package com.gg.maiotproject.fusion;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+// Compressed IMU recording written by ImuBlockWriter: the accelerometer and gyroscope streams in independent
+// blocks of BLOCK_SAMPLES samples, each stored column by column in the Gorilla style: delta-of-delta timestamps
+// and XOR-ed float bits per axis, or the integer steps of the sensor's resolution when the readings are exact
+// multiples of it (as raw MEMS readings are). Timestamps and steps are Rice coded, with a parameter per block. Every sample is restored bit for bit, in its original order.
+// Layout: a 32-byte header (block count and index offset, written last), the blocks, then the index
+// (offset, min and max timestamp, sample count of each block). A single block is read and decoded on its own.
+// A file that was never finished has no index; it is rebuilt by walking the block headers, a truncated last
+// block is left out.
+// Not thread-safe: decodeBlock() reuses a read buffer.
+public final class ImuBlockFile implements Closeable {
+
+    public static final String FILE_NAME = "imu.blocks"; // In the ride's IMU directory, next to the raw segments
+    static final int MAGIC = 0x494D5542; // "IMUB"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    static final int BLOCK_HEADER_BYTES = 4 + 4 + 8 + 8;
+    static final int INDEX_ENTRY_BYTES = 8 + 8 + 8 + 4 + 4;
+    public static final int BLOCK_SAMPLES = 1024;
+    static final int CHANNELS = 2; // FusionEngine.SENSOR_ACCELEROMETER and SENSOR_GYROSCOPE, minus 1
+    static final int MAX_RICE_K = 40;
+    static final int RICE_ESCAPE = 32; // Unary quotients this long are followed by the residual as is
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    // The samples of one block, in their original order. Reused from block to block
+    public static final class Block {
+        public int size = 0;
+        public final int[] sensorIds = new int[BLOCK_SAMPLES];
+        public final long[] timestampsNs = new long[BLOCK_SAMPLES];
+        public final float[] xs = new float[BLOCK_SAMPLES];
+        public final float[] ys = new float[BLOCK_SAMPLES];
+        public final float[] zs = new float[BLOCK_SAMPLES];
+
+        // One channel's columns while decoding
+        private final long[] channelTimestamps = new long[BLOCK_SAMPLES];
+        private final int[][] channelBits = new int[3][BLOCK_SAMPLES];
+    }
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final BitReader bits = new BitReader();
+    private ByteBuffer readBuffer = ByteBuffer.allocate(BLOCK_HEADER_BYTES + 8192).order(ORDER);
+
+    private int blockCount;
+    private long[] offsets;
+    private long[] minTimestamps;
+    private long[] maxTimestamps;
+    private int[] sampleCounts;
+    private long sampleCount = 0;
+
+    private ImuBlockFile(File file) throws IOException {
+        this.file = file;
+        raf = new RandomAccessFile(file, "r");
+        channel = raf.getChannel();
+        try {
+            ByteBuffer header = read(0, HEADER_BYTES);
+            if (header.limit() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION
+                    || header.getInt() != BLOCK_SAMPLES) {
+                throw new IOException("Not an IMU block file: " + file);
+            }
+            blockCount = header.getInt();
+            long indexOffset = header.getLong();
+            if (indexOffset == 0 || !readIndex(indexOffset)) {
+                rebuildIndex();
+            }
+            for (int block = 0; block < blockCount; block++) {
+                sampleCount += sampleCounts[block];
+            }
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    public static ImuBlockFile open(File file) throws IOException {
+        return new ImuBlockFile(file);
+    }
+
+    private boolean readIndex(long indexOffset) throws IOException {
+        if (blockCount < 0 || indexOffset + (long) blockCount * INDEX_ENTRY_BYTES != channel.size()) {
+            return false;
+        }
+        allocateIndex(blockCount);
+        ByteBuffer index = read(indexOffset, blockCount * INDEX_ENTRY_BYTES);
+        for (int block = 0; block < blockCount; block++) {
+            offsets[block] = index.getLong();
+            minTimestamps[block] = index.getLong();
+            maxTimestamps[block] = index.getLong();
+            sampleCounts[block] = index.getInt();
+            index.getInt();
+        }
+        return true;
+    }
+
+    // Walks the block headers of an unfinished file
+    private void rebuildIndex() throws IOException {
+        allocateIndex(64);
+        blockCount = 0;
+        long position = HEADER_BYTES;
+        long size = channel.size();
+        while (position + BLOCK_HEADER_BYTES <= size) {
+            ByteBuffer header = read(position, BLOCK_HEADER_BYTES);
+            int samples = header.getInt();
+            int payloadBytes = header.getInt();
+            if (samples <= 0 || samples > BLOCK_SAMPLES || payloadBytes < 0
+                    || position + BLOCK_HEADER_BYTES + payloadBytes > size) {
+                break; // Cut short while being written
+            }
+            if (blockCount == offsets.length) {
+                int capacity = blockCount * 2;
+                offsets = Arrays.copyOf(offsets, capacity);
+                minTimestamps = Arrays.copyOf(minTimestamps, capacity);
+                maxTimestamps = Arrays.copyOf(maxTimestamps, capacity);
+                sampleCounts = Arrays.copyOf(sampleCounts, capacity);
+            }
+            offsets[blockCount] = position;
+            minTimestamps[blockCount] = header.getLong();
+            maxTimestamps[blockCount] = header.getLong();
+            sampleCounts[blockCount] = samples;
+            blockCount++;
+            position += BLOCK_HEADER_BYTES + payloadBytes;
+        }
+    }
+
+    private void allocateIndex(int capacity) {
+        offsets = new long[capacity];
+        minTimestamps = new long[capacity];
+        maxTimestamps = new long[capacity];
+        sampleCounts = new int[capacity];
+    }
+
+    // length bytes at position into the reused buffer, fewer at the end of the file
+    private ByteBuffer read(long position, int length) throws IOException {
+        if (readBuffer.capacity() < length) {
+            readBuffer = ByteBuffer.allocate(length).order(ORDER);
+        }
+        readBuffer.clear().limit(length);
+        while (readBuffer.hasRemaining()) {
+            int read = channel.read(readBuffer, position + readBuffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+        readBuffer.flip();
+        return readBuffer;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    public int getBlockSampleCount(int block) {
+        return sampleCounts[block];
+    }
+
+    public long getBlockMinTimestamp(int block) {
+        return minTimestamps[block];
+    }
+
+    public long getBlockMaxTimestamp(int block) {
+        return maxTimestamps[block];
+    }
+
+    // First block that may hold the time (blocks follow each other in time), getBlockCount() when past the end
+    public int findBlock(long timestampNs) {
+        int low = 0, high = blockCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (maxTimestamps[middle] < timestampNs) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Reads and decodes a single block
+    public void decodeBlock(int index, Block block) throws IOException {
+        int length = (int) ((index + 1 < blockCount ? offsets[index + 1] : blockEnd(index)) - offsets[index]);
+        ByteBuffer buffer = read(offsets[index], length);
+        if (buffer.limit() != length || buffer.getInt() != sampleCounts[index]) {
+            throw new IOException("Corrupted IMU block " + index + " in " + file);
+        }
+        int payloadBytes = buffer.getInt();
+        if (payloadBytes != length - BLOCK_HEADER_BYTES) {
+            throw new IOException("Corrupted IMU block " + index + " in " + file);
+        }
+        bits.reset(buffer.array(), buffer.arrayOffset() + BLOCK_HEADER_BYTES, payloadBytes);
+        decode(sampleCounts[index], block);
+    }
+
+    // The last block ends where its payload ends
+    private long blockEnd(int index) throws IOException {
+        ByteBuffer header = read(offsets[index], BLOCK_HEADER_BYTES);
+        return offsets[index] + BLOCK_HEADER_BYTES + header.getInt(4);
+    }
+
+    private void decode(int size, Block block) throws IOException {
+        block.size = size;
+        int gyroscopes = 0;
+        for (int i = 0; i < size; i++) {
+            block.sensorIds[i] = bits.readBit() ? 2 : 1;
+            if (block.sensorIds[i] == 2) {
+                gyroscopes++;
+            }
+        }
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            int count = channel == 0 ? size - gyroscopes : gyroscopes;
+            if (count == 0) {
+                continue;
+            }
+            decodeTimestamps(block.channelTimestamps, count);
+            for (int axis = 0; axis < 3; axis++) {
+                decodeAxis(block.channelBits[axis], count);
+            }
+            // Back to the original order
+            int sample = 0;
+            for (int i = 0; i < size; i++) {
+                if (block.sensorIds[i] == channel + 1) {
+                    block.timestampsNs[i] = block.channelTimestamps[sample];
+                    block.xs[i] = Float.intBitsToFloat(block.channelBits[0][sample]);
+                    block.ys[i] = Float.intBitsToFloat(block.channelBits[1][sample]);
+                    block.zs[i] = Float.intBitsToFloat(block.channelBits[2][sample]);
+                    sample++;
+                }
+            }
+        }
+    }
+
+    private void decodeTimestamps(long[] timestamps, int count) throws IOException {
+        timestamps[0] = bits.read(64);
+        int k = readRiceParameter();
+        long delta = 0;
+        for (int i = 1; i < count; i++) {
+            delta += readRice(k, 64);
+            timestamps[i] = timestamps[i - 1] + delta;
+        }
+    }
+
+    private int readRiceParameter() throws IOException {
+        int k = (int) bits.read(6);
+        if (k > MAX_RICE_K) {
+            throw new IOException("Corrupted IMU block in " + file);
+        }
+        return k;
+    }
+
+    // A residual written by ImuBlockWriter.writeRice(), zigzag decoded
+    private long readRice(int k, int escapeWidth) throws IOException {
+        int quotient = 0;
+        while (quotient < RICE_ESCAPE && bits.readBit()) {
+            quotient++;
+        }
+        long zigzag = quotient < RICE_ESCAPE ? ((long) quotient << k) | (k > 0 ? bits.read(k) : 0) : bits.read(escapeWidth);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    private void decodeAxis(int[] values, int count) throws IOException {
+        if (bits.readBit()) {
+            float resolution = Float.intBitsToFloat((int) bits.read(32));
+            boolean delta = bits.readBit();
+            int base = (int) bits.read(32);
+            int k = readRiceParameter();
+            int steps = base;
+            for (int i = 0; i < count; i++) {
+                if (delta) {
+                    steps += i > 0 ? (int) readRice(k, 32) : 0;
+                } else {
+                    steps = base + (int) readRice(k, 32);
+                }
+                values[i] = Float.floatToRawIntBits((float) steps * resolution);
+            }
+            return;
+        }
+        values[0] = (int) bits.read(32);
+        int leading = 0, trailing = 0;
+        for (int i = 1; i < count; i++) {
+            if (!bits.readBit()) {
+                values[i] = values[i - 1];
+                continue;
+            }
+            if (bits.readBit()) {
+                leading = (int) bits.read(5);
+                int length = (int) bits.read(5) + 1;
+                trailing = 32 - leading - length;
+                if (trailing < 0) {
+                    throw new IOException("Corrupted IMU block in " + file);
+                }
+            }
+            int xor = (int) bits.read(32 - leading - trailing) << trailing;
+            values[i] = values[i - 1] ^ xor;
+        }
+    }
+
+    // Visits every sample in recording order and returns how many were read
+    public long read(ImuRecordReader.RecordVisitor visitor) throws IOException {
+        Block block = new Block();
+        long total = 0;
+        for (int index = 0; index < blockCount; index++) {
+            decodeBlock(index, block);
+            for (int i = 0; i < block.size; i++) {
+                visitor.onRecord(block.sensorIds[i], block.timestampsNs[i], block.xs[i], block.ys[i], block.zs[i]);
+            }
+            total += block.size;
+        }
+        return total;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+}
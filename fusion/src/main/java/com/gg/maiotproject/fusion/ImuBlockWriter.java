@@ -0,0 +1,358 @@
+package com.gg.maiotproject.fusion;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import static com.gg.maiotproject.fusion.ImuBlockFile.BLOCK_HEADER_BYTES;
+import static com.gg.maiotproject.fusion.ImuBlockFile.BLOCK_SAMPLES;
+import static com.gg.maiotproject.fusion.ImuBlockFile.CHANNELS;
+import static com.gg.maiotproject.fusion.ImuBlockFile.MAX_RICE_K;
+import static com.gg.maiotproject.fusion.ImuBlockFile.HEADER_BYTES;
+import static com.gg.maiotproject.fusion.ImuBlockFile.INDEX_ENTRY_BYTES;
+import static com.gg.maiotproject.fusion.ImuBlockFile.MAGIC;
+import static com.gg.maiotproject.fusion.ImuBlockFile.ORDER;
+import static com.gg.maiotproject.fusion.ImuBlockFile.RICE_ESCAPE;
+import static com.gg.maiotproject.fusion.ImuBlockFile.VERSION;
+
+// Compresses IMU samples into an ImuBlockFile, BLOCK_SAMPLES at a time.
+// add() only copies the sample into the block being filled; the block is encoded and written once full, which
+// amortizes to a few tens of ns per sample (ImuBlockBenchmark), so it can run on the thread receiving the samples.
+// Not synchronized: add() must always be called from the same thread, finish() after the last add().
+// add() never throws, a failed write stops the recording and is reported by finish().
+public final class ImuBlockWriter implements ImuRecordReader.RecordVisitor, Closeable {
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final float[] resolutions = new float[CHANNELS];
+
+    // Block being filled, in arrival order
+    private final int[] channels = new int[BLOCK_SAMPLES];
+    private final long[] timestamps = new long[BLOCK_SAMPLES];
+    private final float[][] axes = new float[3][BLOCK_SAMPLES];
+    private int size = 0;
+
+    // One channel's samples of the block, gathered for the columnar encoding
+    private final long[] channelTimestamps = new long[BLOCK_SAMPLES];
+    private final int[][] channelBits = new int[3][BLOCK_SAMPLES];
+    private final int[] steps = new int[BLOCK_SAMPLES];
+    private final long[] residuals = new long[BLOCK_SAMPLES];
+
+    private final BitWriter bits = new BitWriter();
+    private ByteBuffer blockBuffer = ByteBuffer.allocate(BLOCK_HEADER_BYTES + 8192).order(ORDER);
+    private long position = HEADER_BYTES;
+
+    // Index of the written blocks
+    private long[] offsets = new long[64];
+    private long[] minTimestamps = new long[64];
+    private long[] maxTimestamps = new long[64];
+    private int[] sampleCounts = new int[64];
+    private int blockCount = 0;
+
+    private long sampleCount = 0;
+    private long droppedSamples = 0;
+    private long encodedBytes = 0;
+    private IOException error = null;
+    private boolean finished = false;
+
+    private ImuBlockWriter(File file) throws IOException {
+        this.file = file;
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        channel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ORDER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(BLOCK_SAMPLES); // No block count nor index yet
+        write(header, 0);
+    }
+
+    // Creates (or replaces) the file. Until finish() it has no index, which the reader then rebuilds from the blocks
+    public static ImuBlockWriter create(File file) throws IOException {
+        return new ImuBlockWriter(file);
+    }
+
+    // Resolution of the sensor (Sensor.getResolution()), 0 when unknown. Readings that are exact multiples of it
+    // are stored as integer steps, which takes far fewer bits than the XOR of their float representations
+    public ImuBlockWriter setResolution(int sensorId, float resolution) {
+        if (sensorId >= 1 && sensorId <= CHANNELS) {
+            resolutions[sensorId - 1] = resolution > 0 && !Float.isInfinite(resolution) ? resolution : 0f;
+        }
+        return this;
+    }
+
+    // sensorId is FusionEngine.SENSOR_ACCELEROMETER or SENSOR_GYROSCOPE, other sensors are dropped
+    public void add(int sensorId, long timestampNs, float x, float y, float z) {
+        if (finished || error != null) {
+            return;
+        }
+        if (sensorId < 1 || sensorId > CHANNELS) {
+            droppedSamples++;
+            return;
+        }
+        channels[size] = sensorId - 1;
+        timestamps[size] = timestampNs;
+        axes[0][size] = x;
+        axes[1][size] = y;
+        axes[2][size] = z;
+        size++;
+        sampleCount++;
+        if (size == BLOCK_SAMPLES) {
+            try {
+                writeBlock();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+    }
+
+    @Override
+    public void onRecord(int sensorId, long timestampNs, float x, float y, float z) {
+        add(sensorId, timestampNs, x, y, z);
+    }
+
+    // Block: a header (sample count, payload length, min and max timestamp) and a bit stream with the channel of
+    // each sample (1 bit), then for each channel its timestamps and its three axes, one column after the other
+    private void writeBlock() throws IOException {
+        if (size == 0) {
+            return;
+        }
+        bits.reset();
+        long minTimestamp = Long.MAX_VALUE, maxTimestamp = Long.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            bits.writeBit(channels[i] == 1);
+            minTimestamp = Math.min(minTimestamp, timestamps[i]);
+            maxTimestamp = Math.max(maxTimestamp, timestamps[i]);
+        }
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (channels[i] == channel) {
+                    channelTimestamps[count] = timestamps[i];
+                    for (int axis = 0; axis < 3; axis++) {
+                        channelBits[axis][count] = Float.floatToRawIntBits(axes[axis][i]);
+                    }
+                    count++;
+                }
+            }
+            if (count == 0) {
+                continue;
+            }
+            encodeTimestamps(count);
+            for (int axis = 0; axis < 3; axis++) {
+                encodeAxis(channelBits[axis], count, resolutions[channel]);
+            }
+        }
+        bits.flush();
+
+        int blockBytes = BLOCK_HEADER_BYTES + bits.size();
+        if (blockBuffer.capacity() < blockBytes) {
+            blockBuffer = ByteBuffer.allocate(blockBytes * 2).order(ORDER);
+        }
+        blockBuffer.clear();
+        blockBuffer.putInt(size).putInt(bits.size()).putLong(minTimestamp).putLong(maxTimestamp);
+        blockBuffer.put(bits.bytes(), 0, bits.size());
+        blockBuffer.flip();
+        long blockOffset = position;
+        while (blockBuffer.hasRemaining()) {
+            position += channel.write(blockBuffer, position);
+        }
+
+        if (blockCount == offsets.length) {
+            int capacity = blockCount * 2;
+            offsets = Arrays.copyOf(offsets, capacity);
+            minTimestamps = Arrays.copyOf(minTimestamps, capacity);
+            maxTimestamps = Arrays.copyOf(maxTimestamps, capacity);
+            sampleCounts = Arrays.copyOf(sampleCounts, capacity);
+        }
+        offsets[blockCount] = blockOffset;
+        minTimestamps[blockCount] = minTimestamp;
+        maxTimestamps[blockCount] = maxTimestamp;
+        sampleCounts[blockCount] = size;
+        blockCount++;
+        encodedBytes += blockBytes;
+        size = 0;
+    }
+
+    // The first timestamp as is, then the deltas of deltas (0 for a sample on the beat), Rice coded
+    private void encodeTimestamps(int count) {
+        bits.write(channelTimestamps[0], 64);
+        long previousDelta = 0;
+        for (int i = 1; i < count; i++) {
+            long delta = channelTimestamps[i] - channelTimestamps[i - 1];
+            residuals[i - 1] = zigzag(delta - previousDelta);
+            previousDelta = delta;
+        }
+        writeRice(count - 1, 64);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    // Rice codes of the first count residuals with the parameter k that suits them, after k itself (6 bits):
+    // the quotient in unary, then the k low bits. A quotient of RICE_ESCAPE or more (a rare jump) is escaped and
+    // followed by the residual in escapeWidth bits
+    private void writeRice(int count, int escapeWidth) {
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += Math.min(residuals[i], 1L << 40);
+        }
+        // Near optimal for geometric-like residuals: 2^k about their mean
+        int k = count > 0 ? Math.min(MAX_RICE_K, 63 - Long.numberOfLeadingZeros(sum / count + 1)) : 0;
+        bits.write(k, 6);
+        for (int i = 0; i < count; i++) {
+            long quotient = residuals[i] >>> k;
+            if (quotient < RICE_ESCAPE) {
+                bits.write((1L << (quotient + 1)) - 2, (int) quotient + 1); // quotient ones and a zero
+                bits.write(residuals[i], k);
+            } else {
+                bits.write((1L << RICE_ESCAPE) - 1, RICE_ESCAPE);
+                bits.write(residuals[i], escapeWidth);
+            }
+        }
+    }
+
+    // A mode bit, then either the integer steps of the sensor's resolution (mode 1) or the Gorilla XOR encoding of
+    // the float bits (mode 0). Steps are Rice coded after the resolution, a predictor bit and a base step: around
+    // the base (noise around a steady reading) or as deltas from the base first step (a moving reading),
+    // whichever takes fewer bits for the block
+    private void encodeAxis(int[] values, int count, float resolution) {
+        if (resolution > 0 && toSteps(values, count, resolution)) {
+            bits.writeBit(true);
+            bits.write(Float.floatToRawIntBits(resolution), 32);
+            long sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += steps[i];
+            }
+            int mean = (int) Math.floorDiv(sum, count);
+            long aroundMean = 0, deltas = 0;
+            for (int i = 0; i < count; i++) {
+                aroundMean += Math.abs(steps[i] - mean);
+                deltas += i > 0 ? Math.abs(steps[i] - steps[i - 1]) : 0;
+            }
+            boolean delta = deltas < aroundMean;
+            bits.writeBit(delta);
+            if (delta) {
+                bits.write(steps[0], 32);
+                for (int i = 1; i < count; i++) {
+                    residuals[i - 1] = zigzag(steps[i] - steps[i - 1]);
+                }
+                writeRice(count - 1, 32);
+            } else {
+                bits.write(mean, 32);
+                for (int i = 0; i < count; i++) {
+                    residuals[i] = zigzag(steps[i] - mean);
+                }
+                writeRice(count, 32);
+            }
+            return;
+        }
+        bits.writeBit(false);
+        bits.write(values[0], 32);
+        int previousLeading = -1, previousTrailing = 0;
+        for (int i = 1; i < count; i++) {
+            int xor = values[i] ^ values[i - 1];
+            if (xor == 0) {
+                bits.writeBit(false); // '0': same value
+                continue;
+            }
+            int leading = Integer.numberOfLeadingZeros(xor);
+            int trailing = Integer.numberOfTrailingZeros(xor);
+            if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                // '10': the meaningful bits fit in the previous window
+                bits.write(0b10, 2);
+                bits.write(xor >>> previousTrailing, 32 - previousLeading - previousTrailing);
+            } else {
+                // '11': new window, 5 bits of leading zeros and 5 bits of length - 1
+                int length = 32 - leading - trailing;
+                bits.write(0b11, 2);
+                bits.write(leading, 5);
+                bits.write(length - 1, 5);
+                bits.write(xor >>> trailing, length);
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+    }
+
+    // Whether every value is exactly steps * resolution, bit for bit once computed in float; the steps go to steps[]
+    private boolean toSteps(int[] values, int count, float resolution) {
+        for (int i = 0; i < count; i++) {
+            float value = Float.intBitsToFloat(values[i]);
+            float steps = Math.round(value / resolution);
+            if (Math.abs(steps) >= (1 << 24) || Float.floatToRawIntBits(steps * resolution) != values[i]) {
+                return false;
+            }
+            this.steps[i] = (int) steps;
+        }
+        return true;
+    }
+
+    // Writes the last block, the index and then the header, which makes the index valid
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        try {
+            if (error != null) {
+                throw error;
+            }
+            writeBlock();
+            long indexOffset = position;
+            ByteBuffer index = ByteBuffer.allocate(blockCount * INDEX_ENTRY_BYTES).order(ORDER);
+            for (int block = 0; block < blockCount; block++) {
+                index.putLong(offsets[block]).putLong(minTimestamps[block]).putLong(maxTimestamps[block])
+                        .putInt(sampleCounts[block]).putInt(0);
+            }
+            write(index, indexOffset);
+            channel.force(false);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ORDER);
+            header.putInt(MAGIC).putInt(VERSION).putInt(BLOCK_SAMPLES).putInt(blockCount)
+                    .putLong(indexOffset).putLong(sampleCount);
+            write(header, 0);
+            channel.force(false);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void write(ByteBuffer buffer, long at) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            at += channel.write(buffer, at);
+        }
+    }
+
+    // Finishes the file, errors are lost: use finish() to know whether it is complete
+    @Override
+    public void close() {
+        try {
+            finish();
+        } catch (IOException e) {
+            // Reported by finish()
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    public long getDroppedSampleCount() {
+        return droppedSamples;
+    }
+
+    // Bytes of the blocks written so far, headers included (the block being filled is not counted)
+    public long getEncodedBytes() {
+        return encodedBytes;
+    }
+}
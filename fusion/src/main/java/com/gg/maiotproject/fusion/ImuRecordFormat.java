@@ -0,0 +1,26 @@
+package com.gg.maiotproject.fusion;
+
+import java.io.File;
+import java.nio.ByteOrder;
+import java.util.Locale;
+
+// Layout of the IMU segment files written by the app's ImuRecorder and read by ImuRecordReader.
+// A segment is a 32-byte header (magic, version, record size, committed record count at COUNT_OFFSET)
+// followed by fixed-width records: sensor id (int), timestamp ns (long), x/y/z (float).
+public final class ImuRecordFormat {
+
+    public static final int MAGIC = 0x494D5552; // "IMUR"
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 32;
+    public static final int COUNT_OFFSET = 16;
+    // 24 bytes, so every record stays 8-byte aligned
+    public static final int RECORD_BYTES = 4 + 8 + 3 * 4;
+    public static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private ImuRecordFormat() {
+    }
+
+    public static File segmentFile(File directory, int index) {
+        return new File(directory, String.format(Locale.US, "segment-%05d.imu", index));
+    }
+}
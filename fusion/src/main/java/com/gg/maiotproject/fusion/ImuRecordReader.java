@@ -0,0 +1,54 @@
+package com.gg.maiotproject.fusion;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Reads back the segments written by the app's ImuRecorder, in recording order.
+// Only committed records are returned, so a recording cut short by a process kill reads back cleanly.
+public class ImuRecordReader {
+
+    public interface RecordVisitor {
+        void onRecord(int sensorId, long timestampNs, float x, float y, float z);
+    }
+
+    private final File directory;
+
+    public ImuRecordReader(File directory) {
+        this.directory = directory;
+    }
+
+    // Visits every committed record and returns how many were read
+    public long read(RecordVisitor visitor) throws IOException {
+        long total = 0;
+        for (int index = 0; ; index++) {
+            File file = ImuRecordFormat.segmentFile(directory, index);
+            if (!file.exists()) {
+                return total;
+            }
+            total += readSegment(file, visitor);
+        }
+    }
+
+    private static long readSegment(File file, RecordVisitor visitor) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ImuRecordFormat.ORDER);
+            if (buffer.getInt(0) != ImuRecordFormat.MAGIC || buffer.getInt(4) != ImuRecordFormat.VERSION) {
+                throw new IOException("Not an IMU segment: " + file);
+            }
+            long count = buffer.getLong(ImuRecordFormat.COUNT_OFFSET);
+            long maxCount = (channel.size() - ImuRecordFormat.HEADER_BYTES) / ImuRecordFormat.RECORD_BYTES;
+            count = Math.min(count, maxCount);
+            for (int i = 0; i < count; i++) {
+                int position = ImuRecordFormat.HEADER_BYTES + i * ImuRecordFormat.RECORD_BYTES;
+                visitor.onRecord(buffer.getInt(position), buffer.getLong(position + 4),
+                        buffer.getFloat(position + 12), buffer.getFloat(position + 16), buffer.getFloat(position + 20));
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.gg.maiotproject.fusion;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+// An IMU trace held in primitive arrays, in delivery order, ready to be replayed through the filter.
+// Either read back from a ride recording or generated (a lean profile with noisy, jittered sensors).
+public final class ImuTrace {
+
+    private static final double GRAVITY = 9.81;
+
+    private int size = 0;
+    private int[] sensorIds;
+    private long[] timestampsNs;
+    private float[] xs;
+    private float[] ys;
+    private float[] zs;
+
+    // Reused by replay() so that replaying allocates nothing once they are sized
+    private int[] runIds = new int[0];
+    private long[] runTimestamps = new long[0];
+    private float[] runXs = new float[0], runYs = new float[0], runZs = new float[0];
+
+    private ImuTrace(int capacity) {
+        sensorIds = new int[capacity];
+        timestampsNs = new long[capacity];
+        xs = new float[capacity];
+        ys = new float[capacity];
+        zs = new float[capacity];
+    }
+
+    // Reads the IMU recording of a ride (the "<rideId>.imu" directory): its compressed blocks once the ride has been
+    // archived, else the raw segments
+    public static ImuTrace fromRecording(File directory) throws IOException {
+        final ImuTrace trace = new ImuTrace(1024);
+        readRecording(directory, trace::add);
+        return trace;
+    }
+
+    // Streams the same samples without holding them, returns how many were read
+    public static long readRecording(File directory, ImuRecordReader.RecordVisitor visitor) throws IOException {
+        File blocks = new File(directory, ImuBlockFile.FILE_NAME);
+        if (blocks.exists()) {
+            try (ImuBlockFile file = ImuBlockFile.open(blocks)) {
+                return file.read(visitor);
+            }
+        }
+        return new ImuRecordReader(directory).read(visitor);
+    }
+
+    // Lean oscillating between +-amplitudeDeg at frequencyHz, gyroscope and accelerometer at their own periods.
+    // Timestamps get +-1 ms of jitter and readings a little noise; samples are merged in timestamp order
+    public static ImuTrace synthetic(long durationNs, long gyroPeriodNs, long accPeriodNs,
+                                     double amplitudeDeg, double frequencyHz, long seed) {
+        return synthetic(durationNs, gyroPeriodNs, accPeriodNs, amplitudeDeg, frequencyHz, 1_000_000, seed);
+    }
+
+    // Same with +-jitterNs of timestamp jitter (a few us for samples timestamped by the sensor's FIFO)
+    public static ImuTrace synthetic(long durationNs, long gyroPeriodNs, long accPeriodNs,
+                                     double amplitudeDeg, double frequencyHz, int jitterNs, long seed) {
+        Random random = new Random(seed);
+        int gyroCount = (int) (durationNs / gyroPeriodNs);
+        int accCount = (int) (durationNs / accPeriodNs);
+        ImuTrace trace = new ImuTrace(gyroCount + accCount);
+        long nextGyro = gyroPeriodNs;
+        long nextAcc = accPeriodNs / 2;
+        long lastTimestamp = 0;
+        for (int i = 0; i < gyroCount + accCount; i++) {
+            boolean gyro = nextGyro <= nextAcc;
+            long t = gyro ? nextGyro : nextAcc;
+            long measured = Math.max(lastTimestamp + 1, t + (jitterNs > 0 ? random.nextInt(2 * jitterNs) - jitterNs : 0));
+            lastTimestamp = measured;
+            double phase = 2 * Math.PI * frequencyHz * measured / 1e9;
+            if (gyro) {
+                double rate = Math.toRadians(amplitudeDeg * 2 * Math.PI * frequencyHz * Math.cos(phase));
+                trace.add(FusionEngine.SENSOR_GYROSCOPE, measured,
+                        (float) (rate + random.nextGaussian() * 0.01), (float) (random.nextGaussian() * 0.01),
+                        (float) (random.nextGaussian() * 0.01));
+                nextGyro += gyroPeriodNs;
+            } else {
+                double roll = Math.toRadians(amplitudeDeg * Math.sin(phase));
+                trace.add(FusionEngine.SENSOR_ACCELEROMETER, measured,
+                        (float) (GRAVITY * Math.sin(roll) + random.nextGaussian() * 0.05), (float) (random.nextGaussian() * 0.05),
+                        (float) (GRAVITY * Math.cos(roll) + random.nextGaussian() * 0.05));
+                nextAcc += accPeriodNs;
+            }
+        }
+        return trace;
+    }
+
+    // Copy with the readings rounded to the resolution of each sensor, as a MEMS driver delivers them
+    public ImuTrace quantized(float accelerometerResolution, float gyroscopeResolution) {
+        ImuTrace trace = new ImuTrace(Math.max(1, size));
+        for (int i = 0; i < size; i++) {
+            float step = sensorIds[i] == FusionEngine.SENSOR_GYROSCOPE ? gyroscopeResolution : accelerometerResolution;
+            trace.add(sensorIds[i], timestampsNs[i], Math.round(xs[i] / step) * step,
+                    Math.round(ys[i] / step) * step, Math.round(zs[i] / step) * step);
+        }
+        return trace;
+    }
+
+    private void add(int sensorId, long timestampNs, float x, float y, float z) {
+        if (size == sensorIds.length) {
+            int capacity = size * 2;
+            sensorIds = Arrays.copyOf(sensorIds, capacity);
+            timestampsNs = Arrays.copyOf(timestampsNs, capacity);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            zs = Arrays.copyOf(zs, capacity);
+        }
+        sensorIds[size] = sensorId;
+        timestampsNs[size] = timestampNs;
+        xs[size] = x;
+        ys[size] = y;
+        zs[size] = z;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Replays the whole trace, in runs of at most runLength samples (1 = sample by sample delivery)
+    public void replay(FusionEngine filter, int runLength) {
+        if (runLength <= 1) {
+            for (int i = 0; i < size; i++) {
+                filter.onSample(sensorIds[i], timestampsNs[i], xs[i], ys[i], zs[i]);
+            }
+            return;
+        }
+        if (runIds.length < runLength) {
+            runIds = new int[runLength];
+            runTimestamps = new long[runLength];
+            runXs = new float[runLength];
+            runYs = new float[runLength];
+            runZs = new float[runLength];
+        }
+        for (int from = 0; from < size; from += runLength) {
+            int count = Math.min(runLength, size - from);
+            System.arraycopy(sensorIds, from, runIds, 0, count);
+            System.arraycopy(timestampsNs, from, runTimestamps, 0, count);
+            System.arraycopy(xs, from, runXs, 0, count);
+            System.arraycopy(ys, from, runYs, 0, count);
+            System.arraycopy(zs, from, runZs, 0, count);
+            filter.onSamples(runIds, runTimestamps, runXs, runYs, runZs, count);
+        }
+    }
+
+    // Visits every sample in order, like a recording read back, and returns how many were visited
+    public long read(ImuRecordReader.RecordVisitor visitor) {
+        for (int i = 0; i < size; i++) {
+            visitor.onRecord(sensorIds[i], timestampsNs[i], xs[i], ys[i], zs[i]);
+        }
+        return size;
+    }
+
+    public int getSensorId(int index) {
+        return sensorIds[index];
+    }
+
+    public long getTimestamp(int index) {
+        return timestampsNs[index];
+    }
+
+    public float getX(int index) {
+        return xs[index];
+    }
+
+    public float getY(int index) {
+        return ys[index];
+    }
+
+    public float getZ(int index) {
+        return zs[index];
+    }
+}
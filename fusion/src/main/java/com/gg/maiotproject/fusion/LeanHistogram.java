@@ -0,0 +1,61 @@
+package com.gg.maiotproject.fusion;
+
+// Time spent at each lean angle over a ride, left and right apart, in BUCKET_DEG wide buckets of the absolute lean
+// (the last bucket holds everything from (BUCKETS - 1) * BUCKET_DEG up).
+// Positive roll is a left lean, like the rest of the app. Fixed size, constant time per sample.
+public final class LeanHistogram {
+
+    public static final int BUCKET_DEG = 5;
+    public static final int BUCKETS = 13;
+
+    private final long[] leftNs = new long[BUCKETS];
+    private final long[] rightNs = new long[BUCKETS];
+
+    // Counts durationNs at the given roll (the roll of the sample ending that time)
+    public void add(float roll, long durationNs) {
+        int bucket = bucketOf(roll);
+        if (roll >= 0) {
+            leftNs[bucket] += durationNs;
+        } else {
+            rightNs[bucket] += durationNs;
+        }
+    }
+
+    public static int bucketOf(float roll) {
+        int bucket = (int) (Math.abs(roll) / BUCKET_DEG);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    public long getLeftNs(int bucket) {
+        return leftNs[bucket];
+    }
+
+    public long getRightNs(int bucket) {
+        return rightNs[bucket];
+    }
+
+    // Time leaned at least minDeg (rounded down to a bucket edge) on either side
+    public long getTimeBeyondNs(float minDeg) {
+        long total = 0;
+        for (int bucket = bucketOf(minDeg); bucket < BUCKETS; bucket++) {
+            total += leftNs[bucket] + rightNs[bucket];
+        }
+        return total;
+    }
+
+    public long getTotalNs() {
+        return getTimeBeyondNs(0f);
+    }
+
+    public void set(int bucket, long left, long right) {
+        leftNs[bucket] = left;
+        rightNs[bucket] = right;
+    }
+
+    public void clear() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            leftNs[bucket] = 0;
+            rightNs[bucket] = 0;
+        }
+    }
+}
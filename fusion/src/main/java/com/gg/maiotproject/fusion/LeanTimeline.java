@@ -0,0 +1,221 @@
+package com.gg.maiotproject.fusion;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// The roll of a finished ride, written by LeanTimelineWriter, read back through a memory mapping.
+// Layout: a 64-byte header, the samples (time since the first sample in TIME_UNIT_NS units as int, roll as float),
+// then the pyramid and the sparse index.
+// The pyramid holds min/max/mean/count buckets of 2^BASE_SHIFT ns (~67 ms) at level 0, twice as long at each level
+// above, up to a single bucket for the whole ride, so a chart of any time range reads at most maxBuckets buckets of
+// the finest level that fits instead of every sample in the range.
+// The sparse index holds the time of the first sample of every BLOCK_SAMPLES samples, so seek() is a binary search
+// on the index and then on a single block.
+// Thread safe once open, the mapping is only read.
+public final class LeanTimeline {
+
+    static final int MAGIC = 0x4C45414E; // "LEAN"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 64;
+    static final int SAMPLE_BYTES = 4 + 4;
+    static final int BUCKET_BYTES = 3 * 4 + 4;
+    static final int BLOCK_SAMPLES = 1024;
+    static final int BASE_SHIFT = 26;
+    static final long TIME_UNIT_NS = 100_000L; // 0.1 ms, enough for ~59 hours in an int
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    // A chart of a time range: buckets from startNs[i] to startNs[i] + bucketNs, or single samples when bucketNs is 0.
+    // Reused from chart to chart, its arrays only grow
+    public static final class Chart {
+        public int size = 0;
+        public long bucketNs = 0;
+        public long[] startNs = new long[0];
+        public float[] min = new float[0];
+        public float[] max = new float[0];
+        public float[] mean = new float[0];
+
+        void ensureCapacity(int capacity) {
+            if (startNs.length < capacity) {
+                startNs = new long[capacity];
+                min = new float[capacity];
+                max = new float[capacity];
+                mean = new float[capacity];
+            }
+        }
+
+        private void add(long start, float bucketMin, float bucketMax, float bucketMean) {
+            startNs[size] = start;
+            min[size] = bucketMin;
+            max[size] = bucketMax;
+            mean[size] = bucketMean;
+            size++;
+        }
+    }
+
+    private final MappedByteBuffer buffer;
+    private final int size;
+    private final long startNs;
+    private final long endNs;
+    private final int[] levelSizes;
+    private final int[] levelOffsets;
+    private final int sparseSize;
+    private final int sparseOffset;
+
+    private LeanTimeline(MappedByteBuffer buffer, File file) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a finished lean timeline: " + file);
+        }
+        long count = buffer.getLong(8);
+        long levelsOffset = buffer.getLong(40);
+        int levelCount = buffer.getInt(36);
+        if (buffer.getInt(32) != BASE_SHIFT || count < 0 || levelsOffset != HEADER_BYTES + count * SAMPLE_BYTES
+                || levelCount < 1 || levelCount > 64) {
+            throw new IOException("Corrupted lean timeline: " + file);
+        }
+        size = (int) count;
+        startNs = buffer.getLong(16);
+        endNs = buffer.getLong(24);
+        levelSizes = new int[levelCount];
+        levelOffsets = new int[levelCount];
+        int position = (int) levelsOffset;
+        for (int level = 0; level < levelCount; level++) {
+            levelSizes[level] = buffer.getInt(position);
+            levelOffsets[level] = position + 4;
+            position += 4 + levelSizes[level] * BUCKET_BYTES;
+        }
+        if (position != buffer.getLong(48)) {
+            throw new IOException("Corrupted lean timeline: " + file);
+        }
+        sparseSize = buffer.getInt(position);
+        sparseOffset = position + 4;
+    }
+
+    // Fails on a timeline that was never finished (the app killed during the ride)
+    public static LeanTimeline open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ORDER);
+            return new LeanTimeline(buffer, file);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getStartNs() {
+        return startNs;
+    }
+
+    // Time of the last sample
+    public long getEndNs() {
+        return endNs;
+    }
+
+    public long getTimestampNs(int index) {
+        return startNs + units(index) * TIME_UNIT_NS;
+    }
+
+    public float getRoll(int index) {
+        return buffer.getFloat(HEADER_BYTES + index * SAMPLE_BYTES + 4);
+    }
+
+    private int units(int index) {
+        return buffer.getInt(HEADER_BYTES + index * SAMPLE_BYTES);
+    }
+
+    // Index of the first sample at or after the time, size() when there is none
+    public int seek(long timestampNs) {
+        if (size == 0 || timestampNs <= startNs) {
+            return 0;
+        }
+        if (timestampNs > endNs) {
+            return size;
+        }
+        long target = -Math.floorDiv(startNs - timestampNs, TIME_UNIT_NS); // Rounded up
+
+        // Last block starting at or before the target
+        int low = 0, high = sparseSize - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (buffer.getInt(sparseOffset + middle * 4) <= target) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        // First sample of the block at or after the target, or the first sample of the next block
+        int first = low * BLOCK_SAMPLES;
+        int last = (int) Math.min(size, (long) first + BLOCK_SAMPLES);
+        while (first < last) {
+            int middle = (first + last) >>> 1;
+            if (units(middle) < target) {
+                first = middle + 1;
+            } else {
+                last = middle;
+            }
+        }
+        return first;
+    }
+
+    // Roll of the last sample at or before the time, the playback position
+    public float rollAt(long timestampNs) {
+        int index = seek(timestampNs);
+        if (index == size || (index > 0 && getTimestampNs(index) > timestampNs)) {
+            index--;
+        }
+        return index >= 0 ? getRoll(index) : Float.NaN;
+    }
+
+    // Fills the chart of [fromNs, toNs) with at most maxBuckets buckets: the samples themselves when there are few
+    // enough, else the buckets of the finest pyramid level that fits. Buckets without samples (pauses) are left out.
+    // Returns the number of buckets
+    public int chart(long fromNs, long toNs, int maxBuckets, Chart out) {
+        out.size = 0;
+        out.bucketNs = 0;
+        fromNs = Math.max(fromNs, startNs);
+        toNs = Math.min(toNs, endNs + 1);
+        if (size == 0 || toNs <= fromNs || maxBuckets <= 0) {
+            return 0;
+        }
+        int first = seek(fromNs), last = seek(toNs);
+        if (last - first <= maxBuckets) {
+            out.ensureCapacity(last - first);
+            for (int i = first; i < last; i++) {
+                float roll = getRoll(i);
+                out.add(getTimestampNs(i), roll, roll, roll);
+            }
+            return out.size;
+        }
+
+        long from = fromNs - startNs, to = toNs - 1 - startNs;
+        int level = 0;
+        while (level + 1 < levelSizes.length
+                && (to >> (BASE_SHIFT + level)) - (from >> (BASE_SHIFT + level)) + 1 > maxBuckets) {
+            level++;
+        }
+        int shift = BASE_SHIFT + level;
+        int firstBucket = (int) (from >> shift);
+        int lastBucket = (int) Math.min(to >> shift, levelSizes[level] - 1);
+        out.ensureCapacity(lastBucket - firstBucket + 1);
+        out.bucketNs = 1L << shift;
+        for (int bucket = firstBucket; bucket <= lastBucket; bucket++) {
+            int position = levelOffsets[level] + bucket * BUCKET_BYTES;
+            if (buffer.getInt(position + 12) > 0) {
+                out.add(startNs + ((long) bucket << shift),
+                        buffer.getFloat(position), buffer.getFloat(position + 4), buffer.getFloat(position + 8));
+            }
+        }
+        return out.size;
+    }
+
+    public int getLevelCount() {
+        return levelSizes.length;
+    }
+}
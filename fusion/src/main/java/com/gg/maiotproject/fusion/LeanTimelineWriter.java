@@ -0,0 +1,324 @@
+package com.gg.maiotproject.fusion;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import static com.gg.maiotproject.fusion.LeanTimeline.BASE_SHIFT;
+import static com.gg.maiotproject.fusion.LeanTimeline.BLOCK_SAMPLES;
+import static com.gg.maiotproject.fusion.LeanTimeline.BUCKET_BYTES;
+import static com.gg.maiotproject.fusion.LeanTimeline.HEADER_BYTES;
+import static com.gg.maiotproject.fusion.LeanTimeline.MAGIC;
+import static com.gg.maiotproject.fusion.LeanTimeline.ORDER;
+import static com.gg.maiotproject.fusion.LeanTimeline.SAMPLE_BYTES;
+import static com.gg.maiotproject.fusion.LeanTimeline.TIME_UNIT_NS;
+import static com.gg.maiotproject.fusion.LeanTimeline.VERSION;
+
+// Records the fused roll of a ride into a LeanTimeline file while riding, sample by sample.
+// Samples are appended in blocks of BLOCK_SAMPLES (one write every few seconds at gyro rate); the min/max/mean
+// pyramid and the sparse timestamp index grow in memory as samples arrive, in constant amortized time per sample,
+// so finish() only writes them after the samples: nothing is recomputed after the ride. The empty buckets of a pause
+// are kept as one run per level until finish() writes them out, so a sample after a pause of hours costs add() a
+// few run entries, not a bucket per 67 ms of the pause.
+// Not synchronized: add() must always be called from the same thread (the fusion thread), finish() after the last add().
+// add() never throws, a failed write stops the recording and is reported by finish().
+public final class LeanTimelineWriter implements Closeable {
+
+    private static final int MAX_LEVELS = 40;
+
+    // Buckets of one level of the pyramid, level L covering 2^(BASE_SHIFT + L) ns each.
+    // An entry stands for run[i] buckets: 1 for a bucket, more for a run of empty ones
+    private static final class Level {
+        float[] min = new float[64];
+        float[] max = new float[64];
+        float[] mean = new float[64];
+        int[] count = new int[64];
+        int[] run = new int[64];
+        int entries = 0;
+        int size = 0; // Buckets
+
+        void add(float bucketMin, float bucketMax, float bucketMean, int bucketCount) {
+            append(bucketMin, bucketMax, bucketMean, bucketCount, 1);
+        }
+
+        void addEmpty(int buckets) {
+            if (entries > 0 && count[entries - 1] == 0) {
+                run[entries - 1] += buckets;
+                size += buckets;
+                return;
+            }
+            append(Float.NaN, Float.NaN, Float.NaN, 0, buckets);
+        }
+
+        private void append(float bucketMin, float bucketMax, float bucketMean, int bucketCount, int buckets) {
+            if (entries == count.length) {
+                int capacity = entries * 2;
+                min = Arrays.copyOf(min, capacity);
+                max = Arrays.copyOf(max, capacity);
+                mean = Arrays.copyOf(mean, capacity);
+                count = Arrays.copyOf(count, capacity);
+                run = Arrays.copyOf(run, capacity);
+            }
+            min[entries] = bucketMin;
+            max[entries] = bucketMax;
+            mean[entries] = bucketMean;
+            count[entries] = bucketCount;
+            run[entries] = buckets;
+            entries++;
+            size += buckets;
+        }
+
+        // Entry of one of the last buckets (merges only read the last two)
+        int entryOf(int bucket) {
+            int entry = entries - 1;
+            int end = size;
+            while (bucket < end - run[entry]) {
+                end -= run[entry];
+                entry--;
+            }
+            return entry;
+        }
+    }
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final ByteBuffer block = ByteBuffer.allocate(BLOCK_SAMPLES * SAMPLE_BYTES).order(ORDER);
+    private final Level[] levels = new Level[MAX_LEVELS];
+    private int levelCount = 1;
+    private int[] sparse = new int[64]; // Time of the first sample of each block
+    private int sparseSize = 0;
+
+    private long count = 0;
+    private long startNs = 0;
+    private long lastNs = 0;
+    private long droppedSamples = 0;
+    private IOException error = null;
+    private boolean finished = false;
+
+    // Level 0 bucket being filled
+    private long bucket = -1;
+    private float bucketMin, bucketMax;
+    private double bucketSum;
+    private int bucketCount;
+
+    private LeanTimelineWriter(File file) throws IOException {
+        this.file = file;
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        channel.truncate(0);
+        levels[0] = new Level();
+    }
+
+    // Creates (or replaces) the file. Until finish() it holds no valid timeline
+    public static LeanTimelineWriter create(File file) throws IOException {
+        return new LeanTimelineWriter(file);
+    }
+
+    // Roll in degrees at the time of its gyro sample. Samples older than the previous one are dropped
+    public void add(long timestampNs, float roll) {
+        if (finished || error != null) {
+            return;
+        }
+        if (count == 0) {
+            startNs = timestampNs;
+        } else if (timestampNs < lastNs) {
+            droppedSamples++;
+            return;
+        }
+        long units = (timestampNs - startNs) / TIME_UNIT_NS;
+        if (units > Integer.MAX_VALUE) {
+            droppedSamples++; // Past ~59 hours
+            return;
+        }
+
+        int inBlock = (int) (count % BLOCK_SAMPLES);
+        if (inBlock == 0) {
+            if (sparseSize == sparse.length) {
+                sparse = Arrays.copyOf(sparse, sparseSize * 2);
+            }
+            sparse[sparseSize++] = (int) units;
+        }
+        block.putInt(inBlock * SAMPLE_BYTES, (int) units);
+        block.putFloat(inBlock * SAMPLE_BYTES + 4, roll);
+        count++;
+        lastNs = timestampNs;
+        if (inBlock == BLOCK_SAMPLES - 1) {
+            try {
+                writeBlock(BLOCK_SAMPLES);
+            } catch (IOException e) {
+                error = e;
+                return;
+            }
+        }
+
+        long sampleBucket = units * TIME_UNIT_NS >> BASE_SHIFT; // By the stored time, like the reader
+        if (sampleBucket != bucket) {
+            if (bucket >= 0) {
+                addBucket(0, bucketMin, bucketMax, (float) (bucketSum / bucketCount), bucketCount);
+            }
+            addEmptyBuckets(0, (int) (sampleBucket - levels[0].size)); // No sample (paused)
+            bucket = sampleBucket;
+            bucketMin = roll;
+            bucketMax = roll;
+            bucketSum = 0.0;
+            bucketCount = 0;
+        }
+        bucketMin = Math.min(bucketMin, roll);
+        bucketMax = Math.max(bucketMax, roll);
+        bucketSum += roll;
+        bucketCount++;
+    }
+
+    // Appends a bucket to the level; a completed pair of buckets becomes a bucket of the level above
+    private void addBucket(int levelIndex, float min, float max, float mean, int bucketCount) {
+        if (levelIndex == levelCount) {
+            levels[levelCount++] = new Level();
+        }
+        Level level = levels[levelIndex];
+        level.add(min, max, mean, bucketCount);
+        if ((level.size & 1) == 0 && levelIndex + 1 < MAX_LEVELS) {
+            mergeUp(level, level.size - 2, levelIndex + 1);
+        }
+    }
+
+    // Appends a run of empty buckets to the level. Its complete pairs are a run of empty buckets of the level above,
+    // so a pause costs a few entries per level whatever its length
+    private void addEmptyBuckets(int levelIndex, int buckets) {
+        if (buckets <= 0) {
+            return;
+        }
+        if (levelIndex == levelCount) {
+            levels[levelCount++] = new Level();
+        }
+        Level level = levels[levelIndex];
+        if ((level.size & 1) == 1) {
+            addBucket(levelIndex, Float.NaN, Float.NaN, Float.NaN, 0); // Completes the pair of the last bucket
+            buckets--;
+        }
+        if (buckets > 0) {
+            level.addEmpty(buckets);
+            if (levelIndex + 1 < MAX_LEVELS) {
+                addEmptyBuckets(levelIndex + 1, buckets / 2); // An odd last one waits for its pair
+            }
+        }
+    }
+
+    // The bucket of the level above made of buckets first and first + 1 (or first alone, at the end of the ride)
+    private void mergeUp(Level level, int first, int parentLevel) {
+        float min = Float.NaN, max = Float.NaN;
+        double sum = 0.0;
+        int total = 0;
+        for (int bucket = first; bucket <= first + 1 && bucket < level.size; bucket++) {
+            int i = level.entryOf(bucket);
+            if (level.count[i] == 0) {
+                continue;
+            }
+            min = total == 0 ? level.min[i] : Math.min(min, level.min[i]);
+            max = total == 0 ? level.max[i] : Math.max(max, level.max[i]);
+            sum += (double) level.mean[i] * level.count[i];
+            total += level.count[i];
+        }
+        addBucket(parentLevel, min, max, total > 0 ? (float) (sum / total) : Float.NaN, total);
+    }
+
+    // Writes the first samples of the current block, which starts at sample count - count % BLOCK_SAMPLES
+    private void writeBlock(int samples) throws IOException {
+        long blockStart = (count - 1) / BLOCK_SAMPLES * BLOCK_SAMPLES;
+        block.clear().limit(samples * SAMPLE_BYTES);
+        long position = HEADER_BYTES + blockStart * SAMPLE_BYTES;
+        while (block.hasRemaining()) {
+            position += channel.write(block, position);
+        }
+    }
+
+    // Writes the remaining samples, the pyramid, the sparse index and then the header, which makes the file valid
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        try {
+            if (error != null) {
+                throw error;
+            }
+            int pending = (int) (count % BLOCK_SAMPLES);
+            if (pending > 0) {
+                writeBlock(pending);
+            }
+            // Last buckets: the one being filled, then the unpaired one of each level, up to a single top bucket
+            if (bucketCount > 0) {
+                addBucket(0, bucketMin, bucketMax, (float) (bucketSum / bucketCount), bucketCount);
+            }
+            for (int level = 0; level < levelCount && levels[level].size > 1; level++) {
+                if ((levels[level].size & 1) == 1) {
+                    mergeUp(levels[level], levels[level].size - 1, level + 1);
+                }
+            }
+
+            long levelsOffset = HEADER_BYTES + count * SAMPLE_BYTES;
+            long position = levelsOffset;
+            for (int level = 0; level < levelCount; level++) {
+                Level current = levels[level];
+                ByteBuffer buffer = ByteBuffer.allocate(4 + current.size * BUCKET_BYTES).order(ORDER);
+                buffer.putInt(current.size);
+                for (int i = 0; i < current.entries; i++) {
+                    for (int b = 0; b < current.run[i]; b++) {
+                        buffer.putFloat(current.min[i]).putFloat(current.max[i]).putFloat(current.mean[i]).putInt(current.count[i]);
+                    }
+                }
+                position = write(buffer, position);
+            }
+            long sparseOffset = position;
+            ByteBuffer index = ByteBuffer.allocate(4 + sparseSize * 4).order(ORDER);
+            index.putInt(sparseSize);
+            for (int i = 0; i < sparseSize; i++) {
+                index.putInt(sparse[i]);
+            }
+            write(index, sparseOffset);
+            channel.force(false);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ORDER);
+            header.putInt(MAGIC).putInt(VERSION).putLong(count).putLong(startNs).putLong(lastNs)
+                    .putInt(BASE_SHIFT).putInt(levelCount).putLong(levelsOffset).putLong(sparseOffset);
+            write(header, 0);
+            channel.force(false);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private long write(ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return position;
+    }
+
+    // Finishes the timeline, errors are lost: use finish() to know whether the file is valid
+    @Override
+    public void close() {
+        try {
+            finish();
+        } catch (IOException e) {
+            // Reported by finish()
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getSampleCount() {
+        return count;
+    }
+
+    public long getDroppedSampleCount() {
+        return droppedSamples;
+    }
+}
@@ -0,0 +1,40 @@
+package com.gg.maiotproject.fusion;
+
+// The filtered roll handed from the fusion thread to a reader on another thread, typically the UI once per frame.
+// An engine stores the state behind its roll as it is after every update: the gravity direction (x, z) for the
+// quaternion engine, the roll in degrees for the complementary filter. Both floats share one volatile long, so the
+// reader always gets a consistent pair. The conversion to degrees (an atan2 for the gravity direction) only happens
+// in get(), on the reader's thread and as often as it reads, never per sample on the fusion thread.
+public final class PublishedRoll {
+
+    private volatile long packed = pack(0.0f, Float.NaN);
+    private volatile float levelRoll = 0.0f; // Degrees subtracted from the gravity direction's roll
+
+    // Roll already in degrees. Fusion thread only
+    public void setRoll(float roll) {
+        packed = pack(roll, Float.NaN);
+    }
+
+    // Gravity direction in device coordinates (any length) and the calibrated level roll. Fusion thread only
+    public void setGravity(float x, float z, float levelRoll) {
+        if (levelRoll != this.levelRoll) {
+            this.levelRoll = levelRoll; // Written before packed, so a reader of the new pair sees it
+        }
+        packed = pack(x, z);
+    }
+
+    // Roll in degrees, relative to the calibrated level position. Any thread
+    public float get() {
+        long bits = packed;
+        float x = Float.intBitsToFloat((int) (bits >>> 32));
+        float z = Float.intBitsToFloat((int) bits);
+        if (Float.isNaN(z)) {
+            return x;
+        }
+        return (float) Math.toDegrees(Math.atan2(x, z)) - levelRoll;
+    }
+
+    private static long pack(float x, float z) {
+        return (long) Float.floatToRawIntBits(x) << 32 | Float.floatToRawIntBits(z) & 0xFFFFFFFFL;
+    }
+}
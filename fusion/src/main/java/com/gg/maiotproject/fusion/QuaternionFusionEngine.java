@@ -0,0 +1,189 @@
+package com.gg.maiotproject.fusion;
+
+// Full attitude estimator (Mahony's complementary filter on the rotation group).
+// The attitude is a unit quaternion rotating device coordinates into earth coordinates. Each gyro sample
+// integrates the rates of all three axes; when an accelerometer reading is available, the angle between the
+// measured and the estimated gravity direction is fed back as a proportional term (drift correction) and an
+// integral term (gyro bias left over after calibration).
+// Float only, no allocation and no trigonometry per sample: the quaternion is renormalized with a square root
+// and the roll extremes are compared as tangents. Angles are only computed when they are read: the published roll
+// is the gravity direction (see PublishedRoll), and per sample only while the listener wants the fused samples.
+public class QuaternionFusionEngine extends AbstractFusionEngine {
+
+    public static final float DEFAULT_KP = 1.0f;  // rad/s per rad of gravity error
+    public static final float DEFAULT_KI = 0.05f;
+
+    private final float kp;
+    private final float ki;
+
+    private float q0 = 1.0f, q1 = 0.0f, q2 = 0.0f, q3 = 0.0f;
+    private float integralX = 0.0f, integralY = 0.0f, integralZ = 0.0f;
+    private boolean initialized = false; // Set once the attitude has been aligned with the first gravity reading
+
+    // Roll extremes as tan(roll) = gravityX / gravityZ, valid while the device is less than 90 degrees from level
+    private float maxRollTangent = 0.0f;
+    private float minRollTangent = 0.0f;
+    private float levelRollTangent = 0.0f;
+
+    public QuaternionFusionEngine(Listener listener) {
+        this(listener, DEFAULT_KP, DEFAULT_KI);
+    }
+
+    public QuaternionFusionEngine(Listener listener, float kp, float ki) {
+        super(listener);
+        this.kp = kp;
+        this.ki = ki;
+    }
+
+    @Override
+    public String getName() {
+        return "quaternion";
+    }
+
+    @Override
+    protected void resetAttitude() {
+        // Aligned again with the next accelerometer reading, relative to the calibrated level roll
+        initialized = false;
+        q0 = 1.0f;
+        q1 = 0.0f;
+        q2 = 0.0f;
+        q3 = 0.0f;
+        integralX = 0.0f;
+        integralY = 0.0f;
+        integralZ = 0.0f;
+        levelRollTangent = (float) Math.tan(Math.toRadians(initialAccRoll_cal));
+    }
+
+    @Override
+    protected void resetMaxRoll() {
+        maxRollTangent = levelRollTangent;
+        minRollTangent = levelRollTangent;
+    }
+
+    @Override
+    protected void update(float deltaTime, float gyroX, float gyroY, float gyroZ,
+                          float accX, float accY, float accZ, boolean hasAccReading) {
+        float norm = accX * accX + accY * accY + accZ * accZ;
+        if (hasAccReading && norm > 0.0f) {
+            float inverseNorm = 1.0f / (float) Math.sqrt(norm);
+            accX *= inverseNorm;
+            accY *= inverseNorm;
+            accZ *= inverseNorm;
+
+            if (!initialized) {
+                alignWithGravity(accX, accY, accZ);
+                initialized = true;
+            }
+
+            // Estimated direction of gravity in device coordinates (third row of the rotation matrix)
+            float vx = 2.0f * (q1 * q3 - q0 * q2);
+            float vy = 2.0f * (q0 * q1 + q2 * q3);
+            float vz = q0 * q0 - q1 * q1 - q2 * q2 + q3 * q3;
+
+            // Error between measured and estimated gravity direction
+            float ex = accY * vz - accZ * vy;
+            float ey = accZ * vx - accX * vz;
+            float ez = accX * vy - accY * vx;
+
+            if (ki > 0.0f) {
+                integralX += ki * ex * deltaTime;
+                integralY += ki * ey * deltaTime;
+                integralZ += ki * ez * deltaTime;
+                gyroX += integralX;
+                gyroY += integralY;
+                gyroZ += integralZ;
+            }
+            gyroX += kp * ex;
+            gyroY += kp * ey;
+            gyroZ += kp * ez;
+        }
+
+        // Integrate the quaternion derivative, 0.5 * q * (0, gyro)
+        float halfDt = 0.5f * deltaTime;
+        gyroX *= halfDt;
+        gyroY *= halfDt;
+        gyroZ *= halfDt;
+        float a = q0, b = q1, c = q2;
+        q0 += -b * gyroX - c * gyroY - q3 * gyroZ;
+        q1 += a * gyroX + c * gyroZ - q3 * gyroY;
+        q2 += a * gyroY - b * gyroZ + q3 * gyroX;
+        q3 += a * gyroZ + b * gyroY - c * gyroX;
+        normalize();
+
+        updateMaxRollAngles();
+    }
+
+    // Attitude whose gravity direction is the given unit vector, with no rotation around it (yaw 0)
+    private void alignWithGravity(float ax, float ay, float az) {
+        if (az > -0.999f) {
+            q0 = 1.0f + az;
+            q1 = ay;
+            q2 = -ax;
+            q3 = 0.0f;
+        } else {
+            q0 = 0.0f; // Upside down: half turn around X
+            q1 = 1.0f;
+            q2 = 0.0f;
+            q3 = 0.0f;
+        }
+        normalize();
+    }
+
+    private void normalize() {
+        float inverseNorm = 1.0f / (float) Math.sqrt(q0 * q0 + q1 * q1 + q2 * q2 + q3 * q3);
+        q0 *= inverseNorm;
+        q1 *= inverseNorm;
+        q2 *= inverseNorm;
+        q3 *= inverseNorm;
+    }
+
+    private void updateMaxRollAngles() {
+        float vz = q0 * q0 - q1 * q1 - q2 * q2 + q3 * q3;
+        if (vz <= 0.0f) {
+            return; // More than 90 degrees from level, not a bank angle
+        }
+        float tangent = 2.0f * (q1 * q3 - q0 * q2) / vz;
+        if (tangent > maxRollTangent) {
+            maxRollTangent = tangent;
+            maxPositiveRollChanged();
+        }
+        if (tangent < minRollTangent) {
+            minRollTangent = tangent;
+            maxNegativeRollChanged();
+        }
+    }
+
+    @Override
+    protected void publishRoll(PublishedRoll publishedRoll) {
+        publishedRoll.setGravity(2.0f * (q1 * q3 - q0 * q2), q0 * q0 - q1 * q1 - q2 * q2 + q3 * q3, initialAccRoll_cal);
+    }
+
+    @Override
+    public float getFilteredRoll() {
+        float vx = 2.0f * (q1 * q3 - q0 * q2);
+        float vz = q0 * q0 - q1 * q1 - q2 * q2 + q3 * q3;
+        return (float) Math.toDegrees(Math.atan2(vx, vz)) - initialAccRoll_cal;
+    }
+
+    @Override
+    public float getMaxPositiveRoll() {
+        return (float) Math.toDegrees(Math.atan(maxRollTangent)) - initialAccRoll_cal;
+    }
+
+    @Override
+    public float getMaxNegativeRoll() {
+        return (float) Math.toDegrees(Math.atan(minRollTangent)) - initialAccRoll_cal;
+    }
+
+    // Pitch is the tilt of the device Y axis, yaw the heading relative to the start of tracking
+    // (there is no magnetometer, so it drifts slowly)
+    @Override
+    public void getAttitude(float[] rollPitchYaw) {
+        float vx = 2.0f * (q1 * q3 - q0 * q2);
+        float vy = 2.0f * (q0 * q1 + q2 * q3);
+        float vz = q0 * q0 - q1 * q1 - q2 * q2 + q3 * q3;
+        rollPitchYaw[0] = (float) Math.toDegrees(Math.atan2(vx, vz)) - initialAccRoll_cal;
+        rollPitchYaw[1] = (float) Math.toDegrees(Math.atan2(vy, Math.sqrt(vx * vx + vz * vz)));
+        rollPitchYaw[2] = (float) Math.toDegrees(Math.atan2(2.0f * (q0 * q3 + q1 * q2), 1.0f - 2.0f * (q2 * q2 + q3 * q3)));
+    }
+}
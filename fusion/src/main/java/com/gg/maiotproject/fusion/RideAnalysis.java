@@ -0,0 +1,143 @@
+package com.gg.maiotproject.fusion;
+
+// Re-runs the fusion over one recorded ride with one FusionParameters, fed the ride's samples in recording order
+// (ImuTrace.readRecording() or ImuTrace.read()), then finish() sums it up in a RideMetrics.
+// Stops are found on the raw samples: the bias-corrected gyro under STILL_GYRO_RATE on every axis and the
+// acceleration norm within MAX_GRAVITY_DEVIATION of gravity. The device must stay so for MIN_STOP_NS before a stop
+// counts, so slow riding and the last moments of a braking are not taken for one.
+// Constant memory whatever the length of the ride. Not synchronized: one thread per analysis.
+public final class RideAnalysis implements ImuRecordReader.RecordVisitor, FusionEngine.Listener {
+
+    private static final double GRAVITY = 9.81;
+    private static final float STILL_GYRO_RATE = 0.08f;       // rad/s
+    private static final double MAX_GRAVITY_DEVIATION = 0.5;  // m/s^2
+    private static final long MIN_STOP_NS = 2_000_000_000L;
+
+    private final FusionParameters parameters;
+    private final FusionEngine engine;
+    private final CornerDetector cornerDetector = new CornerDetector(null);
+    private final float[] calibration = new float[FusionEngine.CALIBRATION_SIZE];
+
+    private long sampleCount = 0;
+    private long startNs = -1;
+    private long trackingStartNs = -1;
+    private long lastNs = -1;
+    private boolean calibrationConfident = false;
+
+    // Stop detection
+    private boolean gyroStill = false;
+    private boolean accStill = false;
+    private long stillSinceNs = -1; // -1 while moving
+    private boolean stopped = false;
+    private int stopCount = 0;
+    private long stopNs = 0;
+    private double driftSum = 0.0;
+    private int driftCount = 0;
+    private float maxDrift = 0.0f;
+
+    public RideAnalysis(FusionParameters parameters) {
+        this.parameters = parameters;
+        this.engine = parameters.createEngine(this);
+    }
+
+    @Override
+    public void onRecord(int sensorId, long timestampNs, float x, float y, float z) {
+        sampleCount++;
+        if (startNs < 0) {
+            startNs = timestampNs;
+            if (parameters.calibrationNs > 0) {
+                engine.startCalibration();
+            } else {
+                startTracking(timestampNs);
+            }
+        }
+        if (trackingStartNs < 0) {
+            engine.onSample(sensorId, timestampNs, x, y, z);
+            if (!engine.isCalibrating() || timestampNs - startNs >= parameters.calibrationNs) {
+                calibrationConfident = engine.getStillnessCalibration().isConfident();
+                if (engine.isCalibrating()) {
+                    engine.finalizeCalibration(); // What the window gave, the ride has no better one
+                }
+                startTracking(timestampNs);
+            }
+            return;
+        }
+
+        engine.onSample(sensorId, timestampNs, x, y, z);
+        if (sensorId == FusionEngine.SENSOR_GYROSCOPE) {
+            gyroStill = Math.abs(x - calibration[0]) < STILL_GYRO_RATE && Math.abs(y - calibration[1]) < STILL_GYRO_RATE
+                    && Math.abs(z - calibration[2]) < STILL_GYRO_RATE;
+        } else if (sensorId == FusionEngine.SENSOR_ACCELEROMETER) {
+            accStill = Math.abs(Math.sqrt(x * x + y * y + z * z) - GRAVITY) < MAX_GRAVITY_DEVIATION;
+        } else {
+            return;
+        }
+        updateStop(timestampNs);
+        if (stopped && sensorId == FusionEngine.SENSOR_ACCELEROMETER && engine.getFilteredRollTimestamp() != 0) {
+            float accRoll = (float) Math.toDegrees(Math.atan2(x, z)) - calibration[3];
+            float drift = Math.abs(engine.getFilteredRoll() - accRoll);
+            driftSum += drift;
+            driftCount++;
+            maxDrift = Math.max(maxDrift, drift);
+        }
+    }
+
+    private void startTracking(long timestampNs) {
+        engine.getCalibration(calibration);
+        engine.setTrackingMode(true);
+        trackingStartNs = timestampNs;
+        lastNs = timestampNs;
+    }
+
+    private void updateStop(long timestampNs) {
+        if (!gyroStill || !accStill) {
+            stillSinceNs = -1;
+            stopped = false;
+        } else if (stillSinceNs < 0) {
+            stillSinceNs = timestampNs;
+        } else if (!stopped && timestampNs - stillSinceNs >= MIN_STOP_NS) {
+            stopped = true;
+            stopCount++;
+        }
+        if (stopped && timestampNs > lastNs) {
+            stopNs += timestampNs - lastNs;
+        }
+        lastNs = Math.max(lastNs, timestampNs);
+    }
+
+    @Override
+    public void onFusedSample(float roll, float yawRate, long timestampNs) {
+        cornerDetector.add(timestampNs, roll, yawRate);
+    }
+
+    @Override
+    public boolean wantsFusedSamples() {
+        return true;
+    }
+
+    @Override
+    public void onNewMaxPositiveRoll(float maxPositiveRoll) {
+    }
+
+    @Override
+    public void onNewMaxNegativeRoll(float maxNegativeRoll) {
+    }
+
+    // Fuses the samples still waiting for an accelerometer reading and closes the last corner
+    public RideMetrics finish() {
+        if (engine.isTrackingMode()) {
+            engine.setTrackingMode(false);
+        }
+        cornerDetector.finish();
+        int left = 0;
+        for (Corner corner : cornerDetector.getCorners()) {
+            if (corner.isLeft()) {
+                left++;
+            }
+        }
+        return new RideMetrics(parameters, sampleCount, trackingStartNs < 0 ? 0 : lastNs - trackingStartNs,
+                calibrationConfident, engine.getMaxPositiveRoll(), engine.getMaxNegativeRoll(), stopCount, stopNs,
+                driftCount, driftCount > 0 ? driftSum / driftCount : Double.NaN, maxDrift,
+                left, cornerDetector.getCorners().size() - left);
+    }
+}
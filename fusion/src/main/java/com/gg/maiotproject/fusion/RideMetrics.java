@@ -0,0 +1,43 @@
+package com.gg.maiotproject.fusion;
+
+// What one ride gives with one FusionParameters, found by a RideAnalysis. Leans in degrees (positive to the left).
+// Drift is measured at stops only, where the accelerometer roll is the true roll: the mean and largest absolute
+// difference between it and the fused roll, over the accelerometer samples of every stop.
+public final class RideMetrics {
+
+    public final FusionParameters parameters;
+    public final long sampleCount;
+    public final long durationNs;           // Fused part of the ride, after the calibration window
+    public final boolean calibrationConfident;
+    public final float maxPositiveRoll;
+    public final float maxNegativeRoll;     // Negative value
+    public final int stopCount;
+    public final long stopNs;
+    public final int driftSampleCount;
+    public final double meanStopDrift;      // NaN without any stop
+    public final float maxStopDrift;
+    public final int leftCorners;
+    public final int rightCorners;
+
+    public RideMetrics(FusionParameters parameters, long sampleCount, long durationNs, boolean calibrationConfident,
+                       float maxPositiveRoll, float maxNegativeRoll, int stopCount, long stopNs, int driftSampleCount,
+                       double meanStopDrift, float maxStopDrift, int leftCorners, int rightCorners) {
+        this.parameters = parameters;
+        this.sampleCount = sampleCount;
+        this.durationNs = durationNs;
+        this.calibrationConfident = calibrationConfident;
+        this.maxPositiveRoll = maxPositiveRoll;
+        this.maxNegativeRoll = maxNegativeRoll;
+        this.stopCount = stopCount;
+        this.stopNs = stopNs;
+        this.driftSampleCount = driftSampleCount;
+        this.meanStopDrift = meanStopDrift;
+        this.maxStopDrift = maxStopDrift;
+        this.leftCorners = leftCorners;
+        this.rightCorners = rightCorners;
+    }
+
+    public int getCornerCount() {
+        return leftCorners + rightCorners;
+    }
+}
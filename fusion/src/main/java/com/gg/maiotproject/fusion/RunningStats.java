@@ -0,0 +1,44 @@
+package com.gg.maiotproject.fusion;
+
+// Streaming mean and variance (Welford's algorithm): numerically stable, constant memory, no allocation
+public final class RunningStats {
+
+    private long count = 0;
+    private double mean = 0;
+    private double m2 = 0; // Sum of squared differences from the mean
+
+    public void add(double value) {
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+    }
+
+    public void clear() {
+        count = 0;
+        mean = 0;
+        m2 = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    // Sample variance, 0 below two values
+    public double getVariance() {
+        return count > 1 ? m2 / (count - 1) : 0;
+    }
+
+    public double getStdDev() {
+        return Math.sqrt(getVariance());
+    }
+
+    // Standard error of the mean: how far the mean may still be from the true value
+    public double getStandardError() {
+        return count > 1 ? Math.sqrt(getVariance() / count) : Double.POSITIVE_INFINITY;
+    }
+}
@@ -0,0 +1,155 @@
+package com.gg.maiotproject.fusion;
+
+// Calibration over a window of still samples, with streaming mean/variance per axis.
+// A sample far from the window's mean (or a gyro rate no still device can read) means the device moved:
+// the window is discarded and calibration starts over, so it takes longer instead of learning a wrong bias.
+// The calibration is confident once both sensors span a minimum window and the standard errors of the gyro
+// bias and of the level roll are below their targets, typically well under a second on a still device.
+// The minimum is a duration, not a sample count, so it takes as long at the 50 Hz of the ride as at the sensors'
+// fastest rate, where the standard errors are reached sooner.
+public final class StillnessCalibration {
+
+    // Minimum window, so a few lucky samples never make a calibration
+    private static final long MIN_WINDOW_NS = 250_000_000L;
+    private static final int MIN_SAMPLES = 10;
+    // Confidence targets on the standard error of the means
+    private static final double TARGET_GYRO_BIAS_ERROR = 0.002; // rad/s (~0.1 deg/s)
+    private static final double TARGET_LEVEL_ROLL_ERROR = 0.1;  // Degrees
+    // Motion detection
+    private static final double MAX_STILL_GYRO_RATE = 0.2;      // rad/s, on any axis before the bias is known
+    private static final double MAX_GYRO_DEVIATION = 0.05;      // rad/s from the window mean
+    private static final double MAX_ROLL_DEVIATION = 1.5;       // Degrees from the window mean
+    private static final double MAX_GRAVITY_DEVIATION = 0.5;    // m/s^2 of the acceleration norm from the window mean
+    private static final int MIN_SAMPLES_FOR_DEVIATION = 5;
+
+    private final RunningStats gyroX = new RunningStats();
+    private final RunningStats gyroY = new RunningStats();
+    private final RunningStats gyroZ = new RunningStats();
+    private final RunningStats accRoll = new RunningStats();
+    private final RunningStats accNorm = new RunningStats();
+    private long firstGyroNs, lastGyroNs, firstAccNs, lastAccNs; // Timestamps of the window
+    private int motionCount = 0; // Windows discarded because the device moved
+
+    public void clear() {
+        clearWindow();
+        motionCount = 0;
+    }
+
+    private void clearWindow() {
+        gyroX.clear();
+        gyroY.clear();
+        gyroZ.clear();
+        accRoll.clear();
+        accNorm.clear();
+    }
+
+    // Both return false when the sample showed motion and the window was discarded
+    public boolean addGyroscope(float x, float y, float z, long timestampNs) {
+        if (Math.abs(x) > MAX_STILL_GYRO_RATE || Math.abs(y) > MAX_STILL_GYRO_RATE || Math.abs(z) > MAX_STILL_GYRO_RATE
+                || deviates(gyroX, x, MAX_GYRO_DEVIATION) || deviates(gyroY, y, MAX_GYRO_DEVIATION)
+                || deviates(gyroZ, z, MAX_GYRO_DEVIATION)) {
+            motionDetected();
+            return false;
+        }
+        if (gyroX.getCount() == 0) {
+            firstGyroNs = timestampNs;
+        }
+        lastGyroNs = timestampNs;
+        gyroX.add(x);
+        gyroY.add(y);
+        gyroZ.add(z);
+        return true;
+    }
+
+    public boolean addAccelerometer(float x, float y, float z, long timestampNs) {
+        double roll = Math.toDegrees(Math.atan2(x, z));
+        double norm = Math.sqrt(x * x + y * y + z * z);
+        if (deviates(accRoll, roll, MAX_ROLL_DEVIATION) || deviates(accNorm, norm, MAX_GRAVITY_DEVIATION)) {
+            motionDetected();
+            return false;
+        }
+        if (accRoll.getCount() == 0) {
+            firstAccNs = timestampNs;
+        }
+        lastAccNs = timestampNs;
+        accRoll.add(roll);
+        accNorm.add(norm);
+        return true;
+    }
+
+    private static boolean deviates(RunningStats stats, double value, double maxDeviation) {
+        return stats.getCount() >= MIN_SAMPLES_FOR_DEVIATION && Math.abs(value - stats.getMean()) > maxDeviation;
+    }
+
+    private void motionDetected() {
+        clearWindow();
+        motionCount++;
+    }
+
+    // 0 to 1: how far the window is from its minimum duration and the confidence targets.
+    // The standard error shrinks with the square root of the samples, hence the squared ratios
+    public float getProgress() {
+        double progress = Math.min((double) getGyroWindowNs() / MIN_WINDOW_NS, (double) getAccelerometerWindowNs() / MIN_WINDOW_NS);
+        progress = Math.min(progress, Math.min((double) gyroX.getCount() / MIN_SAMPLES, (double) accRoll.getCount() / MIN_SAMPLES));
+        progress = Math.min(progress, squaredRatio(TARGET_GYRO_BIAS_ERROR, getGyroBiasError()));
+        progress = Math.min(progress, squaredRatio(TARGET_LEVEL_ROLL_ERROR, accRoll.getStandardError()));
+        return (float) Math.max(0, Math.min(1, progress));
+    }
+
+    private static double squaredRatio(double target, double error) {
+        double ratio = target / error;
+        return ratio * ratio;
+    }
+
+    public boolean isConfident() {
+        return gyroX.getCount() >= MIN_SAMPLES && accRoll.getCount() >= MIN_SAMPLES
+                && getGyroWindowNs() >= MIN_WINDOW_NS && getAccelerometerWindowNs() >= MIN_WINDOW_NS
+                && getGyroBiasError() <= TARGET_GYRO_BIAS_ERROR && accRoll.getStandardError() <= TARGET_LEVEL_ROLL_ERROR;
+    }
+
+    // Largest standard error of the three gyro bias means
+    public double getGyroBiasError() {
+        return Math.max(gyroX.getStandardError(), Math.max(gyroY.getStandardError(), gyroZ.getStandardError()));
+    }
+
+    public double getLevelRollError() {
+        return accRoll.getStandardError();
+    }
+
+    // Time between the first and the last sample of the window
+    public long getGyroWindowNs() {
+        return gyroX.getCount() > 0 ? lastGyroNs - firstGyroNs : 0;
+    }
+
+    public long getAccelerometerWindowNs() {
+        return accRoll.getCount() > 0 ? lastAccNs - firstAccNs : 0;
+    }
+
+    public long getGyroSampleCount() {
+        return gyroX.getCount();
+    }
+
+    public long getAccelerometerSampleCount() {
+        return accRoll.getCount();
+    }
+
+    public int getMotionCount() {
+        return motionCount;
+    }
+
+    public float getGyroBiasX() {
+        return (float) gyroX.getMean();
+    }
+
+    public float getGyroBiasY() {
+        return (float) gyroY.getMean();
+    }
+
+    public float getGyroBiasZ() {
+        return (float) gyroZ.getMean();
+    }
+
+    public float getLevelRoll() {
+        return (float) accRoll.getMean();
+    }
+}
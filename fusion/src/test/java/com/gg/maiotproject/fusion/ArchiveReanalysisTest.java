@@ -0,0 +1,268 @@
+package com.gg.maiotproject.fusion;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ArchiveReanalysisTest {
+
+    private static final double GRAVITY = 9.81;
+    private static final long GYRO_PERIOD_NS = 2_500_000L; // 400 Hz
+    private static final long ACC_PERIOD_NS = 5_000_000L;  // 200 Hz
+    private static final long SECOND_NS = 1_000_000_000L;
+    private static final float MOUNT_DEG = 3f;             // Phone mounted a little off level
+    private static final float GYRO_BIAS = 0.01f;          // rad/s, about 0.6 deg/s
+
+    // Waits 5 s, rides cornerCount corners of peakLean alternating sides with straights between them, stops
+    // for 10 s halfway and at the end. Generated again on each read, so rides take no memory
+    private static final class SyntheticRide implements ArchiveReanalysis.Ride {
+        private final String name;
+        private final int cornerCount;
+        private final float peakLean;
+        private final long seed;
+
+        SyntheticRide(String name, int cornerCount, float peakLean, long seed) {
+            this.name = name;
+            this.cornerCount = cornerCount;
+            this.peakLean = peakLean;
+            this.seed = seed;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        // Roll in degrees and yaw rate in deg/s at time t (ns from the start)
+        private double roll(long t, double[] yawRate) {
+            long cornerNs = 5 * SECOND_NS, straightNs = 3 * SECOND_NS, stopNs = 10 * SECOND_NS;
+            t -= 5 * SECOND_NS;
+            yawRate[0] = 0;
+            for (int i = 0; i < cornerCount; i++) {
+                if (i == cornerCount / 2) {
+                    if (t < stopNs) {
+                        return 0;
+                    }
+                    t -= stopNs;
+                }
+                if (t < 0) {
+                    return 0;
+                }
+                if (t < cornerNs) {
+                    double lean = (i % 2 == 0 ? peakLean : -peakLean) * Math.sin(Math.PI * t / cornerNs);
+                    yawRate[0] = 1.2 * lean;
+                    return lean;
+                }
+                t -= cornerNs + straightNs;
+            }
+            return 0;
+        }
+
+        long durationNs() {
+            return (5 + 10 + 10) * SECOND_NS + cornerCount * 8 * SECOND_NS;
+        }
+
+        // Stopped (no vibration) before the first corner, at the halfway stop and at the end
+        private boolean stopped(long t) {
+            double[] yawRate = new double[1];
+            return roll(t, yawRate) == 0 && (t < 5 * SECOND_NS || t >= durationNs() - 10 * SECOND_NS
+                    || (roll(t - SECOND_NS, yawRate) == 0 && roll(t + SECOND_NS, yawRate) == 0));
+        }
+
+        @Override
+        public long read(ImuRecordReader.RecordVisitor visitor) {
+            Random random = new Random(seed);
+            double[] yawRate = new double[1];
+            long count = 0;
+            long nextAcc = ACC_PERIOD_NS / 2;
+            for (long t = GYRO_PERIOD_NS; t < durationNs(); t += GYRO_PERIOD_NS) {
+                for (; nextAcc <= t; nextAcc += ACC_PERIOD_NS) {
+                    double roll = Math.toRadians(roll(nextAcc, yawRate) + MOUNT_DEG);
+                    double noise = stopped(nextAcc) ? 0.02 : 0.8; // Road vibration while riding
+                    visitor.onRecord(FusionEngine.SENSOR_ACCELEROMETER, nextAcc,
+                            (float) (GRAVITY * Math.sin(roll) + random.nextGaussian() * noise),
+                            (float) (random.nextGaussian() * noise),
+                            (float) (GRAVITY * Math.cos(roll) + random.nextGaussian() * noise));
+                    count++;
+                }
+                double rollRate = Math.toRadians(roll(t + 500_000L, yawRate) - roll(t - 500_000L, yawRate)) / 1e-3;
+                double roll = roll(t, yawRate);
+                double noise = stopped(t) ? 0.002 : 0.06;
+                double absoluteRoll = Math.toRadians(roll + MOUNT_DEG);
+                // Yaw rate around the vertical, seen along the device Z axis
+                double gyroZ = Math.toRadians(yawRate[0]) / Math.cos(absoluteRoll);
+                visitor.onRecord(FusionEngine.SENSOR_GYROSCOPE, t,
+                        (float) (rollRate + random.nextGaussian() * noise) + GYRO_BIAS,
+                        (float) (random.nextGaussian() * noise) + GYRO_BIAS,
+                        (float) (gyroZ + random.nextGaussian() * noise) + GYRO_BIAS);
+                count++;
+            }
+            return count;
+        }
+    }
+
+    private static final FusionParameters CALIBRATED = FusionParameters.defaults(FusionEngineType.COMPLEMENTARY)
+            .withCalibration(5 * SECOND_NS);
+
+    private static ArchiveReanalysis.Result run(List<ArchiveReanalysis.Ride> rides, List<FusionParameters> parameterSets,
+                                                int threads) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return new ArchiveReanalysis(parameterSets).run(rides, pool, null);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void ride_givesItsLeanCornersAndStops() {
+        SyntheticRide ride = new SyntheticRide("ride", 6, 35f, 1);
+        ArchiveReanalysis.Result result = run(Collections.<ArchiveReanalysis.Ride>singletonList(ride),
+                Collections.singletonList(CALIBRATED), 1);
+
+        RideMetrics metrics = result.getMetrics(0, 0);
+        assertEquals(0, result.getFailedRideCount());
+        assertTrue(metrics.calibrationConfident);
+        assertEquals(35f, metrics.maxPositiveRoll, 2f);
+        assertEquals(-35f, metrics.maxNegativeRoll, 2f);
+        assertEquals(3, metrics.leftCorners);
+        assertEquals(3, metrics.rightCorners);
+        // The rest of the calibration wait, the halfway stop and the one at the end
+        assertEquals(3, metrics.stopCount);
+        assertTrue(metrics.stopNs > 15 * SECOND_NS);
+        assertTrue(metrics.meanStopDrift < 0.5);
+    }
+
+    @Test
+    public void uncalibratedGyroBias_showsAsDriftAtStops() {
+        SyntheticRide ride = new SyntheticRide("ride", 4, 30f, 2);
+        List<FusionParameters> parameterSets = Arrays.asList(
+                CALIBRATED,
+                FusionParameters.complementary(0.97f),
+                FusionParameters.complementary(0.995f),
+                FusionParameters.quaternion(1.0f, 0.05f).withCalibration(5 * SECOND_NS));
+        ArchiveReanalysis.Result result = run(Collections.<ArchiveReanalysis.Ride>singletonList(ride), parameterSets, 1);
+
+        // Without calibration the gyro bias pulls the roll away from the accelerometer's, more so with less
+        // accelerometer correction
+        assertTrue(result.getMeanStopDrift(0) < result.getMeanStopDrift(1));
+        assertTrue(result.getMeanStopDrift(1) < result.getMeanStopDrift(2));
+        assertTrue(result.getMeanStopDrift(3) < 0.5);
+        assertEquals(4, result.getCornerCount(0));
+        assertEquals(4, result.getCornerCount(3));
+    }
+
+    @Test
+    public void parallelRun_givesTheSameResultsAsOneThread() {
+        List<ArchiveReanalysis.Ride> rides = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            rides.add(new SyntheticRide("ride" + i, 2 + i % 5, 20f + i, 100 + i));
+        }
+        List<FusionParameters> parameterSets = Arrays.asList(CALIBRATED,
+                CALIBRATED.withAlpha(0.99f), FusionParameters.defaults(FusionEngineType.QUATERNION).withCalibration(5 * SECOND_NS));
+        ArchiveReanalysis.Result sequential = run(rides, parameterSets, 1);
+        ArchiveReanalysis.Result parallel = run(rides, parameterSets, 4);
+
+        for (int r = 0; r < rides.size(); r++) {
+            assertEquals(rides.get(r).getName(), parallel.getRideName(r));
+            for (int p = 0; p < parameterSets.size(); p++) {
+                RideMetrics expected = sequential.getMetrics(r, p);
+                RideMetrics actual = parallel.getMetrics(r, p);
+                assertSame(parameterSets.get(p), actual.parameters);
+                assertEquals(expected.sampleCount, actual.sampleCount);
+                assertEquals(expected.maxPositiveRoll, actual.maxPositiveRoll, 0f);
+                assertEquals(expected.maxNegativeRoll, actual.maxNegativeRoll, 0f);
+                assertEquals(expected.meanStopDrift, actual.meanStopDrift, 0.0);
+                assertEquals(expected.stopNs, actual.stopNs);
+                assertEquals(expected.getCornerCount(), actual.getCornerCount());
+            }
+        }
+        assertEquals(sequential.getSampleCount(), parallel.getSampleCount());
+    }
+
+    @Test
+    public void unreadableRide_isReportedWithoutStoppingTheOthers() {
+        ArchiveReanalysis.Ride broken = new ArchiveReanalysis.Ride() {
+            @Override
+            public String getName() {
+                return "broken";
+            }
+
+            @Override
+            public long read(ImuRecordReader.RecordVisitor visitor) throws IOException {
+                visitor.onRecord(FusionEngine.SENSOR_GYROSCOPE, 1, 0, 0, 0);
+                throw new IOException("Corrupted IMU block");
+            }
+        };
+        List<ArchiveReanalysis.Ride> rides = Arrays.asList(new SyntheticRide("a", 2, 30f, 3), broken,
+                new SyntheticRide("b", 2, 30f, 4));
+        ArchiveReanalysis.Result result = run(rides, Collections.singletonList(CALIBRATED), 2);
+
+        assertEquals(1, result.getFailedRideCount());
+        assertNotNull(result.getError(1));
+        assertNull(result.getMetrics(1, 0));
+        assertEquals(2, result.getMetrics(0, 0).getCornerCount());
+        assertEquals(2, result.getMetrics(2, 0).getCornerCount());
+        assertEquals(4, result.getCornerCount(0));
+    }
+
+    @Test
+    public void rideFailingAtRuntime_isReportedWithoutStoppingTheOthers() {
+        ArchiveReanalysis.Ride truncated = new ArchiveReanalysis.Ride() {
+            @Override
+            public String getName() {
+                return "truncated";
+            }
+
+            @Override
+            public long read(ImuRecordReader.RecordVisitor visitor) {
+                visitor.onRecord(FusionEngine.SENSOR_GYROSCOPE, 1, 0, 0, 0);
+                throw new IndexOutOfBoundsException("Block shorter than its header");
+            }
+        };
+        List<ArchiveReanalysis.Ride> rides = Arrays.asList(new SyntheticRide("a", 2, 30f, 3), truncated,
+                new SyntheticRide("b", 2, 30f, 4));
+        ArchiveReanalysis.Result result = run(rides, Arrays.asList(CALIBRATED, CALIBRATED), 2);
+
+        assertEquals(1, result.getFailedRideCount());
+        assertTrue(result.getError(1) instanceof IndexOutOfBoundsException);
+        assertNull(result.getMetrics(1, 0));
+        assertNull(result.getMetrics(1, 1));
+        assertEquals(4, result.getCornerCount(0));
+        assertEquals(4, result.getCornerCount(1));
+    }
+
+    @Test
+    public void cancel_stopsTheRun() {
+        List<ArchiveReanalysis.Ride> rides = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            rides.add(new SyntheticRide("ride" + i, 2, 30f, i));
+        }
+        final ArchiveReanalysis reanalysis = new ArchiveReanalysis(Collections.singletonList(CALIBRATED));
+        final AtomicInteger progress = new AtomicInteger(0);
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            reanalysis.run(rides, pool, (ridesDone, rideCount) -> {
+                assertEquals(8, rideCount);
+                progress.set(ridesDone);
+                reanalysis.cancel();
+            });
+            fail("Not cancelled");
+        } catch (CancellationException e) {
+            assertTrue(reanalysis.isCancelled());
+            assertEquals(1, progress.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
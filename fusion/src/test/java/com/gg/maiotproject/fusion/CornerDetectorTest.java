@@ -0,0 +1,148 @@
+package com.gg.maiotproject.fusion;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CornerDetectorTest {
+
+    private static final long PERIOD_NS = 2_500_000L; // 400 Hz
+    private static final long SECOND_NS = 1_000_000_000L;
+
+    private final Random random = new Random(11);
+    private long now = SECOND_NS;
+
+    // Leans to peakLean and back in a half sine over durationNs, turning in proportion to the lean
+    private void corner(CornerDetector detector, float peakLean, long durationNs) {
+        corner(detector, peakLean, durationNs, durationNs);
+    }
+
+    // The first ridingNs of the corner
+    private void corner(CornerDetector detector, float peakLean, long durationNs, long ridingNs) {
+        for (long t = 0; t < ridingNs; t += PERIOD_NS) {
+            float roll = (float) (peakLean * Math.sin(Math.PI * t / durationNs) + random.nextGaussian() * 0.5);
+            detector.add(now, roll, roll * 1.5f);
+            now += PERIOD_NS;
+        }
+    }
+
+    private void straight(CornerDetector detector, long durationNs) {
+        for (long t = 0; t < durationNs; t += PERIOD_NS) {
+            float roll = (float) (random.nextGaussian() * 2);
+            detector.add(now, roll, (float) random.nextGaussian() * 3);
+            now += PERIOD_NS;
+        }
+    }
+
+    @Test
+    public void corners_areFoundWithTheirApexAndPeakLean() {
+        double[] position = {45.0, 9.0};
+        CornerDetector detector = new CornerDetector(latLon -> {
+            latLon[0] = position[0];
+            latLon[1] = position[1];
+            return true;
+        });
+        straight(detector, 5 * SECOND_NS);
+        long leftStart = now;
+        corner(detector, 40f, 6 * SECOND_NS);
+        straight(detector, 3 * SECOND_NS);
+        position[0] = 45.1;
+        long rightStart = now;
+        corner(detector, -25f, 4 * SECOND_NS);
+        corner(detector, 30f, 4 * SECOND_NS);         // S-bend straight after it
+        straight(detector, 2 * SECOND_NS);
+        corner(detector, 20f, SECOND_NS / 2);         // A swerve
+        straight(detector, 2 * SECOND_NS);
+        detector.finish();
+
+        List<Corner> corners = detector.getCorners();
+        assertEquals(3, corners.size());
+
+        Corner left = corners.get(0);
+        assertTrue(left.isLeft());
+        assertEquals(40f, left.peakLean, 2f);
+        assertEquals(leftStart + 3 * SECOND_NS, left.apexNs, 300_000_000L);
+        assertTrue(left.entryNs >= leftStart && left.entryNs < leftStart + SECOND_NS);
+        assertTrue(left.exitNs > leftStart + 5 * SECOND_NS && left.exitNs <= leftStart + 6 * SECOND_NS);
+        assertTrue(left.timeAtLeanNs > 3 * SECOND_NS && left.timeAtLeanNs < left.getDurationNs());
+        assertTrue(left.meanLean > CornerDetector.EXIT_LEAN_DEG && left.meanLean < 40f);
+        assertEquals(45.0, left.apexLatitude, 0.0);
+
+        Corner right = corners.get(1);
+        assertFalse(right.isLeft());
+        assertEquals(-25f, right.peakLean, 2f);
+        assertEquals(rightStart + 2 * SECOND_NS, right.apexNs, 300_000_000L);
+        assertEquals(45.1, right.apexLatitude, 0.0);
+        assertTrue(corners.get(2).isLeft());
+        assertTrue(corners.get(2).entryNs >= right.exitNs);
+
+        // Every sample interval counted once
+        LeanHistogram histogram = detector.getHistogram();
+        assertEquals(now - PERIOD_NS - SECOND_NS, histogram.getTotalNs());
+        assertTrue(histogram.getLeftNs(LeanHistogram.bucketOf(38f)) > 0);
+        assertEquals(0, histogram.getRightNs(LeanHistogram.bucketOf(38f)));
+    }
+
+    @Test
+    public void pause_closesTheCornerAndIsNotCounted() {
+        CornerDetector detector = new CornerDetector(null);
+        straight(detector, SECOND_NS);
+        corner(detector, 35f, 3 * SECOND_NS, 2 * SECOND_NS); // Stopped while still leaned
+        long pausedAt = now - PERIOD_NS;
+        now += 60 * SECOND_NS;
+        straight(detector, SECOND_NS);
+        detector.finish();
+
+        assertEquals(1, detector.getCorners().size());
+        Corner corner = detector.getCorners().get(0);
+        assertEquals(pausedAt, corner.exitNs);
+        assertTrue(Double.isNaN(corner.apexLatitude));
+        assertTrue(detector.getHistogram().getTotalNs() < 4 * SECOND_NS);
+    }
+
+    @Test
+    public void engine_reportsTheYawRateAroundTheVertical() {
+        float[] last = new float[2];
+        int[] calls = {0};
+        boolean[] wanted = {false};
+        FusionEngine engine = FusionEngineType.COMPLEMENTARY.create(new FusionEngine.Listener() {
+            @Override
+            public void onNewMaxPositiveRoll(float maxPositiveRoll) {
+            }
+
+            @Override
+            public void onNewMaxNegativeRoll(float maxNegativeRoll) {
+            }
+
+            @Override
+            public void onFusedSample(float roll, float yawRate, long timestampNs) {
+                last[0] = roll;
+                last[1] = yawRate;
+                calls[0]++;
+            }
+
+            @Override
+            public boolean wantsFusedSamples() {
+                return wanted[0];
+            }
+        });
+        engine.setTrackingMode(true);
+        for (int i = 0; i < 10; i++) {
+            long t = (i + 1) * PERIOD_NS;
+            engine.onSample(FusionEngine.SENSOR_ACCELEROMETER, t, 0f, 0f, 9.81f);
+            engine.onSample(FusionEngine.SENSOR_GYROSCOPE, t, 0f, 0f, 0.5f);
+        }
+        assertEquals(0, calls[0]); // Not computed unless asked for
+        wanted[0] = true;
+        for (int i = 10; i < 400; i++) {
+            long t = (i + 1) * PERIOD_NS;
+            engine.onSample(FusionEngine.SENSOR_ACCELEROMETER, t, 0f, 0f, 9.81f);
+            engine.onSample(FusionEngine.SENSOR_GYROSCOPE, t, 0f, 0f, 0.5f); // Turning flat on the table
+        }
+        assertEquals(0f, last[0], 0.5f);
+        assertEquals(Math.toDegrees(0.5), last[1], 0.5);
+    }
+}
@@ -0,0 +1,137 @@
+package com.gg.maiotproject.fusion;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+// Runs the engines head to head. The synthetic ride banks around the device Y axis, so the gravity
+// direction and the gyro rates agree (the physics a real recording has): roll = atan2(AccX, AccZ),
+// gyro Y = -d(roll)/dt. FusionBenchmark compares them on a recorded ride.
+public class FusionEngineComparisonTest {
+
+    private static final double GRAVITY = 9.81;
+    private static final long GYRO_PERIOD_NS = 5_000_000L; // 200 Hz
+    private static final long ACC_PERIOD_NS = 10_000_000L; // 100 Hz
+
+    private interface RollProfile {
+        double rollDeg(long t);
+    }
+
+    private static final class Result {
+        double rmsError;
+        float maxPositiveRoll;
+        float maxNegativeRoll;
+        float finalRoll;
+    }
+
+    private static final FusionEngine.Listener NO_CALLBACKS = new FusionEngine.Listener() {
+        @Override
+        public void onNewMaxPositiveRoll(float maxPositiveRoll) {
+        }
+
+        @Override
+        public void onNewMaxNegativeRoll(float maxNegativeRoll) {
+        }
+    };
+
+    // Feeds the profile with sensor noise and an uncalibrated gyro bias, error measured after a 2 s settling time
+    private static Result ride(FusionEngine engine, RollProfile profile, long durationNs, float gyroBias) {
+        Random random = new Random(11);
+        PublishedRoll published = new PublishedRoll();
+        engine.setPublishedRoll(published);
+        engine.setTrackingMode(true);
+        Result result = new Result();
+        double sum = 0;
+        int count = 0;
+        long nextAcc = ACC_PERIOD_NS / 2;
+        for (long t = GYRO_PERIOD_NS; t < durationNs; t += GYRO_PERIOD_NS) {
+            for (; nextAcc <= t; nextAcc += ACC_PERIOD_NS) {
+                double roll = Math.toRadians(profile.rollDeg(nextAcc));
+                engine.onSample(FusionEngine.SENSOR_ACCELEROMETER, nextAcc,
+                        (float) (GRAVITY * Math.sin(roll) + random.nextGaussian() * 0.05),
+                        (float) (random.nextGaussian() * 0.05),
+                        (float) (GRAVITY * Math.cos(roll) + random.nextGaussian() * 0.05));
+            }
+            double rate = -Math.toRadians(profile.rollDeg(t + 500_000L) - profile.rollDeg(t - 500_000L)) / 1e-3;
+            engine.onSample(FusionEngine.SENSOR_GYROSCOPE, t,
+                    (float) (random.nextGaussian() * 0.005) + gyroBias,
+                    (float) (rate + random.nextGaussian() * 0.005) + gyroBias,
+                    (float) (random.nextGaussian() * 0.005) + gyroBias);
+            assertEquals(engine.getFilteredRoll(), published.get(), 0.0f); // Same roll, converted when read
+            long fused = engine.getFilteredRollTimestamp();
+            if (fused > 2_000_000_000L) {
+                double error = engine.getFilteredRoll() - profile.rollDeg(fused);
+                sum += error * error;
+                count++;
+            }
+        }
+        engine.setTrackingMode(false);
+        result.rmsError = Math.sqrt(sum / count);
+        result.maxPositiveRoll = engine.getMaxPositiveRoll();
+        result.maxNegativeRoll = engine.getMaxNegativeRoll();
+        result.finalRoll = engine.getFilteredRoll();
+        return result;
+    }
+
+    private static final RollProfile CORNERS = t -> 40 * Math.sin(2 * Math.PI * 0.2 * t / 1e9);
+
+    @Test
+    public void quaternionEngine_tracksBankAroundTheRightAxis() {
+        Result quaternion = ride(new QuaternionFusionEngine(NO_CALLBACKS), CORNERS, 30_000_000_000L, 0);
+        Result complementary = ride(new ComplementaryRollFilter(NO_CALLBACKS), CORNERS, 30_000_000_000L, 0);
+
+        assertTrue(quaternion.rmsError < 0.5);
+        assertTrue(quaternion.rmsError < complementary.rmsError);
+        assertEquals(40, quaternion.maxPositiveRoll, 0.5);
+        assertEquals(-40, quaternion.maxNegativeRoll, 0.5);
+    }
+
+    @Test
+    public void quaternionEngine_integralTermRemovesUncalibratedGyroBias() {
+        RollProfile heldLean = t -> 20;
+        float bias = 0.01f; // rad/s, about 0.6 deg/s
+        Result withIntegral = ride(new QuaternionFusionEngine(NO_CALLBACKS), heldLean, 120_000_000_000L, bias);
+        Result proportionalOnly = ride(new QuaternionFusionEngine(NO_CALLBACKS, 1.0f, 0.0f), heldLean, 120_000_000_000L, bias);
+
+        assertEquals(20, withIntegral.finalRoll, 0.1);
+        assertTrue(Math.abs(withIntegral.finalRoll - 20) < Math.abs(proportionalOnly.finalRoll - 20) / 3);
+    }
+
+    @Test
+    public void calibration_carriesOverToAnotherEngine() {
+        ComplementaryRollFilter calibrated = new ComplementaryRollFilter(NO_CALLBACKS);
+        calibrated.startCalibration();
+        double mountRoll = Math.toRadians(5); // Phone mounted 5 degrees off level
+        for (int i = 1; i <= 300; i++) {
+            calibrated.onSample(FusionEngine.SENSOR_ACCELEROMETER, i * ACC_PERIOD_NS,
+                    (float) (GRAVITY * Math.sin(mountRoll)), 0, (float) (GRAVITY * Math.cos(mountRoll)));
+            calibrated.onSample(FusionEngine.SENSOR_GYROSCOPE, i * ACC_PERIOD_NS + 1, 0, 0.02f, 0);
+        }
+        calibrated.finalizeCalibration();
+
+        float[] calibration = new float[FusionEngine.CALIBRATION_SIZE];
+        calibrated.getCalibration(calibration);
+        QuaternionFusionEngine quaternion = new QuaternionFusionEngine(NO_CALLBACKS);
+        quaternion.setCalibration(calibration);
+        Result result = ride(quaternion, t -> 5, 10_000_000_000L, 0.02f);
+
+        // The mount offset reads as level, the calibrated gyro bias causes no drift
+        assertEquals(0, result.finalRoll, 0.1);
+    }
+
+    @Test
+    public void quaternionEngine_runsGiveTheSameResultsAsSingleSamples() {
+        ImuTrace trace = ImuTrace.synthetic(10_000_000_000L, 2_500_000L, 5_000_000L, 40, 0.5, 3);
+        FusionEngine single = new QuaternionFusionEngine(NO_CALLBACKS);
+        FusionEngine batched = new QuaternionFusionEngine(NO_CALLBACKS);
+        single.setTrackingMode(true);
+        batched.setTrackingMode(true);
+        trace.replay(single, 1);
+        trace.replay(batched, 64);
+        assertEquals(single.getFilteredRoll(), batched.getFilteredRoll(), 0.0f);
+        assertEquals(single.getMaxPositiveRoll(), batched.getMaxPositiveRoll(), 0.0f);
+        assertEquals(single.getMaxNegativeRoll(), batched.getMaxNegativeRoll(), 0.0f);
+    }
+}
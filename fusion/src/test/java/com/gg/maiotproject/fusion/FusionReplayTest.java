@@ -0,0 +1,147 @@
+package com.gg.maiotproject.fusion;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+// Replays a synthetic lean profile through the filter with the two sensors at different, skewed rates
+// and measures the angle error against the true lean
+public class FusionReplayTest {
+
+    private static final double GRAVITY = 9.81;
+    private static final double AMPLITUDE_DEG = 30;
+    private static final double FREQUENCY_HZ = 0.5;
+    private static final long DURATION_NS = 20_000_000_000L;
+    private static final long GYRO_PERIOD_NS = 5_000_000L; // 200 Hz
+
+    private static double trueRoll(long t) {
+        return AMPLITUDE_DEG * Math.sin(2 * Math.PI * FREQUENCY_HZ * t / 1e9);
+    }
+
+    private static double trueRate(long t) { // rad/s
+        return Math.toRadians(AMPLITUDE_DEG * 2 * Math.PI * FREQUENCY_HZ * Math.cos(2 * Math.PI * FREQUENCY_HZ * t / 1e9));
+    }
+
+    private static final class Sample implements Comparable<Sample> {
+        final int sensorId;
+        final long timestamp;
+        final float x, z;
+
+        Sample(int sensorId, long timestamp, float x, float z) {
+            this.sensorId = sensorId;
+            this.timestamp = timestamp;
+            this.x = x;
+            this.z = z;
+        }
+
+        @Override
+        public int compareTo(Sample other) {
+            return Long.compare(timestamp, other.timestamp);
+        }
+    }
+
+    // Gyro at 200 Hz; accelerometer at the given period, shifted by 3 ms and with +-1 ms of jitter
+    private static List<Sample> trace(long accPeriodNs) {
+        List<Sample> samples = new ArrayList<>();
+        for (long t = GYRO_PERIOD_NS; t < DURATION_NS; t += GYRO_PERIOD_NS) {
+            samples.add(new Sample(FusionEngine.SENSOR_GYROSCOPE, t, (float) trueRate(t), 0));
+        }
+        Random random = new Random(7);
+        for (long t = 3_000_000L; t < DURATION_NS; t += accPeriodNs) {
+            long measured = t + random.nextInt(2_000_000) - 1_000_000;
+            double roll = Math.toRadians(trueRoll(measured));
+            samples.add(new Sample(FusionEngine.SENSOR_ACCELEROMETER, measured,
+                    (float) (GRAVITY * Math.sin(roll)), (float) (GRAVITY * Math.cos(roll))));
+        }
+        Collections.sort(samples); // Delivery order
+        return samples;
+    }
+
+    private static final FusionEngine.Listener NO_CALLBACKS = new FusionEngine.Listener() {
+        @Override
+        public void onNewMaxPositiveRoll(float maxPositiveRoll) {
+        }
+
+        @Override
+        public void onNewMaxNegativeRoll(float maxNegativeRoll) {
+        }
+    };
+
+    // RMS error of the filter output, after a 2 s settling time
+    private static double alignedRmsError(List<Sample> samples) {
+        ComplementaryRollFilter filter = new ComplementaryRollFilter(NO_CALLBACKS);
+        filter.setTrackingMode(true);
+        double sum = 0;
+        int count = 0;
+        long lastFused = 0;
+        for (Sample sample : samples) {
+            filter.onSample(sample.sensorId, sample.timestamp, sample.x, 0, sample.z);
+            long fused = filter.getFilteredRollTimestamp();
+            if (fused != lastFused && fused > 2_000_000_000L) {
+                double error = filter.getFilteredRoll() - trueRoll(fused);
+                sum += error * error;
+                count++;
+            }
+            lastFused = fused;
+        }
+        return Math.sqrt(sum / count);
+    }
+
+    // The previous behaviour: every gyro sample is paired with the latest accelerometer sample, whatever its age
+    private static double latestSampleRmsError(List<Sample> samples) {
+        float roll = 0, accX = 0, accZ = 0;
+        long lastGyro = 0;
+        double sum = 0;
+        int count = 0;
+        for (Sample sample : samples) {
+            if (sample.sensorId == FusionEngine.SENSOR_ACCELEROMETER) {
+                accX = sample.x;
+                accZ = sample.z;
+                continue;
+            }
+            if (lastGyro != 0) {
+                float deltaTime = (sample.timestamp - lastGyro) / 1e9f;
+                float accRoll = (float) Math.toDegrees(Math.atan2(accX, accZ));
+                roll = 0.97f * (roll + (float) Math.toDegrees(sample.x) * deltaTime) + 0.03f * accRoll;
+            }
+            lastGyro = sample.timestamp;
+            if (sample.timestamp > 2_000_000_000L) {
+                double error = roll - trueRoll(sample.timestamp);
+                sum += error * error;
+                count++;
+            }
+        }
+        return Math.sqrt(sum / count);
+    }
+
+    @Test
+    public void interpolatedAccelerometer_keepsErrorLowAtReducedRate() {
+        List<Sample> fastAcc = trace(5_000_000L);  // 200 Hz
+        List<Sample> slowAcc = trace(20_000_000L); // 50 Hz
+
+        double alignedFast = alignedRmsError(fastAcc);
+        double alignedSlow = alignedRmsError(slowAcc);
+        double latestSlow = latestSampleRmsError(slowAcc);
+
+        assertTrue(alignedSlow < 0.1);
+        assertTrue(alignedSlow < latestSlow / 3);
+        assertTrue(alignedSlow < alignedFast + 0.05); // Lowering the accelerometer rate costs (almost) nothing
+    }
+
+    @Test
+    public void slowAccelerometer_doesNotHoldTheAngleBack() {
+        ComplementaryRollFilter filter = new ComplementaryRollFilter(NO_CALLBACKS);
+        filter.setTrackingMode(true);
+        filter.onSample(FusionEngine.SENSOR_ACCELEROMETER, 1_000_000L, 0, 0, (float) GRAVITY);
+        for (long t = 5_000_000L; t <= 200_000_000L; t += GYRO_PERIOD_NS) {
+            filter.onSample(FusionEngine.SENSOR_GYROSCOPE, t, 0, 0, 0);
+        }
+        // No accelerometer sample after 1 ms: gyro samples are fused once they are 50 ms old
+        assertTrue(filter.getFilteredRollTimestamp() >= 200_000_000L - 50_000_000L);
+    }
+}
@@ -0,0 +1,170 @@
+package com.gg.maiotproject.fusion;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import static org.junit.Assert.*;
+
+public class ImuBlockFileTest {
+
+    private static final int RAW_RECORD_BYTES = 4 + 8 + 3 * 4; // ImuRecordFormat.RECORD_BYTES
+    private static final float ACCELEROMETER_RESOLUTION = 0.0023956299f; // +-8 g on 16 bits
+    private static final float GYROSCOPE_RESOLUTION = 0.0010652645f;     // +-2000 deg/s on 16 bits
+
+    private File dir;
+
+    @Before
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("imublocks").toFile();
+    }
+
+    private static ImuBlockWriter writer(File file, boolean withResolutions) throws IOException {
+        ImuBlockWriter writer = ImuBlockWriter.create(file);
+        if (withResolutions) {
+            writer.setResolution(FusionEngine.SENSOR_ACCELEROMETER, ACCELEROMETER_RESOLUTION);
+            writer.setResolution(FusionEngine.SENSOR_GYROSCOPE, GYROSCOPE_RESOLUTION);
+        }
+        return writer;
+    }
+
+    private static void write(ImuTrace trace, ImuBlockWriter writer) throws IOException {
+        for (int i = 0; i < trace.size(); i++) {
+            writer.add(trace.getSensorId(i), trace.getTimestamp(i), trace.getX(i), trace.getY(i), trace.getZ(i));
+        }
+        writer.finish();
+    }
+
+    private static void assertSameSamples(ImuTrace expected, ImuTrace actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getSensorId(i), actual.getSensorId(i));
+            assertEquals(expected.getTimestamp(i), actual.getTimestamp(i));
+            assertEquals(Float.floatToRawIntBits(expected.getX(i)), Float.floatToRawIntBits(actual.getX(i)));
+            assertEquals(Float.floatToRawIntBits(expected.getY(i)), Float.floatToRawIntBits(actual.getY(i)));
+            assertEquals(Float.floatToRawIntBits(expected.getZ(i)), Float.floatToRawIntBits(actual.getZ(i)));
+        }
+    }
+
+    @Test
+    public void roundTrip_isBitExact_forQuantizedAndArbitraryReadings() throws IOException {
+        // Jittery, unquantized readings: XOR coding, even with resolutions set
+        ImuTrace noisy = ImuTrace.synthetic(20_000_000_000L, 2_500_000L, 5_000_000L, 40, 0.5, 1);
+        write(noisy, writer(new File(dir, ImuBlockFile.FILE_NAME), true));
+        assertSameSamples(noisy, ImuTrace.fromRecording(dir));
+
+        // Quantized readings: steps of the resolution
+        ImuTrace quantized = ImuTrace.synthetic(20_000_000_000L, 2_500_000L, 5_000_000L, 40, 0.5, 2_000, 2)
+                .quantized(ACCELEROMETER_RESOLUTION, GYROSCOPE_RESOLUTION);
+        write(quantized, writer(new File(dir, ImuBlockFile.FILE_NAME), true));
+        assertSameSamples(quantized, ImuTrace.fromRecording(dir));
+    }
+
+    @Test
+    public void oddValues_andOneSensorBlocks_roundTrip() throws IOException {
+        File file = new File(dir, "odd.blocks");
+        ImuBlockWriter writer = writer(file, true);
+        float[] odd = {0f, -0f, Float.NaN, Float.intBitsToFloat(0x7FC00123), Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY,
+                Float.MIN_VALUE, -Float.MAX_VALUE, 3 * ACCELEROMETER_RESOLUTION, 1e9f};
+        long[] times = {Long.MIN_VALUE, -1, 0, 1, Long.MAX_VALUE, 5, 5, 4_000_000_000L, 4_000_000_001L, 3};
+        for (int i = 0; i < 2 * ImuBlockFile.BLOCK_SAMPLES; i++) { // A block of accelerometer samples only
+            writer.add(FusionEngine.SENSOR_ACCELEROMETER, times[i % times.length], odd[i % odd.length],
+                    odd[(i + 3) % odd.length], (i % 300) * ACCELEROMETER_RESOLUTION);
+        }
+        writer.add(FusionEngine.SENSOR_GYROSCOPE, 7, 1f, 2f, 3f);
+        writer.add(99, 8, 1f, 2f, 3f); // Not an IMU channel
+        writer.finish();
+        assertEquals(1, writer.getDroppedSampleCount());
+
+        try (ImuBlockFile blocks = ImuBlockFile.open(file)) {
+            assertEquals(3, blocks.getBlockCount());
+            assertEquals(2 * ImuBlockFile.BLOCK_SAMPLES + 1, blocks.getSampleCount());
+            ImuBlockFile.Block block = new ImuBlockFile.Block();
+            blocks.decodeBlock(1, block);
+            for (int i = 0; i < block.size; i++) {
+                int sample = ImuBlockFile.BLOCK_SAMPLES + i;
+                assertEquals(FusionEngine.SENSOR_ACCELEROMETER, block.sensorIds[i]);
+                assertEquals(times[sample % times.length], block.timestampsNs[i]);
+                assertEquals(Float.floatToRawIntBits(odd[sample % odd.length]), Float.floatToRawIntBits(block.xs[i]));
+                assertEquals(Float.floatToRawIntBits(odd[(sample + 3) % odd.length]), Float.floatToRawIntBits(block.ys[i]));
+                assertEquals((sample % 300) * ACCELEROMETER_RESOLUTION, block.zs[i], 0f);
+            }
+            blocks.decodeBlock(2, block);
+            assertEquals(1, block.size);
+            assertEquals(FusionEngine.SENSOR_GYROSCOPE, block.sensorIds[0]);
+            assertEquals(3f, block.zs[0], 0f);
+        }
+    }
+
+    @Test
+    public void singleBlocks_areFoundByTime_andDecodedOnTheirOwn() throws IOException {
+        ImuTrace trace = ImuTrace.synthetic(60_000_000_000L, 2_500_000L, 5_000_000L, 40, 0.5, 2_000, 3)
+                .quantized(ACCELEROMETER_RESOLUTION, GYROSCOPE_RESOLUTION);
+        File file = new File(dir, ImuBlockFile.FILE_NAME);
+        write(trace, writer(file, true));
+        try (ImuBlockFile blocks = ImuBlockFile.open(file)) {
+            ImuBlockFile.Block block = new ImuBlockFile.Block();
+            for (int index = blocks.getBlockCount() - 1; index >= 0; index -= 7) {
+                long t = trace.getTimestamp(index * ImuBlockFile.BLOCK_SAMPLES + 100);
+                assertEquals(index, blocks.findBlock(t));
+                blocks.decodeBlock(index, block);
+                int first = index * ImuBlockFile.BLOCK_SAMPLES;
+                assertEquals(Math.min(ImuBlockFile.BLOCK_SAMPLES, trace.size() - first), block.size);
+                for (int i = 0; i < block.size; i++) {
+                    assertEquals(trace.getTimestamp(first + i), block.timestampsNs[i]);
+                    assertEquals(trace.getY(first + i), block.ys[i], 0f);
+                }
+            }
+            assertEquals(blocks.getBlockCount(), blocks.findBlock(Long.MAX_VALUE));
+        }
+    }
+
+    @Test
+    public void anUnfinishedFile_readsBackItsCompleteBlocks() throws IOException {
+        ImuTrace trace = ImuTrace.synthetic(10_000_000_000L, 2_500_000L, 5_000_000L, 40, 0.5, 4);
+        File file = new File(dir, "recording.blocks");
+        ImuBlockWriter writer = writer(file, false);
+        for (int i = 0; i < 3 * ImuBlockFile.BLOCK_SAMPLES + 10; i++) {
+            writer.add(trace.getSensorId(i), trace.getTimestamp(i), trace.getX(i), trace.getY(i), trace.getZ(i));
+        }
+        // The process killed mid-ride, while the fourth block was being written
+        File killed = new File(dir, "killed.blocks");
+        Files.copy(file.toPath(), killed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        try (RandomAccessFile raf = new RandomAccessFile(killed, "rw")) {
+            raf.seek(raf.length());
+            raf.write(new byte[]{0, 4, 0, 0, 100, 0, 0, 0}); // Header of a block cut short
+        }
+        writer.close();
+
+        try (ImuBlockFile blocks = ImuBlockFile.open(killed)) {
+            assertEquals(3, blocks.getBlockCount());
+            final int[] count = {0};
+            blocks.read((sensorId, timestampNs, x, y, z) -> {
+                assertEquals(trace.getTimestamp(count[0]), timestampNs);
+                assertEquals(trace.getX(count[0]), x, 0f);
+                count[0]++;
+            });
+            assertEquals(3 * ImuBlockFile.BLOCK_SAMPLES, count[0]);
+        }
+    }
+
+    @Test
+    public void aRide_isAtLeastFiveTimesSmallerThanTheRawRecords() throws IOException {
+        // Ten minutes at 400 Hz + 200 Hz, timestamped by the sensor FIFO, readings quantized by the driver
+        ImuTrace trace = ImuTrace.synthetic(600_000_000_000L, 2_500_000L, 5_000_000L, 40, 0.5, 2_000, 5)
+                .quantized(ACCELEROMETER_RESOLUTION, GYROSCOPE_RESOLUTION);
+        long raw = (long) trace.size() * RAW_RECORD_BYTES;
+        File file = new File(dir, ImuBlockFile.FILE_NAME);
+        write(trace, writer(file, true));
+        File xorFile = new File(dir, "xor.blocks");
+        write(trace, writer(xorFile, false));
+
+        assertTrue(file.length() * 5 <= raw);
+        assertTrue(xorFile.length() < raw);
+    }
+}
@@ -0,0 +1,196 @@
+package com.gg.maiotproject.fusion;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LeanTimelineTest {
+
+    private static final long GYRO_PERIOD_NS = 2_500_000L; // 400 Hz
+    private static final long START_NS = 123_456_789_000L;
+    private static final long PAUSE_FROM_NS = START_NS + 600_000_000_000L;  // 10 min in, stopped for 2 min
+    private static final long PAUSE_TO_NS = START_NS + 720_000_000_000L;
+
+    private File file;
+    private long[] times;
+    private float[] rolls;
+
+    @Before
+    public void createFile() throws IOException {
+        file = new File(Files.createTempDirectory("lean").toFile(), "ride.lean");
+    }
+
+    // 20 minutes of corners with sensor jitter, and a pause without samples
+    private void record(long durationNs) throws IOException {
+        Random random = new Random(5);
+        int count = (int) (durationNs / GYRO_PERIOD_NS);
+        times = new long[count];
+        rolls = new float[count];
+        int size = 0;
+        LeanTimelineWriter writer = LeanTimelineWriter.create(file);
+        for (int i = 0; i < count; i++) {
+            long t = START_NS + i * GYRO_PERIOD_NS + (i > 0 ? random.nextInt(100_000) : 0);
+            if (i > 0 && t >= PAUSE_FROM_NS && t < PAUSE_TO_NS) {
+                continue;
+            }
+            float roll = (float) (40 * Math.sin(t / 4e9) + random.nextGaussian());
+            writer.add(t, roll);
+            times[size] = START_NS + (t - START_NS) / LeanTimeline.TIME_UNIT_NS * LeanTimeline.TIME_UNIT_NS;
+            rolls[size] = roll;
+            size++;
+        }
+        writer.finish();
+        times = Arrays.copyOf(times, size);
+        rolls = Arrays.copyOf(rolls, size);
+    }
+
+    private int bruteSeek(long t) {
+        int i = 0;
+        while (i < times.length && times[i] < t) i++;
+        return i;
+    }
+
+    @Test
+    public void seek_matchesALinearScan() throws IOException {
+        record(1_200_000_000_000L);
+        LeanTimeline timeline = LeanTimeline.open(file);
+        assertEquals(times.length, timeline.size());
+        assertEquals(START_NS, timeline.getStartNs());
+        Random random = new Random(6);
+        for (int q = 0; q < 200; q++) {
+            long t = START_NS - 1_000_000_000L + (long) (random.nextDouble() * 1_202_000_000_000L);
+            int index = timeline.seek(t);
+            assertEquals(bruteSeek(t), index);
+            if (index < times.length) {
+                assertEquals(times[index], timeline.getTimestampNs(index));
+                assertEquals(rolls[index], timeline.getRoll(index), 0f);
+            }
+        }
+        assertEquals(0, timeline.seek(times[0]));
+        assertEquals(times.length - 1, timeline.seek(times[times.length - 1]));
+        assertEquals(times.length, timeline.seek(times[times.length - 1] + 1));
+    }
+
+    @Test
+    public void chart_staysWithinTheBucketsAndMatchesTheSamples() throws IOException {
+        record(1_200_000_000_000L);
+        LeanTimeline timeline = LeanTimeline.open(file);
+        LeanTimeline.Chart chart = new LeanTimeline.Chart();
+        long[][] ranges = {
+                {START_NS, START_NS + 1_200_000_000_000L},                          // Whole ride
+                {START_NS + 97_000_000_000L, START_NS + 157_000_000_000L},          // One minute
+                {START_NS + 590_000_000_000L, START_NS + 730_000_000_000L},         // Across the pause
+        };
+        for (long[] range : ranges) {
+            for (int maxBuckets : new int[]{1, 7, 500, 1000}) {
+                assertChartMatchesTheSamples(timeline, range[0], range[1], maxBuckets, chart);
+            }
+        }
+
+        // Few enough samples: the samples themselves
+        int count = timeline.chart(START_NS + 60_000_000_000L, START_NS + 61_000_000_000L, 1000, chart);
+        assertEquals(0, chart.bucketNs);
+        int first = bruteSeek(START_NS + 60_000_000_000L);
+        assertEquals(bruteSeek(START_NS + 61_000_000_000L) - first, count);
+        assertEquals(rolls[first], chart.mean[0], 0f);
+        assertEquals(times[first], chart.startNs[0]);
+    }
+
+    @Test
+    public void chart_matchesTheSamplesAcrossPausesOfAnyLength() throws IOException {
+        // Bursts of samples between pauses from a few buckets to hours, of odd and even lengths in buckets
+        Random random = new Random(7);
+        long[] gapsNs = {70_000_000L, 140_000_000L, 1_000_000_000L, 10_800_000_000_000L, 201_000_000L,
+                3_600_000_000_000L, 134_000_000L, 7_200_067_000_000L, 67_000_000L, 60_000_000_000L};
+        times = new long[gapsNs.length * 200 + 200];
+        rolls = new float[times.length];
+        LeanTimelineWriter writer = LeanTimelineWriter.create(file);
+        long t = START_NS;
+        int size = 0;
+        for (int burst = 0; burst <= gapsNs.length; burst++) {
+            for (int i = 0; i < 200; i++, t += GYRO_PERIOD_NS) {
+                float roll = (float) (40 * Math.sin(size / 50.0) + random.nextGaussian());
+                writer.add(t, roll);
+                times[size] = t;
+                rolls[size] = roll;
+                size++;
+            }
+            if (burst < gapsNs.length) {
+                t += gapsNs[burst];
+            }
+        }
+        writer.finish();
+
+        LeanTimeline timeline = LeanTimeline.open(file);
+        assertEquals(times.length, timeline.size());
+        LeanTimeline.Chart chart = new LeanTimeline.Chart();
+        long end = times[times.length - 1] + 1;
+        long[][] ranges = {
+                {START_NS, end},                                                    // Whole ride
+                {START_NS, START_NS + 4_000_000_000L},                              // Short pauses
+                {START_NS + 1_000_000_000L, START_NS + 10_805_000_000_000L},        // Around the longest pause
+                {end - 7_300_000_000_000L, end},                                    // Last bursts
+        };
+        for (long[] range : ranges) {
+            for (int maxBuckets : new int[]{1, 7, 30, 100}) {
+                assertChartMatchesTheSamples(timeline, range[0], range[1], maxBuckets, chart);
+            }
+        }
+    }
+
+    // Every bucket of the chart holds samples, and its min, max and mean are those of its samples
+    private void assertChartMatchesTheSamples(LeanTimeline timeline, long fromNs, long toNs, int maxBuckets,
+                                              LeanTimeline.Chart chart) {
+        int count = timeline.chart(fromNs, toNs, maxBuckets, chart);
+        assertTrue(count > 0 && count <= maxBuckets);
+        assertTrue(chart.bucketNs > 0);
+        for (int b = 0; b < count; b++) {
+            float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+            double sum = 0;
+            int samples = 0;
+            for (int i = bruteSeek(chart.startNs[b]); i < times.length && times[i] < chart.startNs[b] + chart.bucketNs; i++) {
+                min = Math.min(min, rolls[i]);
+                max = Math.max(max, rolls[i]);
+                sum += rolls[i];
+                samples++;
+            }
+            assertTrue(samples > 0); // Empty buckets are left out
+            assertEquals(min, chart.min[b], 0f);
+            assertEquals(max, chart.max[b], 0f);
+            assertEquals(sum / samples, chart.mean[b], 1e-3);
+        }
+    }
+
+    @Test
+    public void writer_dropsSamplesGoingBackInTime() throws IOException {
+        LeanTimelineWriter writer = LeanTimelineWriter.create(file);
+        writer.add(1_000_000_000L, 1f);
+        writer.add(2_000_000_000L, 2f);
+        writer.add(1_500_000_000L, 3f);
+        writer.add(3_000_000_000L, 4f);
+        writer.finish();
+        assertEquals(1, writer.getDroppedSampleCount());
+
+        LeanTimeline timeline = LeanTimeline.open(file);
+        assertEquals(3, timeline.size());
+        assertEquals(4f, timeline.getRoll(2), 0f);
+        assertEquals(2f, timeline.rollAt(2_900_000_000L), 0f);
+        assertEquals(3_000_000_000L, timeline.getEndNs());
+    }
+
+    @Test(expected = IOException.class)
+    public void open_rejectsAnUnfinishedTimeline() throws IOException {
+        LeanTimelineWriter writer = LeanTimelineWriter.create(file);
+        for (int i = 0; i < 5000; i++) {
+            writer.add(i * GYRO_PERIOD_NS, i);
+        }
+        LeanTimeline.open(file); // Killed during the ride
+    }
+}
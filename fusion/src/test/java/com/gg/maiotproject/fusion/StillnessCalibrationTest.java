@@ -0,0 +1,112 @@
+package com.gg.maiotproject.fusion;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StillnessCalibrationTest {
+
+    private static final double GRAVITY = 9.81;
+    // Both sensors at the slowest rate the app registers them (SensorBatchingMode.LIVE), then at a typical fastest
+    private static final long LIVE_PERIOD_NS = 20_000_000L;   // 50 Hz
+    private static final long FASTEST_PERIOD_NS = 2_500_000L; // 400 Hz
+    private static final float BIAS_X = 0.012f, BIAS_Y = -0.007f, BIAS_Z = 0.003f;
+    private static final double MOUNT_ROLL_DEG = 4;
+
+    private static final class ProgressListener implements FusionEngine.Listener {
+        float lastProgress = -1;
+        boolean complete = false;
+        boolean wentBackToZero = false;
+
+        @Override
+        public void onNewMaxPositiveRoll(float maxPositiveRoll) {
+        }
+
+        @Override
+        public void onNewMaxNegativeRoll(float maxNegativeRoll) {
+        }
+
+        @Override
+        public void onCalibrationProgress(float progress, boolean complete) {
+            if (progress == 0 && lastProgress > 0) wentBackToZero = true;
+            lastProgress = progress;
+            this.complete = complete;
+        }
+    }
+
+    // Feeds a still device (gyro and accelerometer every periodNs, realistic noise) until the engine completes.
+    // A bump at bumpAtNs (if > 0) moves the device for 100 ms. Returns the time it took
+    private static long calibrate(FusionEngine engine, ProgressListener listener, long periodNs, long bumpAtNs) {
+        Random random = new Random(5);
+        double roll = Math.toRadians(MOUNT_ROLL_DEG);
+        engine.startCalibration();
+        long t = 0;
+        while (!listener.complete && t < 10_000_000_000L) {
+            t += periodNs;
+            boolean bump = bumpAtNs > 0 && t >= bumpAtNs && t < bumpAtNs + 100_000_000L;
+            float motion = bump ? 0.5f : 0;
+            engine.onSample(FusionEngine.SENSOR_GYROSCOPE, t, BIAS_X + motion + (float) (random.nextGaussian() * 0.005),
+                    BIAS_Y + (float) (random.nextGaussian() * 0.005), BIAS_Z + (float) (random.nextGaussian() * 0.005));
+            engine.onSample(FusionEngine.SENSOR_ACCELEROMETER, t + 1,
+                    (float) (GRAVITY * Math.sin(roll) + motion * 4 + random.nextGaussian() * 0.03),
+                    (float) (random.nextGaussian() * 0.03),
+                    (float) (GRAVITY * Math.cos(roll) + random.nextGaussian() * 0.03));
+        }
+        return t;
+    }
+
+    @Test
+    public void runningStats_matchTwoPassMeanAndVariance() {
+        double[] values = {1e9 + 4, 1e9 + 7, 1e9 + 13, 1e9 + 16}; // Large offset: naive sums of squares lose it
+        RunningStats stats = new RunningStats();
+        for (double value : values) {
+            stats.add(value);
+        }
+        assertEquals(4, stats.getCount());
+        assertEquals(1e9 + 10, stats.getMean(), 1e-6);
+        assertEquals(30, stats.getVariance(), 1e-6);
+    }
+
+    @Test
+    public void stillDevice_finishesEarlyWithAccurateOffsets() {
+        for (long periodNs : new long[]{LIVE_PERIOD_NS, FASTEST_PERIOD_NS}) {
+            ProgressListener listener = new ProgressListener();
+            ComplementaryRollFilter engine = new ComplementaryRollFilter(listener);
+            long duration = calibrate(engine, listener, periodNs, 0);
+            assertStillCalibration(engine, listener, duration);
+        }
+    }
+
+    private static void assertStillCalibration(ComplementaryRollFilter engine, ProgressListener listener, long duration) {
+        assertTrue(listener.complete);
+        assertEquals(1.0f, listener.lastProgress, 0.0f);
+        assertFalse(engine.isCalibrating());
+        assertTrue("took " + duration / 1_000_000 + " ms", duration < 1_000_000_000L);
+
+        float[] calibration = new float[FusionEngine.CALIBRATION_SIZE];
+        engine.getCalibration(calibration);
+        assertEquals(BIAS_X, calibration[0], 0.002);
+        assertEquals(BIAS_Y, calibration[1], 0.002);
+        assertEquals(BIAS_Z, calibration[2], 0.002);
+        assertEquals(MOUNT_ROLL_DEG, calibration[3], 0.1);
+    }
+
+    @Test
+    public void motion_restartsTheWindowInsteadOfSkewingTheBias() {
+        ProgressListener listener = new ProgressListener();
+        ComplementaryRollFilter engine = new ComplementaryRollFilter(listener);
+        long duration = calibrate(engine, listener, LIVE_PERIOD_NS, 150_000_000L);
+
+        assertTrue(listener.complete);
+        assertTrue(listener.wentBackToZero);
+        assertTrue(engine.getStillnessCalibration().getMotionCount() > 0);
+        assertTrue(duration > 250_000_000L); // Extended past the bump
+
+        float[] calibration = new float[FusionEngine.CALIBRATION_SIZE];
+        engine.getCalibration(calibration);
+        assertEquals(BIAS_X, calibration[0], 0.002); // The bump's 0.5 rad/s is not in the bias
+        assertEquals(MOUNT_ROLL_DEG, calibration[3], 0.1);
+    }
+}
@@ -0,0 +1,142 @@
+package com.gg.maiotproject.spatial;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Queries against an index of `points` track points: rides of 4000 points (about 40 minutes at a fix every 0.6 s)
+// started all over a 30 x 30 km area, so that rides overlap like the rides of one rider do.
+// Query locations are taken near indexed points, the case of a tap on a drawn track.
+// insertSegment measures indexing one more segment during a ride; the index grows with the iterations.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SegmentIndexBenchmark {
+
+    private static final int POINTS_PER_RIDE = 4000;
+    private static final int QUERY_COUNT = 1024;
+
+    @Param({"1000000", "4000000"})
+    public int points;
+
+    private File dir;
+    private SegmentIndex index;
+    private final double[] queryLats = new double[QUERY_COUNT];
+    private final double[] queryLons = new double[QUERY_COUNT];
+    private int query = 0;
+
+    // State of the ride being indexed by insertSegment
+    private final Random insertRandom = new Random(7);
+    private long insertRide = Long.MAX_VALUE / 2;
+    private int insertPoint = 0;
+    private double insertLat = 45.05, insertLon = 9.05, insertHeading = 0.0;
+
+    @Setup(Level.Trial)
+    public void buildIndex() throws IOException {
+        dir = Files.createTempDirectory("segments").toFile();
+        index = SegmentIndex.open(new File(dir, "segments.idx"));
+        Random random = new Random(42);
+        int rides = points / POINTS_PER_RIDE;
+        for (int ride = 0; ride < rides; ride++) {
+            double lat = 45.0 + random.nextDouble() * 0.27, lon = 9.0 + random.nextDouble() * 0.38;
+            double heading = random.nextDouble() * 2 * Math.PI;
+            for (int i = 0; i < POINTS_PER_RIDE; i++) {
+                heading += random.nextDouble() < 0.02 ? random.nextGaussian() : random.nextGaussian() * 0.05;
+                double step = (5 + random.nextDouble() * 10) / SegmentIndex.METERS_PER_DEGREE;
+                double nextLat = lat + Math.cos(heading) * step;
+                double nextLon = lon + Math.sin(heading) * step / Math.cos(Math.toRadians(lat));
+                if (i + 1 < POINTS_PER_RIDE) {
+                    index.insert(ride, i, lat, lon, nextLat, nextLon);
+                }
+                if (i == POINTS_PER_RIDE / 2 && ride < QUERY_COUNT) {
+                    queryLats[ride] = lat + random.nextGaussian() * 1e-4;
+                    queryLons[ride] = lon + random.nextGaussian() * 1e-4;
+                }
+                lat = nextLat;
+                lon = nextLon;
+            }
+        }
+        for (int i = rides; i < QUERY_COUNT; i++) {
+            queryLats[i] = queryLats[i % rides];
+            queryLons[i] = queryLons[i % rides];
+        }
+        index.flush();
+        System.out.println("points: " + points + ", cells: " + index.getCellCount() + ", records: " + index.getRecordCount()
+                + ", " + index.getSizeBytes() / (1024 * 1024) + " MB");
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteIndex() throws IOException {
+        index.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private int nextQuery() {
+        query = (query + 1) & (QUERY_COUNT - 1);
+        return query;
+    }
+
+    // The map's viewport at the riding zoom, about 300 x 300 m
+    @Benchmark
+    public long[] viewport() throws IOException {
+        int q = nextQuery();
+        return index.ridesInBox(queryLats[q] - 0.00135, queryLats[q] + 0.00135, queryLons[q] - 0.0019, queryLons[q] + 0.0019);
+    }
+
+    // "Rides through this corner"
+    @Benchmark
+    public long[] radius() throws IOException {
+        int q = nextQuery();
+        return index.ridesWithin(queryLats[q], queryLons[q], 30.0);
+    }
+
+    @Benchmark
+    public SegmentIndex.Nearest nearestAnyRide() throws IOException {
+        int q = nextQuery();
+        return index.nearest(queryLats[q], queryLons[q], SegmentIndex.ANY_RIDE, 500.0);
+    }
+
+    // "Closest point of this ride to the tap", the ride of the query location
+    @Benchmark
+    public SegmentIndex.Nearest nearestOnRide() throws IOException {
+        int q = nextQuery();
+        return index.nearest(queryLats[q], queryLons[q], q % (points / POINTS_PER_RIDE), 500.0);
+    }
+
+    @Benchmark
+    public void insertSegment(Blackhole blackhole) throws IOException {
+        insertHeading += insertRandom.nextGaussian() * 0.05;
+        double step = 10 / SegmentIndex.METERS_PER_DEGREE;
+        double nextLat = insertLat + Math.cos(insertHeading) * step;
+        double nextLon = insertLon + Math.sin(insertHeading) * step / Math.cos(Math.toRadians(insertLat));
+        blackhole.consume(index.insert(insertRide, insertPoint++, insertLat, insertLon, nextLat, nextLon));
+        insertLat = nextLat;
+        insertLon = nextLon;
+        if (insertPoint == POINTS_PER_RIDE) {
+            insertRide++;
+            insertPoint = 0;
+            insertLat = 45.05;
+            insertLon = 9.05;
+        }
+    }
+}
@@ -0,0 +1,676 @@
+package com.gg.maiotproject.spatial;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Spatial index of the segments (pairs of consecutive track points) of every recorded ride, on disk, to answer
+// "which rides went through here" and "closest point of a ride to this tap" without reading any track.
+// The world is cut into cells of CELL_E7 (0.01°, about 1.1 x 0.8 km at 45° of latitude) and each segment is stored
+// in every cell its bounding box touches. The segments of a cell are a chain of fixed-size pages of the data file,
+// appended to in place, so a ride is indexed segment by segment while it is recorded. The last page of the cells
+// written recently is kept in memory and written when full, evicted or flushed.
+// Only the directory (cell -> last page) is held in memory. flush() saves it next to the data file; a directory that
+// is missing (deleted by the first change after a flush, so after a crash too) or older than the data file is rebuilt
+// from the page headers.
+// Coordinates are stored as 1e-7 degree integers (about 1 cm). Queries do not handle the antimeridian.
+// Not synchronized, use from a single thread. Visitors must not call back into the index.
+public final class SegmentIndex implements Closeable {
+
+    public static final long ANY_RIDE = Long.MIN_VALUE;
+
+    private static final int MAGIC = 0x53454753;     // "SEGS"
+    private static final int DIR_MAGIC = 0x53454744; // "SEGD"
+    private static final int VERSION = 1;
+    private static final int PAGE_MAGIC = 0x50414745; // "PAGE", tells written pages from holes left by a crash
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private static final int CELL_E7 = 100_000;
+    // Segments spanning more cells than this are gaps in the recording (tunnel, GPS lost), not a path ridden
+    private static final int MAX_SEGMENT_CELLS = 3;
+    private static final int MAX_CACHED_TAILS = 64;
+    private static final int MAX_RINGS = 64; // Nearest segment search radius, in cells
+
+    // Page: int magic, int count, long cell, long previous page (-1 for the first page of the cell), 8 reserved bytes,
+    // then count records of long ride id, int point index and four int coordinates
+    static final int PAGE_BYTES = 4096;
+    private static final int PAGE_HEADER_BYTES = 32;
+    private static final int RECORD_BYTES = 28;
+    static final int RECORDS_PER_PAGE = (PAGE_BYTES - PAGE_HEADER_BYTES) / RECORD_BYTES;
+
+    static final double METERS_PER_DEGREE = 111_195.0;
+
+    // Receives the segments found by a query. pointIndex is the index of the segment's first point in its ride
+    public interface Visitor {
+        void visit(long rideId, int pointIndex, double lat1, double lon1, double lat2, double lon2);
+    }
+
+    // Closest point of the indexed segments to a location
+    public static final class Nearest {
+        public final long rideId;
+        public final int pointIndex;        // First point of the segment
+        public final double fraction;       // Position along the segment, 0 at pointIndex and 1 at the next point
+        public final double latitude;
+        public final double longitude;
+        public final double distanceMeters;
+
+        Nearest(long rideId, int pointIndex, double fraction, double latitude, double longitude, double distanceMeters) {
+            this.rideId = rideId;
+            this.pointIndex = pointIndex;
+            this.fraction = fraction;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.distanceMeters = distanceMeters;
+        }
+    }
+
+    private static final class Bucket {
+        final long cell;
+        long tailPage = -1;
+        int tailCount = 0;
+        ByteBuffer tail = null; // In memory copy of the last page, while cached
+        boolean tailDirty = false;
+
+        Bucket(long cell) {
+            this.cell = cell;
+        }
+    }
+
+    private final File dataFile;
+    private final File directoryFile;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final Map<Long, Bucket> buckets = new HashMap<>();
+    private final LinkedHashMap<Long, Bucket> cachedTails = new LinkedHashMap<>(16, 0.75f, true);
+    private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(PAGE_BYTES).order(ORDER);
+    private long dataLength;
+    private long recordCount = 0;
+    private boolean directorySaved;
+
+    // Statistics
+    private long insertedSegments = 0;
+    private long skippedSegments = 0;
+    private long pageReads = 0;
+
+    private SegmentIndex(File dataFile) throws IOException {
+        this.dataFile = dataFile;
+        this.directoryFile = new File(dataFile.getPath() + ".dir");
+        raf = new RandomAccessFile(dataFile, "rw");
+        channel = raf.getChannel();
+    }
+
+    // Opens the index, creating it when the file does not exist
+    public static SegmentIndex open(File dataFile) throws IOException {
+        SegmentIndex index = new SegmentIndex(dataFile);
+        try {
+            index.init();
+        } catch (IOException e) {
+            index.raf.close();
+            throw e;
+        }
+        return index;
+    }
+
+    private void init() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(12).order(ORDER);
+        if (channel.size() == 0) {
+            header.putInt(MAGIC).putInt(VERSION).putInt(PAGE_BYTES).flip();
+            writeFully(header, 0);
+            dataLength = PAGE_BYTES;
+            saveDirectory();
+            return;
+        }
+        readFully(header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getInt() != PAGE_BYTES) {
+            throw new IOException("Not a segment index or unsupported version: " + dataFile);
+        }
+        // A page cut short by a crash still occupies its whole slot
+        dataLength = (channel.size() + PAGE_BYTES - 1) / PAGE_BYTES * PAGE_BYTES;
+        if (!loadDirectory()) {
+            rebuildDirectory();
+        }
+    }
+
+    // Adds a segment of a ride. Returns false when it was left out as a gap in the recording
+    public boolean insert(long rideId, int pointIndex, double lat1, double lon1, double lat2, double lon2) throws IOException {
+        int aLat = toE7(lat1), aLon = toE7(lon1), bLat = toE7(lat2), bLon = toE7(lon2);
+        int latFrom = cellOf(Math.min(aLat, bLat)), latTo = cellOf(Math.max(aLat, bLat));
+        int lonFrom = cellOf(Math.min(aLon, bLon)), lonTo = cellOf(Math.max(aLon, bLon));
+        if (latTo - latFrom >= MAX_SEGMENT_CELLS || lonTo - lonFrom >= MAX_SEGMENT_CELLS) {
+            skippedSegments++;
+            return false;
+        }
+        if (directorySaved) {
+            // From now on the saved directory no longer matches the pages
+            if (directoryFile.exists() && !directoryFile.delete()) {
+                throw new IOException("Unable to delete " + directoryFile);
+            }
+            directorySaved = false;
+        }
+        for (int latCell = latFrom; latCell <= latTo; latCell++) {
+            for (int lonCell = lonFrom; lonCell <= lonTo; lonCell++) {
+                append(cellKey(latCell, lonCell), rideId, pointIndex, aLat, aLon, bLat, bLon);
+            }
+        }
+        insertedSegments++;
+        return true;
+    }
+
+    private void append(long cell, long rideId, int pointIndex, int lat1, int lon1, int lat2, int lon2) throws IOException {
+        Bucket bucket = buckets.get(cell);
+        if (bucket == null) {
+            bucket = new Bucket(cell);
+            buckets.put(cell, bucket);
+        }
+        if (bucket.tailPage < 0 || bucket.tailCount == RECORDS_PER_PAGE) {
+            startPage(bucket);
+        } else if (bucket.tail == null) {
+            bucket.tail = obtainBuffer();
+            readFully(bucket.tail, bucket.tailPage);
+            pageReads++;
+        }
+        cacheTail(bucket);
+
+        ByteBuffer tail = bucket.tail;
+        int at = PAGE_HEADER_BYTES + bucket.tailCount * RECORD_BYTES;
+        tail.putLong(at, rideId);
+        tail.putInt(at + 8, pointIndex);
+        tail.putInt(at + 12, lat1);
+        tail.putInt(at + 16, lon1);
+        tail.putInt(at + 20, lat2);
+        tail.putInt(at + 24, lon2);
+        bucket.tailCount++;
+        tail.putInt(4, bucket.tailCount);
+        bucket.tailDirty = true;
+        recordCount++;
+    }
+
+    // The cell's current last page is full (or there is none): it is written and a new one is started after it
+    private void startPage(Bucket bucket) throws IOException {
+        if (bucket.tail != null && bucket.tailDirty) {
+            writeTail(bucket);
+        }
+        ByteBuffer tail = bucket.tail != null ? bucket.tail : obtainBuffer();
+        tail.putInt(0, PAGE_MAGIC);
+        tail.putInt(4, 0);
+        tail.putLong(8, bucket.cell);
+        tail.putLong(16, bucket.tailPage);
+        tail.putLong(24, 0L);
+        bucket.tail = tail;
+        bucket.tailPage = dataLength;
+        bucket.tailCount = 0;
+        bucket.tailDirty = true;
+        dataLength += PAGE_BYTES;
+    }
+
+    private void cacheTail(Bucket bucket) throws IOException {
+        cachedTails.put(bucket.cell, bucket);
+        if (cachedTails.size() > MAX_CACHED_TAILS) {
+            Iterator<Bucket> eldest = cachedTails.values().iterator();
+            Bucket evicted = eldest.next();
+            eldest.remove();
+            if (evicted.tailDirty) {
+                writeTail(evicted);
+            }
+            freeBuffers.push(evicted.tail);
+            evicted.tail = null;
+        }
+    }
+
+    private void writeTail(Bucket bucket) throws IOException {
+        bucket.tail.clear();
+        writeFully(bucket.tail, bucket.tailPage);
+        bucket.tailDirty = false;
+    }
+
+    private ByteBuffer obtainBuffer() {
+        ByteBuffer buffer = freeBuffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocate(PAGE_BYTES).order(ORDER);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    // Writes the cached pages and the directory, to call once a ride is complete
+    public void flush() throws IOException {
+        for (Bucket bucket : cachedTails.values()) {
+            if (bucket.tailDirty) {
+                writeTail(bucket);
+            }
+        }
+        channel.force(false);
+        saveDirectory();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            raf.close();
+        }
+    }
+
+    // Visits each segment crossing the box once
+    public int queryBox(double latSouth, double latNorth, double lonWest, double lonEast, Visitor visitor) throws IOException {
+        int south = toE7(latSouth), north = toE7(latNorth), west = toE7(lonWest), east = toE7(lonEast);
+        if (south > north || west > east) {
+            return 0;
+        }
+        int latFrom = cellOf(south), latTo = cellOf(north), lonFrom = cellOf(west), lonTo = cellOf(east);
+        int visited = 0;
+        if ((long) (latTo - latFrom + 1) * (lonTo - lonFrom + 1) > buckets.size()) {
+            // Zoomed out: fewer cells in use than in the box
+            for (Bucket bucket : buckets.values()) {
+                int latCell = latCellOf(bucket.cell), lonCell = lonCellOf(bucket.cell);
+                if (latCell >= latFrom && latCell <= latTo && lonCell >= lonFrom && lonCell <= lonTo) {
+                    visited += scanBox(bucket, latCell, lonCell, south, north, west, east, visitor);
+                }
+            }
+        } else {
+            for (int latCell = latFrom; latCell <= latTo; latCell++) {
+                for (int lonCell = lonFrom; lonCell <= lonTo; lonCell++) {
+                    Bucket bucket = buckets.get(cellKey(latCell, lonCell));
+                    if (bucket != null) {
+                        visited += scanBox(bucket, latCell, lonCell, south, north, west, east, visitor);
+                    }
+                }
+            }
+        }
+        return visited;
+    }
+
+    private int scanBox(Bucket bucket, int latCell, int lonCell, int south, int north, int west, int east, Visitor visitor) throws IOException {
+        int visited = 0;
+        long page = bucket.tailPage;
+        int count = bucket.tailCount;
+        while (page >= 0) {
+            ByteBuffer buffer = page(bucket, page);
+            if (buffer == null) {
+                break;
+            }
+            if (page != bucket.tailPage) {
+                count = buffer.getInt(4);
+            }
+            for (int i = 0, at = PAGE_HEADER_BYTES; i < count; i++, at += RECORD_BYTES) {
+                int lat1 = buffer.getInt(at + 12), lon1 = buffer.getInt(at + 16);
+                int lat2 = buffer.getInt(at + 20), lon2 = buffer.getInt(at + 24);
+                int segSouth = Math.min(lat1, lat2), segNorth = Math.max(lat1, lat2);
+                int segWest = Math.min(lon1, lon2), segEast = Math.max(lon1, lon2);
+                if (segSouth > north || segNorth < south || segWest > east || segEast < west) {
+                    continue;
+                }
+                // A segment is stored in every cell it touches: it is reported from the cell holding the south-west
+                // corner of its overlap with the box only
+                if (cellOf(Math.max(segSouth, south)) != latCell || cellOf(Math.max(segWest, west)) != lonCell) {
+                    continue;
+                }
+                if (!crossesBox(lat1, lon1, lat2, lon2, south, north, west, east)) {
+                    continue;
+                }
+                visitor.visit(buffer.getLong(at), buffer.getInt(at + 8),
+                        lat1 / 1e7, lon1 / 1e7, lat2 / 1e7, lon2 / 1e7);
+                visited++;
+            }
+            page = buffer.getLong(16);
+        }
+        return visited;
+    }
+
+    // Visits each segment passing within the given distance of the location once
+    public int queryRadius(double latitude, double longitude, double meters, Visitor visitor) throws IOException {
+        double scale = Math.cos(Math.toRadians(latitude));
+        double dLat = meters / METERS_PER_DEGREE;
+        double dLon = dLat / Math.max(1e-6, scale);
+        int[] visited = {0};
+        queryBox(latitude - dLat, latitude + dLat, longitude - dLon, longitude + dLon, (rideId, pointIndex, lat1, lon1, lat2, lon2) -> {
+            double t = projection(latitude, longitude, scale, lat1, lon1, lat2, lon2);
+            if (distanceMeters(latitude, longitude, scale, lat1 + t * (lat2 - lat1), lon1 + t * (lon2 - lon1)) <= meters) {
+                visitor.visit(rideId, pointIndex, lat1, lon1, lat2, lon2);
+                visited[0]++;
+            }
+        });
+        return visited[0];
+    }
+
+    // Ids of the rides with a segment crossing the box, ascending
+    public long[] ridesInBox(double latSouth, double latNorth, double lonWest, double lonEast) throws IOException {
+        RideCollector rides = new RideCollector();
+        queryBox(latSouth, latNorth, lonWest, lonEast, rides);
+        return rides.distinct();
+    }
+
+    // Ids of the rides that passed within the given distance of the location, ascending
+    public long[] ridesWithin(double latitude, double longitude, double meters) throws IOException {
+        RideCollector rides = new RideCollector();
+        queryRadius(latitude, longitude, meters, rides);
+        return rides.distinct();
+    }
+
+    // Closest point of the segments of a ride (or of any ride) to the location, null when none is within maxMeters.
+    // Searches rings of cells outwards and stops once no unvisited cell can hold a closer segment
+    public Nearest nearest(double latitude, double longitude, long rideId, double maxMeters) throws IOException {
+        int latE7 = toE7(latitude), lonE7 = toE7(longitude);
+        int latCell = cellOf(latE7), lonCell = cellOf(lonE7);
+        double scale = Math.cos(Math.toRadians(latitude));
+        NearestSearch search = new NearestSearch(latitude, longitude, scale, rideId, maxMeters);
+        for (int ring = 0; ring <= MAX_RINGS; ring++) {
+            for (int dLat = -ring; dLat <= ring; dLat++) {
+                int step = Math.abs(dLat) == ring ? 1 : 2 * ring; // Whole rows at the top and bottom, the sides otherwise
+                for (int dLon = -ring; dLon <= ring; dLon += Math.max(1, step)) {
+                    Bucket bucket = buckets.get(cellKey(latCell + dLat, lonCell + dLon));
+                    if (bucket != null) {
+                        scanAll(bucket, search);
+                    }
+                }
+            }
+            // Cells further out are beyond the edges of the block of cells searched so far
+            long toEdgeLatE7 = Math.min(latE7 - (long) (latCell - ring) * CELL_E7, (long) (latCell + ring + 1) * CELL_E7 - latE7);
+            long toEdgeLonE7 = Math.min(lonE7 - (long) (lonCell - ring) * CELL_E7, (long) (lonCell + ring + 1) * CELL_E7 - lonE7);
+            double toEdge = Math.min(toEdgeLatE7, toEdgeLonE7 * scale) / 1e7 * METERS_PER_DEGREE;
+            if (search.bestDistance <= toEdge || toEdge > maxMeters) {
+                break;
+            }
+        }
+        return search.best;
+    }
+
+    private void scanAll(Bucket bucket, Visitor visitor) throws IOException {
+        long page = bucket.tailPage;
+        int count = bucket.tailCount;
+        while (page >= 0) {
+            ByteBuffer buffer = page(bucket, page);
+            if (buffer == null) {
+                break;
+            }
+            if (page != bucket.tailPage) {
+                count = buffer.getInt(4);
+            }
+            for (int i = 0, at = PAGE_HEADER_BYTES; i < count; i++, at += RECORD_BYTES) {
+                visitor.visit(buffer.getLong(at), buffer.getInt(at + 8), buffer.getInt(at + 12) / 1e7,
+                        buffer.getInt(at + 16) / 1e7, buffer.getInt(at + 20) / 1e7, buffer.getInt(at + 24) / 1e7);
+            }
+            page = buffer.getLong(16);
+        }
+    }
+
+    // The page's content, from memory for a cached last page. Null for a page that was never written
+    private ByteBuffer page(Bucket bucket, long page) throws IOException {
+        if (page == bucket.tailPage && bucket.tail != null) {
+            return bucket.tail;
+        }
+        readBuffer.clear();
+        readFully(readBuffer, page);
+        pageReads++;
+        return readBuffer.getInt(0) == PAGE_MAGIC ? readBuffer : null;
+    }
+
+    private static final class RideCollector implements Visitor {
+        private long[] ids = new long[16];
+        private int size = 0;
+
+        @Override
+        public void visit(long rideId, int pointIndex, double lat1, double lon1, double lat2, double lon2) {
+            if (size > 0 && ids[size - 1] == rideId) {
+                return; // Consecutive segments of the same ride
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = rideId;
+        }
+
+        long[] distinct() {
+            Arrays.sort(ids, 0, size);
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (count == 0 || ids[count - 1] != ids[i]) {
+                    ids[count++] = ids[i];
+                }
+            }
+            return Arrays.copyOf(ids, count);
+        }
+    }
+
+    private static final class NearestSearch implements Visitor {
+        private final double latitude, longitude, scale, maxMeters;
+        private final long rideId;
+        Nearest best = null;
+        double bestDistance = Double.POSITIVE_INFINITY;
+
+        NearestSearch(double latitude, double longitude, double scale, long rideId, double maxMeters) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.scale = scale;
+            this.rideId = rideId;
+            this.maxMeters = maxMeters;
+        }
+
+        @Override
+        public void visit(long rideId, int pointIndex, double lat1, double lon1, double lat2, double lon2) {
+            if (this.rideId != ANY_RIDE && this.rideId != rideId) {
+                return;
+            }
+            double t = projection(latitude, longitude, scale, lat1, lon1, lat2, lon2);
+            double lat = lat1 + t * (lat2 - lat1), lon = lon1 + t * (lon2 - lon1);
+            double distance = distanceMeters(latitude, longitude, scale, lat, lon);
+            if (distance < bestDistance && distance <= maxMeters) {
+                bestDistance = distance;
+                best = new Nearest(rideId, pointIndex, t, lat, lon, distance);
+            }
+        }
+    }
+
+    // Position (0..1) along the segment of its point closest to the location, on the plane tangent at the location
+    // (longitudes scaled by the cosine of the location's latitude): accurate to well under a meter at these distances
+    static double projection(double latitude, double longitude, double scale, double lat1, double lon1, double lat2, double lon2) {
+        double dx = (lon2 - lon1) * scale, dy = lat2 - lat1;
+        double length2 = dx * dx + dy * dy;
+        if (length2 == 0.0) {
+            return 0.0;
+        }
+        double t = ((longitude - lon1) * scale * dx + (latitude - lat1) * dy) / length2;
+        return Math.max(0.0, Math.min(1.0, t));
+    }
+
+    // Distance from the location to a point, on the same plane
+    static double distanceMeters(double latitude, double longitude, double scale, double lat, double lon) {
+        double dx = (lon - longitude) * scale;
+        double dy = lat - latitude;
+        return Math.sqrt(dx * dx + dy * dy) * METERS_PER_DEGREE;
+    }
+
+    // Whether the segment crosses the box (Liang-Barsky clipping)
+    private static boolean crossesBox(int lat1, int lon1, int lat2, int lon2, int south, int north, int west, int east) {
+        double dLon = (double) lon2 - lon1, dLat = (double) lat2 - lat1;
+        double t0 = 0.0, t1 = 1.0;
+        for (int edge = 0; edge < 4; edge++) {
+            double p, q;
+            switch (edge) {
+                case 0: p = -dLon; q = (double) lon1 - west; break;
+                case 1: p = dLon; q = (double) east - lon1; break;
+                case 2: p = -dLat; q = (double) lat1 - south; break;
+                default: p = dLat; q = (double) north - lat1; break;
+            }
+            if (p == 0.0) {
+                if (q < 0.0) {
+                    return false;
+                }
+            } else {
+                double r = q / p;
+                if (p < 0.0) {
+                    if (r > t1) {
+                        return false;
+                    }
+                    t0 = Math.max(t0, r);
+                } else {
+                    if (r < t0) {
+                        return false;
+                    }
+                    t1 = Math.min(t1, r);
+                }
+            }
+        }
+        return true;
+    }
+
+    static int toE7(double degrees) {
+        return (int) Math.round(degrees * 1e7);
+    }
+
+    private static int cellOf(int e7) {
+        return Math.floorDiv(e7, CELL_E7);
+    }
+
+    private static long cellKey(int latCell, int lonCell) {
+        return ((long) latCell << 32) | (lonCell & 0xFFFFFFFFL);
+    }
+
+    private static int latCellOf(long cell) {
+        return (int) (cell >> 32);
+    }
+
+    private static int lonCellOf(long cell) {
+        return (int) cell;
+    }
+
+    // Directory file: magic, version, data length, record count, cell count, then cell, last page and its count per cell
+    private void saveDirectory() throws IOException {
+        File tmp = new File(directoryFile.getPath() + ".tmp");
+        ByteBuffer buffer = ByteBuffer.allocate(28 + buckets.size() * 20).order(ORDER);
+        buffer.putInt(DIR_MAGIC).putInt(VERSION).putLong(dataLength).putLong(recordCount).putInt(buckets.size());
+        for (Bucket bucket : buckets.values()) {
+            buffer.putLong(bucket.cell).putLong(bucket.tailPage).putInt(bucket.tailCount);
+        }
+        buffer.flip();
+        try (RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+             FileChannel outChannel = out.getChannel()) {
+            outChannel.truncate(0);
+            while (buffer.hasRemaining()) {
+                outChannel.write(buffer);
+            }
+            outChannel.force(true);
+        }
+        if (!tmp.renameTo(directoryFile)) {
+            tmp.delete();
+            throw new IOException("Unable to rename " + tmp + " to " + directoryFile);
+        }
+        directorySaved = true;
+    }
+
+    private boolean loadDirectory() throws IOException {
+        if (!directoryFile.exists()) {
+            return false;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(directoryFile, "r");
+             FileChannel inChannel = in.getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) inChannel.size()).order(ORDER);
+            while (buffer.hasRemaining() && inChannel.read(buffer) >= 0) {
+                // Reads the whole file
+            }
+            buffer.flip();
+            if (buffer.remaining() < 28 || buffer.getInt() != DIR_MAGIC || buffer.getInt() != VERSION
+                    || buffer.getLong() != dataLength) {
+                return false;
+            }
+            long records = buffer.getLong();
+            int count = buffer.getInt();
+            if (buffer.remaining() < (long) count * 20) {
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                Bucket bucket = new Bucket(buffer.getLong());
+                bucket.tailPage = buffer.getLong();
+                bucket.tailCount = buffer.getInt();
+                buckets.put(bucket.cell, bucket);
+            }
+            recordCount = records;
+        }
+        directorySaved = true;
+        return true;
+    }
+
+    // Pages are appended in order, so the last valid page of a cell is the end of its chain
+    private void rebuildDirectory() throws IOException {
+        buckets.clear();
+        recordCount = 0;
+        ByteBuffer header = ByteBuffer.allocate(PAGE_HEADER_BYTES).order(ORDER);
+        for (long page = PAGE_BYTES; page < dataLength; page += PAGE_BYTES) {
+            header.clear();
+            readFully(header, page);
+            int count = header.getInt(4);
+            if (header.getInt(0) != PAGE_MAGIC || count <= 0 || count > RECORDS_PER_PAGE) {
+                continue;
+            }
+            long cell = header.getLong(8);
+            Bucket bucket = buckets.get(cell);
+            if (bucket == null) {
+                bucket = new Bucket(cell);
+                buckets.put(cell, bucket);
+            }
+            bucket.tailPage = page;
+            bucket.tailCount = count;
+            recordCount += count;
+        }
+        saveDirectory();
+    }
+
+    // Zero-filled past the end of the file
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                while (buffer.hasRemaining()) {
+                    buffer.put((byte) 0);
+                }
+                break;
+            }
+            position += read;
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    // Segments indexed since the index was opened, and the ones left out as gaps
+    public long getInsertedSegmentCount() {
+        return insertedSegments;
+    }
+
+    public long getSkippedSegmentCount() {
+        return skippedSegments;
+    }
+
+    // Segment records over all cells (a segment touching two cells counts twice)
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    public int getCellCount() {
+        return buckets.size();
+    }
+
+    public long getSizeBytes() {
+        return dataLength;
+    }
+
+    public long getPageReadCount() {
+        return pageReads;
+    }
+}
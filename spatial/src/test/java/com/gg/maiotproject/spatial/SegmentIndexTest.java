@@ -0,0 +1,159 @@
+package com.gg.maiotproject.spatial;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SegmentIndexTest {
+
+    private File file;
+
+    // Random walks around the same town, 5-15 m per fix, with a sharp turn now and then
+    private static List<double[]> rides(int rideCount, int pointsPerRide, long seed) {
+        Random random = new Random(seed);
+        List<double[]> rides = new ArrayList<>();
+        for (int r = 0; r < rideCount; r++) {
+            double[] points = new double[pointsPerRide * 2];
+            double lat = 45.0 + random.nextDouble() * 0.05, lon = 9.0 + random.nextDouble() * 0.07;
+            double heading = random.nextDouble() * 2 * Math.PI;
+            for (int i = 0; i < pointsPerRide; i++) {
+                points[2 * i] = lat;
+                points[2 * i + 1] = lon;
+                heading += random.nextDouble() < 0.02 ? random.nextGaussian() * 1.5 : random.nextGaussian() * 0.05;
+                double step = (5 + random.nextDouble() * 10) / SegmentIndex.METERS_PER_DEGREE;
+                lat += Math.cos(heading) * step;
+                lon += Math.sin(heading) * step / Math.cos(Math.toRadians(lat));
+            }
+            rides.add(points);
+        }
+        return rides;
+    }
+
+    private static void insertAll(SegmentIndex index, List<double[]> rides) throws IOException {
+        for (int r = 0; r < rides.size(); r++) {
+            double[] p = rides.get(r);
+            for (int i = 0; i + 3 < p.length; i += 2) {
+                index.insert(r, i / 2, p[i], p[i + 1], p[i + 2], p[i + 3]);
+            }
+        }
+    }
+
+    @Before
+    public void createFile() throws IOException {
+        file = new File(Files.createTempDirectory("segments").toFile(), "segments.idx");
+    }
+
+    @Test
+    public void queries_matchAScanOfEverySegment() throws IOException {
+        List<double[]> rides = rides(40, 1500, 1);
+        Random random = new Random(2);
+        try (SegmentIndex index = SegmentIndex.open(file)) {
+            insertAll(index, rides);
+            assertTrue(index.getPageReadCount() > 0); // Beyond the cached last pages
+
+            for (int q = 0; q < 50; q++) {
+                double lat = 45.0 + random.nextDouble() * 0.05, lon = 9.0 + random.nextDouble() * 0.07;
+                double meters = 20 + random.nextDouble() * 300;
+                double scale = Math.cos(Math.toRadians(lat));
+
+                Set<String> expected = new HashSet<>();
+                double best = Double.POSITIVE_INFINITY;
+                for (int r = 0; r < rides.size(); r++) {
+                    double[] p = rides.get(r);
+                    for (int i = 0; i + 3 < p.length; i += 2) {
+                        // Through the stored, rounded coordinates like the index
+                        double lat1 = SegmentIndex.toE7(p[i]) / 1e7, lon1 = SegmentIndex.toE7(p[i + 1]) / 1e7;
+                        double lat2 = SegmentIndex.toE7(p[i + 2]) / 1e7, lon2 = SegmentIndex.toE7(p[i + 3]) / 1e7;
+                        double t = SegmentIndex.projection(lat, lon, scale, lat1, lon1, lat2, lon2);
+                        double d = SegmentIndex.distanceMeters(lat, lon, scale, lat1 + t * (lat2 - lat1), lon1 + t * (lon2 - lon1));
+                        if (d <= meters) {
+                            expected.add(r + "/" + i / 2);
+                        }
+                        best = Math.min(best, d);
+                    }
+                }
+
+                List<String> found = new ArrayList<>();
+                index.queryRadius(lat, lon, meters, (rideId, pointIndex, lat1, lon1, lat2, lon2) -> found.add(rideId + "/" + pointIndex));
+                assertEquals(expected.size(), found.size()); // Each segment once, even when stored in several cells
+                assertEquals(expected, new HashSet<>(found));
+
+                SegmentIndex.Nearest nearest = index.nearest(lat, lon, SegmentIndex.ANY_RIDE, 5000);
+                assertNotNull(nearest);
+                assertEquals(best, nearest.distanceMeters, 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void nearest_onOneRideGivesThePointAlongTheSegment() throws IOException {
+        try (SegmentIndex index = SegmentIndex.open(file)) {
+            index.insert(7, 0, 45.0, 9.0, 45.0, 9.001);   // Heading east, about 79 m
+            index.insert(7, 1, 45.0, 9.001, 45.001, 9.001);
+            index.insert(8, 0, 45.0002, 9.0, 45.0002, 9.001);
+
+            SegmentIndex.Nearest nearest = index.nearest(44.9999, 9.00025, 7, 500);
+            assertEquals(7, nearest.rideId);
+            assertEquals(0, nearest.pointIndex);
+            assertEquals(0.25, nearest.fraction, 1e-6);
+            assertEquals(45.0, nearest.latitude, 1e-9);
+            assertEquals(11.1, nearest.distanceMeters, 0.1);
+
+            assertEquals(8, index.nearest(45.0003, 9.0005, SegmentIndex.ANY_RIDE, 500).rideId);
+            assertNull(index.nearest(45.1, 9.1, 7, 500));
+            assertArrayEquals(new long[]{7, 8}, index.ridesInBox(44.9, 45.1, 8.9, 9.1));
+            assertArrayEquals(new long[]{7}, index.ridesWithin(45.0005, 9.001, 5));
+        }
+    }
+
+    @Test
+    public void reopen_findsTheSameSegmentsWithOrWithoutAFlush() throws IOException {
+        List<double[]> rides = rides(10, 2000, 3);
+        SegmentIndex index = SegmentIndex.open(file);
+        insertAll(index, rides);
+        long[] expected = index.ridesInBox(45.0, 45.03, 9.0, 9.04);
+        long records = index.getRecordCount();
+        index.close();
+
+        try (SegmentIndex reopened = SegmentIndex.open(file)) {
+            assertEquals(records, reopened.getRecordCount());
+            assertArrayEquals(expected, reopened.ridesInBox(45.0, 45.03, 9.0, 9.04));
+            reopened.insert(99, 0, 46.0, 10.0, 46.0001, 10.0001);
+            assertFalse(new File(file.getPath() + ".dir").exists()); // Stale from the first change
+        }
+
+        // Without a directory (lost in a crash) it is rebuilt from the page headers
+        assertTrue(new File(file.getPath() + ".dir").delete());
+        try (SegmentIndex rebuilt = SegmentIndex.open(file)) {
+            assertEquals(records + 1, rebuilt.getRecordCount());
+            assertArrayEquals(new long[]{99}, rebuilt.ridesWithin(46.0, 10.0, 5));
+            assertArrayEquals(expected, rebuilt.ridesInBox(45.0, 45.03, 9.0, 9.04));
+        }
+    }
+
+    @Test
+    public void insert_leavesRecordingGapsOut() throws IOException {
+        try (SegmentIndex index = SegmentIndex.open(file)) {
+            assertFalse(index.insert(1, 0, 45.0, 9.0, 45.1, 9.1)); // About 13 km in one step
+            assertTrue(index.insert(1, 1, 45.1, 9.1, 45.1001, 9.1001));
+            assertEquals(1, index.getSkippedSegmentCount());
+            assertEquals(0, index.ridesInBox(45.04, 45.06, 9.04, 9.06).length);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void open_rejectsForeignFiles() throws IOException {
+        Files.write(file.toPath(), new byte[4096]);
+        SegmentIndex.open(file);
+    }
+}